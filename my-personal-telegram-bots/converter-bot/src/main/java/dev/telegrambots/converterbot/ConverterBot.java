@@ -5,7 +5,10 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import dev.telegrambots.shared.BotExecutors;
+import dev.telegrambots.shared.TelegramTransport;
 
 // Third-party libraries
 import org.json.JSONArray;
@@ -38,25 +41,26 @@ import org.slf4j.LoggerFactory;
  * @version 1.0
  * @since 2025-08-29
  */
-public class ConverterBot extends TelegramLongPollingBot {
+public final class ConverterBot extends TelegramLongPollingBot {
 
   private static final Logger logger = LoggerFactory.getLogger(ConverterBot.class);
+  private static final int MAX_PARALLEL_CONVERSIONS = 3;
   private final BotConfig config;
-  private final ExecutorService executor = Executors.newFixedThreadPool(3);
-
-  private static String getBotTokenFromConfig() {
-    try {
-      return java.util.ResourceBundle.getBundle("config").getString("bot.token");
-    } catch (Exception e) {
-      throw new RuntimeException("Failed to load bot token from config", e);
-    }
-  }
+  private final ExecutorService executor;
+  // Bounds concurrent ffmpeg processes; in virtual mode the executor itself is unbounded
+  private final Semaphore conversionSlots = new Semaphore(MAX_PARALLEL_CONVERSIONS, true);
 
   // Updated constructor for newer Telegram Bots API version (6.9.7.1)
   // Token is passed to superclass constructor, no deprecated method overrides needed
   public ConverterBot() {
-    super(getBotTokenFromConfig());
-    this.config = new BotConfig();
+    this(new BotConfig());
+  }
+
+  private ConverterBot(BotConfig config) {
+    super(TelegramTransport.createBotOptions(config), config.botToken);
+    this.config = config;
+    this.executor = BotExecutors.newTaskExecutor(config, MAX_PARALLEL_CONVERSIONS, "converter-job-");
+    TelegramTransport.install(this, config);
   }
 
   @Override
@@ -142,7 +146,13 @@ public class ConverterBot extends TelegramLongPollingBot {
         System.out.println("[bot] Start conversion: " + inputFile.getAbsolutePath());
         
         // Convert to mp4
-        java.io.File mp4File = convertToMp4(inputFile, fileName);
+        java.io.File mp4File;
+        conversionSlots.acquire();
+        try {
+          mp4File = convertToMp4(inputFile, fileName);
+        } finally {
+          conversionSlots.release();
+        }
         logger.info("Conversion finished: {}", mp4File.getAbsolutePath());
         
         // Send result back
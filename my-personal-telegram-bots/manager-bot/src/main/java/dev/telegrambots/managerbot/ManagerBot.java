@@ -1,5 +1,6 @@
 package dev.telegrambots.managerbot;
 
+import dev.telegrambots.shared.TelegramTransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
@@ -51,17 +52,15 @@ public class ManagerBot extends TelegramLongPollingBot {
         return thread;
     });
 
-    private static String getBotTokenFromConfig() {
-        try {
-            return java.util.ResourceBundle.getBundle("config").getString("bot.token");
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load bot token from config", e);
-        }
+    public ManagerBot() {
+        this(new BotConfig());
     }
 
-    public ManagerBot() {
-        super(getBotTokenFromConfig());
-        this.config = new BotConfig();
+    private ManagerBot(BotConfig config) {
+        super(TelegramTransport.createBotOptions(config), config.botToken);
+        this.config = config;
+        TelegramTransport.install(this, config);
+        ShellRunner.useVirtualThreads(config.virtualThreads);
     }
 
     public void notifyStartup() {
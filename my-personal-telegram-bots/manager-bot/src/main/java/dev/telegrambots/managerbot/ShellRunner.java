@@ -1,10 +1,13 @@
 package dev.telegrambots.managerbot;
 
+import dev.telegrambots.shared.BotExecutors;
+
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadFactory;
 import java.util.stream.Collectors;
 
 /**
@@ -15,6 +18,16 @@ public class ShellRunner {
 
     private static final String SHELL = "/data/data/com.termux/files/usr/bin/bash";
     private static final int BUILD_TIMEOUT_MINUTES = 10;
+    private static final String READER_THREAD_PREFIX = "shell-reader-";
+
+    private static volatile ThreadFactory readerThreads = BotExecutors.threadFactory(false, READER_THREAD_PREFIX);
+
+    /**
+     * Selects platform or virtual threads for the stdout/stderr readers of {@link #run}.
+     */
+    public static void useVirtualThreads(boolean virtualThreads) {
+        readerThreads = BotExecutors.threadFactory(virtualThreads, READER_THREAD_PREFIX);
+    }
 
     /**
      * Run a bash command in the given working directory.
@@ -33,7 +46,7 @@ public class ShellRunner {
             StringBuilder out = new StringBuilder();
             StringBuilder err = new StringBuilder();
 
-            Thread stdoutReader = new Thread(() -> {
+            Thread stdoutReader = readerThreads.newThread(() -> {
                 try (BufferedReader reader = new BufferedReader(
                         new InputStreamReader(process.getInputStream()))) {
                     String line;
@@ -42,7 +55,7 @@ public class ShellRunner {
                     }
                 } catch (Exception ignored) {}
             });
-            Thread stderrReader = new Thread(() -> {
+            Thread stderrReader = readerThreads.newThread(() -> {
                 try (BufferedReader reader = new BufferedReader(
                         new InputStreamReader(process.getErrorStream()))) {
                     String line;
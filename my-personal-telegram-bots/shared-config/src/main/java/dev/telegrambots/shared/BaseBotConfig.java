@@ -19,6 +19,68 @@ import java.util.ResourceBundle;
  */
 public abstract class BaseBotConfig {
 
+    public static final String BOT_API_BASE_URL_PROPERTY = "bot.api.base.url";
+    public static final String BOT_API_LOCAL_PROPERTY = "bot.api.local";
+    public static final String DEFAULT_BOT_API_BASE_URL = "https://api.telegram.org";
+
+    /** Upload limit of the public api.telegram.org endpoint */
+    public static final long PUBLIC_API_MAX_FILE_SIZE = 50 * 1024 * 1024L;
+
+    /** Upload limit of a self-hosted telegram-bot-api server started with --local */
+    public static final long LOCAL_API_MAX_FILE_SIZE = 2000 * 1024 * 1024L;
+
+    public static final String HTTP_POOL_SIZE_PROPERTY = "telegram.http.pool.size";
+    public static final String HTTP_CONNECT_TIMEOUT_PROPERTY = "telegram.http.connect.timeout.ms";
+    public static final String HTTP_READ_TIMEOUT_PROPERTY = "telegram.http.read.timeout.ms";
+    public static final String HTTP_UPLOAD_TIMEOUT_PROPERTY = "telegram.http.upload.timeout.ms";
+    public static final String LONG_POLL_TIMEOUT_PROPERTY = "telegram.getupdates.timeout.seconds";
+    public static final String LONG_POLL_LIMIT_PROPERTY = "telegram.getupdates.limit";
+    public static final String ALLOWED_UPDATES_PROPERTY = "telegram.allowed.updates";
+
+    public static final String EXECUTOR_MODE_PROPERTY = "executor.mode";
+    public static final String EXECUTOR_MODE_PLATFORM = "platform";
+    public static final String EXECUTOR_MODE_VIRTUAL = "virtual";
+
+    public static final int DEFAULT_HTTP_POOL_SIZE = 8;
+    public static final int DEFAULT_HTTP_CONNECT_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_HTTP_READ_TIMEOUT_MILLIS = 30_000;
+    public static final int DEFAULT_HTTP_UPLOAD_TIMEOUT_MILLIS = 300_000;
+    public static final int DEFAULT_LONG_POLL_TIMEOUT_SECONDS = 50;
+    public static final int DEFAULT_LONG_POLL_LIMIT = 100;
+
+    private static final String BOT_API_PATH_SUFFIX = "/bot";
+    private static final int MAX_LONG_POLL_LIMIT = 100;
+
+    /** Bot API endpoint prefix, the bot token and method name are appended to it */
+    public final String botApiBaseUrl;
+
+    /** True when the Bot API server runs in --local mode on this machine */
+    public final boolean botApiLocalMode;
+
+    /** Keep-alive connections to the Bot API host shared by all outgoing calls */
+    public final int httpPoolSize;
+
+    /** Connect and pool-lease timeout for every Bot API call */
+    public final int httpConnectTimeoutMillis;
+
+    /** Read timeout for regular calls such as texts, chat actions and callbacks */
+    public final int httpReadTimeoutMillis;
+
+    /** Read timeout for calls that transfer files: uploads and file downloads */
+    public final int httpUploadTimeoutMillis;
+
+    /** getUpdates long-poll timeout in seconds */
+    public final int longPollTimeoutSeconds;
+
+    /** Maximum number of updates per getUpdates call (1-100) */
+    public final int longPollLimit;
+
+    /** Update types to receive, e.g. message and callback_query; empty means every type */
+    public final java.util.List<String> allowedUpdates;
+
+    /** True when blocking work runs on virtual threads instead of fixed platform pools */
+    public final boolean virtualThreads;
+
     /** Maximum file size in bytes */
     public final long maxFileSize;
 
@@ -33,10 +95,36 @@ public abstract class BaseBotConfig {
      * Subclasses should call super() and then load their specific properties.
      */
     protected BaseBotConfig() {
-        this.config = loadConfig();
-        
-        // Common file limits
-        this.maxFileSize = getLongProperty("max.filesize", 50 * 1024 * 1024L);
+        this(loadConfig());
+    }
+
+    /**
+     * Constructor that reads configuration from an already loaded bundle.
+     *
+     * @param config Configuration bundle
+     */
+    protected BaseBotConfig(ResourceBundle config) {
+        this.config = config;
+
+        // Bot API endpoint: public cloud by default, self-hosted telegram-bot-api when configured
+        this.botApiBaseUrl = toBotApiEndpoint(getStringProperty(BOT_API_BASE_URL_PROPERTY, DEFAULT_BOT_API_BASE_URL));
+        this.botApiLocalMode = getBooleanProperty(BOT_API_LOCAL_PROPERTY, false);
+
+        // HTTP transport shared by all bots
+        this.httpPoolSize = Math.max(1, getIntProperty(HTTP_POOL_SIZE_PROPERTY, DEFAULT_HTTP_POOL_SIZE));
+        this.httpConnectTimeoutMillis = Math.max(1, getIntProperty(HTTP_CONNECT_TIMEOUT_PROPERTY, DEFAULT_HTTP_CONNECT_TIMEOUT_MILLIS));
+        this.httpReadTimeoutMillis = Math.max(1, getIntProperty(HTTP_READ_TIMEOUT_PROPERTY, DEFAULT_HTTP_READ_TIMEOUT_MILLIS));
+        this.httpUploadTimeoutMillis = Math.max(1, getIntProperty(HTTP_UPLOAD_TIMEOUT_PROPERTY, DEFAULT_HTTP_UPLOAD_TIMEOUT_MILLIS));
+        this.longPollTimeoutSeconds = Math.max(0, getIntProperty(LONG_POLL_TIMEOUT_PROPERTY, DEFAULT_LONG_POLL_TIMEOUT_SECONDS));
+        this.longPollLimit = Math.min(MAX_LONG_POLL_LIMIT, Math.max(1, getIntProperty(LONG_POLL_LIMIT_PROPERTY, DEFAULT_LONG_POLL_LIMIT)));
+        this.allowedUpdates = parseList(getStringProperty(ALLOWED_UPDATES_PROPERTY, ""));
+
+        // Thread model for blocking subprocess and HTTP work
+        this.virtualThreads = parseExecutorMode(getStringProperty(EXECUTOR_MODE_PROPERTY, EXECUTOR_MODE_PLATFORM));
+
+        // Common file limits; a local Bot API server lifts the 50 MB upload cap
+        this.maxFileSize = getLongProperty("max.filesize",
+                botApiLocalMode ? LOCAL_API_MAX_FILE_SIZE : PUBLIC_API_MAX_FILE_SIZE);
         this.maxDurationMinutes = getDoubleProperty("max.duration", 10.0);
         
         // NOTE: Validation is NOT called here - subclasses should call validateConfiguration()
@@ -59,6 +147,40 @@ public abstract class BaseBotConfig {
         return ResourceBundle.getBundle("config");
     }
 
+    /**
+     * Normalizes a configured server address to the endpoint prefix expected by the bots library,
+     * e.g. {@code http://127.0.0.1:8081} becomes {@code http://127.0.0.1:8081/bot}.
+     */
+    static String toBotApiEndpoint(String baseUrl) {
+        String endpoint = baseUrl.trim();
+        while (endpoint.endsWith("/")) {
+            endpoint = endpoint.substring(0, endpoint.length() - 1);
+        }
+        return endpoint.endsWith(BOT_API_PATH_SUFFIX) ? endpoint : endpoint + BOT_API_PATH_SUFFIX;
+    }
+
+    private static boolean parseExecutorMode(String raw) {
+        String mode = raw.trim().toLowerCase(java.util.Locale.ROOT);
+        if (EXECUTOR_MODE_VIRTUAL.equals(mode)) {
+            return true;
+        }
+        if (!mode.isEmpty() && !EXECUTOR_MODE_PLATFORM.equals(mode)) {
+            System.err.println("Invalid value for property '" + EXECUTOR_MODE_PROPERTY + "', using default: " + EXECUTOR_MODE_PLATFORM);
+        }
+        return false;
+    }
+
+    private static java.util.List<String> parseList(String raw) {
+        java.util.List<String> values = new java.util.ArrayList<>();
+        for (String part : raw.split(",")) {
+            String value = part.trim();
+            if (!value.isEmpty()) {
+                values.add(value);
+            }
+        }
+        return java.util.List.copyOf(values);
+    }
+
     private static ResourceBundle loadExternalConfig(Path externalConfig) {
         try (FileInputStream input = new FileInputStream(externalConfig.toFile())) {
             return new PropertyResourceBundle(input);
@@ -118,6 +240,26 @@ public abstract class BaseBotConfig {
         return config.containsKey(key) ? config.getString(key) : defaultValue;
     }
 
+    /**
+     * Gets a boolean property from configuration with default value.
+     *
+     * @param key Configuration property key
+     * @param defaultValue Default value if property not found or invalid
+     * @return Property value or default
+     */
+    protected boolean getBooleanProperty(String key, boolean defaultValue) {
+        if (config.containsKey(key)) {
+            String value = config.getString(key).trim();
+            if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                return Boolean.parseBoolean(value);
+            }
+            if (!value.isEmpty()) {
+                System.err.println("Invalid boolean value for property '" + key + "', using default: " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
     /**
      * Gets a long property from configuration with default value.
      *
@@ -0,0 +1,41 @@
+package dev.telegrambots.shared;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors and threads according to {@code executor.mode}.
+ *
+ * In platform mode (default) work runs on fixed pools of OS threads, as before. In virtual mode every task
+ * gets its own virtual thread, so a task blocked in {@code waitFor}, {@code readLine} or an HTTP call costs
+ * almost nothing; callers bound the real resources (subprocesses, uploads) with semaphores instead.
+ */
+public final class BotExecutors {
+
+    private BotExecutors() {
+    }
+
+    /**
+     * Executor for independent jobs: a fixed pool of {@code platformThreads} threads, or one virtual thread per task.
+     */
+    public static ExecutorService newTaskExecutor(BaseBotConfig config, int platformThreads, String namePrefix) {
+        if (config.virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(threadFactory(config, namePrefix));
+        }
+        return Executors.newFixedThreadPool(platformThreads, threadFactory(config, namePrefix));
+    }
+
+    /**
+     * Factory for helper threads such as progress tickers and stream readers.
+     */
+    public static ThreadFactory threadFactory(BaseBotConfig config, String namePrefix) {
+        return threadFactory(config.virtualThreads, namePrefix);
+    }
+
+    public static ThreadFactory threadFactory(boolean virtualThreads, String namePrefix) {
+        return virtualThreads
+                ? Thread.ofVirtual().name(namePrefix, 0).factory()
+                : Thread.ofPlatform().name(namePrefix, 0).factory();
+    }
+}
@@ -0,0 +1,187 @@
+package dev.telegrambots.shared;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.facilities.filedownloader.TelegramFileDownloader;
+import org.telegram.telegrambots.facilities.proxysocketfactorys.HttpConnectionSocketFactory;
+import org.telegram.telegrambots.facilities.proxysocketfactorys.HttpSSLConnectionSocketFactory;
+import org.telegram.telegrambots.facilities.proxysocketfactorys.SocksConnectionSocketFactory;
+import org.telegram.telegrambots.facilities.proxysocketfactorys.SocksSSLConnectionSocketFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the HTTP transport every bot uses to talk to the Bot API.
+ *
+ * The bots library hard-wires its client: two connections per host and one read timeout for every call,
+ * so a long upload and a short text compete for the same two sockets. {@link #install} swaps in a client
+ * with a configurable keep-alive pool and picks the read timeout per call type: file transfers get
+ * {@code httpUploadTimeoutMillis}, everything else {@code httpReadTimeoutMillis}.
+ *
+ * The library offers no way to hand a sender its client, so {@link #install} sets the sender's fields and
+ * carries the proxy of the sender's {@link DefaultBotOptions} over to the new client the way the library's
+ * own client builder does: proxy socket factories that read the address the sender puts in its context.
+ *
+ * Usage: pass {@link #createBotOptions} to the bot's super constructor, then call {@link #install}.
+ */
+public final class TelegramTransport {
+    private static final int CONNECTION_TIME_TO_LIVE_SECONDS = 70;
+    private static final int LONG_POLL_READ_MARGIN_SECONDS = 15;
+    private static final String FILE_DOWNLOAD_PATH = "/file/";
+    private static final Set<String> FILE_TRANSFER_METHODS = Set.of(
+            "sendaudio", "senddocument", "sendvideo", "sendanimation", "sendphoto", "sendvoice",
+            "sendvideonote", "sendmediagroup", "sendsticker", "uploadstickerfile", "setchatphoto"
+    );
+
+    private TelegramTransport() {
+    }
+
+    /**
+     * Bot options with the configured API endpoint, long-poll settings and update filter.
+     * The request config only governs the getUpdates session; its read timeout outlasts the long poll.
+     */
+    public static DefaultBotOptions createBotOptions(BaseBotConfig config) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        options.setBaseUrl(config.botApiBaseUrl);
+        options.setGetUpdatesTimeout(config.longPollTimeoutSeconds);
+        options.setGetUpdatesLimit(config.longPollLimit);
+        if (!config.allowedUpdates.isEmpty()) {
+            options.setAllowedUpdates(config.allowedUpdates);
+        }
+        int longPollReadTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(config.longPollTimeoutSeconds + LONG_POLL_READ_MARGIN_SECONDS);
+        options.setRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(config.httpConnectTimeoutMillis)
+                .setConnectionRequestTimeout(config.httpConnectTimeoutMillis)
+                .setSocketTimeout(Math.max(longPollReadTimeoutMillis, config.httpReadTimeoutMillis))
+                .build());
+        return options;
+    }
+
+    /**
+     * Replaces the sender's HTTP client (and the one used for file downloads) with the pooled client.
+     *
+     * @throws IllegalStateException if the bots library layout changed and the client cannot be replaced
+     */
+    public static void install(DefaultAbsSender sender, BaseBotConfig config) {
+        CloseableHttpClient client = createHttpClient(config, sender.getOptions().getProxyType());
+        try {
+            CloseableHttpClient previous = (CloseableHttpClient) replaceField(sender, "httpClient", client);
+            replaceField(sender, "telegramFileDownloader", new TelegramFileDownloader(client, sender::getBotToken));
+            previous.close();
+        } catch (ReflectiveOperationException | IOException e) {
+            throw new IllegalStateException("Failed to install Telegram HTTP transport", e);
+        }
+    }
+
+    /**
+     * Pooled keep-alive client that sets connect/read timeouts per call type.
+     */
+    public static CloseableHttpClient createHttpClient(BaseBotConfig config) {
+        return createHttpClient(config, DefaultBotOptions.ProxyType.NO_PROXY);
+    }
+
+    /**
+     * Pooled keep-alive client that connects through the given kind of proxy, as a sender with that proxy
+     * in its options expects.
+     */
+    public static CloseableHttpClient createHttpClient(BaseBotConfig config, DefaultBotOptions.ProxyType proxyType) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                socketFactories(proxyType), null, null, null, CONNECTION_TIME_TO_LIVE_SECONDS, TimeUnit.SECONDS);
+        // All calls go to the single Bot API host, so the per-route limit is the pool size
+        connectionManager.setMaxTotal(config.httpPoolSize);
+        connectionManager.setDefaultMaxPerRoute(config.httpPoolSize);
+        return HttpClientBuilder.create()
+                .setSSLHostnameVerifier(new NoopHostnameVerifier())
+                .setConnectionManager(connectionManager)
+                .addInterceptorFirst(new CallTimeoutInterceptor(config))
+                .build();
+    }
+
+    /**
+     * The socket factories the library's client builder registers for the proxy type; the proxy address
+     * itself travels in the sender's HTTP context.
+     */
+    private static Registry<ConnectionSocketFactory> socketFactories(DefaultBotOptions.ProxyType proxyType) {
+        RegistryBuilder<ConnectionSocketFactory> factories = RegistryBuilder.create();
+        switch (proxyType) {
+            case HTTP -> factories
+                    .register("http", new HttpConnectionSocketFactory())
+                    .register("https", new HttpSSLConnectionSocketFactory(SSLContexts.createSystemDefault()));
+            case SOCKS4, SOCKS5 -> factories
+                    .register("http", new SocksConnectionSocketFactory())
+                    .register("https", new SocksSSLConnectionSocketFactory(SSLContexts.createSystemDefault()));
+            default -> factories
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", SSLConnectionSocketFactory.getSocketFactory());
+        }
+        return factories.build();
+    }
+
+    static boolean isFileTransfer(String path) {
+        if (path == null) {
+            return false;
+        }
+        if (path.contains(FILE_DOWNLOAD_PATH)) {
+            return true;
+        }
+        String method = path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+        return FILE_TRANSFER_METHODS.contains(method);
+    }
+
+    private static Object replaceField(DefaultAbsSender sender, String name, Object value) throws ReflectiveOperationException {
+        Field field = DefaultAbsSender.class.getDeclaredField(name);
+        field.setAccessible(true);
+        Object previous = field.get(sender);
+        field.set(sender, value);
+        return previous;
+    }
+
+    /**
+     * Runs before the request is executed, so the connection lease, connect and socket timeouts
+     * all come from the config chosen here.
+     */
+    private static final class CallTimeoutInterceptor implements HttpRequestInterceptor {
+        private final RequestConfig textConfig;
+        private final RequestConfig fileTransferConfig;
+
+        private CallTimeoutInterceptor(BaseBotConfig config) {
+            this.textConfig = timeouts(config.httpConnectTimeoutMillis, config.httpReadTimeoutMillis);
+            this.fileTransferConfig = timeouts(config.httpConnectTimeoutMillis, config.httpUploadTimeoutMillis);
+        }
+
+        @Override
+        public void process(HttpRequest request, HttpContext context) {
+            String uri = request.getRequestLine().getUri();
+            int queryStart = uri.indexOf('?');
+            String path = queryStart >= 0 ? uri.substring(0, queryStart) : uri;
+            HttpClientContext.adapt(context).setRequestConfig(isFileTransfer(path) ? fileTransferConfig : textConfig);
+        }
+
+        private static RequestConfig timeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+            return RequestConfig.custom()
+                    .setConnectTimeout(connectTimeoutMillis)
+                    .setConnectionRequestTimeout(connectTimeoutMillis)
+                    .setSocketTimeout(readTimeoutMillis)
+                    .build();
+        }
+    }
+}
@@ -3,11 +3,15 @@ package dev.telegrambots.shared;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class BaseBotConfigTest {
 
@@ -29,4 +33,46 @@ class BaseBotConfigTest {
             System.setProperty("java.class.path", originalClassPath);
         }
     }
+
+    @Test
+    void defaultsToPublicBotApiWithFiftyMegabyteLimit() throws Exception {
+        TestConfig config = new TestConfig(bundle(""));
+
+        assertEquals("https://api.telegram.org/bot", config.botApiBaseUrl);
+        assertFalse(config.botApiLocalMode);
+        assertEquals(BaseBotConfig.PUBLIC_API_MAX_FILE_SIZE, config.maxFileSize);
+    }
+
+    @Test
+    void localBotApiRaisesDefaultFileLimit() throws Exception {
+        TestConfig config = new TestConfig(bundle("bot.api.base.url=http://127.0.0.1:8081/\nbot.api.local=true\n"));
+
+        assertEquals("http://127.0.0.1:8081/bot", config.botApiBaseUrl);
+        assertTrue(config.botApiLocalMode);
+        assertEquals(BaseBotConfig.LOCAL_API_MAX_FILE_SIZE, config.maxFileSize);
+    }
+
+    @Test
+    void explicitFileLimitWinsInLocalMode() throws Exception {
+        TestConfig config = new TestConfig(bundle("bot.api.local=true\nmax.filesize=1048576\n"));
+
+        assertEquals(1048576L, config.maxFileSize);
+    }
+
+    @Test
+    void executorModeDefaultsToPlatformThreads() throws Exception {
+        assertFalse(new TestConfig(bundle("")).virtualThreads);
+        assertFalse(new TestConfig(bundle("executor.mode=unknown\n")).virtualThreads);
+        assertTrue(new TestConfig(bundle("executor.mode=Virtual\n")).virtualThreads);
+    }
+
+    private static ResourceBundle bundle(String properties) throws Exception {
+        return new PropertyResourceBundle(new StringReader(properties));
+    }
+
+    private static final class TestConfig extends BaseBotConfig {
+        private TestConfig(ResourceBundle config) {
+            super(config);
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package dev.telegrambots.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.PropertyResourceBundle;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BotExecutorsTest {
+
+    @Test
+    void platformModeRunsTasksOnNamedPlatformThreads() throws Exception {
+        try (ExecutorService executor = BotExecutors.newTaskExecutor(config("executor.mode=platform\n"), 2, "job-")) {
+            Thread worker = executor.submit(Thread::currentThread).get();
+
+            assertFalse(worker.isVirtual());
+            assertTrue(worker.getName().startsWith("job-"));
+        }
+    }
+
+    @Test
+    void virtualModeRunsTasksOnVirtualThreads() throws Exception {
+        try (ExecutorService executor = BotExecutors.newTaskExecutor(config("executor.mode=virtual\n"), 2, "job-")) {
+            Thread worker = executor.submit(Thread::currentThread).get();
+
+            assertTrue(worker.isVirtual());
+            assertTrue(worker.getName().startsWith("job-"));
+        }
+    }
+
+    @Test
+    void threadFactoryFollowsMode() throws Exception {
+        assertTrue(BotExecutors.threadFactory(config("executor.mode=virtual\n"), "ticker-").newThread(() -> { }).isVirtual());
+        assertFalse(BotExecutors.threadFactory(config(""), "ticker-").newThread(() -> { }).isVirtual());
+    }
+
+    private static BaseBotConfig config(String properties) throws Exception {
+        ResourceBundle bundle = new PropertyResourceBundle(new StringReader(properties));
+        return new BaseBotConfig(bundle) { };
+    }
+}
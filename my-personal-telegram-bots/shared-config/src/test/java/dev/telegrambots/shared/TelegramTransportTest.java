@@ -0,0 +1,218 @@
+package dev.telegrambots.shared;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PropertyResourceBundle;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Exercises the transport against a stand-in Bot API server on localhost.
+ */
+class TelegramTransportTest {
+    private static final String TOKEN = "123456:TRANSPORT_TEST";
+    private static final String MESSAGE_RESULT = "{\"ok\":true,\"result\":{\"message_id\":1,\"date\":0,\"chat\":{\"id\":42,\"type\":\"private\"}}}";
+    private static final int PARALLEL_CALLS = 6;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long responseDelayMillis;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    void sequentialCallsReuseOneKeepAliveConnection() throws Exception {
+        DefaultAbsSender sender = installedSender(config(""));
+
+        for (int i = 0; i < 20; i++) {
+            sender.execute(message("ping " + i));
+        }
+
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    void pooledTransportRunsMoreParallelCallsThanLibraryDefault() throws Exception {
+        responseDelayMillis = 150;
+        ResourceBundle bundle = config("telegram.http.pool.size=" + PARALLEL_CALLS + "\n");
+
+        runParallelCalls(new DefaultAbsSender(TelegramTransport.createBotOptions(new TestConfig(bundle)), TOKEN) { });
+        int defaultMaxInFlight = maxInFlight.getAndSet(0);
+        runParallelCalls(installedSender(bundle));
+        int pooledMaxInFlight = maxInFlight.get();
+
+        assertTrue(defaultMaxInFlight <= 2, "library default allows two connections per host");
+        assertTrue(pooledMaxInFlight > 2, "pooled transport should use more than two connections");
+    }
+
+    @Test
+    void fileTransfersUseUploadReadTimeout() throws Exception {
+        responseDelayMillis = 600;
+        DefaultAbsSender sender = installedSender(config("telegram.http.read.timeout.ms=200\ntelegram.http.upload.timeout.ms=5000\n"));
+
+        assertThrows(TelegramApiException.class, () -> sender.execute(message("slow text")));
+
+        SendDocument document = new SendDocument();
+        document.setChatId("42");
+        document.setDocument(new InputFile(new ByteArrayInputStream("payload".getBytes(StandardCharsets.UTF_8)), "file.txt"));
+        assertDoesNotThrow(() -> sender.execute(document));
+    }
+
+    @Test
+    void installedClientKeepsTheProxyOfTheBotOptions() throws Exception {
+        try (ServerSocket proxy = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            proxy.setSoTimeout(5_000);
+            TestConfig config = new TestConfig(new PropertyResourceBundle(new StringReader(
+                    "bot.api.base.url=http://localhost:9\ntelegram.http.read.timeout.ms=1000\n")));
+            DefaultBotOptions options = TelegramTransport.createBotOptions(config);
+            options.setProxyType(DefaultBotOptions.ProxyType.HTTP);
+            options.setProxyHost("127.0.0.1");
+            options.setProxyPort(proxy.getLocalPort());
+            DefaultAbsSender sender = new DefaultAbsSender(options, TOKEN) { };
+            TelegramTransport.install(sender, config);
+            ExecutorService caller = Executors.newSingleThreadExecutor();
+            try {
+                caller.submit(() -> sender.execute(message("via proxy")));
+
+                try (Socket connection = proxy.accept()) {
+                    String requestLine = new BufferedReader(new InputStreamReader(
+                            connection.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+                    assertEquals("CONNECT localhost:9 HTTP/1.1", requestLine);
+                }
+            } finally {
+                caller.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    void botOptionsCarryLongPollSettingsAndUpdateFilter() throws Exception {
+        DefaultBotOptions options = TelegramTransport.createBotOptions(new TestConfig(config(
+                "telegram.getupdates.timeout.seconds=25\ntelegram.getupdates.limit=500\ntelegram.allowed.updates=message, callback_query\n")));
+
+        assertEquals(25, options.getGetUpdatesTimeout());
+        assertEquals(100, options.getGetUpdatesLimit());
+        assertEquals(List.of("message", "callback_query"), options.getAllowedUpdates());
+        assertTrue(options.getRequestConfig().getSocketTimeout() > 25_000, "long-poll read timeout must outlast the poll");
+    }
+
+    @Test
+    void recognizesFileTransferCalls() {
+        assertTrue(TelegramTransport.isFileTransfer("/bot" + TOKEN + "/sendaudio"));
+        assertTrue(TelegramTransport.isFileTransfer("/file/bot" + TOKEN + "/music/file_1.mp3"));
+        assertFalse(TelegramTransport.isFileTransfer("/bot" + TOKEN + "/sendmessage"));
+        assertFalse(TelegramTransport.isFileTransfer("/bot" + TOKEN + "/sendchataction"));
+    }
+
+    private void runParallelCalls(DefaultAbsSender sender) throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(PARALLEL_CALLS);
+        try {
+            List<Future<?>> calls = new ArrayList<>();
+            for (int i = 0; i < PARALLEL_CALLS; i++) {
+                int index = i;
+                calls.add(callers.submit(() -> sender.execute(message("parallel " + index))));
+            }
+            for (Future<?> call : calls) {
+                call.get();
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private DefaultAbsSender installedSender(ResourceBundle bundle) {
+        TestConfig config = new TestConfig(bundle);
+        DefaultAbsSender sender = new DefaultAbsSender(TelegramTransport.createBotOptions(config), TOKEN) { };
+        TelegramTransport.install(sender, config);
+        return sender;
+    }
+
+    private ResourceBundle config(String properties) throws IOException {
+        String base = "bot.api.base.url=http://127.0.0.1:" + server.getAddress().getPort() + "\n";
+        return new PropertyResourceBundle(new StringReader(base + properties));
+    }
+
+    private static SendMessage message(String text) {
+        SendMessage message = new SendMessage();
+        message.setChatId("42");
+        message.setText(text);
+        return message;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            exchange.getRequestBody().readAllBytes();
+            if (responseDelayMillis > 0) {
+                Thread.sleep(responseDelayMillis);
+            }
+            byte[] response = MESSAGE_RESULT.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(response);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static final class TestConfig extends BaseBotConfig {
+        private TestConfig(ResourceBundle config) {
+            super(config);
+        }
+    }
+}
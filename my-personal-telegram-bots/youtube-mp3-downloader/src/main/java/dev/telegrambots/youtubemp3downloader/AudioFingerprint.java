@@ -0,0 +1,119 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * What a track sounds like, in a couple of hundred bytes: its length, the pitch-class profile
+ * ({@code chroma}) of each of {@link #SEGMENTS} equal stretches of the audible part, and a 128-bit
+ * similarity hash of that profile.
+ *
+ * Each segment's profile is centred and scaled to unit length, so {@link #similarity} is the average
+ * cosine between corresponding segments: close to 1 for the same recording re-encoded, re-uploaded or
+ * played louder, around 0 for unrelated music. The hash is a random-hyperplane hash of the same vector,
+ * so two tracks differ in about {@code 128 * angle / pi} of its bits; {@link AudioFingerprintIndex}
+ * buckets tracks by slices of it to find candidates without comparing against every track.
+ */
+record AudioFingerprint(int durationMillis, long hashHigh, long hashLow, byte[] chroma) {
+    static final int SEGMENTS = 16;
+    static final int PITCH_CLASSES = 12;
+    static final int DIMENSIONS = SEGMENTS * PITCH_CLASSES;
+    static final int HASH_BITS = 128;
+
+    // Fixed seed: hashes are stored on disk and must come out the same in every run
+    private static final float[][] HYPERPLANES = hyperplanes(0x6D75736963L);
+
+    AudioFingerprint {
+        if (chroma.length != DIMENSIONS) {
+            throw new IllegalArgumentException("Expected " + DIMENSIONS + " chroma values, got " + chroma.length);
+        }
+    }
+
+    /**
+     * Fingerprint of per-segment pitch-class profiles, each already centred and of unit length (or all zero).
+     */
+    static AudioFingerprint of(int durationMillis, float[] segments) {
+        byte[] chroma = new byte[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            chroma[i] = (byte) Math.round(Math.max(-1f, Math.min(1f, segments[i])) * 127f);
+        }
+        long high = 0;
+        long low = 0;
+        for (int bit = 0; bit < HASH_BITS; bit++) {
+            float[] plane = HYPERPLANES[bit];
+            float dot = 0;
+            for (int i = 0; i < DIMENSIONS; i++) {
+                dot += plane[i] * chroma[i];
+            }
+            if (dot >= 0) {
+                if (bit < 64) {
+                    high |= 1L << bit;
+                } else {
+                    low |= 1L << (bit - 64);
+                }
+            }
+        }
+        return new AudioFingerprint(durationMillis, high, low, chroma);
+    }
+
+    /**
+     * Average cosine of the segment profiles, from -1 to 1.
+     */
+    double similarity(AudioFingerprint other) {
+        long dot = 0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            dot += chroma[i] * other.chroma[i];
+        }
+        return dot / (127.0 * 127.0 * SEGMENTS);
+    }
+
+    /**
+     * Number of hash bits that differ, a cheap estimate of the angle between the two profiles.
+     */
+    int hashDistance(AudioFingerprint other) {
+        return Long.bitCount(hashHigh ^ other.hashHigh) + Long.bitCount(hashLow ^ other.hashLow);
+    }
+
+    /**
+     * {@code width} hash bits starting at {@code start}, counting {@link #hashHigh} first.
+     */
+    int hashBits(int start, int width) {
+        long bits;
+        if (start >= 64) {
+            bits = hashLow >>> (start - 64);
+        } else {
+            bits = hashHigh >>> start;
+            if (start + width > 64) {
+                bits |= hashLow << (64 - start);
+            }
+        }
+        return (int) (bits & ((1L << width) - 1));
+    }
+
+    private static float[][] hyperplanes(long seed) {
+        Random random = new Random(seed);
+        float[][] planes = new float[HASH_BITS][DIMENSIONS];
+        for (float[] plane : planes) {
+            for (int i = 0; i < DIMENSIONS; i++) {
+                plane[i] = (float) random.nextGaussian();
+            }
+        }
+        return planes;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof AudioFingerprint that && durationMillis == that.durationMillis
+                && hashHigh == that.hashHigh && hashLow == that.hashLow && Arrays.equals(chroma, that.chroma);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(hashHigh ^ hashLow) + Arrays.hashCode(chroma);
+    }
+
+    @Override
+    public String toString() {
+        return "AudioFingerprint[durationMillis=" + durationMillis + ", hash=" + Long.toHexString(hashHigh) + Long.toHexString(hashLow) + "]";
+    }
+}
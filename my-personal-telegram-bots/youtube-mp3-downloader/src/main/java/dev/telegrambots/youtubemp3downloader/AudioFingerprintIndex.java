@@ -0,0 +1,438 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Optional content index next to the music TSV ({@code <tsv>.fingerprints}): one {@link AudioFingerprint}
+ * per track, so a download can be recognised by how it sounds when its title says nothing, e.g. a
+ * re-upload under another name.
+ *
+ * The file is an append-only sequence of binary records, the last record for a path winning, and is
+ * loaded on first use. A lookup does not compare against every track: the 128 hash bits are cut into
+ * {@link #BANDS} slices of {@link #BAND_BITS}, and each slice value keys a bucket per band (locality-sensitive
+ * hashing). Recordings that sound alike share most hash bits, so at least one slice almost always agrees
+ * and they meet in a bucket, while unrelated tracks land in the same bucket with probability 2^-12 per
+ * band. Only bucket mates are checked: first by hash distance, then by duration, then by the full profile.
+ * On 100k tracks that is a few hundred candidates per lookup.
+ *
+ * A crash mid-append leaves a record cut short at the end. Loading stops before it, and the first append
+ * afterwards cuts the file back to the last complete record, so new records never follow the torn bytes.
+ *
+ * Another process may replace the file (the CLI writes it to a temporary sibling and moves it into
+ * place); the index notices by the file state on the next call and loads it again.
+ */
+final class AudioFingerprintIndex {
+    static final String SUFFIX = ".fingerprints";
+    static final int BANDS = 10;
+    static final int BAND_BITS = 12;
+    // Average segment cosine from which two tracks are taken for the same recording
+    static final double MATCH_SIMILARITY = 0.9;
+    // Candidates differing in more hash bits than this cannot reach MATCH_SIMILARITY, give or take noise
+    private static final int MAX_HASH_DISTANCE = 40;
+    // Re-uploads often add or drop an intro, remixes usually change the length far more
+    private static final double MAX_DURATION_RATIO = 0.1;
+    private static final int MIN_DURATION_SLACK_MILLIS = 5_000;
+    private static final int MAGIC = 0x4D444650; // "MDFP"
+    private static final int VERSION = 1;
+    private static final int PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final Logger logger = LoggerFactory.getLogger(AudioFingerprintIndex.class);
+
+    private final Path path;
+    private IndexFileState loadedState;
+    // Length of the header and the complete records loaded; a longer file ends in a torn record
+    private long validBytes;
+    private boolean loaded;
+    private final List<Track> tracks = new ArrayList<>();
+    private final Map<String, Integer> idByPath = new HashMap<>();
+    private final int[][][] buckets = new int[BANDS][1 << BAND_BITS][];
+    private final int[][] bucketSizes = new int[BANDS][1 << BAND_BITS];
+    // Stamp per track so a lookup visits each candidate once however many bands it shares
+    private int[] visited = new int[0];
+    private int visitStamp;
+
+    AudioFingerprintIndex(Path path) {
+        this.path = path;
+    }
+
+    static Path pathFor(Path indexPath) {
+        return Path.of(indexPath.toString() + SUFFIX);
+    }
+
+    /**
+     * The best-matching track that {@code live} accepts, or empty when nothing sounds like it.
+     */
+    synchronized Optional<Match> find(AudioFingerprint fingerprint, Predicate<String> live) throws IOException {
+        refresh();
+        if (++visitStamp == 0) {
+            Arrays.fill(visited, 0);
+            visitStamp = 1;
+        }
+        Track best = null;
+        double bestSimilarity = MATCH_SIMILARITY;
+        for (int band = 0; band < BANDS; band++) {
+            int bucket = fingerprint.hashBits(band * BAND_BITS, BAND_BITS);
+            int[] ids = buckets[band][bucket];
+            for (int i = 0; i < bucketSizes[band][bucket]; i++) {
+                int id = ids[i];
+                if (visited[id] == visitStamp) {
+                    continue;
+                }
+                visited[id] = visitStamp;
+                Track track = tracks.get(id);
+                if (track == null || fingerprint.hashDistance(track.fingerprint()) > MAX_HASH_DISTANCE
+                        || !similarDuration(fingerprint, track.fingerprint())) {
+                    continue;
+                }
+                double similarity = fingerprint.similarity(track.fingerprint());
+                if (similarity >= bestSimilarity && (best == null || similarity > bestSimilarity) && live.test(track.path())) {
+                    best = track;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        return best == null ? Optional.empty() : Optional.of(new Match(best.path(), bestSimilarity));
+    }
+
+    /**
+     * Records the fingerprint of an audio file, replacing an earlier one for the same path.
+     */
+    synchronized void add(Path audioFile, AudioFingerprint fingerprint) throws IOException {
+        refresh();
+        String key = audioFile.toAbsolutePath().toString();
+        Integer existing = idByPath.get(key);
+        if (existing != null && tracks.get(existing).fingerprint().equals(fingerprint)) {
+            return;
+        }
+        append(List.of(Track.of(audioFile, key, fingerprint)));
+    }
+
+    /**
+     * Records the fingerprints of moved files again under their new paths, in one append. The records
+     * for the old paths stay, but lookups only accept paths the music index still has.
+     *
+     * @return how many fingerprints moved
+     */
+    synchronized int rename(Map<Path, Path> renames) throws IOException {
+        refresh();
+        List<Track> moved = new ArrayList<>();
+        for (Map.Entry<Path, Path> rename : renames.entrySet()) {
+            Integer id = idByPath.get(rename.getKey().toAbsolutePath().toString());
+            if (id != null) {
+                Track track = tracks.get(id);
+                moved.add(new Track(rename.getValue().toAbsolutePath().toString(), track.size(), track.modifiedMillis(), track.fingerprint()));
+            }
+        }
+        if (!moved.isEmpty()) {
+            append(moved);
+        }
+        return moved.size();
+    }
+
+    private void append(List<Track> records) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        IndexFileState before = IndexFileState.read(path);
+        boolean unchanged = before == null ? loadedState == null : before.equals(loadedState);
+        if (unchanged && before != null && before.size() > validBytes) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+            logger.warn("Dropped a torn record of {} bytes at the end of {}", before.size() - validBytes, path);
+            before = IndexFileState.read(path);
+        }
+        long offset = unchanged ? validBytes : before == null ? 0 : before.size();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (offset == 0) {
+                writeHeader(out);
+            }
+            for (Track track : records) {
+                track.writeTo(out);
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(bytes.toByteArray());
+        }
+        for (Track track : records) {
+            put(track);
+        }
+        // Our own append keeps the loaded records valid; anything else in between means a reload
+        if (unchanged) {
+            validBytes = offset + bytes.size();
+            loadedState = IndexFileState.read(path);
+        } else {
+            loadedState = null;
+        }
+    }
+
+    synchronized int size() throws IOException {
+        refresh();
+        return idByPath.size();
+    }
+
+    /**
+     * Fingerprints the entries' files in parallel into a fresh {@code output}, taking records of files
+     * whose size and modification time did not change from the file already there.
+     */
+    static BuildResult build(List<MusicDuplicateIndex.Entry> entries, Path output, AudioFingerprinter fingerprinter) throws IOException {
+        Map<String, Track> previous = new HashMap<>();
+        try {
+            for (Track track : read(output).tracks()) {
+                previous.put(track.path(), track);
+            }
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable audio fingerprints {}: {}", output, e.getMessage());
+        }
+        AtomicInteger reused = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        List<Track> tracks;
+        try {
+            tracks = pool.submit(() -> entries.parallelStream()
+                    .map(MusicDuplicateIndex.Entry::path)
+                    .distinct()
+                    .map(file -> {
+                        try {
+                            Path audioFile = Path.of(file);
+                            BasicFileAttributes attributes = Files.readAttributes(audioFile, BasicFileAttributes.class);
+                            Track known = previous.get(file);
+                            if (known != null && known.size() == attributes.size()
+                                    && known.modifiedMillis() == attributes.lastModifiedTime().toMillis()) {
+                                reused.incrementAndGet();
+                                return known;
+                            }
+                            AudioFingerprint fingerprint = fingerprinter.fingerprint(audioFile);
+                            return fingerprint == null ? null : Track.of(audioFile, file, fingerprint);
+                        } catch (IOException e) {
+                            failed.incrementAndGet();
+                            logger.warn("Could not fingerprint {}: {}", file, e.getMessage());
+                            return null;
+                        }
+                    })
+                    .filter(Objects::nonNull)
+                    .toList()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fingerprinting", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Fingerprinting failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        Path parent = output.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, output.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                writeHeader(out);
+                for (Track track : tracks) {
+                    track.writeTo(out);
+                }
+            }
+            Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return new BuildResult(tracks.size(), reused.get(), failed.get());
+    }
+
+    /**
+     * Loads the file again when it is not the one we loaded or last appended to.
+     */
+    private void refresh() throws IOException {
+        IndexFileState state = IndexFileState.read(path);
+        if (loaded && (state == null ? loadedState == null : state.equals(loadedState))) {
+            return;
+        }
+        tracks.clear();
+        idByPath.clear();
+        for (int[] sizes : bucketSizes) {
+            Arrays.fill(sizes, 0);
+        }
+        Contents contents = read(path);
+        for (Track track : contents.tracks()) {
+            put(track);
+        }
+        validBytes = contents.validBytes();
+        loaded = true;
+        loadedState = state;
+        if (state != null) {
+            logger.info("Loaded audio fingerprints: {} tracks from {}", idByPath.size(), path);
+        }
+    }
+
+    private void put(Track track) {
+        Integer replaced = idByPath.put(track.path(), tracks.size());
+        if (replaced != null) {
+            // Stays in its buckets; lookups skip the hole
+            tracks.set(replaced, null);
+        }
+        int id = tracks.size();
+        tracks.add(track);
+        if (visited.length <= id) {
+            visited = Arrays.copyOf(visited, Math.max(16, visited.length * 2));
+        }
+        for (int band = 0; band < BANDS; band++) {
+            int bucket = track.fingerprint().hashBits(band * BAND_BITS, BAND_BITS);
+            int[] ids = buckets[band][bucket];
+            int size = bucketSizes[band][bucket];
+            if (ids == null || ids.length == size) {
+                ids = ids == null ? new int[4] : Arrays.copyOf(ids, size * 2);
+                buckets[band][bucket] = ids;
+            }
+            ids[size] = id;
+            bucketSizes[band][bucket] = size + 1;
+        }
+    }
+
+    private static boolean similarDuration(AudioFingerprint a, AudioFingerprint b) {
+        int slack = Math.max(MIN_DURATION_SLACK_MILLIS, (int) (Math.max(a.durationMillis(), b.durationMillis()) * MAX_DURATION_RATIO));
+        return Math.abs(a.durationMillis() - b.durationMillis()) <= slack;
+    }
+
+    /**
+     * Every record in the file in order, and where the last complete one ends; a record cut short at the
+     * end (a crash mid-append) is dropped.
+     */
+    private static Contents read(Path file) throws IOException {
+        List<Track> tracks = new ArrayList<>();
+        long validBytes;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an audio fingerprint file: " + file);
+            }
+            validBytes = counter.count;
+            while (true) {
+                Track track;
+                try {
+                    track = Track.readFrom(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                tracks.add(track);
+                validBytes = counter.count;
+            }
+        } catch (NoSuchFileException e) {
+            return new Contents(List.of(), 0);
+        } catch (EOFException e) {
+            // Not even a complete header: nothing was recorded yet
+            return new Contents(List.of(), 0);
+        }
+        return new Contents(tracks, validBytes);
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    record Match(String path, double similarity) {
+    }
+
+    private record Contents(List<Track> tracks, long validBytes) {
+    }
+
+    /**
+     * Counts the bytes read through it, so {@link #read} knows where each record ends.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    record BuildResult(int tracks, int reused, int failed) {
+    }
+
+    /**
+     * One record: the file's path, size and modification time when it was fingerprinted, and the fingerprint.
+     */
+    private record Track(String path, long size, long modifiedMillis, AudioFingerprint fingerprint) {
+        static Track of(Path audioFile, String path, AudioFingerprint fingerprint) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(audioFile, BasicFileAttributes.class);
+            return new Track(path, attributes.size(), attributes.lastModifiedTime().toMillis(), fingerprint);
+        }
+
+        static Track readFrom(DataInputStream in) throws IOException {
+            String path = in.readUTF();
+            long size = in.readLong();
+            long modifiedMillis = in.readLong();
+            int durationMillis = in.readInt();
+            long hashHigh = in.readLong();
+            long hashLow = in.readLong();
+            byte[] chroma = new byte[AudioFingerprint.DIMENSIONS];
+            in.readFully(chroma);
+            return new Track(path, size, modifiedMillis, new AudioFingerprint(durationMillis, hashHigh, hashLow, chroma));
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(modifiedMillis);
+            out.writeInt(fingerprint.durationMillis());
+            out.writeLong(fingerprint.hashHigh());
+            out.writeLong(fingerprint.hashLow());
+            out.write(fingerprint.chroma());
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes {@link AudioFingerprint}s. ffmpeg decodes the track to 16-bit mono PCM at {@link #SAMPLE_RATE};
+ * everything after that happens here, streaming, so memory stays flat however long the track is.
+ *
+ * The PCM is cut into Hann-windowed frames of {@link #FRAME_SIZE} samples, each frame's spectrum between
+ * {@link #MIN_FREQUENCY} and {@link #MAX_FREQUENCY} is folded onto the twelve pitch classes, and the frames
+ * of the audible part (leading and trailing silence dropped) are averaged per segment. Pitch classes keep
+ * what makes a song recognisable while ignoring the encoder, the volume and most of the mix, which is
+ * exactly what differs between two uploads of the same recording.
+ */
+final class AudioFingerprinter {
+    static final int SAMPLE_RATE = 11_025;
+    static final int FRAME_SIZE = 4_096;
+    private static final int HOP_SIZE = FRAME_SIZE / 2;
+    private static final double MIN_FREQUENCY = 110;
+    private static final double MAX_FREQUENCY = 3_520;
+    // Only the first quarter of an hour is decoded; longer mixes are told apart well before that
+    private static final int MAX_SECONDS = 15 * 60;
+    // Frames quieter than this share of the loudest frame count as silence
+    private static final double SILENCE_RATIO = 0.02;
+
+    private static final int[] PITCH_CLASS_OF_BIN = pitchClassOfBin();
+    private static final double[] WINDOW = hannWindow();
+
+    private final String ffmpegPath;
+
+    AudioFingerprinter(String ffmpegPath) {
+        this.ffmpegPath = ffmpegPath;
+    }
+
+    /**
+     * Decodes the file with ffmpeg and fingerprints it.
+     *
+     * @return the fingerprint, or null when the audio is too short or silent to tell anything apart
+     * @throws IOException when ffmpeg cannot be started or fails to decode the file
+     */
+    AudioFingerprint fingerprint(Path audioFile) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(
+                ffmpegPath,
+                "-v", "error",
+                "-nostdin",
+                "-i", audioFile.toAbsolutePath().toString(),
+                "-map", "0:a:0",
+                "-t", Integer.toString(MAX_SECONDS),
+                "-ac", "1",
+                "-ar", Integer.toString(SAMPLE_RATE),
+                "-f", "s16le",
+                "-"
+        );
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process process = builder.start();
+        try {
+            AudioFingerprint fingerprint;
+            try (InputStream pcm = process.getInputStream()) {
+                fingerprint = fromPcm(pcm);
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("ffmpeg could not decode " + audioFile + " (exit code " + exitCode + ")");
+            }
+            return fingerprint;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding " + audioFile, e);
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Fingerprints 16-bit little-endian mono PCM at {@link #SAMPLE_RATE}.
+     *
+     * @return the fingerprint, or null when the audio is too short or silent to tell anything apart
+     */
+    static AudioFingerprint fromPcm(InputStream pcm) throws IOException {
+        InputStream in = pcm instanceof BufferedInputStream ? pcm : new BufferedInputStream(pcm, 1 << 16);
+        double[] window = new double[FRAME_SIZE];
+        double[] real = new double[FRAME_SIZE];
+        double[] imaginary = new double[FRAME_SIZE];
+        List<float[]> frames = new ArrayList<>();
+        List<Double> energies = new ArrayList<>();
+        byte[] bytes = new byte[HOP_SIZE * 2];
+        long samples = 0;
+        int filled = 0;
+        while (true) {
+            int read = in.readNBytes(bytes, 0, bytes.length);
+            int count = read / 2;
+            if (count == 0) {
+                break;
+            }
+            // Slide the window by one hop and append the new samples
+            System.arraycopy(window, HOP_SIZE, window, 0, FRAME_SIZE - HOP_SIZE);
+            for (int i = 0; i < HOP_SIZE; i++) {
+                window[FRAME_SIZE - HOP_SIZE + i] = i < count
+                        ? (short) ((bytes[2 * i] & 0xFF) | (bytes[2 * i + 1] << 8)) / 32768.0
+                        : 0;
+            }
+            samples += count;
+            filled = Math.min(FRAME_SIZE, filled + HOP_SIZE);
+            if (filled == FRAME_SIZE) {
+                double energy = 0;
+                for (int i = 0; i < FRAME_SIZE; i++) {
+                    real[i] = window[i] * WINDOW[i];
+                    imaginary[i] = 0;
+                    energy += window[i] * window[i];
+                }
+                frames.add(chroma(real, imaginary));
+                energies.add(energy);
+            }
+            if (read < bytes.length) {
+                break;
+            }
+        }
+        return summarize(frames, energies, (int) (samples * 1000 / SAMPLE_RATE));
+    }
+
+    /**
+     * Pitch-class energies of one windowed frame, scaled so the strongest class is 1.
+     */
+    private static float[] chroma(double[] real, double[] imaginary) {
+        fft(real, imaginary);
+        float[] chroma = new float[AudioFingerprint.PITCH_CLASSES];
+        for (int bin = 0; bin < PITCH_CLASS_OF_BIN.length; bin++) {
+            int pitchClass = PITCH_CLASS_OF_BIN[bin];
+            if (pitchClass >= 0) {
+                chroma[pitchClass] += (float) Math.sqrt(real[bin] * real[bin] + imaginary[bin] * imaginary[bin]);
+            }
+        }
+        float max = 0;
+        for (float value : chroma) {
+            max = Math.max(max, value);
+        }
+        if (max > 0) {
+            for (int i = 0; i < chroma.length; i++) {
+                chroma[i] /= max;
+            }
+        }
+        return chroma;
+    }
+
+    private static AudioFingerprint summarize(List<float[]> frames, List<Double> energies, int durationMillis) {
+        double loudest = 0;
+        for (double energy : energies) {
+            loudest = Math.max(loudest, energy);
+        }
+        int first = 0;
+        int last = frames.size() - 1;
+        while (first <= last && energies.get(first) < loudest * SILENCE_RATIO) {
+            first++;
+        }
+        while (last >= first && energies.get(last) < loudest * SILENCE_RATIO) {
+            last--;
+        }
+        int audible = last - first + 1;
+        if (loudest == 0 || audible < AudioFingerprint.SEGMENTS * 2) {
+            return null;
+        }
+        float[] segments = new float[AudioFingerprint.DIMENSIONS];
+        for (int segment = 0; segment < AudioFingerprint.SEGMENTS; segment++) {
+            int from = first + (int) ((long) audible * segment / AudioFingerprint.SEGMENTS);
+            int to = first + (int) ((long) audible * (segment + 1) / AudioFingerprint.SEGMENTS);
+            int offset = segment * AudioFingerprint.PITCH_CLASSES;
+            for (int frame = from; frame < to; frame++) {
+                float[] chroma = frames.get(frame);
+                for (int i = 0; i < AudioFingerprint.PITCH_CLASSES; i++) {
+                    segments[offset + i] += chroma[i];
+                }
+            }
+            centreAndNormalize(segments, offset);
+        }
+        return AudioFingerprint.of(durationMillis, segments);
+    }
+
+    private static void centreAndNormalize(float[] values, int offset) {
+        float mean = 0;
+        for (int i = 0; i < AudioFingerprint.PITCH_CLASSES; i++) {
+            mean += values[offset + i];
+        }
+        mean /= AudioFingerprint.PITCH_CLASSES;
+        double norm = 0;
+        for (int i = 0; i < AudioFingerprint.PITCH_CLASSES; i++) {
+            values[offset + i] -= mean;
+            norm += values[offset + i] * values[offset + i];
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < AudioFingerprint.PITCH_CLASSES; i++) {
+            values[offset + i] = norm < 1e-6 ? 0 : (float) (values[offset + i] / norm);
+        }
+    }
+
+    /**
+     * In-place iterative radix-2 FFT of a {@link #FRAME_SIZE}-point complex signal.
+     */
+    private static void fft(double[] real, double[] imaginary) {
+        int n = real.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = real[i];
+                real[i] = real[j];
+                real[j] = t;
+                t = imaginary[i];
+                imaginary[i] = imaginary[j];
+                imaginary[j] = t;
+            }
+        }
+        for (int length = 2; length <= n; length <<= 1) {
+            double angle = -2 * Math.PI / length;
+            double stepReal = Math.cos(angle);
+            double stepImaginary = Math.sin(angle);
+            for (int start = 0; start < n; start += length) {
+                double wReal = 1;
+                double wImaginary = 0;
+                for (int k = 0; k < length / 2; k++) {
+                    int even = start + k;
+                    int odd = even + length / 2;
+                    double oddReal = real[odd] * wReal - imaginary[odd] * wImaginary;
+                    double oddImaginary = real[odd] * wImaginary + imaginary[odd] * wReal;
+                    real[odd] = real[even] - oddReal;
+                    imaginary[odd] = imaginary[even] - oddImaginary;
+                    real[even] += oddReal;
+                    imaginary[even] += oddImaginary;
+                    double nextReal = wReal * stepReal - wImaginary * stepImaginary;
+                    wImaginary = wReal * stepImaginary + wImaginary * stepReal;
+                    wReal = nextReal;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pitch class (C = 0) of each FFT bin in the analysed range, -1 outside it.
+     */
+    private static int[] pitchClassOfBin() {
+        int[] pitchClasses = new int[FRAME_SIZE / 2];
+        for (int bin = 0; bin < pitchClasses.length; bin++) {
+            double frequency = (double) bin * SAMPLE_RATE / FRAME_SIZE;
+            if (frequency < MIN_FREQUENCY || frequency > MAX_FREQUENCY) {
+                pitchClasses[bin] = -1;
+            } else {
+                // MIDI note number; 69 is A4 at 440 Hz
+                long note = Math.round(69 + 12 * Math.log(frequency / 440) / Math.log(2));
+                pitchClasses[bin] = (int) Math.floorMod(note, 12L);
+            }
+        }
+        return pitchClasses;
+    }
+
+    private static double[] hannWindow() {
+        double[] window = new double[FRAME_SIZE];
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (FRAME_SIZE - 1));
+        }
+        return window;
+    }
+}
@@ -0,0 +1,62 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Bounded hand-off point for outgoing audio uploads.
+ * A download worker submits the finished file and returns right away while the HTTP upload runs
+ * on the bot's async executor. Once {@code capacity} uploads are pending, {@link #submit} blocks
+ * until one of them finishes, so a slow uplink throttles the workers instead of queueing without limit.
+ */
+final class AudioUploadQueue {
+    private final int capacity;
+    private final Semaphore slots;
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> pendingByChat = new ConcurrentHashMap<>();
+
+    AudioUploadQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Upload queue capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity, true);
+    }
+
+    /**
+     * Starts an upload once a queue slot is free. The slot is released when the returned future completes,
+     * successfully or not.
+     */
+    <T> CompletableFuture<T> submit(String chatId, Supplier<CompletableFuture<T>> upload) throws InterruptedException {
+        slots.acquire();
+        CompletableFuture<T> future;
+        try {
+            future = upload.get();
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+        CompletableFuture<Void> settled = future.handle((result, error) -> null);
+        settled.thenRun(slots::release);
+        track(chatId, settled);
+        return future;
+    }
+
+    /**
+     * Completes when every upload submitted so far for the chat has finished, successfully or not.
+     */
+    CompletableFuture<Void> whenSettled(String chatId) {
+        CompletableFuture<Void> pending = pendingByChat.get(chatId);
+        return pending != null ? pending : CompletableFuture.completedFuture(null);
+    }
+
+    int pendingUploads() {
+        return capacity - slots.availablePermits();
+    }
+
+    private void track(String chatId, CompletableFuture<Void> settled) {
+        CompletableFuture<Void> combined = pendingByChat.merge(chatId, settled, CompletableFuture::allOf);
+        combined.thenRun(() -> pendingByChat.remove(chatId, combined));
+    }
+}
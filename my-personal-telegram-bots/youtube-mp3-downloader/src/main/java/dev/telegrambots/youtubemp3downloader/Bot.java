@@ -1,13 +1,17 @@
 package dev.telegrambots.youtubemp3downloader;
 
-import dev.telegrambots.shared.BaseBotConfig;
+import dev.telegrambots.shared.TelegramTransport;
 // Telegram Bots API - Core bot functionality
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.ActionType;
 import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
 import org.telegram.telegrambots.meta.api.methods.GetFile;
 import org.telegram.telegrambots.meta.api.methods.commands.SetMyCommands;
+import org.telegram.telegrambots.meta.api.methods.send.SendAudio;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.commands.scope.BotCommandScopeDefault;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
@@ -17,6 +21,8 @@ import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Advanced YouTube MP3 Downloader Bot with comprehensive error handling and logging.
  * Features parallel downloads, file size validation, and robust exception management.
@@ -34,22 +40,33 @@ import org.slf4j.LoggerFactory;
  */
 public class Bot extends TelegramLongPollingBot {
     private static final Logger logger = LoggerFactory.getLogger(Bot.class);
+    private static final String DEFAULT_AUDIO_CAPTION = "Your audio is ready!";
     private final BotConfig config;
+    private final AudioUploadQueue uploadQueue;
+    private final ChatUpdateDispatcher updateDispatcher;
 
     // Updated constructor for newer Telegram Bots API version (6.9.7.1)
     // Token is passed to superclass constructor, no deprecated method overrides needed
     public Bot() {
-        super(getBotTokenFromConfig());
-        this.config = new BotConfig();
-        logger.info("Bot initialized with token: {}...", getBotTokenFromConfig().substring(0, 10));
+        this(new BotConfig());
     }
 
-    private static String getBotTokenFromConfig() {
-        try {
-            return BaseBotConfig.loadConfig().getString("bot.token");
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load bot token from config", e);
-        }
+    public Bot(BotConfig config) {
+        super(createBotOptions(config), config.botToken);
+        this.config = config;
+        TelegramTransport.install(this, config);
+        this.uploadQueue = new AudioUploadQueue(config.uploadQueueCapacity);
+        this.updateDispatcher = new ChatUpdateDispatcher(update -> CommandHandler.handle(this, update));
+        logger.info("Bot initialized with token: {}... (API: {}, local mode: {})",
+                config.botToken.substring(0, Math.min(10, config.botToken.length())),
+                config.botApiBaseUrl, config.botApiLocalMode);
+    }
+
+    private static DefaultBotOptions createBotOptions(BotConfig config) {
+        DefaultBotOptions options = TelegramTransport.createBotOptions(config);
+        // executeAsync runs on this pool; it carries the audio uploads
+        options.setMaxThreads(config.uploadThreads);
+        return options;
     }
 
     @Override
@@ -59,12 +76,18 @@ public class Bot extends TelegramLongPollingBot {
 
     @Override
     public void onUpdateReceived(Update update) {
-        // Advanced YouTube MP3 Bot update processing with parallel download management
-        try {
-            CommandHandler.handle(this, update);
-        } catch (Exception e) {
-            logger.error("Critical error in YouTube MP3 Bot update processing: {}", e.getMessage(), e);
-        }
+        // Handled on the chat's own lane so the polling thread never waits for outgoing Telegram calls
+        updateDispatcher.dispatch(update);
+    }
+
+    /**
+     * Called when the polling session stops: lets every chat lane finish the updates queued on it before
+     * the executor behind {@code executeAsync} goes.
+     */
+    @Override
+    public void onClosing() {
+        updateDispatcher.close();
+        super.onClosing();
     }
 
     public void registerBotCommands() {
@@ -114,33 +137,50 @@ public class Bot extends TelegramLongPollingBot {
     }
 
     public void sendAudioFile(String chatId, java.io.File audioFile) {
-        org.telegram.telegrambots.meta.api.methods.send.SendAudio sendAudio = new org.telegram.telegrambots.meta.api.methods.send.SendAudio();
-        sendAudio.setChatId(chatId);
-        sendAudio.setAudio(new org.telegram.telegrambots.meta.api.objects.InputFile(audioFile));
-        sendAudio.setCaption("Your audio is ready!");
         try {
-            execute(sendAudio);
+            execute(createSendAudio(chatId, audioFile, null));
         } catch (TelegramApiException e) {
             logger.error("Failed to send audio file to chat {}: {}", chatId, e.getMessage(), e);
         }
     }
 
     public void sendAudioFile(String chatId, java.io.File audioFile, String caption) {
-        org.telegram.telegrambots.meta.api.methods.send.SendAudio sendAudio = new org.telegram.telegrambots.meta.api.methods.send.SendAudio();
-        sendAudio.setChatId(chatId);
-        sendAudio.setAudio(new org.telegram.telegrambots.meta.api.objects.InputFile(audioFile));
-        if (caption != null) {
-            sendAudio.setCaption(caption);
-        } else {
-            sendAudio.setCaption("Your audio is ready!");
-        }
         try {
-            execute(sendAudio);
+            execute(createSendAudio(chatId, audioFile, caption));
         } catch (TelegramApiException e) {
             logger.error("Failed to send audio file with caption to chat {}: {}", chatId, e.getMessage(), e);
         }
     }
 
+    /**
+     * Queues the upload on the bounded upload queue and returns without waiting for Telegram.
+     * Blocks only while the queue is full.
+     */
+    public CompletableFuture<Message> sendAudioFileAsync(String chatId, java.io.File audioFile, String caption) {
+        SendAudio sendAudio = createSendAudio(chatId, audioFile, caption);
+        try {
+            return uploadQueue.submit(chatId, () -> executeAsync(sendAudio));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Completes once all audio uploads queued so far for the chat have finished.
+     */
+    public CompletableFuture<Void> whenAudioUploadsSettled(String chatId) {
+        return uploadQueue.whenSettled(chatId);
+    }
+
+    private SendAudio createSendAudio(String chatId, java.io.File audioFile, String caption) {
+        SendAudio sendAudio = new SendAudio();
+        sendAudio.setChatId(chatId);
+        sendAudio.setAudio(toAudioInput(audioFile));
+        sendAudio.setCaption(caption != null ? caption : DEFAULT_AUDIO_CAPTION);
+        return sendAudio;
+    }
+
     public void sendChatAction(Long chatId, ActionType action) {
         org.telegram.telegrambots.meta.api.methods.send.SendChatAction chatAction = new org.telegram.telegrambots.meta.api.methods.send.SendChatAction();
         chatAction.setChatId(chatId.toString());
@@ -152,10 +192,39 @@ public class Bot extends TelegramLongPollingBot {
         }
     }
 
+    /**
+     * A local Bot API server reads the file from disk itself, so only its file:// URI is sent;
+     * the public API needs the bytes as a multipart upload.
+     */
+    private InputFile toAudioInput(java.io.File audioFile) {
+        if (config.botApiLocalMode) {
+            return new InputFile(audioFile.getAbsoluteFile().toPath().toUri().toString());
+        }
+        return new InputFile(audioFile);
+    }
+
     public java.io.File downloadTelegramFile(String fileId, java.io.File outputFile) throws TelegramApiException {
         GetFile getFile = new GetFile();
         getFile.setFileId(fileId);
         org.telegram.telegrambots.meta.api.objects.File telegramFile = execute(getFile);
+        java.nio.file.Path localPath = resolveLocalServerFile(telegramFile.getFilePath());
+        if (localPath != null) {
+            // In --local mode file_path is an absolute path inside the server's working directory
+            try {
+                java.nio.file.Files.copy(localPath, outputFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                return outputFile;
+            } catch (java.io.IOException e) {
+                throw new TelegramApiException("Failed to copy " + localPath + " from the local Bot API server directory", e);
+            }
+        }
         return downloadFile(telegramFile, outputFile);
     }
+
+    private java.nio.file.Path resolveLocalServerFile(String filePath) {
+        if (!config.botApiLocalMode || filePath == null) {
+            return null;
+        }
+        java.nio.file.Path path = java.nio.file.Path.of(filePath);
+        return path.isAbsolute() && java.nio.file.Files.isReadable(path) ? path : null;
+    }
 }
@@ -2,6 +2,8 @@ package dev.telegrambots.youtubemp3downloader;
 
 import dev.telegrambots.shared.BaseBotConfig;
 
+import java.util.ResourceBundle;
+
 /**
  * Configuration class for the YouTube MP3 Downloader Bot.
  * Handles tool paths, file limits, and parallel download settings.
@@ -9,7 +11,18 @@ import dev.telegrambots.shared.BaseBotConfig;
 public class BotConfig extends BaseBotConfig {
     public static final String MAX_PARALLEL_DOWNLOADS_PROPERTY = "max.parallel.downloads";
     public static final String DUPLICATE_INDEX_PATH_PROPERTY = "duplicate.index.path";
+    public static final String DUPLICATE_INDEX_FSYNC_PROPERTY = "duplicate.index.fsync";
+    public static final String DUPLICATE_FINGERPRINT_ENABLED_PROPERTY = "duplicate.fingerprint.enabled";
+    public static final String DUPLICATE_LIBRARY_ROOTS_PROPERTY = "duplicate.library.roots";
+    public static final String DUPLICATE_LIBRARY_SNAPSHOT_MINUTES_PROPERTY = "duplicate.library.snapshot.minutes";
+    public static final String SANITIZER_RULES_PATH_PROPERTY = "sanitizer.rules.path";
+    public static final String UPLOAD_THREADS_PROPERTY = "upload.threads";
+    public static final String UPLOAD_QUEUE_CAPACITY_PROPERTY = "upload.queue.capacity";
+    public static final String WORKZONE_BUDGET_MB_PROPERTY = "workzone.budget.mb";
     public static final int DEFAULT_MAX_PARALLEL_DOWNLOADS = 3;
+    public static final int DEFAULT_UPLOAD_THREADS = 2;
+    public static final int DEFAULT_UPLOAD_QUEUE_CAPACITY = 8;
+    public static final int DEFAULT_DUPLICATE_LIBRARY_SNAPSHOT_MINUTES = 10;
 
     public final String botToken;
     public final String botUsername;
@@ -17,15 +30,32 @@ public class BotConfig extends BaseBotConfig {
     public final String ffmpegPath;
     public final String ffprobePath;
     public final int maxParallelDownloads;
+    public final int uploadThreads;
+    public final int uploadQueueCapacity;
     public final String cookiesFilePath;
     public final String duplicateIndexPath;
+    public final boolean duplicateIndexFsync;
+    public final boolean duplicateFingerprintEnabled;
+    public final String duplicateLibraryRoots;
+    public final int duplicateLibrarySnapshotMinutes;
+    public final String sanitizerRulesPath;
+    public final long workzoneBudgetMb;
 
     /**
      * Constructor that loads configuration from config.properties.
      * Supports multiple path resolution strategies for cross-platform compatibility.
      */
     public BotConfig() {
-        super();
+        this(BaseBotConfig.loadConfig());
+    }
+
+    /**
+     * Constructor that reads configuration from an already loaded bundle.
+     *
+     * @param config Configuration bundle
+     */
+    BotConfig(ResourceBundle config) {
+        super(config);
         
         // Bot credentials
         this.botToken = getStringProperty("bot.token", "");
@@ -46,12 +76,31 @@ public class BotConfig extends BaseBotConfig {
         }
 
         this.maxParallelDownloads = getIntProperty(MAX_PARALLEL_DOWNLOADS_PROPERTY, DEFAULT_MAX_PARALLEL_DOWNLOADS);
+
+        // Uploads run asynchronously so download workers are not held while Telegram receives the file
+        this.uploadThreads = Math.max(1, getIntProperty(UPLOAD_THREADS_PROPERTY, DEFAULT_UPLOAD_THREADS));
+        this.uploadQueueCapacity = Math.max(1, getIntProperty(UPLOAD_QUEUE_CAPACITY_PROPERTY, DEFAULT_UPLOAD_QUEUE_CAPACITY));
         
         // Optional: path to YouTube cookies file for bot-detection bypass
         this.cookiesFilePath = getStringProperty("yt-dlp.cookies.path", "");
 
         // Optional: TSV index generated from an external music library.
         this.duplicateIndexPath = getStringProperty(DUPLICATE_INDEX_PATH_PROPERTY, "");
+        // Off by default: appends reach the OS right away, forcing them to the device costs a sync per group
+        this.duplicateIndexFsync = getBooleanProperty(DUPLICATE_INDEX_FSYNC_PROPERTY, false);
+        // Optional: also compare downloads by sound against <index>.fingerprints; costs one ffmpeg decode per download
+        this.duplicateFingerprintEnabled = getBooleanProperty(DUPLICATE_FINGERPRINT_ENABLED_PROPERTY, false);
+
+        // Optional: library folders on this machine that the bot watches to keep the index current
+        this.duplicateLibraryRoots = getStringProperty(DUPLICATE_LIBRARY_ROOTS_PROPERTY, "");
+        this.duplicateLibrarySnapshotMinutes = Math.max(1,
+                getIntProperty(DUPLICATE_LIBRARY_SNAPSHOT_MINUTES_PROPERTY, DEFAULT_DUPLICATE_LIBRARY_SNAPSHOT_MINUTES));
+
+        // Optional: file name cleaning rules to use instead of the bundled ones, reloaded when edited
+        this.sanitizerRulesPath = getStringProperty(SANITIZER_RULES_PATH_PROPERTY, "");
+
+        // Optional: disk space for downloaded tracks; the least recently sent are deleted beyond it, 0 keeps everything
+        this.workzoneBudgetMb = Math.max(0, getLongProperty(WORKZONE_BUDGET_MB_PROPERTY, 0));
         
         // Validate configuration after all fields are initialized
         validateConfiguration();
@@ -0,0 +1,48 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded memo for an expensive pure string function that sees the same inputs in bursts, such as
+ * {@link MusicDuplicateIndex#normalizeForMatch} on a chapter title that is planned, checked and indexed in turn.
+ *
+ * Results live in two generations of concurrent maps: once the young one fills up it becomes the old one
+ * and the previous old one is dropped, so memory stays below twice the generation size and recently used
+ * inputs survive a rotation. Reads never lock; a rare race only computes a value twice.
+ */
+final class BoundedMemo {
+    private final UnaryOperator<String> function;
+    private final int generationSize;
+    private volatile ConcurrentHashMap<String, String> young = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<String, String> old = new ConcurrentHashMap<>();
+
+    BoundedMemo(UnaryOperator<String> function, int generationSize) {
+        this.function = function;
+        this.generationSize = generationSize;
+    }
+
+    String apply(String input) {
+        ConcurrentHashMap<String, String> current = young;
+        String value = current.get(input);
+        if (value != null) {
+            return value;
+        }
+        value = old.get(input);
+        if (value == null) {
+            value = function.apply(input);
+        }
+        current.put(input, value);
+        if (current.size() >= generationSize) {
+            rotate(current);
+        }
+        return value;
+    }
+
+    private synchronized void rotate(ConcurrentHashMap<String, String> full) {
+        if (young == full) {
+            old = full;
+            young = new ConcurrentHashMap<>();
+        }
+    }
+}
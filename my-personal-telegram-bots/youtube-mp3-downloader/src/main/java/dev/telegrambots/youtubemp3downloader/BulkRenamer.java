@@ -0,0 +1,277 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Renames the files of one directory to their sanitized names, for {@code /sanitize_mp3} and the CLI.
+ *
+ * The whole rename is planned before the first file moves. Names are sanitized in parallel, then every
+ * target is checked against all names in the directory: two files that would end up with the same name,
+ * or a target that another file already has, are left alone and reported, since the move would replace a
+ * file. Names are compared ignoring case, as on the shared storage of a phone. So every target is claimed
+ * by exactly one move before any of them starts, and parallel moves cannot meet at a name.
+ *
+ * The planned moves then run in parallel. A file that appears under a target name after the plan was made,
+ * e.g. a download that just finished, must not be replaced, and checking for it before the rename would
+ * leave a window in which it can still appear. Each move therefore first creates its target exclusively,
+ * which fails when anything has the name, and then atomically renames the file onto that placeholder.
+ * The {@link Listener} hears about progress while the moves run and about all completed moves in one call
+ * at the end, so the duplicate indexes can follow them in a single write. When the calling thread is
+ * interrupted, moves that have not started are skipped, the ones under way are waited for, so the result
+ * and the listener cover every file that moved, and the interrupt is passed on.
+ */
+final class BulkRenamer {
+    private static final Logger logger = LoggerFactory.getLogger(BulkRenamer.class);
+    private static final int PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    static final long PROGRESS_INTERVAL_MILLIS = 10_000;
+
+    private BulkRenamer() {
+    }
+
+    /**
+     * What the caller hears while a rename runs. Both methods may be called from worker threads.
+     */
+    interface Listener {
+        Listener NONE = new Listener() {
+        };
+
+        /**
+         * At most once per {@link #PROGRESS_INTERVAL_MILLIS} while files are being moved.
+         */
+        default void progress(int done, int total) {
+        }
+
+        /**
+         * Once, after the last move, with every file that was moved (absolute paths, old to new); not
+         * called when nothing moved.
+         */
+        default void renamed(Map<Path, Path> renames) {
+        }
+    }
+
+    /**
+     * One file whose name changes.
+     *
+     * @param problem why it is not renamed, null when it can be
+     */
+    record Planned(String from, String to, String problem) {
+    }
+
+    /**
+     * Sanitizes the names of the directory's files ending with {@code extension} (ignoring case; every file
+     * when null) and renames them unless {@code dryRun}.
+     */
+    static FileNameSanitizer.SanitizeDirectoryResult rename(Path directory, String extension, boolean dryRun,
+                                                            UnaryOperator<String> sanitizer, Listener listener) {
+        String dirPath = directory.toString();
+        if (!Files.isDirectory(directory)) {
+            return new FileNameSanitizer.SanitizeDirectoryResult(dirPath, dryRun, true, false, 0, 0, 0, 0, 0, 0, List.of());
+        }
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot list {}: {}", directory, e.getMessage());
+            return new FileNameSanitizer.SanitizeDirectoryResult(dirPath, dryRun, false, true, 0, 0, 0, 0, 0, 0, List.of());
+        }
+
+        List<String> candidates = names.parallelStream()
+                .filter(name -> extension == null || name.toLowerCase(Locale.ROOT).endsWith(extension))
+                .filter(name -> Files.isRegularFile(directory.resolve(name)))
+                .sorted()
+                .toList();
+        List<Planned> plan = plan(names, candidates, sanitizer);
+        int affected = plan.size();
+        int unchanged = candidates.size() - affected;
+        List<String> details = new ArrayList<>();
+        List<Planned> moves = new ArrayList<>();
+        int skipped = 0;
+        for (Planned planned : plan) {
+            if (planned.problem() != null) {
+                skipped++;
+                details.add("Skipped: " + planned.from() + " -> " + planned.to() + " (" + planned.problem() + ")");
+            } else if (dryRun) {
+                details.add("Would rename: " + planned.from() + " -> " + planned.to());
+            } else {
+                moves.add(planned);
+            }
+        }
+        if (dryRun || moves.isEmpty()) {
+            return new FileNameSanitizer.SanitizeDirectoryResult(dirPath, dryRun, false, false,
+                    candidates.size(), affected, 0, unchanged, 0, skipped, List.copyOf(details));
+        }
+
+        Map<Path, Path> renamed = new ConcurrentHashMap<>();
+        // One line per move, kept in plan order however the moves interleave
+        String[] outcomes = new String[moves.size()];
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger cancelled = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        AtomicLong nextProgress = new AtomicLong(System.currentTimeMillis() + PROGRESS_INTERVAL_MILLIS);
+        AtomicBoolean stopping = new AtomicBoolean();
+        boolean interrupted = false;
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            ForkJoinTask<?> moving = pool.submit(() -> IntStream.range(0, moves.size()).parallel().forEach(i -> {
+                Planned planned = moves.get(i);
+                if (stopping.get()) {
+                    cancelled.incrementAndGet();
+                    outcomes[i] = "Not renamed: " + planned.from() + " -> " + planned.to() + " (interrupted)";
+                    return;
+                }
+                Path from = directory.resolve(planned.from()).toAbsolutePath();
+                Path to = directory.resolve(planned.to()).toAbsolutePath();
+                try {
+                    moveExclusively(from, to);
+                    renamed.put(from, to);
+                    outcomes[i] = "Renamed: " + planned.from() + " -> " + planned.to();
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    outcomes[i] = "Failed: " + planned.from() + " -> " + planned.to() + " (" + e.getMessage() + ")";
+                }
+                long now = System.currentTimeMillis();
+                int count = done.incrementAndGet();
+                long due = nextProgress.get();
+                if (now >= due && count < moves.size() && nextProgress.compareAndSet(due, now + PROGRESS_INTERVAL_MILLIS)) {
+                    listener.progress(count, moves.size());
+                }
+            }));
+            try {
+                moving.get();
+            } catch (InterruptedException e) {
+                // Skip what has not started, but wait for the moves under way so none is left out of the result
+                interrupted = true;
+                stopping.set(true);
+                moving.join();
+            }
+        } catch (ExecutionException e) {
+            logger.error("Renaming files in {} failed", directory, e.getCause());
+        } catch (RuntimeException e) {
+            logger.error("Renaming files in {} failed", directory, e);
+        } finally {
+            pool.shutdown();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (String outcome : outcomes) {
+            if (outcome != null) {
+                details.add(outcome);
+            }
+        }
+        if (!renamed.isEmpty()) {
+            listener.renamed(Map.copyOf(renamed));
+        }
+        return new FileNameSanitizer.SanitizeDirectoryResult(dirPath, false, false, false,
+                candidates.size(), affected, renamed.size(), unchanged, failed.get(), skipped + cancelled.get(), List.copyOf(details));
+    }
+
+    /**
+     * Renames {@code from} to {@code to} unless another file has that name. The target is created
+     * exclusively first, so a file that takes the name meanwhile makes this fail instead of being replaced;
+     * the rename then atomically replaces the placeholder. A rename that only changes case finds the file
+     * itself under the target name on a case-insensitive file system and is done directly.
+     */
+    static void moveExclusively(Path from, Path to) throws IOException {
+        try {
+            Files.createFile(to);
+        } catch (FileAlreadyExistsException e) {
+            if (!Files.isSameFile(from, to)) {
+                throw new IOException("target exists");
+            }
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        Object placeholder = Files.readAttributes(to, BasicFileAttributes.class).fileKey();
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // Only while the name still holds our placeholder
+            if (placeholder != null && placeholder.equals(Files.readAttributes(to, BasicFileAttributes.class).fileKey())) {
+                Files.deleteIfExists(to);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The files among {@code candidates} whose sanitized name differs, in order, with the reason each
+     * one cannot be renamed. {@code names} are all names in the directory.
+     */
+    static List<Planned> plan(List<String> names, List<String> candidates, UnaryOperator<String> sanitizer) {
+        List<String> targets = candidates.parallelStream()
+                .map(name -> sanitizedName(name, sanitizer))
+                .toList();
+
+        Set<String> taken = new HashSet<>();
+        for (String name : names) {
+            taken.add(name.toLowerCase(Locale.ROOT));
+        }
+        Map<String, Integer> claims = new HashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (!targets.get(i).equals(candidates.get(i))) {
+                claims.merge(targets.get(i).toLowerCase(Locale.ROOT), 1, Integer::sum);
+            }
+        }
+        List<Planned> plan = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            String from = candidates.get(i);
+            String to = targets.get(i);
+            if (to.equals(from)) {
+                continue;
+            }
+            String key = to.toLowerCase(Locale.ROOT);
+            String problem = null;
+            if (to.isEmpty() || to.startsWith(".")) {
+                problem = "nothing left of the name";
+            } else if (claims.get(key) > 1) {
+                problem = claims.get(key) + " files get this name";
+            } else if (taken.contains(key) && !key.equals(from.toLowerCase(Locale.ROOT))) {
+                problem = "name already taken";
+            }
+            plan.add(new Planned(from, to, problem));
+        }
+        return plan;
+    }
+
+    /**
+     * The file name with its base sanitized and its extension kept.
+     */
+    static String sanitizedName(String name, UnaryOperator<String> sanitizer) {
+        String base = name;
+        String ext = "";
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            ext = name.substring(dot);
+            base = name.substring(0, dot);
+        }
+        return sanitizer.apply(base) + ext;
+    }
+}
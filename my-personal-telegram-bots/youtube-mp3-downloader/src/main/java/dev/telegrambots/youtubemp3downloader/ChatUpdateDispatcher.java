@@ -0,0 +1,105 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Routes updates to per-chat lanes that run on virtual threads.
+ * Updates of one chat are handled strictly in arrival order, different chats run in parallel,
+ * and {@link #dispatch} never waits for the handler, so the polling thread keeps receiving updates
+ * while a slow Telegram call is in flight for some chat.
+ */
+final class ChatUpdateDispatcher implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ChatUpdateDispatcher.class);
+    private static final CompletableFuture<Void> IDLE_LANE = CompletableFuture.completedFuture(null);
+    static final long CLOSE_WAIT_SECONDS = 10;
+
+    private final Consumer<Update> handler;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<Long, CompletableFuture<Void>> lanes = new ConcurrentHashMap<>();
+
+    ChatUpdateDispatcher(Consumer<Update> handler) {
+        this.handler = handler;
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-lane-", 0).factory());
+    }
+
+    /**
+     * Queues the update behind earlier updates of the same chat and returns immediately.
+     * Updates without a chat (none of the handled kinds) get their own unordered task.
+     */
+    CompletableFuture<Void> dispatch(Update update) {
+        Long chatId = chatIdOf(update);
+        Runnable task = () -> handleSafely(update);
+        if (chatId == null) {
+            return CompletableFuture.runAsync(task, executor);
+        }
+        CompletableFuture<Void> tail = lanes.compute(chatId,
+                (id, previous) -> (previous != null ? previous : IDLE_LANE).thenRunAsync(task, executor));
+        // Drop the lane once it drains so idle chats do not accumulate
+        tail.whenComplete((ignored, error) -> lanes.remove(chatId, tail));
+        return tail;
+    }
+
+    int activeLanes() {
+        return lanes.size();
+    }
+
+    static Long chatIdOf(Update update) {
+        if (update == null) {
+            return null;
+        }
+        if (update.hasMessage()) {
+            return update.getMessage().getChatId();
+        }
+        if (update.hasCallbackQuery()) {
+            CallbackQuery callbackQuery = update.getCallbackQuery();
+            if (callbackQuery.getMessage() != null) {
+                return callbackQuery.getMessage().getChatId();
+            }
+            return callbackQuery.getFrom() != null ? callbackQuery.getFrom().getId() : null;
+        }
+        return null;
+    }
+
+    private void handleSafely(Update update) {
+        try {
+            handler.accept(update);
+        } catch (Exception e) {
+            // A failing update must not stall the rest of its chat lane
+            logger.error("Critical error in YouTube MP3 Bot update processing: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Lets every lane finish the updates already queued on it, for at most {@link #CLOSE_WAIT_SECONDS},
+     * then stops the executor; lanes still busy after that are interrupted.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<?>[] tails = lanes.values().toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(tails).get(CLOSE_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("{} chat lanes still busy after {} s, interrupting them", lanes.size(), CLOSE_WAIT_SECONDS);
+            executor.shutdownNow();
+        } catch (ExecutionException e) {
+            // handleSafely catches handler failures, so a lane only fails when its task was rejected
+            logger.warn("A chat lane failed while closing: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        executor.close();
+    }
+}
@@ -10,10 +10,13 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMa
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import dev.telegrambots.shared.BotExecutors;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -22,16 +25,35 @@ import java.util.UUID;
 
 public class CommandHandler {
     private static final Logger logger = LoggerFactory.getLogger(CommandHandler.class);
-    private static final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private static final int MAX_CONCURRENT_JOBS = 4;
     private static final BotConfig config = new BotConfig();
+    static {
+        // Before the duplicate indexes below, which run names through the sanitizer when they load
+        if (!config.sanitizerRulesPath.isBlank()) {
+            FileNameSanitizer.useRuleFile(java.nio.file.Path.of(config.sanitizerRulesPath));
+        }
+    }
+    // In virtual mode the executors are unbounded; jobSlots keeps the number of running jobs, batch links
+    // included, at MAX_CONCURRENT_JOBS
+    private static final ExecutorService executor = BotExecutors.newTaskExecutor(config, MAX_CONCURRENT_JOBS, "yt-job-");
+    private static final Semaphore jobSlots = new Semaphore(MAX_CONCURRENT_JOBS);
+    private static final ThreadFactory helperThreads = BotExecutors.threadFactory(config, "yt-helper-");
     private static final YtDlpService ytDlpService = new YtDlpService(
             config.ytDlpPath, config.ffmpegPath, config.ffprobePath, config.maxFileSize, config.maxDurationMinutes,
             config.cookiesFilePath);
-    private static final MusicDuplicateIndex duplicateIndex = new MusicDuplicateIndex(config.duplicateIndexPath);
-    private static final DownloadRequestDuplicateIndex requestDuplicateIndex = new DownloadRequestDuplicateIndex(config.duplicateIndexPath);
+    private static final MusicDuplicateIndex duplicateIndex = new MusicDuplicateIndex(
+            config.duplicateIndexPath, config.duplicateIndexFsync,
+            config.duplicateFingerprintEnabled ? new AudioFingerprinter(config.ffmpegPath) : null);
+    // Null unless duplicate.library.roots is configured
+    private static final MusicLibraryWatcher libraryWatcher = MusicLibraryWatcher.startIfConfigured(config, duplicateIndex);
+    private static final DownloadRequestDuplicateIndex requestDuplicateIndex = new DownloadRequestDuplicateIndex(config.duplicateIndexPath, config.duplicateIndexFsync);
+    // Both null until startWorkzone runs at bot startup, so loading this class never touches the workzone
+    private static volatile WorkzoneManager workzone;
+    private static volatile ScratchJanitor scratchJanitor;
     private static final ConcurrentHashMap<String, PendingDownload> pendingDuplicateDownloads = new ConcurrentHashMap<>();
     private static final ConcurrentHashMap<String, PendingChapterDownload> pendingChapterDownloads = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<String, Object> downloadFileLocks = new ConcurrentHashMap<>();
+    // Held while yt-dlp or ffmpeg writes the file; a ReentrantLock, unlike a monitor, does not pin a virtual thread
+    private static final ConcurrentHashMap<String, ReentrantLock> downloadFileLocks = new ConcurrentHashMap<>();
     private static final String FORCE_DOWNLOAD_CALLBACK_PREFIX = "dupdl:";
     private static final String CHAPTER_DOWNLOAD_CALLBACK_PREFIX = "chapdl:";
     private static final long PENDING_DOWNLOAD_TTL_MILLIS = 24L * 60L * 60L * 1000L;
@@ -40,6 +62,15 @@ public class CommandHandler {
             java.util.regex.Pattern.CASE_INSENSITIVE
     );
 
+    /**
+     * Writes the index adds still queued in the background and closes both duplicate indexes. Main calls
+     * it on shutdown once the bot stopped handing over updates, so the adds those updates made are kept.
+     */
+    static void closeIndexes() {
+        duplicateIndex.close();
+        requestDuplicateIndex.close();
+    }
+
     /**
      * Returns the current date and time as a formatted string (yyyy-MM-dd HH:mm:ss).
      */
@@ -47,6 +78,22 @@ public class CommandHandler {
         return LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
     }
 
+    private static void submitJob(Runnable job) {
+        executor.submit(() -> {
+            try {
+                jobSlots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                job.run();
+            } finally {
+                jobSlots.release();
+            }
+        });
+    }
+
     private static java.util.List<String> commonYtDlpArgs() {
         java.util.List<String> args = new java.util.ArrayList<>();
         args.add("--remote-components");
@@ -129,6 +176,10 @@ public class CommandHandler {
         return "/delete_mp3".equals(normalizedCommand(text));
     }
 
+    static boolean isWorkzoneCommand(String text) {
+        return "/workzone".equals(normalizedCommand(text));
+    }
+
     static boolean isSanitizeMp3DryRun(String text) {
         if (text == null) {
             return false;
@@ -157,6 +208,9 @@ public class CommandHandler {
             msg.append("Files renamed: ").append(result.changed()).append(" out of ").append(result.affected()).append("\n");
             msg.append("Files failed: ").append(result.failed()).append("\n");
         }
+        if (result.skipped() > 0) {
+            msg.append("Files skipped (name collision): ").append(result.skipped()).append("\n");
+        }
         msg.append("Already clean: ").append(result.unchanged());
         if (!result.details().isEmpty()) {
             msg.append("\n\nDetails:\n");
@@ -177,13 +231,23 @@ public class CommandHandler {
         telegram.sendText(chatId, dryRun
                 ? "[DRY RUN] Checking MP3 names in workzone..."
                 : "[STARTED] Sanitizing MP3 names in workzone...");
-        executor.submit(() -> {
+        submitJob(() -> {
             try {
-                FileNameSanitizer.SanitizeDirectoryResult result =
-                        FileNameSanitizer.sanitizeAllInDirectoryWithResult(workzone.getAbsolutePath(), ".mp3", dryRun);
+                FileNameSanitizer.SanitizeDirectoryResult result = FileNameSanitizer.sanitizeAllInDirectoryWithResult(
+                        workzone.getAbsolutePath(), ".mp3", dryRun, new BulkRenamer.Listener() {
+                            @Override
+                            public void progress(int done, int total) {
+                                telegram.sendText(chatId, "[PROGRESS] Renamed " + done + " of " + total + " MP3 files...");
+                            }
+
+                            @Override
+                            public void renamed(java.util.Map<java.nio.file.Path, java.nio.file.Path> renames) {
+                                followRenames(renames);
+                            }
+                        });
                 telegram.sendText(chatId, buildSanitizeMp3Summary(result));
-                logger.info("[{}] MP3 sanitize command finished. dryRun={}, dir={}, total={}, affected={}, changed={}, failed={}",
-                        now(), dryRun, result.directory(), result.total(), result.affected(), result.changed(), result.failed());
+                logger.info("[{}] MP3 sanitize command finished. dryRun={}, dir={}, total={}, affected={}, changed={}, failed={}, skipped={}",
+                        now(), dryRun, result.directory(), result.total(), result.affected(), result.changed(), result.failed(), result.skipped());
             } catch (Exception e) {
                 logger.error("[{}] MP3 sanitize command failed", now(), e);
                 telegram.sendText(chatId, "[ERROR ☢️☣️] MP3 sanitize failed: " + e.getMessage());
@@ -192,6 +256,43 @@ public class CommandHandler {
         return true;
     }
 
+    /**
+     * Starts the workzone budget and the scratch janitor for {@code workzoneDir}. Uncommitted outputs of a
+     * killed process are discarded before the workzone is first listed, and the janitor removes what its jobs
+     * left in temp_mp3, now and then periodically. Called once at bot startup; before that, tracks are sent
+     * without being counted against the budget. Later calls do nothing.
+     */
+    static synchronized void startWorkzone(java.nio.file.Path workzoneDir) {
+        if (workzone != null) {
+            return;
+        }
+        workzone = WorkzoneManager.open(JobScratch.discardUncommitted(workzoneDir), config.workzoneBudgetMb * 1024L * 1024L);
+        scratchJanitor = ScratchJanitor.start(workzoneDir);
+    }
+
+    /**
+     * Points both duplicate indexes at the new names of renamed workzone files, so duplicates are still
+     * found and the library keys stay attached to their files.
+     */
+    private static void followRenames(java.util.Map<java.nio.file.Path, java.nio.file.Path> renames) {
+        try {
+            int moved = duplicateIndex.renamePaths(renames);
+            logger.info("[{}] Duplicate index follows {} renamed files ({} lines appended)", now(), renames.size(), moved);
+        } catch (IOException e) {
+            logger.error("[{}] Failed to update duplicate index after renaming {} files", now(), renames.size(), e);
+        }
+        WorkzoneManager currentWorkzone = workzone;
+        if (currentWorkzone != null) {
+            currentWorkzone.renamed(renames);
+        }
+        try {
+            int moved = requestDuplicateIndex.renamePaths(renames);
+            logger.info("[{}] Duplicate request index follows {} renamed files ({} entries)", now(), renames.size(), moved);
+        } catch (IOException e) {
+            logger.error("[{}] Failed to update duplicate request index after renaming {} files", now(), renames.size(), e);
+        }
+    }
+
     record DeleteMp3Result(
             String directory,
             boolean directoryMissing,
@@ -292,11 +393,15 @@ public class CommandHandler {
     }
 
     private static boolean handleDeleteMp3Command(TelegramService telegram, Long chatId) {
-        java.io.File workzone = Utils.getYoutubeMp3WorkzoneDir();
+        java.io.File workzoneDir = Utils.getYoutubeMp3WorkzoneDir();
         telegram.sendText(chatId, "[STARTED] Deleting MP3 files in workzone...");
-        executor.submit(() -> {
+        submitJob(() -> {
             try {
-                DeleteMp3Result result = deleteMp3FilesInDirectory(workzone);
+                DeleteMp3Result result = deleteMp3FilesInDirectory(workzoneDir);
+                WorkzoneManager currentWorkzone = workzone;
+                if (currentWorkzone != null) {
+                    currentWorkzone.rescan();
+                }
                 telegram.sendText(chatId, buildDeleteMp3Summary(result));
                 logger.info("[{}] MP3 delete command finished. dir={}, total={}, deleted={}, failed={}",
                         now(), result.directory(), result.total(), result.deleted(), result.failed());
@@ -414,7 +519,7 @@ public class CommandHandler {
         }
         telegram.sendText(chatId, "[SUCCESS ✅] File accepted! ✂️ Starting trim " + range.formatLabel() + "...");
         telegram.sendChatAction(chatId, ActionType.UPLOADDOCUMENT);
-        executor.submit(() -> processUploadedAudioCut(telegram, chatId, attachment, range));
+        submitJob(() -> processUploadedAudioCut(telegram, chatId, attachment, range));
         return true;
     }
 
@@ -422,9 +527,9 @@ public class CommandHandler {
         java.io.File sourceFile = null;
         java.io.File outputFile = null;
         java.io.File thumbnailFile = null;
-        java.io.File jobDir = null;
+        JobScratch scratch = null;
         final boolean[] sending = {true};
-        Thread progressThread = new Thread(() -> {
+        Thread progressThread = helperThreads.newThread(() -> {
             while (sending[0]) {
                 telegram.sendChatAction(chatId, ActionType.UPLOADDOCUMENT);
                 try {
@@ -439,12 +544,8 @@ public class CommandHandler {
         progressThread.start();
         try {
             java.io.File saveDir = Utils.getYoutubeMp3WorkzoneDir();
-            java.io.File tempDir = new java.io.File(saveDir, "temp_mp3");
-            if (!tempDir.exists()) tempDir.mkdirs();
-
-            String token = Long.toString(System.currentTimeMillis());
-            jobDir = new java.io.File(tempDir, "cut_" + token);
-            if (!jobDir.exists()) jobDir.mkdirs();
+            scratch = JobScratch.create(saveDir.toPath(), "cut");
+            java.io.File jobDir = scratch.directory().toFile();
             String tempBaseName = cutBaseName(attachment.fileName());
             String outputFileName = cutOutputFileName(attachment.fileName());
             sourceFile = new java.io.File(jobDir, tempBaseName + "_upload" + sourceExtension(attachment.fileName()));
@@ -456,11 +557,12 @@ public class CommandHandler {
                 return;
             }
 
-            Object outputFileLock = downloadFileLocks.computeIfAbsent(outputFileName.toLowerCase(Locale.ROOT), ignored -> new Object());
-            synchronized (outputFileLock) {
-                ytDlpService.deleteFileIfExists(outputFile);
-                boolean cutOk = ytDlpService.splitAudioRange(sourceFile, range, outputFile);
-                if (!cutOk || !outputFile.exists() || outputFile.length() == 0) {
+            ReentrantLock outputFileLock = downloadFileLocks.computeIfAbsent(outputFileName.toLowerCase(Locale.ROOT), ignored -> new ReentrantLock());
+            outputFileLock.lock();
+            try {
+                java.io.File stagedOutputFile = new java.io.File(jobDir, outputFileName);
+                boolean cutOk = ytDlpService.splitAudioRange(sourceFile, range, stagedOutputFile);
+                if (!cutOk || !stagedOutputFile.exists() || stagedOutputFile.length() == 0) {
                     telegram.sendText(chatId, "[ERROR ☢️☣️] Error trimming audio range " + range.formatLabel() + ". ✂️");
                     return;
                 }
@@ -468,34 +570,36 @@ public class CommandHandler {
                     thumbnailFile = new java.io.File(jobDir, tempBaseName + "_thumbnail.jpg");
                     telegram.downloadFile(attachment.thumbnailFileId(), thumbnailFile);
                     if (thumbnailFile.exists() && thumbnailFile.length() > 0) {
-                        boolean coverOk = ytDlpService.attachCoverArt(outputFile, thumbnailFile);
+                        boolean coverOk = ytDlpService.attachCoverArt(stagedOutputFile, thumbnailFile);
                         if (!coverOk) {
                             logger.warn("[{}] Could not attach Telegram thumbnail for cut upload: {}", now(), attachment.fileName());
                         }
                     }
                 }
-                double duration = ytDlpService.getAudioDurationSeconds(outputFile.getAbsolutePath());
+                double duration = ytDlpService.getAudioDurationSeconds(stagedOutputFile.getAbsolutePath());
                 if (!ytDlpService.isDurationWithinLimit(duration)) {
                     telegram.sendText(chatId, "[ERROR ☢️☣️] Trimmed audio is too long: " + formatDuration(duration) + ".");
-                    ytDlpService.deleteFileIfExists(outputFile);
                     return;
                 }
-                if (!ytDlpService.isFileSizeWithinLimit(outputFile)) {
-                    long fileSize = outputFile.exists() ? outputFile.length() : -1;
-                    telegram.sendText(chatId, "[ERROR ☢️☣️] Trimmed audio exceeds 50 MB (" + String.format(Locale.US, "%.2f MB", fileSize / 1024.0 / 1024.0) + ").");
-                    ytDlpService.deleteFileIfExists(outputFile);
+                if (!ytDlpService.isFileSizeWithinLimit(stagedOutputFile)) {
+                    long fileSize = stagedOutputFile.exists() ? stagedOutputFile.length() : -1;
+                    telegram.sendText(chatId, "[ERROR ☢️☣️] Trimmed audio exceeds " + (config.maxFileSize / 1024 / 1024) + " MB (" + String.format(Locale.US, "%.2f MB", fileSize / 1024.0 / 1024.0) + ").");
                     return;
                 }
-                duplicateIndex.addOrUpdateDownloadedFile(outputFileName, outputFile.toPath());
+                JobScratch.commit(stagedOutputFile.toPath(), outputFile.toPath());
+                duplicateIndex.addDownloadedFile(outputFileName, outputFile.toPath());
 
                 StringBuilder msg = new StringBuilder();
                 msg.append("[SUCCESS ✅] Audio cut ready! ✂️\n");
                 msg.append("File: ").append(outputFileName).append("\n");
                 msg.append("Saved: ").append(outputFile.getAbsolutePath()).append("\n");
                 msg.append("Range: ").append(range.formatLabel());
-                telegram.sendAudio(chatId.toString(), outputFile, msg.toString());
+                sendWorkzoneAudio(telegram, chatId.toString(), outputFile, msg.toString(),
+                        "cut upload " + attachment.fileName() + " | Range: " + range.formatLabel());
+            } finally {
+                outputFileLock.unlock();
             }
-            logger.info("[{}] [SendAudio] Sent cut upload: {} | Range: {}", now(), attachment.fileName(), range.formatLabel());
+            logger.info("[{}] [SendAudio] Queued cut upload: {} | Range: {}", now(), attachment.fileName(), range.formatLabel());
         } catch (Exception e) {
             logger.error("[{}] Uploaded audio cut failed", now(), e);
             telegram.sendText(chatId, "[ERROR ☢️☣️] Audio cut failed: " + e.getMessage());
@@ -507,8 +611,8 @@ public class CommandHandler {
             if (thumbnailFile != null) {
                 ytDlpService.deleteFileIfExists(thumbnailFile);
             }
-            if (jobDir != null && jobDir.exists()) {
-                jobDir.delete();
+            if (scratch != null) {
+                scratch.close();
             }
             try {
                 progressThread.join();
@@ -558,6 +662,60 @@ public class CommandHandler {
         return ext.matches("\\.[a-z0-9]{1,8}") ? ext : ".audio";
     }
 
+    /**
+     * Queues the upload of a track that was just saved to the workzone. The workzone budget counts the
+     * file right away but does not evict it before the upload is over, and remembers its file_id.
+     */
+    private static void sendWorkzoneAudio(TelegramService telegram, String chatId, java.io.File audioFile,
+                                          String caption, String description) {
+        java.nio.file.Path path = audioFile.toPath();
+        WorkzoneManager currentWorkzone = workzone;
+        if (currentWorkzone == null) {
+            telegram.sendAudioAsync(chatId, audioFile, caption)
+                    .thenAccept(sent -> logUploadResult(sent, description));
+            return;
+        }
+        currentWorkzone.added(path);
+        telegram.sendAudioAsync(chatId, audioFile, caption, fileId -> currentWorkzone.sent(path, fileId))
+                .thenAccept(sent -> {
+                    currentWorkzone.uploadSettled(path);
+                    logUploadResult(sent, description);
+                });
+    }
+
+    static String buildWorkzoneSummary(WorkzoneManager.Stats stats, ScratchJanitor.Report scratchReclaimed) {
+        StringBuilder msg = new StringBuilder();
+        msg.append("[WORKZONE 💾] ").append(stats.directory()).append("\n");
+        msg.append("Used: ").append(formatMegabytes(stats.usedBytes()));
+        if (stats.budgetBytes() > 0) {
+            msg.append(" of ").append(formatMegabytes(stats.budgetBytes()))
+                    .append(String.format(Locale.US, " (%.0f%%)", stats.usedBytes() * 100.0 / stats.budgetBytes()));
+        } else {
+            msg.append(" (no budget set)");
+        }
+        msg.append("\n");
+        msg.append("Files: ").append(stats.files()).append("\n");
+        msg.append("Sent, with Telegram file_id: ").append(stats.withFileId()).append("\n");
+        msg.append("Uploading now: ").append(stats.uploading()).append("\n");
+        msg.append("Evicted since start: ").append(stats.evictedFiles())
+                .append(" (").append(formatMegabytes(stats.evictedBytes())).append(")\n");
+        msg.append("Scratch leftovers reclaimed since start: ").append(scratchReclaimed.files())
+                .append(" files (").append(formatMegabytes(scratchReclaimed.bytes())).append(")");
+        return msg.toString();
+    }
+
+    private static String formatMegabytes(long bytes) {
+        return String.format(Locale.US, "%.1f MB", bytes / 1024.0 / 1024.0);
+    }
+
+    private static void logUploadResult(boolean sent, String description) {
+        if (sent) {
+            logger.info("[{}] [SendAudio] Sent {}", now(), description);
+        } else {
+            logger.warn("[{}] [SendAudio] Upload failed for {}", now(), description);
+        }
+    }
+
     private static void sendMetadataFallbackWarningIfAny(TelegramService telegram, Long chatId, java.util.List<String> details) {
         if (details == null || details.isEmpty()) {
             return;
@@ -605,24 +763,40 @@ public class CommandHandler {
             if (isDeleteMp3Command(text)) {
                 return handleDeleteMp3Command(telegram, message.getChatId());
             }
+            if (isWorkzoneCommand(text)) {
+                WorkzoneManager currentWorkzone = workzone;
+                ScratchJanitor currentJanitor = scratchJanitor;
+                telegram.sendText(message.getChatId(), currentWorkzone == null || currentJanitor == null
+                        ? "[WORKZONE 💾] Workzone accounting has not started"
+                        : buildWorkzoneSummary(currentWorkzone.stats(), currentJanitor.totals()));
+                return true;
+            }
             java.util.List<DownloadRequest> requests = DownloadRequestParser.parse(text);
             if (requests.size() > 1) {
                 long batchStart = System.currentTimeMillis();
                 int approxSec = (int)Math.ceil(requests.size() * 60.0 / config.maxParallelDownloads); // 1 minute per link, parallel processing
                 telegram.sendText(message.getChatId(), "🤯 Detected " + requests.size() + " YouTube links! Up to " + config.maxParallelDownloads + " will be processed in parallel. Files will be sent as soon as each is ready.\nApproximate export time: " + approxSec + " seconds (" + (approxSec/60) + " min)");
-                new Thread(() -> {
+                helperThreads.newThread(() -> {
                     int total = requests.size();
                     int[] done = {0};
                     int[] error = {0};
                     AtomicInteger duplicateCount = new AtomicInteger(0);
                     java.util.List<String> errorDetails = new java.util.ArrayList<>();
                     java.util.List<String> metadataFallbackDetails = java.util.Collections.synchronizedList(new java.util.ArrayList<>());
-                    java.util.concurrent.ExecutorService batchExec = java.util.concurrent.Executors.newFixedThreadPool(config.maxParallelDownloads);
+                    // Every link gets a task up front; the semaphore keeps maxParallelDownloads of them downloading
+                    Semaphore downloadSlots = new Semaphore(config.maxParallelDownloads, true);
                     java.util.List<java.util.concurrent.Callable<Void>> tasks = new java.util.ArrayList<>();
                     for (int i = 0; i < requests.size(); i++) {
                         final int idx = i;
                         final DownloadRequest request = requests.get(i);
                         tasks.add(() -> {
+                            downloadSlots.acquire();
+                            try {
+                                jobSlots.acquire();
+                            } catch (InterruptedException e) {
+                                downloadSlots.release();
+                                throw e;
+                            }
                             try {
                                 boolean result = processRequestWithPreflight(telegram, message.getChatId(), request, idx + 1, total, duplicateCount, metadataFallbackDetails);
                                 if (result) {
@@ -635,19 +809,21 @@ public class CommandHandler {
                                 synchronized (error) { error[0]++; }
                                 synchronized (errorDetails) { errorDetails.add(request.url() + " (" + ex.getClass().getSimpleName() + ": " + ex.getMessage() + ")"); }
                                 logger.error("[{}] Error processing URL: {}\n{}", now(), request.url(), ex.getMessage(), ex);
+                            } finally {
+                                jobSlots.release();
+                                downloadSlots.release();
                             }
                             return null;
                         });
                     }
-                    try {
-                        for (int i = 0; i < tasks.size(); i += config.maxParallelDownloads) {
-                            int end = Math.min(i + config.maxParallelDownloads, tasks.size());
-                            batchExec.invokeAll(tasks.subList(i, end));
-                        }
+                    // Scoped like a structured task scope: the batch waits for all links, and interrupting
+                    // the batch thread cancels (interrupts) every link still queued or running
+                    try (ExecutorService batchScope = BotExecutors.newTaskExecutor(config, config.maxParallelDownloads, "yt-batch-")) {
+                        batchScope.invokeAll(tasks);
                     } catch (InterruptedException e) {
                         logger.error("[{}] Batch interrupted", now(), e);
+                        Thread.currentThread().interrupt();
                     }
-                    batchExec.shutdown();
                     long batchEnd = System.currentTimeMillis();
                     long elapsedSec = (batchEnd - batchStart) / 1000;
                     StringBuilder summary = new StringBuilder();
@@ -666,16 +842,19 @@ public class CommandHandler {
                             for (String detail : metadataFallbackDetails) summary.append(detail).append("\n");
                         }
                     }
-                    telegram.sendText(message.getChatId(), summary.toString());
+                    // Let the queued uploads reach the chat before the summary
+                    telegram.whenUploadsSettled(message.getChatId().toString())
+                            .thenRun(() -> telegram.sendText(message.getChatId(), summary.toString()));
                 }).start();
                 return true;
             } else if (requests.size() == 1) {
                 telegram.sendText(message.getChatId(), "[SUCCESS ✅] Link accepted! 🎬 Starting processing...");
                 telegram.sendChatAction(message.getChatId(), ActionType.UPLOADDOCUMENT);
-                executor.submit(() -> {
+                submitJob(() -> {
                     java.util.List<String> metadataFallbackDetails = java.util.Collections.synchronizedList(new java.util.ArrayList<>());
                     processRequestWithPreflight(telegram, message.getChatId(), requests.get(0), 1, 1, new AtomicInteger(0), metadataFallbackDetails);
-                    sendMetadataFallbackWarningIfAny(telegram, message.getChatId(), metadataFallbackDetails);
+                    telegram.whenUploadsSettled(message.getChatId().toString())
+                            .thenRun(() -> sendMetadataFallbackWarningIfAny(telegram, message.getChatId(), metadataFallbackDetails));
                 });
                 return true;
             } else {
@@ -705,7 +884,7 @@ public class CommandHandler {
         }
         telegram.answerCallback(callbackQuery.getId(), "Queued for download.");
         telegram.sendText(pending.chatId(), "[SUCCESS ✅] Forced download queued. Starting processing...");
-        executor.submit(() -> processDownloadWithStatus(
+        submitJob(() -> processDownloadWithStatus(
                 telegram,
                 pending.chatId(),
                 pending.request(),
@@ -727,7 +906,7 @@ public class CommandHandler {
         }
         telegram.answerCallback(callbackQuery.getId(), "Chapter download queued.");
         telegram.sendText(pending.chatId(), "[SUCCESS ✅] Chapter download approved. Starting processing...");
-        executor.submit(() -> processChapterDownloadWithStatus(
+        submitJob(() -> processChapterDownloadWithStatus(
                 telegram,
                 pending.chatId(),
                 pending.request(),
@@ -788,7 +967,7 @@ public class CommandHandler {
         String url = request.url();
         String chatId = chatIdLong.toString();
         final boolean[] sending = {true};
-        Thread progressThread = new Thread(() -> {
+        Thread progressThread = helperThreads.newThread(() -> {
             while (sending[0]) {
                 telegram.sendChatAction(chatIdLong, ActionType.UPLOADDOCUMENT);
                 try { Thread.sleep(1000); } catch (InterruptedException e) {
@@ -859,6 +1038,7 @@ public class CommandHandler {
             logger.debug("[{}] Sending final chat action for chatId: {}", now(), chatId);
         }
 
+        JobScratch scratch = null;
         try {
             // 1. Get info via yt-dlp
             String[] ytDlpInfo = ytDlpService.getVideoInfo(url);
@@ -906,8 +1086,9 @@ public class CommandHandler {
             if (!saveDir.exists()) saveDir.mkdirs();
             String finalFile = baseFileName + ".mp3";
             java.io.File finalAudioFile = new java.io.File(saveDir, finalFile);
-            Object downloadFileLock = downloadFileLocks.computeIfAbsent(finalFile.toLowerCase(Locale.ROOT), ignored -> new Object());
-            synchronized (downloadFileLock) {
+            ReentrantLock downloadFileLock = downloadFileLocks.computeIfAbsent(finalFile.toLowerCase(Locale.ROOT), ignored -> new ReentrantLock());
+            downloadFileLock.lock();
+            try {
 
             if (!forceDownload) {
                 if (finalAudioFile.exists() && finalAudioFile.length() > 0) {
@@ -922,69 +1103,78 @@ public class CommandHandler {
                 }
             }
 
-            ytDlpService.deleteFileIfExists(finalAudioFile);
-
-            // 4. Download audio
-            boolean success = ytDlpService.downloadAudioWithThumbnail(url, finalAudioFile.getAbsolutePath());
-            if (!success && !finalAudioFile.exists()) {
+            // 4. Download audio into the job's scratch directory; the workzone only ever sees the finished file
+            scratch = JobScratch.create(saveDir.toPath(), "download");
+            java.io.File stagedAudioFile = scratch.file(finalFile).toFile();
+            boolean success = ytDlpService.downloadAudioWithThumbnail(url, stagedAudioFile.getAbsolutePath(), true,
+                    scratch.directory().toFile());
+            if (!success && !stagedAudioFile.exists()) {
                 telegram.sendText(chatIdLong, "[ERROR ☢️☣️] Error downloading or converting audio. Check the link or try another video. (" + index + "/" + total + ")\nURL: " + url + " ❌");
                 return false;
             }
 
             if (request.hasClipRange()) {
                 telegram.sendChatAction(chatIdLong, ActionType.TYPING);
-                boolean clipOk = ytDlpService.trimAudioRange(finalAudioFile, request.clipRange());
+                boolean clipOk = ytDlpService.trimAudioRange(stagedAudioFile, request.clipRange());
                 if (!clipOk) {
                     telegram.sendText(chatIdLong, "[ERROR ☢️☣️] Error trimming audio range " + request.clipRange().formatLabel() + ". (" + index + "/" + total + ")\nURL: " + url + " ✂️");
-                    ytDlpService.deleteFileIfExists(finalAudioFile);
                     return false;
                 }
             }
 
             // 5. Check limits
             telegram.sendChatAction(chatIdLong, ActionType.TYPING);
-            if (!finalAudioFile.exists() || finalAudioFile.length() == 0) {
+            if (!stagedAudioFile.exists() || stagedAudioFile.length() == 0) {
                 logger.error("[{}] [FileNotFound] Downloaded file does not exist or is empty: {} | URL: {}", 
-                            now(), finalAudioFile.getAbsolutePath(), url);
+                            now(), stagedAudioFile.getAbsolutePath(), url);
                 String errMsg = "[ERROR ☢️☣️] Download failed. The audio file is too large (over " + (config.maxFileSize / 1024 / 1024) + " MB) or the video is unavailable. (" + index + "/" + total + ")\nURL: " + url + " ❓";
                 telegram.sendText(chatIdLong, errMsg);
-                ytDlpService.deleteFileIfExists(finalAudioFile);
                 return false;
             }
-            double durationAfterDownload = ytDlpService.getAudioDurationSeconds(finalAudioFile.getAbsolutePath());
+            double durationAfterDownload = ytDlpService.getAudioDurationSeconds(stagedAudioFile.getAbsolutePath());
             if (!ytDlpService.isDurationWithinLimit(durationAfterDownload)) {
                 logger.warn("[{}] [DurationLimit] Video too long: {} seconds | URL: {} | Expected limit: {} seconds", now(), durationAfterDownload, url, 30 * 60);
                 String errMsg = "[ERROR ☢️☣️] Video is too long (over 30 minutes). Try another video. (" + index + "/" + total + ")\nURL: " + url + " ⏳";
                 telegram.sendText(chatIdLong, errMsg);
-                ytDlpService.deleteFileIfExists(finalAudioFile);
                 return false;
             }
-            if (!ytDlpService.isFileSizeWithinLimit(finalAudioFile)) {
-                long fileSize = finalAudioFile.exists() ? finalAudioFile.length() : -1;
+            if (!ytDlpService.isFileSizeWithinLimit(stagedAudioFile)) {
+                long fileSize = stagedAudioFile.exists() ? stagedAudioFile.length() : -1;
                 
                 // Check if file is empty (download failed)
                 if (fileSize == 0) {
                     logger.error("[{}] [DownloadFailed] Downloaded file is empty: {} | URL: {} | Possible causes: video unavailable, age-restricted, or blocked", 
-                               now(), finalAudioFile.getAbsolutePath(), url);
+                               now(), stagedAudioFile.getAbsolutePath(), url);
                     String errMsg = "[ERROR ☢️☣️] Failed to download video. Video may be unavailable, age-restricted, or blocked by YouTube. (" + index + "/" + total + ")\nURL: " + url + " 🚫\n\n🔍 Debug: Empty file (0 bytes) - usually means YouTube blocked access or video is restricted.";
                     telegram.sendText(chatIdLong, errMsg);
                 } else if (fileSize > 0) {
                     logger.warn("[{}] [FileSizeLimit] File too large: {} bytes | URL: {} | Expected limit: {} bytes", 
-                               now(), fileSize, url, 50 * 1024 * 1024);
-                    String errMsg = "[ERROR ☢️☣️] Audio file exceeds 50 MB (" + String.format("%.2f MB", fileSize / 1024.0 / 1024.0) + "). Try another video. (" + index + "/" + total + ")\nURL: " + url + " 💾";
+                               now(), fileSize, url, config.maxFileSize);
+                    String errMsg = "[ERROR ☢️☣️] Audio file exceeds " + (config.maxFileSize / 1024 / 1024) + " MB (" + String.format("%.2f MB", fileSize / 1024.0 / 1024.0) + "). Try another video. (" + index + "/" + total + ")\nURL: " + url + " 💾";
                     telegram.sendText(chatIdLong, errMsg);
                 } else {
                     logger.error("[{}] [FileNotFound] Downloaded file does not exist: {} | URL: {}", 
-                                now(), finalAudioFile.getAbsolutePath(), url);
+                                now(), stagedAudioFile.getAbsolutePath(), url);
                     String errMsg = "[ERROR ☢️☣️] Download failed. File not found. (" + index + "/" + total + ")\nURL: " + url + " ❓";
                     telegram.sendText(chatIdLong, errMsg);
                 }
                 
-                ytDlpService.deleteFileIfExists(finalAudioFile);
                 return false;
             }
 
-            // 6. Build message and send audio
+            // 6. Commit: one rename publishes the complete file, the index entries below follow it
+            JobScratch.commit(stagedAudioFile.toPath(), finalAudioFile.toPath());
+            } finally {
+                downloadFileLock.unlock();
+            }
+
+            // Null unless duplicate.fingerprint.enabled is set. Decoding takes a while, so it runs without the
+            // file's lock; only the lookup and the index adds below take it again
+            AudioFingerprint fingerprint = duplicateIndex.fingerprint(finalAudioFile.toPath());
+            downloadFileLock.lock();
+            try {
+
+            // 7. Build message and send audio
             String beforeName;
             if (fallbackUsed && ytTitleRaw != null && !ytTitleRaw.isBlank()) {
                 beforeName = ytTitleRaw + ".mp3";
@@ -1007,14 +1197,25 @@ public class CommandHandler {
             if (unsafeMetadataFallbackUsed) {
                 msg.append("\n\n[WARNING ⚠️] Normal title metadata was unavailable; saved with fallback name.");
             }
-            duplicateIndex.addOrUpdateDownloadedFile(afterName, finalAudioFile.toPath());
-            requestDuplicateIndex.addOrUpdate(request, afterName, finalAudioFile.toPath());
-            telegram.sendAudio(chatId, finalAudioFile, msg.toString());
+            // Catches re-uploads whose title matched nothing
+            if (fingerprint != null && !forceDownload) {
+                duplicateIndex.findDuplicate(baseFileName, fingerprint)
+                        .filter(match -> !match.path().equals(finalAudioFile.getAbsolutePath()))
+                        .ifPresent(match -> msg.append("\n\n[WARNING ⚠️] Sounds like a track you already have: ")
+                                .append(match.displayName()).append("\n").append(match.path()));
+            }
+            // Written by the index appenders in the background, together with whatever other jobs add meanwhile
+            duplicateIndex.addDownloadedFile(afterName, finalAudioFile.toPath(), fingerprint);
+            requestDuplicateIndex.add(request, afterName, finalAudioFile.toPath());
+            // The file is committed; the upload continues in the background and this worker slot is freed
+            sendWorkzoneAudio(telegram, chatId, finalAudioFile, msg.toString(), "audio for URL: " + url);
             if (unsafeMetadataFallbackUsed && metadataFallbackDetails != null) {
                 metadataFallbackDetails.add(metadataFallbackWarningLine(url, afterName));
             }
-            logger.info("[{}] [SendAudio] Sent audio for URL: {}", now(), url);
+            logger.info("[{}] [SendAudio] Queued audio for URL: {}", now(), url);
             return true;
+            } finally {
+                downloadFileLock.unlock();
             }
         } catch (IOException e) {
             logger.error("[{}] IOException occurred: {} | URL: {} ({} / {})", now(), e.getMessage(), url, index, total, e);
@@ -1030,6 +1231,9 @@ public class CommandHandler {
             telegram.sendText(chatIdLong, errMsg);
         } finally {
             sending[0] = false; // Stop the progress thread
+            if (scratch != null) {
+                scratch.close();
+            }
             try {
                 progressThread.join(); // Wait for the thread to finish
             } catch (InterruptedException e) {
@@ -1112,7 +1316,7 @@ public class CommandHandler {
         String url = request.url();
         String chatId = chatIdLong.toString();
         final boolean[] sending = {true};
-        Thread progressThread = new Thread(() -> {
+        Thread progressThread = helperThreads.newThread(() -> {
             while (sending[0]) {
                 telegram.sendChatAction(chatIdLong, ActionType.UPLOADDOCUMENT);
                 try { Thread.sleep(1000); } catch (InterruptedException e) {
@@ -1123,7 +1327,7 @@ public class CommandHandler {
         });
         progressThread.start();
 
-        java.io.File fullAudioFile = null;
+        JobScratch scratch = null;
         try {
             YoutubeVideoMetadata metadata = ytDlpService.getVideoMetadata(url);
             if (!metadata.hasMultipleChapters()) {
@@ -1133,19 +1337,26 @@ public class CommandHandler {
 
             java.io.File saveDir = Utils.getYoutubeMp3WorkzoneDir();
             if (!saveDir.exists()) saveDir.mkdirs();
-            java.io.File tempDir = new java.io.File(saveDir, "temp_mp3");
-            if (!tempDir.exists()) tempDir.mkdirs();
 
             java.util.List<ChapterTrackPlan> plans = buildChapterTrackPlans(metadata);
             java.util.List<ChapterTrackPlan> toDownload = new java.util.ArrayList<>();
             java.util.List<SkippedChapter> skipped = new java.util.ArrayList<>();
 
+            java.util.List<java.util.concurrent.CompletableFuture<Boolean>> existingChapters = new java.util.ArrayList<>();
             for (ChapterTrackPlan plan : plans) {
                 java.io.File finalAudioFile = new java.io.File(saveDir, plan.fileName());
                 if (finalAudioFile.exists() && finalAudioFile.length() > 0) {
-                    duplicateIndex.addOrUpdateDownloadedFile(plan.fileName(), finalAudioFile.toPath());
+                    existingChapters.add(duplicateIndex.addDownloadedFile(plan.fileName(), finalAudioFile.toPath()));
                 }
-                java.util.Optional<MusicDuplicateIndex.DuplicateMatch> duplicate = duplicateIndex.findDuplicate(plan.baseName());
+            }
+            // Submitted together so they share one append; the lookup below must see them
+            java.util.concurrent.CompletableFuture.allOf(existingChapters.toArray(java.util.concurrent.CompletableFuture[]::new)).join();
+            // One lookup pass for the whole compilation instead of one per chapter
+            java.util.List<java.util.Optional<MusicDuplicateIndex.DuplicateMatch>> duplicates =
+                    duplicateIndex.findDuplicates(plans.stream().map(ChapterTrackPlan::baseName).toList());
+            for (int i = 0; i < plans.size(); i++) {
+                ChapterTrackPlan plan = plans.get(i);
+                java.util.Optional<MusicDuplicateIndex.DuplicateMatch> duplicate = duplicates.get(i);
                 if (duplicate.isPresent()) {
                     skipped.add(new SkippedChapter(plan, duplicate.get()));
                 } else {
@@ -1159,8 +1370,10 @@ public class CommandHandler {
                 return true;
             }
 
-            fullAudioFile = new java.io.File(tempDir, "chapters_source_" + System.currentTimeMillis() + ".mp3");
-            boolean audioOk = ytDlpService.downloadAudioWithThumbnail(url, fullAudioFile.getAbsolutePath(), false);
+            scratch = JobScratch.create(saveDir.toPath(), "chapters");
+            java.io.File fullAudioFile = scratch.file("chapters_source.mp3").toFile();
+            boolean audioOk = ytDlpService.downloadAudioWithThumbnail(url, fullAudioFile.getAbsolutePath(), false,
+                    scratch.directory().toFile());
             if (!audioOk || !fullAudioFile.exists() || fullAudioFile.length() == 0) {
                 telegram.sendText(chatIdLong, "[ERROR ☢️☣️] Error downloading source audio for chapter split. (" + index + "/" + total + ")\nURL: " + url + " ❌");
                 return false;
@@ -1170,41 +1383,44 @@ public class CommandHandler {
             int sent = 0;
             for (ChapterTrackPlan plan : toDownload) {
                 java.io.File chapterFile = new java.io.File(saveDir, plan.fileName());
-                ytDlpService.deleteFileIfExists(chapterFile);
-                boolean splitOk = ytDlpService.splitAudioRange(fullAudioFile, plan.chapter().clipRange(), chapterFile);
-                if (!splitOk || !chapterFile.exists() || chapterFile.length() == 0) {
+                java.io.File stagedChapterFile = scratch.file(plan.fileName()).toFile();
+                boolean splitOk = ytDlpService.splitAudioRange(fullAudioFile, plan.chapter().clipRange(), stagedChapterFile);
+                if (!splitOk || !stagedChapterFile.exists() || stagedChapterFile.length() == 0) {
                     failed.add(plan.fileName() + " (split failed)");
-                    ytDlpService.deleteFileIfExists(chapterFile);
+                    ytDlpService.deleteFileIfExists(stagedChapterFile);
                     continue;
                 }
 
-                double duration = ytDlpService.getAudioDurationSeconds(chapterFile.getAbsolutePath());
+                double duration = ytDlpService.getAudioDurationSeconds(stagedChapterFile.getAbsolutePath());
                 if (!ytDlpService.isDurationWithinLimit(duration)) {
                     failed.add(plan.fileName() + " (too long: " + formatDuration(duration) + ")");
-                    ytDlpService.deleteFileIfExists(chapterFile);
+                    ytDlpService.deleteFileIfExists(stagedChapterFile);
                     continue;
                 }
-                if (!ytDlpService.isFileSizeWithinLimit(chapterFile)) {
+                if (!ytDlpService.isFileSizeWithinLimit(stagedChapterFile)) {
                     failed.add(plan.fileName() + " (too large)");
-                    ytDlpService.deleteFileIfExists(chapterFile);
+                    ytDlpService.deleteFileIfExists(stagedChapterFile);
                     continue;
                 }
 
+                JobScratch.commit(stagedChapterFile.toPath(), chapterFile.toPath());
+
                 StringBuilder msg = new StringBuilder();
                 msg.append("[SUCCESS ✅] Chapter audio ready! 🎶 ")
                         .append(sent + 1).append("/").append(toDownload.size()).append("\n");
                 msg.append("After: ").append(plan.fileName()).append("\n");
                 msg.append("Range: ").append(plan.chapter().clipRange().formatLabel()).append("\n");
                 msg.append("YouTube: ").append(url);
-                duplicateIndex.addOrUpdateDownloadedFile(plan.fileName(), chapterFile.toPath());
-                requestDuplicateIndex.addOrUpdate(request, plan.fileName(), chapterFile.toPath());
-                telegram.sendAudio(chatId, chapterFile, msg.toString());
+                duplicateIndex.addDownloadedFile(plan.fileName(), chapterFile.toPath());
+                requestDuplicateIndex.add(request, plan.fileName(), chapterFile.toPath());
+                sendWorkzoneAudio(telegram, chatId, chapterFile, msg.toString(), "chapter " + plan.fileName());
                 sent++;
             }
 
             duplicateCount.addAndGet(skipped.size());
-            telegram.sendText(chatIdLong, buildChapterSummary("Chapter split complete.", plans.size(), sent, skipped, failed, url));
-            logger.info("[{}] [SendAudio] Sent {} chapter tracks for URL: {}", now(), sent, url);
+            String chapterSummary = buildChapterSummary("Chapter split complete.", plans.size(), sent, skipped, failed, url);
+            telegram.whenUploadsSettled(chatId).thenRun(() -> telegram.sendText(chatIdLong, chapterSummary));
+            logger.info("[{}] [SendAudio] Queued {} chapter tracks for URL: {}", now(), sent, url);
             return failed.isEmpty();
         } catch (IOException e) {
             logger.error("[{}] IOException during chapter download: {} | URL: {}", now(), e.getMessage(), url, e);
@@ -1218,8 +1434,8 @@ public class CommandHandler {
             telegram.sendText(chatIdLong, "[ERROR ☢️☣️] Unexpected chapter split error. (" + index + "/" + total + ")\nURL: " + url + " ❌");
         } finally {
             sending[0] = false;
-            if (fullAudioFile != null) {
-                ytDlpService.deleteFileIfExists(fullAudioFile);
+            if (scratch != null) {
+                scratch.close();
             }
             try {
                 progressThread.join();
@@ -3,29 +3,51 @@ package dev.telegrambots.youtubemp3downloader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DownloadRequestDuplicateIndex {
     private static final Logger logger = LoggerFactory.getLogger(DownloadRequestDuplicateIndex.class);
+    private static final String HEADER_LINE = "request_key\tdisplay_name\tpath";
 
     private final Path indexPath;
-    private long lastModifiedMillis = -1;
-    private Map<String, Entry> exactByKey = Map.of();
+    private final IndexFileWatcher.Handle fileWatch;
+    // Each update is a list of entries that goes to the file in one write
+    private final IndexFileAppender<List<Entry>, Integer> appender;
+    // Lookups read the published snapshot without locking; loads, appends and swaps happen under the lock,
+    // a ReentrantLock so that the virtual threads writing the file are not pinned
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Snapshot snapshot = Snapshot.unloaded();
+    private boolean compactionScheduled;
 
     public DownloadRequestDuplicateIndex(String musicDuplicateIndexPath) {
+        this(musicDuplicateIndexPath, false);
+    }
+
+    /**
+     * @param forceAppends whether appended lines are forced to disk before an add reports success
+     */
+    public DownloadRequestDuplicateIndex(String musicDuplicateIndexPath, boolean forceAppends) {
         if (musicDuplicateIndexPath == null || musicDuplicateIndexPath.isBlank()) {
             this.indexPath = null;
+            this.fileWatch = null;
+            this.appender = null;
         } else {
             this.indexPath = Path.of(musicDuplicateIndexPath + ".requests.tsv");
+            this.fileWatch = IndexFileWatcher.watch(indexPath);
+            this.appender = new IndexFileAppender<>(indexPath, () -> HEADER_LINE + System.lineSeparator(), forceAppends,
+                    lock, "request-index-append", this::appendGroup);
         }
     }
 
@@ -41,63 +63,129 @@ public class DownloadRequestDuplicateIndex {
         if (key.isBlank()) {
             return Optional.empty();
         }
-        reloadIfNeeded();
-        return Optional.ofNullable(exactByKey.get(key));
+        return Optional.ofNullable(currentSnapshot().byKey().get(key));
+    }
+
+    public boolean addOrUpdate(DownloadRequest request, String displayName, Path filePath) {
+        return add(request, displayName, filePath).join();
     }
 
-    public synchronized boolean addOrUpdate(DownloadRequest request, String displayName, Path filePath) {
+    /**
+     * {@link #addOrUpdate} without waiting for the write; the future completes once the entry is on file,
+     * with false when nothing had to be written or the write failed.
+     */
+    public CompletableFuture<Boolean> add(DownloadRequest request, String displayName, Path filePath) {
         if (!isEnabled() || request == null || displayName == null || displayName.isBlank()) {
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
         String key = buildKey(request);
         if (key.isBlank()) {
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
-        reloadIfNeeded();
         Entry entry = new Entry(
                 key,
                 displayName,
                 filePath == null ? "" : filePath.toAbsolutePath().toString()
         );
-        Entry existing = exactByKey.get(key);
-        if (existing != null && existing.path().equals(entry.path()) && existing.displayName().equals(entry.displayName())) {
-            return false;
+        if (isIndexed(currentSnapshot().byKey().get(key), entry)) {
+            return CompletableFuture.completedFuture(false);
         }
 
+        return appender.submit(List.of(entry)).handle((added, error) -> {
+            if (error != null) {
+                logger.error("Failed to append downloaded request to duplicate request index: {}", indexPath, error);
+                return false;
+            }
+            if (added > 0) {
+                logger.info("Added downloaded request to duplicate request index: {} -> {}", entry.key(), entry.displayName());
+            }
+            return added > 0;
+        });
+    }
+
+    /**
+     * Points the requests whose file was renamed at its new path, e.g. after {@code /sanitize_mp3}, in a
+     * single write.
+     *
+     * @param renames absolute paths, old to new
+     * @return how many entries were rewritten
+     */
+    public int renamePaths(Map<Path, Path> renames) throws IOException {
+        if (!isEnabled() || renames.isEmpty()) {
+            return 0;
+        }
+        Map<String, String> byOldPath = new HashMap<>();
+        for (Map.Entry<Path, Path> rename : renames.entrySet()) {
+            byOldPath.put(rename.getKey().toString(), rename.getValue().toString());
+            byOldPath.put(rename.getKey().normalize().toString(), rename.getValue().normalize().toString());
+        }
+        List<Entry> moved = new ArrayList<>();
+        for (Entry entry : currentSnapshot().byKey().values()) {
+            String newPath = byOldPath.get(entry.path());
+            if (newPath != null) {
+                moved.add(new Entry(entry.key(), entry.displayName(), newPath));
+            }
+        }
+        if (moved.isEmpty()) {
+            return 0;
+        }
         try {
-            Path parent = indexPath.toAbsolutePath().getParent();
-            if (parent != null) {
-                Files.createDirectories(parent);
+            return appender.submit(moved).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
             }
-            boolean writeHeader = !Files.exists(indexPath) || Files.size(indexPath) == 0;
-            try (BufferedWriter writer = Files.newBufferedWriter(
-                    indexPath,
-                    StandardCharsets.UTF_8,
-                    java.nio.file.StandardOpenOption.CREATE,
-                    java.nio.file.StandardOpenOption.APPEND
-            )) {
-                if (writeHeader) {
-                    writer.write("request_key\tdisplay_name\tpath");
-                    writer.newLine();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes every add submitted so far and closes the index file, e.g. on shutdown.
+     */
+    public void close() {
+        if (appender != null) {
+            appender.close();
+        }
+    }
+
+    /**
+     * Appends the entries of one {@link IndexFileAppender} group that change something, in one write.
+     * Runs under the lock.
+     */
+    private List<Integer> appendGroup(List<List<Entry>> updates, IndexFileAppender.Output output) throws IOException {
+        Snapshot current = currentSnapshot();
+        Map<String, Entry> written = new HashMap<>();
+        StringBuilder lines = new StringBuilder();
+        List<Integer> added = new ArrayList<>(updates.size());
+        int appendedLines = 0;
+        for (List<Entry> entries : updates) {
+            int fresh = 0;
+            for (Entry entry : entries) {
+                Entry existing = written.containsKey(entry.key()) ? written.get(entry.key()) : current.byKey().get(entry.key());
+                if (!isIndexed(existing, entry)) {
+                    written.put(entry.key(), entry);
+                    lines.append(formatLine(entry)).append(System.lineSeparator());
+                    fresh++;
                 }
-                writer.write(escapeTsv(entry.key()));
-                writer.write('\t');
-                writer.write(escapeTsv(entry.displayName()));
-                writer.write('\t');
-                writer.write(escapeTsv(entry.path()));
-                writer.newLine();
             }
-
-            Map<String, Entry> updated = new HashMap<>(exactByKey);
-            updated.put(entry.key(), entry);
-            exactByKey = Map.copyOf(updated);
-            lastModifiedMillis = Files.getLastModifiedTime(indexPath).toMillis();
-            logger.info("Added downloaded request to duplicate request index: {} -> {}", entry.key(), entry.displayName());
-            return true;
-        } catch (Exception e) {
-            logger.error("Failed to append downloaded request to duplicate request index: {}", indexPath, e);
-            return false;
+            added.add(fresh);
+            appendedLines += fresh;
         }
+        if (written.isEmpty()) {
+            return added;
+        }
+        IndexFileCursor after = output.append(lines.toString(), current.cursor());
+        fileWatch.ensureWatched();
+
+        // O(1) per key: the live map is concurrent, readers see the new keys as soon as they are put
+        current.byKey().putAll(written);
+        snapshot = new Snapshot(current.byKey(), current.generation(), after, current.lines() + appendedLines);
+        scheduleCompactionIfDue();
+        return added;
+    }
+
+    private static boolean isIndexed(Entry existing, Entry entry) {
+        return existing != null && existing.path().equals(entry.path()) && existing.displayName().equals(entry.displayName());
     }
 
     static String buildKey(DownloadRequest request) {
@@ -112,43 +200,131 @@ public class DownloadRequestDuplicateIndex {
         return videoId.toLowerCase(Locale.ROOT) + "|" + range;
     }
 
-    private void reloadIfNeeded() {
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        long generation = fileWatch.generation();
+        return generation == current.generation() ? current : reloadIfChanged(generation);
+    }
+
+    private Snapshot reloadIfChanged(long generation) {
+        lock.lock();
         try {
-            if (!Files.exists(indexPath)) {
-                lastModifiedMillis = 0;
-                exactByKey = Map.of();
-                return;
+            Snapshot current = snapshot;
+            if (current.generation() == generation) {
+                return current;
             }
-            long currentModified = Files.getLastModifiedTime(indexPath).toMillis();
-            if (currentModified == lastModifiedMillis) {
-                return;
+            try {
+                IndexFileState state = IndexFileState.read(indexPath);
+                if (state == null) {
+                    snapshot = new Snapshot(new ConcurrentHashMap<>(), generation, null, 0);
+                    return snapshot;
+                }
+                IndexFileCursor cursor = current.cursor() == null ? IndexFileCursor.UNKNOWN : current.cursor();
+                switch (cursor.classify(indexPath, state)) {
+                    case NONE -> snapshot = new Snapshot(current.byKey(), generation, cursor.withState(state), current.lines());
+                    case APPENDED -> {
+                        // Later lines win, exactly as in a full load
+                        int[] lines = {current.lines()};
+                        IndexFileCursor advanced = cursor.readAppended(indexPath, state, line -> lines[0] += putParsed(line, current.byKey()));
+                        snapshot = new Snapshot(current.byKey(), generation, advanced, lines[0]);
+                        scheduleCompactionIfDue();
+                    }
+                    case REWRITTEN -> {
+                        Map<String, Entry> loaded = new ConcurrentHashMap<>();
+                        int[] lines = {0};
+                        IndexFileCursor loadedCursor = IndexFileCursor.readAll(indexPath, state, line -> lines[0] += putParsed(line, loaded));
+                        snapshot = new Snapshot(loaded, generation, loadedCursor, lines[0]);
+                        logger.info("Loaded duplicate request index: {} entries from {}", loaded.size(), indexPath);
+                        scheduleCompactionIfDue();
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Failed to load duplicate request index: {}", indexPath, e);
+                snapshot = Snapshot.unloaded();
             }
-            exactByKey = Map.copyOf(loadIndex(indexPath));
-            lastModifiedMillis = currentModified;
-            logger.info("Loaded duplicate request index: {} entries from {}", exactByKey.size(), indexPath);
-        } catch (Exception e) {
-            logger.error("Failed to load duplicate request index: {}", indexPath, e);
-            exactByKey = Map.of();
-        }
-    }
-
-    private static Map<String, Entry> loadIndex(Path path) throws IOException {
-        Map<String, Entry> loaded = new HashMap<>();
-        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isBlank() || line.startsWith("#") || line.startsWith("request_key\t")) {
-                    continue;
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file with one line per key in the background once enough lines were superseded by
+     * later updates (see {@link IndexFileCompaction}). Called under the lock.
+     */
+    private void scheduleCompactionIfDue() {
+        Snapshot current = snapshot;
+        if (!compactionScheduled && current.cursor() != null
+                && IndexFileCompaction.isDue(current.lines(), current.lines() - current.byKey().size())) {
+            compactionScheduled = true;
+            Thread.ofVirtual().name("request-index-compaction").start(() -> compact(current));
+        }
+    }
+
+    private void compact(Snapshot source) {
+        try {
+            List<Entry> live = List.copyOf(source.byKey().values());
+            Path prepared = IndexFileCompaction.prepare(indexPath, writer -> {
+                writer.write(HEADER_LINE);
+                writer.newLine();
+                for (Entry entry : live) {
+                    writer.write(formatLine(entry));
+                    writer.newLine();
+                }
+            });
+            lock.lock();
+            try {
+                Snapshot current = snapshot;
+                // Lines appended meanwhile are not in the prepared file, so it may only replace the file the source read
+                IndexFileCursor compacted = source.cursor().equals(current.cursor())
+                        ? IndexFileCompaction.install(prepared, indexPath, source.cursor().state())
+                        : null;
+                if (compacted == null) {
+                    Files.deleteIfExists(prepared);
+                } else {
+                    logger.info("Compacted duplicate request index {}: {} lines down to {}", indexPath, current.lines(), live.size());
+                    snapshot = new Snapshot(current.byKey(), current.generation(), compacted, live.size());
                 }
-                String[] parts = line.split("\t", 3);
-                if (parts.length < 2 || parts[0].isBlank()) {
-                    continue;
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to compact duplicate request index {}: {}", indexPath, e.getMessage());
+        } finally {
+            lock.lock();
+            try {
+                compactionScheduled = false;
+                if (snapshot != source) {
+                    // Either appends raced the swap and it was dropped, or it worked and this is a no-op
+                    scheduleCompactionIfDue();
                 }
-                String filePath = parts.length == 3 ? parts[2].trim() : "";
-                loaded.put(parts[0].trim(), new Entry(parts[0].trim(), parts[1].trim(), filePath));
+            } finally {
+                lock.unlock();
             }
         }
-        return loaded;
+    }
+
+    /**
+     * Puts the entry a line describes; returns 1 for an entry line and 0 for a header, comment or malformed line.
+     */
+    private static int putParsed(String line, Map<String, Entry> entries) {
+        if (line.isBlank() || line.startsWith("#") || line.startsWith("request_key\t")) {
+            return 0;
+        }
+        String[] parts = line.split("\t", 3);
+        if (parts.length < 2 || parts[0].isBlank()) {
+            return 0;
+        }
+        String filePath = parts.length == 3 ? parts[2].trim() : "";
+        entries.put(parts[0].trim(), new Entry(parts[0].trim(), parts[1].trim(), filePath));
+        return 1;
+    }
+
+    /**
+     * The TSV line of an entry, for appends and compaction alike; entries keep their raw values in memory.
+     */
+    private static String formatLine(Entry entry) {
+        return escapeTsv(entry.key()) + "\t" + escapeTsv(entry.displayName()) + "\t" + escapeTsv(entry.path());
     }
 
     private static String escapeTsv(String value) {
@@ -157,4 +333,14 @@ public class DownloadRequestDuplicateIndex {
 
     public record Entry(String key, String displayName, String path) {
     }
+
+    /**
+     * Loaded request keys plus the watch generation, how far into the file they were read and how many
+     * entry lines that part of the file holds.
+     */
+    private record Snapshot(Map<String, Entry> byKey, long generation, IndexFileCursor cursor, int lines) {
+        static Snapshot unloaded() {
+            return new Snapshot(new ConcurrentHashMap<>(), -1, null, 0);
+        }
+    }
 }
@@ -0,0 +1,441 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable view of the music index that lookups read without locking.
+ *
+ * A snapshot is an indexed base segment plus a delta of entries appended since the base was built.
+ * Appends are O(1): the delta is a shared append-only array, and each snapshot only sees the prefix it
+ * was created with, so publishing a longer prefix never disturbs readers of an older one. The owner
+ * folds the delta into a new base in the background once it grows (see {@link #withMergedBase}).
+ *
+ * Lookups keep the semantics of a single linear scan in file order: base entries precede delta entries,
+ * exact matches take the first hit, and scored passes only let a later entry win with a strictly higher score.
+ *
+ * The base is stored column-wise (see {@link EntryColumns}) with its exact lookups in {@link IntHashIndex}
+ * tables, so a large library costs a few arrays rather than several objects per entry.
+ *
+ * Removals (a file deleted or renamed in the library) do not touch either part: the snapshot carries the
+ * set of removed paths, and lookups skip entries with such a path. The set is normally empty or tiny, and
+ * it is only consulted for an entry that is about to be returned. Appending a removed path again makes
+ * it visible again; a merge leaves removed entries out of the new base.
+ */
+final class DuplicateIndexSnapshot {
+    private final Segment base;
+    private final AppendLog delta;
+    private final Set<String> removedPaths;
+    // Identity shared by a snapshot and its descendants, so a merge can tell it was not reloaded meanwhile
+    private final Object lineage;
+    private final long generation;
+    private final IndexFileCursor cursor;
+    // TSV lines that no longer yield a live entry, as far as known; drives compaction
+    private final int deadLines;
+
+    private DuplicateIndexSnapshot(Segment base, AppendLog delta, Set<String> removedPaths, Object lineage,
+                                   long generation, IndexFileCursor cursor, int deadLines) {
+        this.base = base;
+        this.delta = delta;
+        this.removedPaths = removedPaths;
+        this.lineage = lineage;
+        this.generation = generation;
+        this.cursor = cursor;
+        this.deadLines = deadLines;
+    }
+
+    static DuplicateIndexSnapshot of(List<MusicDuplicateIndex.Entry> entries, long generation, IndexFileCursor cursor) {
+        return new DuplicateIndexSnapshot(Segment.build(entries), AppendLog.EMPTY, Set.of(), new Object(), generation, cursor, 0);
+    }
+
+    /**
+     * Snapshot whose base comes straight from a {@link MusicIndexSnapshotFile}, without re-tokenizing any key.
+     */
+    static DuplicateIndexSnapshot restore(MusicIndexSnapshotFile.Contents contents, long generation, IndexFileCursor cursor) {
+        return new DuplicateIndexSnapshot(Segment.restore(contents), AppendLog.EMPTY, Set.of(), new Object(), generation, cursor, 0);
+    }
+
+    /**
+     * Writes the base segment as a snapshot file. {@code coveredUpTo} must be the TSV position right after
+     * the base entries, which holds for a freshly loaded snapshot and for the source of a delta merge.
+     */
+    void saveBase(Path file, Path tsvPath, IndexFileCursor coveredUpTo) throws IOException {
+        saveBase(file, tsvPath, coveredUpTo, MusicDuplicateIndex.normalizerVersion());
+    }
+
+    /**
+     * {@link #saveBase(Path, Path, IndexFileCursor)} for keys built by the given
+     * {@link MusicDuplicateIndex#normalizerVersion}, which the file header records.
+     */
+    void saveBase(Path file, Path tsvPath, IndexFileCursor coveredUpTo, int normalizerVersion) throws IOException {
+        MusicIndexSnapshotFile.write(file, base.entries, base.tokenIndex, base.fuzzyIndex, tsvPath, coveredUpTo, normalizerVersion);
+    }
+
+    /**
+     * Empty snapshot that matches no watch generation, so the next lookup loads the file.
+     */
+    static DuplicateIndexSnapshot unloaded() {
+        return of(List.of(), -1, null);
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    IndexFileCursor cursor() {
+        return cursor;
+    }
+
+    int size() {
+        return base.entries.size() + delta.size;
+    }
+
+    int deltaSize() {
+        return delta.size;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * True when paths were removed since the base was built, i.e. a merge would drop entries.
+     */
+    boolean hasRemovals() {
+        return !removedPaths.isEmpty();
+    }
+
+    /**
+     * True when an entry with the same key and path is indexed and not removed.
+     */
+    boolean contains(MusicDuplicateIndex.Entry entry) {
+        if (removedPaths.contains(entry.path())) {
+            return false;
+        }
+        for (int i = 0; i < delta.size; i++) {
+            MusicDuplicateIndex.Entry appended = delta.items[i].entry;
+            if (appended.key().equals(entry.key()) && appended.path().equals(entry.path())) {
+                return true;
+            }
+        }
+        byte[] key = entry.key().getBytes(StandardCharsets.UTF_8);
+        byte[] path = entry.path().getBytes(StandardCharsets.UTF_8);
+        return base.byPath.find(EntryColumns.hash(path, 0), i -> base.entries.pathEquals(i, path) && base.entries.keyEquals(i, key)) >= 0;
+    }
+
+    /**
+     * True when some entry with this path is indexed and not removed, whatever its key.
+     */
+    boolean containsPath(String path) {
+        if (removedPaths.contains(path)) {
+            return false;
+        }
+        for (int i = 0; i < delta.size; i++) {
+            if (delta.items[i].entry.path().equals(path)) {
+                return true;
+            }
+        }
+        byte[] utf8Path = path.getBytes(StandardCharsets.UTF_8);
+        return base.byPath.find(EntryColumns.hash(utf8Path, 0), i -> base.entries.pathEquals(i, utf8Path)) >= 0;
+    }
+
+    DuplicateIndexSnapshot withGeneration(long newGeneration) {
+        return new DuplicateIndexSnapshot(base, delta, removedPaths, lineage, newGeneration, cursor, deadLines);
+    }
+
+    DuplicateIndexSnapshot withCursor(long newGeneration, IndexFileCursor newCursor) {
+        return new DuplicateIndexSnapshot(base, delta, removedPaths, lineage, newGeneration, newCursor, deadLines);
+    }
+
+    /**
+     * Same entries with the number of dead lines in the file they were read from, e.g. superseded or removed ones.
+     */
+    DuplicateIndexSnapshot withDeadLines(int newDeadLines) {
+        return new DuplicateIndexSnapshot(base, delta, removedPaths, lineage, generation, cursor, newDeadLines);
+    }
+
+    int deadLines() {
+        return deadLines;
+    }
+
+    /**
+     * Snapshot with the entry appended. Must only be called on the latest snapshot, by its single writer.
+     */
+    DuplicateIndexSnapshot append(MusicDuplicateIndex.Entry entry, IndexFileCursor newCursor) {
+        return appendAll(List.of(entry), generation, newCursor);
+    }
+
+    /**
+     * Snapshot with the entries and {@linkplain MusicDuplicateIndex.Entry#removal removals} applied in
+     * order, e.g. the lines another writer added to the file. Same single-writer rule as {@link #append}.
+     */
+    DuplicateIndexSnapshot appendAll(List<MusicDuplicateIndex.Entry> entries, long newGeneration, IndexFileCursor newCursor) {
+        AppendLog log = delta;
+        Set<String> removed = null;
+        int dead = deadLines;
+        for (MusicDuplicateIndex.Entry entry : entries) {
+            if (entry.isRemoval() || removedPaths.contains(entry.path()) || (removed != null && removed.contains(entry.path()))) {
+                removed = removed == null ? new HashSet<>(removedPaths) : removed;
+                if (entry.isRemoval()) {
+                    // The removal line and, normally, the one entry it cancels
+                    removed.add(entry.path());
+                    dead += 2;
+                    continue;
+                }
+                removed.remove(entry.path());
+            }
+            log = log.append(new DeltaEntry(entry));
+        }
+        return new DuplicateIndexSnapshot(base, log, removed == null ? removedPaths : Set.copyOf(removed), lineage, newGeneration, newCursor, dead);
+    }
+
+    /**
+     * All entries that are not removed, in file order; used to build a merged base off the request path.
+     */
+    List<MusicDuplicateIndex.Entry> entries() {
+        List<MusicDuplicateIndex.Entry> all = base.entries.toList();
+        for (int i = 0; i < delta.size; i++) {
+            all.add(delta.items[i].entry);
+        }
+        if (!removedPaths.isEmpty()) {
+            all.removeIf(entry -> removedPaths.contains(entry.path()));
+        }
+        return all;
+    }
+
+    /**
+     * A new base built from all live entries of {@code source}, ready for {@link #withMergedBase}.
+     * Building it indexes every entry, so callers do it outside any lock readers or appenders wait on.
+     */
+    static MergedBase prepareMerge(DuplicateIndexSnapshot source) {
+        return new MergedBase(source, Segment.build(source.entries()), source.delta.size);
+    }
+
+    /**
+     * Replaces the base with the prepared one, which holds its source's base plus its first delta entries;
+     * later appends stay in the delta.
+     * Returns null when the snapshot no longer descends from the merge source (e.g. it was reloaded).
+     */
+    DuplicateIndexSnapshot withMergedBase(MergedBase merged) {
+        DuplicateIndexSnapshot source = merged.source;
+        if (source.base != base || source.lineage != lineage || delta.size < merged.deltaSize) {
+            return null;
+        }
+        AppendLog remaining = delta.dropFirst(merged.deltaSize);
+        // Paths the source had removed are gone from the merged base; keep them only to hide later appends
+        Set<String> stillRemoved = new HashSet<>();
+        for (String path : removedPaths) {
+            if (!source.removedPaths.contains(path) || remaining.containsPath(path)) {
+                stillRemoved.add(path);
+            }
+        }
+        return new DuplicateIndexSnapshot(merged.segment, remaining, Set.copyOf(stillRemoved), lineage, generation, cursor, deadLines);
+    }
+
+    /**
+     * The outcome of {@link #prepareMerge}: the source snapshot, its entries as a built segment and how many
+     * delta entries went into it.
+     */
+    static final class MergedBase {
+        private final DuplicateIndexSnapshot source;
+        private final Segment segment;
+        private final int deltaSize;
+
+        private MergedBase(DuplicateIndexSnapshot source, Segment segment, int deltaSize) {
+            this.source = source;
+            this.segment = segment;
+            this.deltaSize = deltaSize;
+        }
+    }
+
+    private boolean isLive(int baseEntry) {
+        return !removedPaths.contains(base.entries.path(baseEntry));
+    }
+
+    private boolean isLive(MusicDuplicateIndex.Entry entry) {
+        return removedPaths.isEmpty() || !removedPaths.contains(entry.path());
+    }
+
+    Optional<MusicDuplicateIndex.DuplicateMatch> find(String key, double fuzzyThreshold) {
+        IntPredicate live = removedPaths.isEmpty() ? i -> true : this::isLive;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int exactId = base.exactByKey.find(EntryColumns.hash(keyBytes, 0), i -> base.entries.keyEquals(i, keyBytes) && live.test(i));
+        MusicDuplicateIndex.Entry exact = exactId < 0 ? null : base.entries.entry(exactId);
+        for (int i = 0; exact == null && i < delta.size; i++) {
+            if (delta.items[i].entry.key().equals(key) && isLive(delta.items[i].entry)) {
+                exact = delta.items[i].entry;
+            }
+        }
+        if (exact != null) {
+            return Optional.of(new MusicDuplicateIndex.DuplicateMatch(exact.displayName(), exact.path(), 1.0, "exact"));
+        }
+
+        String tokenKey = MusicDuplicateIndex.tokenSortKey(key);
+        int tokenExactId = base.exactByTokenKey.find(tokenKey.hashCode(),
+                i -> MusicDuplicateIndex.tokenSortKey(base.entries.key(i)).equals(tokenKey) && live.test(i));
+        MusicDuplicateIndex.Entry tokenExact = tokenExactId < 0 ? null : base.entries.entry(tokenExactId);
+        for (int i = 0; tokenExact == null && i < delta.size; i++) {
+            if (delta.items[i].tokenSortKey.equals(tokenKey) && isLive(delta.items[i].entry)) {
+                tokenExact = delta.items[i].entry;
+            }
+        }
+        if (tokenExact != null) {
+            return Optional.of(new MusicDuplicateIndex.DuplicateMatch(tokenExact.displayName(), tokenExact.path(), 1.0, "token-exact"));
+        }
+
+        TokenMatchIndex.Match partial = base.tokenIndex.findBest(key, live);
+        MusicDuplicateIndex.Entry partialEntry = partial == null ? null : partial.entry();
+        double partialScore = partial == null ? 0.0 : partial.score();
+        if (delta.size > 0) {
+            String[] candidateTokens = TokenMatchIndex.sortedDistinctTokens(key);
+            for (int i = 0; i < delta.size; i++) {
+                double score = TokenMatchIndex.score(candidateTokens, delta.items[i].sortedTokens);
+                if (score > partialScore && isLive(delta.items[i].entry)) {
+                    partialScore = score;
+                    partialEntry = delta.items[i].entry;
+                }
+            }
+        }
+        if (partialEntry != null) {
+            return Optional.of(new MusicDuplicateIndex.DuplicateMatch(partialEntry.displayName(), partialEntry.path(), 1.0, "partial-token"));
+        }
+
+        String compactKey = MusicDuplicateIndex.compact(key);
+        FuzzyMatchIndex.Match fuzzy = base.fuzzyIndex.findBest(compactKey, fuzzyThreshold, live);
+        MusicDuplicateIndex.Entry fuzzyEntry = fuzzy == null ? null : fuzzy.entry();
+        double fuzzyScore = fuzzy == null ? 0.0 : fuzzy.score();
+        if (delta.size > 0 && !compactKey.isEmpty()) {
+            EditDistance.Pattern pattern = EditDistance.compile(compactKey);
+            for (int i = 0; i < delta.size; i++) {
+                double score = FuzzyMatchIndex.score(pattern, delta.items[i].compactKey, fuzzyThreshold);
+                if (score > fuzzyScore && isLive(delta.items[i].entry)) {
+                    fuzzyScore = score;
+                    fuzzyEntry = delta.items[i].entry;
+                }
+            }
+        }
+        if (fuzzyEntry != null) {
+            return Optional.of(new MusicDuplicateIndex.DuplicateMatch(fuzzyEntry.displayName(), fuzzyEntry.path(), fuzzyScore, "fuzzy"));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Entries with every lookup structure built: exact tables (first entry per key wins), a path table,
+     * token and fuzzy indexes.
+     */
+    private static final class Segment {
+        private final EntryColumns entries;
+        private final IntHashIndex exactByKey;
+        private final IntHashIndex exactByTokenKey;
+        private final IntHashIndex byPath;
+        private final TokenMatchIndex tokenIndex;
+        private final FuzzyMatchIndex fuzzyIndex;
+
+        private Segment(EntryColumns entries, int[] tokenSortHashes, TokenMatchIndex tokenIndex, FuzzyMatchIndex fuzzyIndex) {
+            this.entries = entries;
+            this.exactByKey = new IntHashIndex(entries.size());
+            this.exactByTokenKey = new IntHashIndex(entries.size());
+            this.byPath = new IntHashIndex(entries.size());
+            // Added in file order, so each table answers with the first entry per key
+            for (int i = 0; i < entries.size(); i++) {
+                exactByKey.add(entries.keyHash(i), i);
+                exactByTokenKey.add(tokenSortHashes[i], i);
+                byPath.add(entries.pathHash(i), i);
+            }
+            this.tokenIndex = tokenIndex;
+            this.fuzzyIndex = fuzzyIndex;
+        }
+
+        private static final Segment EMPTY = new Segment(EntryColumns.EMPTY, new int[0], TokenMatchIndex.EMPTY, FuzzyMatchIndex.EMPTY);
+
+        static Segment build(List<MusicDuplicateIndex.Entry> entries) {
+            if (entries.isEmpty()) {
+                return EMPTY;
+            }
+            EntryColumns columns = EntryColumns.of(entries);
+            return new Segment(columns, tokenSortHashes(columns), TokenMatchIndex.build(entries, columns), FuzzyMatchIndex.build(entries, columns));
+        }
+
+        static Segment restore(MusicIndexSnapshotFile.Contents contents) {
+            EntryColumns columns = contents.entries();
+            return new Segment(
+                    columns,
+                    contents.tokenSortHashes(),
+                    TokenMatchIndex.fromTokenIds(columns, contents.dictionary(), contents.tokenStart(), contents.tokenIds()),
+                    FuzzyMatchIndex.fromLayout(columns, contents.fuzzyLayout())
+            );
+        }
+    }
+
+    /**
+     * {@link String#hashCode} of each entry's token-sorted key, the hash {@link #find} probes with.
+     */
+    static int[] tokenSortHashes(EntryColumns entries) {
+        int[] hashes = new int[entries.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = MusicDuplicateIndex.tokenSortKey(entries.key(i)).hashCode();
+        }
+        return hashes;
+    }
+
+    /**
+     * Appended entry with the per-pass keys precomputed, so scanning the delta allocates nothing per entry.
+     */
+    private static final class DeltaEntry {
+        private final MusicDuplicateIndex.Entry entry;
+        private final String tokenSortKey;
+        private final String[] sortedTokens;
+        private final String compactKey;
+
+        private DeltaEntry(MusicDuplicateIndex.Entry entry) {
+            this.entry = entry;
+            this.tokenSortKey = MusicDuplicateIndex.tokenSortKey(entry.key());
+            this.sortedTokens = TokenMatchIndex.sortedDistinctTokens(entry.key());
+            this.compactKey = MusicDuplicateIndex.compact(entry.key());
+        }
+    }
+
+    /**
+     * Append-only array shared between snapshots; each instance exposes the first {@code size} items.
+     */
+    private static final class AppendLog {
+        private static final AppendLog EMPTY = new AppendLog(new DeltaEntry[0], 0);
+
+        private final DeltaEntry[] items;
+        private final int size;
+
+        private AppendLog(DeltaEntry[] items, int size) {
+            this.items = items;
+            this.size = size;
+        }
+
+        private AppendLog append(DeltaEntry item) {
+            DeltaEntry[] target = size < items.length ? items : Arrays.copyOf(items, Math.max(16, items.length * 2));
+            // Slot [size] is invisible to every published snapshot, so writing it in place is safe
+            target[size] = item;
+            return new AppendLog(target, size + 1);
+        }
+
+        private boolean containsPath(String path) {
+            for (int i = 0; i < size; i++) {
+                if (items[i].entry.path().equals(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private AppendLog dropFirst(int count) {
+            DeltaEntry[] remaining = Arrays.copyOfRange(items, count, Math.max(count + 16, items.length));
+            return new AppendLog(remaining, size - count);
+        }
+    }
+}
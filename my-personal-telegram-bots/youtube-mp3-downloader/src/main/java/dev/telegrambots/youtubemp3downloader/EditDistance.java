@@ -0,0 +1,177 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.util.Arrays;
+
+/**
+ * Bounded Levenshtein distance for the fuzzy duplicate pass.
+ *
+ * A {@link Pattern} is compiled once per lookup and then compared against many keys without allocating.
+ * Patterns up to 64 chars use the bit-parallel algorithm of Myers in Hyyrö's edit-distance form: one
+ * long holds a whole DP column, so a comparison costs a few word operations per text char. Longer
+ * patterns fall back to a DP restricted to the diagonal band the bound allows. Both stop as soon as the
+ * bound can no longer be met.
+ */
+final class EditDistance {
+    private static final int WORD_BITS = Long.SIZE;
+    private static final int ASCII = 128;
+
+    private EditDistance() {
+    }
+
+    static Pattern compile(String pattern) {
+        return new Pattern(pattern);
+    }
+
+    /**
+     * Pre-processed left-hand side. Not thread-safe: the banded fallback reuses its row buffers.
+     */
+    static final class Pattern {
+        private final String pattern;
+        private final long[] asciiMasks;
+        private final char[] otherChars;
+        private final long[] otherMasks;
+        private int[] previousRow = new int[0];
+        private int[] currentRow = new int[0];
+
+        private Pattern(String pattern) {
+            this.pattern = pattern;
+            if (pattern.length() > WORD_BITS) {
+                this.asciiMasks = null;
+                this.otherChars = null;
+                this.otherMasks = null;
+                return;
+            }
+            this.asciiMasks = new long[ASCII];
+            char[] sorted = pattern.toCharArray();
+            Arrays.sort(sorted);
+            int others = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (sorted[i] >= ASCII && (others == 0 || sorted[others - 1] != sorted[i])) {
+                    sorted[others++] = sorted[i];
+                }
+            }
+            this.otherChars = Arrays.copyOf(sorted, others);
+            this.otherMasks = new long[others];
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c < ASCII) {
+                    asciiMasks[c] |= 1L << i;
+                } else {
+                    otherMasks[Arrays.binarySearch(otherChars, c)] |= 1L << i;
+                }
+            }
+        }
+
+        int length() {
+            return pattern.length();
+        }
+
+        /**
+         * Edit distance to the text, or {@code maxDistance + 1} once it is certain to exceed maxDistance.
+         */
+        int distance(String text, int maxDistance) {
+            return distance(text, 0, text.length(), maxDistance);
+        }
+
+        /**
+         * Same for the text {@code text[from, to)}, e.g. one key of a concatenated key store.
+         */
+        int distance(String text, int from, int to, int maxDistance) {
+            int m = pattern.length();
+            int n = to - from;
+            if (Math.abs(m - n) > maxDistance) {
+                return maxDistance + 1;
+            }
+            if (m == 0 || n == 0) {
+                return Math.max(m, n);
+            }
+            return m <= WORD_BITS ? bitParallel(text, from, n, maxDistance) : banded(text, from, n, maxDistance);
+        }
+
+        private int bitParallel(String text, int from, int n, int maxDistance) {
+            int m = pattern.length();
+            long last = 1L << (m - 1);
+            long positive = m == WORD_BITS ? -1L : (1L << m) - 1;
+            long negative = 0L;
+            int score = m;
+            for (int j = 0; j < n; j++) {
+                long equal = mask(text.charAt(from + j));
+                long verticalX = equal | negative;
+                long horizontalX = (((equal & positive) + positive) ^ positive) | equal;
+                long horizontalPositive = negative | ~(horizontalX | positive);
+                long horizontalNegative = positive & horizontalX;
+                if ((horizontalPositive & last) != 0) {
+                    score++;
+                } else if ((horizontalNegative & last) != 0) {
+                    score--;
+                }
+                // Each remaining text char can lower the final distance by at most one
+                if (score - (n - j - 1) > maxDistance) {
+                    return maxDistance + 1;
+                }
+                // Row 0 is D[0][j] = j, so the top boundary always steps by +1
+                horizontalPositive = (horizontalPositive << 1) | 1L;
+                horizontalNegative <<= 1;
+                positive = horizontalNegative | ~(verticalX | horizontalPositive);
+                negative = horizontalPositive & verticalX;
+            }
+            return score <= maxDistance ? score : maxDistance + 1;
+        }
+
+        private long mask(char c) {
+            if (c < ASCII) {
+                return asciiMasks[c];
+            }
+            int index = Arrays.binarySearch(otherChars, c);
+            return index >= 0 ? otherMasks[index] : 0L;
+        }
+
+        /**
+         * DP over the cells with |i - j| <= maxDistance; cells outside the band are at least maxDistance + 1,
+         * so values are capped there. Cell (i, j) lives at index j - i + maxDistance of its row.
+         */
+        private int banded(String text, int from, int n, int maxDistance) {
+            int m = pattern.length();
+            int width = 2 * maxDistance + 1;
+            int over = maxDistance + 1;
+            if (previousRow.length < width) {
+                previousRow = new int[width];
+                currentRow = new int[width];
+            }
+            int[] previous = previousRow;
+            int[] current = currentRow;
+            for (int d = 0; d < width; d++) {
+                int j = d - maxDistance;
+                previous[d] = j >= 0 && j <= n ? Math.min(j, over) : over;
+            }
+            for (int i = 1; i <= m; i++) {
+                char patternChar = pattern.charAt(i - 1);
+                int rowMin = over;
+                for (int d = 0; d < width; d++) {
+                    int j = i + d - maxDistance;
+                    int value;
+                    if (j < 0 || j > n) {
+                        value = over;
+                    } else if (j == 0) {
+                        value = Math.min(i, over);
+                    } else {
+                        int substitute = previous[d] + (patternChar == text.charAt(from + j - 1) ? 0 : 1);
+                        int delete = (d + 1 < width ? previous[d + 1] : over) + 1;
+                        int insert = (d > 0 ? current[d - 1] : over) + 1;
+                        value = Math.min(Math.min(substitute, delete), Math.min(insert, over));
+                    }
+                    current[d] = value;
+                    rowMin = Math.min(rowMin, value);
+                }
+                // Every alignment passes through this row
+                if (rowMin > maxDistance) {
+                    return over;
+                }
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return previous[n - m + maxDistance];
+        }
+    }
+}
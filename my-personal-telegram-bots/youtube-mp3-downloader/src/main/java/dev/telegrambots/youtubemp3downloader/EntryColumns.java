@@ -0,0 +1,216 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column store for the entries of an indexed segment of {@link MusicDuplicateIndex}.
+ *
+ * Keeping an {@link MusicDuplicateIndex.Entry} with three strings per indexed file costs several small
+ * objects per entry, which dominates the heap of a large library. Here keys and display names live as
+ * UTF-8 in one byte array each, addressed by offset tables, and paths are split into a directory prefix
+ * table (a library has few distinct folders) plus a file-name arena. Entries are decoded only when a
+ * lookup returns one; key and path comparisons run on the raw bytes.
+ */
+final class EntryColumns {
+    static final EntryColumns EMPTY = of(List.of());
+
+    // Entry i owns [keyStart[i], keyStart[i + 1]) of keyBytes; the other arenas work the same way
+    private final byte[] keyBytes;
+    private final int[] keyStart;
+    private final byte[] nameBytes;
+    private final int[] nameStart;
+    // Distinct path prefixes up to and including the last separator, indexed by directoryOf
+    private final byte[] directoryBytes;
+    private final int[] directoryStart;
+    private final int[] directoryOf;
+    private final byte[] fileNameBytes;
+    private final int[] fileNameStart;
+
+    private EntryColumns(Layout layout) {
+        this.keyBytes = layout.keyBytes();
+        this.keyStart = layout.keyStart();
+        this.nameBytes = layout.nameBytes();
+        this.nameStart = layout.nameStart();
+        this.directoryBytes = layout.directoryBytes();
+        this.directoryStart = layout.directoryStart();
+        this.directoryOf = layout.directoryOf();
+        this.fileNameBytes = layout.fileNameBytes();
+        this.fileNameStart = layout.fileNameStart();
+    }
+
+    static EntryColumns of(List<MusicDuplicateIndex.Entry> entries) {
+        int count = entries.size();
+        Arena keys = new Arena(count);
+        Arena names = new Arena(count);
+        Arena fileNames = new Arena(count);
+        Arena directories = new Arena(16);
+        Map<String, Integer> directoryIds = new HashMap<>();
+        int[] directoryOf = new int[count];
+        for (int i = 0; i < count; i++) {
+            MusicDuplicateIndex.Entry entry = entries.get(i);
+            keys.add(entry.key());
+            names.add(entry.displayName());
+            String path = entry.path();
+            int split = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+            directoryOf[i] = directoryIds.computeIfAbsent(path.substring(0, split), directory -> {
+                directories.add(directory);
+                return directoryIds.size();
+            });
+            fileNames.add(path.substring(split));
+        }
+        return new EntryColumns(new Layout(
+                keys.bytes(), keys.starts(),
+                names.bytes(), names.starts(),
+                directories.bytes(), directories.starts(), directoryOf,
+                fileNames.bytes(), fileNames.starts()
+        ));
+    }
+
+    /**
+     * Columns over arrays laid out earlier, e.g. read from a {@link MusicIndexSnapshotFile}.
+     */
+    static EntryColumns fromLayout(Layout layout) {
+        int count = layout.directoryOf().length;
+        if (layout.keyStart().length != count + 1 || layout.nameStart().length != count + 1
+                || layout.fileNameStart().length != count + 1 || layout.directoryStart().length == 0) {
+            throw new IllegalArgumentException("Entry column offsets do not match the entry count " + count);
+        }
+        return new EntryColumns(layout);
+    }
+
+    /**
+     * The column arrays, shared rather than copied; callers must not modify them.
+     */
+    Layout layout() {
+        return new Layout(keyBytes, keyStart, nameBytes, nameStart, directoryBytes, directoryStart, directoryOf,
+                fileNameBytes, fileNameStart);
+    }
+
+    int size() {
+        return directoryOf.length;
+    }
+
+    String key(int entry) {
+        return new String(keyBytes, keyStart[entry], keyStart[entry + 1] - keyStart[entry], StandardCharsets.UTF_8);
+    }
+
+    String displayName(int entry) {
+        return new String(nameBytes, nameStart[entry], nameStart[entry + 1] - nameStart[entry], StandardCharsets.UTF_8);
+    }
+
+    String path(int entry) {
+        int directory = directoryOf[entry];
+        int directoryLength = directoryStart[directory + 1] - directoryStart[directory];
+        int fileNameLength = fileNameStart[entry + 1] - fileNameStart[entry];
+        byte[] path = new byte[directoryLength + fileNameLength];
+        System.arraycopy(directoryBytes, directoryStart[directory], path, 0, directoryLength);
+        System.arraycopy(fileNameBytes, fileNameStart[entry], path, directoryLength, fileNameLength);
+        return new String(path, StandardCharsets.UTF_8);
+    }
+
+    MusicDuplicateIndex.Entry entry(int entry) {
+        return new MusicDuplicateIndex.Entry(key(entry), displayName(entry), path(entry));
+    }
+
+    /**
+     * Every entry decoded, in order; for rebuilds and tests, never on the lookup path.
+     */
+    List<MusicDuplicateIndex.Entry> toList() {
+        List<MusicDuplicateIndex.Entry> entries = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            entries.add(entry(i));
+        }
+        return entries;
+    }
+
+    /**
+     * {@link #hash} of the entry's UTF-8 key.
+     */
+    int keyHash(int entry) {
+        return hash(keyBytes, keyStart[entry], keyStart[entry + 1], 0);
+    }
+
+    /**
+     * {@link #hash} of the entry's UTF-8 path.
+     */
+    int pathHash(int entry) {
+        int directory = directoryOf[entry];
+        int hash = hash(directoryBytes, directoryStart[directory], directoryStart[directory + 1], 0);
+        return hash(fileNameBytes, fileNameStart[entry], fileNameStart[entry + 1], hash);
+    }
+
+    boolean keyEquals(int entry, byte[] utf8Key) {
+        return Arrays.equals(keyBytes, keyStart[entry], keyStart[entry + 1], utf8Key, 0, utf8Key.length);
+    }
+
+    boolean pathEquals(int entry, byte[] utf8Path) {
+        int directory = directoryOf[entry];
+        int directoryLength = directoryStart[directory + 1] - directoryStart[directory];
+        return directoryLength + fileNameStart[entry + 1] - fileNameStart[entry] == utf8Path.length
+                && Arrays.equals(directoryBytes, directoryStart[directory], directoryStart[directory + 1], utf8Path, 0, directoryLength)
+                && Arrays.equals(fileNameBytes, fileNameStart[entry], fileNameStart[entry + 1], utf8Path, directoryLength, utf8Path.length);
+    }
+
+    /**
+     * Polynomial hash of {@code bytes[from, to)} continuing from {@code hash}, so hashing two ranges in a
+     * row equals hashing their concatenation.
+     */
+    static int hash(byte[] bytes, int from, int to, int hash) {
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    static int hash(byte[] bytes, int hash) {
+        return hash(bytes, 0, bytes.length, hash);
+    }
+
+    /**
+     * Growable UTF-8 arena with its offset table, used while building.
+     */
+    private static final class Arena {
+        private byte[] bytes = new byte[256];
+        private int length;
+        private int[] starts;
+        private int count;
+
+        private Arena(int expected) {
+            this.starts = new int[expected + 1];
+        }
+
+        private void add(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            if (length + utf8.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + utf8.length));
+            }
+            System.arraycopy(utf8, 0, bytes, length, utf8.length);
+            length += utf8.length;
+            if (count + 2 > starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            starts[++count] = length;
+        }
+
+        private byte[] bytes() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private int[] starts() {
+            return Arrays.copyOf(starts, count + 1);
+        }
+    }
+
+    /**
+     * Key, display name, path prefix and file name arenas with their offset tables.
+     */
+    record Layout(byte[] keyBytes, int[] keyStart, byte[] nameBytes, int[] nameStart,
+                  byte[] directoryBytes, int[] directoryStart, int[] directoryOf,
+                  byte[] fileNameBytes, int[] fileNameStart) {
+    }
+}
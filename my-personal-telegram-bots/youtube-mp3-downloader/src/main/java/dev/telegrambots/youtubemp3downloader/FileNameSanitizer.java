@@ -1,129 +1,119 @@
 package dev.telegrambots.youtubemp3downloader;
 
 import java.util.regex.Pattern;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.io.File;
+import java.nio.file.Path;
 import java.text.Normalizer;
 
 public class FileNameSanitizer {
     /**
-     * Map<Pattern, String> - file name cleaning rules.
-     * Key: regular expression to find garbage/patterns.
-     * Value: what to replace the found text with (usually empty string or space).
-     *
-     * Rules:
-     * - Remove garbage tags (z2.fm, official, lyric, kbps, etc.)
-     * - Remove special characters (#, &, ;, quotes, brackets, commas)
-     * - Clean up formatting (remove double spaces, underscores, dashes)
-     * - Replace html and unicode apostrophes with regular '
-     * - Keep only useful information (artist, title)
+     * File name cleaning rules, applied in order: the bundled {@code sanitizer-rules.tsv} (see there for
+     * what they remove and the file format), or the rule file given to {@link #useRuleFile}.
+     */
+    private static final SanitizerRules BUNDLED_RULES = SanitizerRuleFile.bundled();
+    // Null until useRuleFile is called
+    private static volatile SanitizerRuleFile ruleFile;
+
+    private static final Pattern MP3_SUFFIX = Pattern.compile("mp3$");
+    private static final Pattern DOT_MP3_SUFFIX = Pattern.compile("\\.mp3$");
+    private static final Pattern SPACES_AROUND_APOSTROPHE = Pattern.compile("\\s*'\\s*");
+    private static final Pattern TRAILING_DOTS = Pattern.compile("\\s*\\.+\\s*$");
+
+    /**
+     * Takes the cleaning rules from the given file from now on, following later edits to it. A missing
+     * file is created with the bundled rules; while the file has invalid rules, the ones in use stay.
      */
-    private static final Map<Pattern, String> rules = new LinkedHashMap<>();
-    static {
-        rules.put(Pattern.compile("\\(z2.fm\\)", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\(official (video|audio)\\)", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\(320 kbps\\)", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("#039;"), "'");
-        rules.put(Pattern.compile("&"), " ");
-        rules.put(Pattern.compile(";"), "");
-        rules.put(Pattern.compile("#"), "");
-        rules.put(Pattern.compile("\""), "");
-        rules.put(Pattern.compile("_+"), " ");
-        rules.put(Pattern.compile("[\\u2013\\u2014]"), " ");
-        rules.put(Pattern.compile("^\\s*untitled\\s+burial\\s*-\\s*", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("^\\s*aim\\s+to\\s+head\\s+release\\s+", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("^\\s*amor\\s+fati\\s+", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("^\\s*lenaobscura\\s*-\\s*", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("^\\s*nedostupnost[ьb]?\\s+", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE), "");
-        rules.put(Pattern.compile("^\\s*rhino\\s*-?\\s*", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("^\\s*surveillance\\s+state\\s+records\\s*-?\\s*", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("-{2,}"), " ");
-        rules.put(Pattern.compile("-"), " ");
-        rules.put(Pattern.compile("([\\[].+[\\]])"), "");
-        rules.put(Pattern.compile("(\\s')|('\\s)|(\\s'\\s)"), "");
-        rules.put(Pattern.compile("(&#39)|(#39)|(39;)|(39)"), "'");
-        rules.put(Pattern.compile("\\(Official Music Video\\)", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\(lyric video\\)", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("official", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("music", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("video", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("lyrics?", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("clip officiel", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("clip", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("song premiere", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("dark techno ebm industrial type", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("topic", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("2025", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("2026", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("премьера", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("песни", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bcover\\s+darkwave\\s+post\\s+punk\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bcinematic\\s+darkwave\\s+noir\\s+postpunk\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bdarkwave\\s+post\\s+punk\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bdarkwave\\s+postpunk\\s+indie\\s+pop\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bdarkwave\\s+postpunk\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bdarkwave\\s+minimal\\s+synth\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bminimal\\s+synth\\s+darkwave\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bdark\\s+dream\\s+pop\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bindustrial\\s+electronic\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("(^|\\s)[Cc\\u0421\\u0441]inematic\\s+darkwave\\s+noir\\s+post\\s+punk(?=\\s|\\.|$)", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE), " ");
-        rules.put(Pattern.compile("\\bdarkwave\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bdeep\\b(?=\\s*(?:\\.mp3|mp3)?$)", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bobscure\\s+version\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\boriginal\\s+mix\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\bjeff\\s+in\\s+leather\\s+remix\\b", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\(", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile("\\)", Pattern.CASE_INSENSITIVE), "");
-        rules.put(Pattern.compile(","), "");
-        rules.put(Pattern.compile("\\s*//.*"), ""); // Remove genre tags like "// Darkwave, Coldwave"
-        rules.put(Pattern.compile("\\s+/\\s+[^/]*/.*"), ""); // Remove multi-slash genre tags like "/ Post-Punk Phonk / Phonk-Wave"
-        rules.put(Pattern.compile("/"), " ");
-        // URL-encoded characters - decode main ones
-        rules.put(Pattern.compile("%20"), " "); // Decode space
-        rules.put(Pattern.compile("%[0-9A-Fa-f]{2}"), ""); // Remove other encoded
-        // Special characters and symbols that need cleaning
-        rules.put(Pattern.compile("\\*"), "");
-        rules.put(Pattern.compile("\\?"), " ");
-        rules.put(Pattern.compile("\\\\"), " ");
-        rules.put(Pattern.compile("\\|"), " ");
-        rules.put(Pattern.compile("!+"), "");
-        rules.put(Pattern.compile("\\.{2,}"), "");
-        rules.put(Pattern.compile("\\?{2,}"), " ");
-        rules.put(Pattern.compile("\\p{Cntrl}"), " "); // Replace control characters with space
+    public static void useRuleFile(Path path) {
+        SanitizerRuleFile current = ruleFile;
+        ruleFile = SanitizerRuleFile.open(path, current == null ? BUNDLED_RULES : current.current());
+    }
+
+    static SanitizerRules rules() {
+        SanitizerRuleFile file = ruleFile;
+        return file == null ? BUNDLED_RULES : file.current();
     }
 
     public static String sanitize(String fileName) {
+        return sanitize(fileName, rules());
+    }
+
+    /**
+     * {@link #sanitize(String)} with the given rules, for callers that must know which rules cleaned a name.
+     */
+    static String sanitize(String fileName, SanitizerRules rules) {
         if (fileName == null)
             return null;
         String result = Normalizer.normalize(fileName, Normalizer.Form.NFKC).trim().toLowerCase().replace('ё', 'е');
-        for (Map.Entry<Pattern, String> entry : rules.entrySet()) {
-            result = entry.getKey().matcher(result).replaceAll(entry.getValue());
+        result = rules.apply(result);
+        // The regexes below only run when the text can match them
+        if (result.contains("mp3")) {
+            result = MP3_SUFFIX.matcher(result).replaceAll(""); // remove mp3 without dot at the end
+            result = DOT_MP3_SUFFIX.matcher(result).replaceAll(""); // remove .mp3 at the end
+        }
+        result = collapseWhitespace(result).trim();
+        if (result.indexOf('\'') >= 0) {
+            result = SPACES_AROUND_APOSTROPHE.matcher(result).replaceAll("'");
+        }
+        if (result.indexOf('.') >= 0) {
+            result = TRAILING_DOTS.matcher(result).replaceAll(""); // remove dots at the end of string
         }
-        result = result.replaceAll("mp3$", ""); // remove mp3 without dot at the end
-        result = result.replaceAll("\\.mp3$", ""); // remove .mp3 at the end
-        result = result.replaceAll("\\s+", " ").trim();
-        result = result.replaceAll("\\s*'\\s*", "'");
-        result = result.replaceAll("\\s*\\.+\\s*$", ""); // remove dots at the end of string
         result = capitalizeWords(result);
         return result;
     }
 
+    /**
+     * Replaces each run of whitespace (as {@code \\s} matches it) with one space
+     */
+    private static String collapseWhitespace(String input) {
+        StringBuilder sb = null;
+        int copied = 0;
+        for (int i = 0; i < input.length(); i++) {
+            if (!isWhitespace(input.charAt(i))) {
+                continue;
+            }
+            int end = i + 1;
+            while (end < input.length() && isWhitespace(input.charAt(end))) {
+                end++;
+            }
+            if (end - i > 1 || input.charAt(i) != ' ') {
+                if (sb == null) {
+                    sb = new StringBuilder(input.length());
+                }
+                sb.append(input, copied, i).append(' ');
+                copied = end;
+            }
+            i = end - 1;
+        }
+        if (sb == null) {
+            return input;
+        }
+        return sb.append(input, copied, input.length()).toString();
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
     /**
      * Capitalizes each word, other letters become lowercase
      */
     private static String capitalizeWords(String input) {
         if (input == null || input.isEmpty())
             return input;
-        String[] words = input.split(" ");
-        StringBuilder sb = new StringBuilder();
-        for (String word : words) {
-            if (!word.isEmpty()) {
-                sb.append(Character.toUpperCase(word.charAt(0)));
-                if (word.length() > 1)
-                    sb.append(word.substring(1).toLowerCase());
-                sb.append(" ");
+        StringBuilder sb = new StringBuilder(input.length());
+        int start = 0;
+        while (start <= input.length()) {
+            int end = input.indexOf(' ', start);
+            if (end < 0) {
+                end = input.length();
+            }
+            if (end > start) {
+                sb.append(Character.toUpperCase(input.charAt(start)));
+                if (end - start > 1)
+                    sb.append(input.substring(start + 1, end).toLowerCase());
+                sb.append(' ');
             }
+            start = end + 1;
         }
         return sb.toString().trim();
     }
@@ -154,51 +144,16 @@ public class FileNameSanitizer {
      * @param dryRun    if true - only shows what will be renamed, without changes
      */
     public static SanitizeDirectoryResult sanitizeAllInDirectoryWithResult(String dirPath, String extension, boolean dryRun) {
-        File dir = new File(dirPath);
-        if (!dir.isDirectory()) {
-            return new SanitizeDirectoryResult(dirPath, dryRun, true, false, 0, 0, 0, 0, 0, java.util.List.of());
-        }
-        File[] files = dir.listFiles();
-        if (files == null) {
-            return new SanitizeDirectoryResult(dirPath, dryRun, false, true, 0, 0, 0, 0, 0, java.util.List.of());
-        }
-        int affected = 0;
-        int changed = 0;
-        int unchanged = 0;
-        int failed = 0;
-        int total = 0;
-        java.util.List<String> details = new java.util.ArrayList<>();
-        for (File file : files) {
-            if (file.isFile() && (extension == null || file.getName().toLowerCase().endsWith(extension))) {
-                total++;
-                String oldName = file.getName();
-                String ext = "";
-                int dot = oldName.lastIndexOf('.');
-                if (dot > 0) {
-                    ext = oldName.substring(dot);
-                    oldName = oldName.substring(0, dot);
-                }
-                String newName = sanitize(oldName) + ext;
-                if (!newName.equals(file.getName())) {
-                    affected++;
-                    File newFile = new File(dir, newName);
-                    if (dryRun) {
-                        details.add("Would rename: " + file.getName() + " -> " + newName);
-                    } else {
-                        boolean ok = file.renameTo(newFile);
-                        details.add((ok ? "Renamed: " : "Failed: ") + file.getName() + " -> " + newName);
-                        if (ok) {
-                            changed++;
-                        } else {
-                            failed++;
-                        }
-                    }
-                } else {
-                    unchanged++;
-                }
-            }
-        }
-        return new SanitizeDirectoryResult(dirPath, dryRun, false, false, total, affected, changed, unchanged, failed, details);
+        return sanitizeAllInDirectoryWithResult(dirPath, extension, dryRun, BulkRenamer.Listener.NONE);
+    }
+
+    /**
+     * {@link #sanitizeAllInDirectoryWithResult(String, String, boolean)} that reports progress and the
+     * completed renames to {@code listener}, see {@link BulkRenamer}.
+     */
+    static SanitizeDirectoryResult sanitizeAllInDirectoryWithResult(String dirPath, String extension, boolean dryRun,
+                                                                    BulkRenamer.Listener listener) {
+        return BulkRenamer.rename(Path.of(dirPath), extension, dryRun, FileNameSanitizer::sanitize, listener);
     }
 
     public static void sanitizeAllInDirectory(String dirPath, String extension, boolean dryRun) {
@@ -221,6 +176,9 @@ public class FileNameSanitizer {
             System.out.println("Total files checked: " + result.total());
             System.out.println("Files to be renamed: " + result.affected());
             System.out.println("Files already clean: " + result.unchanged());
+            if (result.skipped() > 0) {
+                System.out.println("Files to be skipped: " + result.skipped());
+            }
             if (result.affected() == 0) {
                 System.out.println("✅ No files to rename in " + dirPath);
             }
@@ -241,6 +199,9 @@ public class FileNameSanitizer {
             if (result.failed() > 0) {
                 System.out.println("Files failed: " + result.failed());
             }
+            if (result.skipped() > 0) {
+                System.out.println("Files skipped: " + result.skipped());
+            }
             if (result.affected() == 0) {
                 System.out.println("✅ No files to rename in " + dirPath);
             }
@@ -258,7 +219,13 @@ public class FileNameSanitizer {
             int changed,
             int unchanged,
             int failed,
+            int skipped,
             java.util.List<String> details
     ) {
+        public SanitizeDirectoryResult(String directory, boolean dryRun, boolean directoryMissing, boolean directoryUnreadable,
+                                       int total, int affected, int changed, int unchanged, int failed,
+                                       java.util.List<String> details) {
+            this(directory, dryRun, directoryMissing, directoryUnreadable, total, affected, changed, unchanged, failed, 0, details);
+        }
     }
 }
@@ -1,15 +1,44 @@
 package dev.telegrambots.youtubemp3downloader;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 public class FileNameSanitizerCli {
     public static void main(String[] args) {
         if (args.length < 1 || args[0].equals("--help")) {
             System.out.println("Usage: java -cp <jar> dev.telegrambots.youtubemp3downloader.FileNameSanitizerCli <dir> [ext] [dryRun]");
+            System.out.println("       java -cp <jar> dev.telegrambots.youtubemp3downloader.FileNameSanitizerCli --check-rules <rule file>");
             System.out.println("Example: java -cp ... FileNameSanitizerCli termuxserver/youtube_mp3_downloader_workzone .mp3 true");
             return;
         }
+        if (args[0].equals("--check-rules")) {
+            if (args.length < 2) {
+                System.out.println("--check-rules needs the rule file to check");
+                return;
+            }
+            checkRules(Path.of(args[1]));
+            return;
+        }
         String dir = args[0];
         String ext = args.length > 1 ? args[1] : ".mp3";
         boolean dryRun = args.length > 2 && Boolean.parseBoolean(args[2]);
         FileNameSanitizer.sanitizeAllInDirectory(dir, ext, dryRun);
     }
+
+    /**
+     * Reports whether the bot would accept the rule file, so it can be checked before it goes live.
+     */
+    static void checkRules(Path file) {
+        try {
+            SanitizerRules rules = SanitizerRuleFile.parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+            System.out.println(file + ": " + rules.size() + " rules OK");
+        } catch (SanitizerRuleFile.InvalidRulesException e) {
+            System.out.println(file + ": rejected, " + e.problems().size() + " problem(s)");
+            e.problems().forEach(problem -> System.out.println("  " + problem));
+        } catch (IOException e) {
+            System.out.println(file + ": cannot read: " + e.getMessage());
+        }
+    }
 }
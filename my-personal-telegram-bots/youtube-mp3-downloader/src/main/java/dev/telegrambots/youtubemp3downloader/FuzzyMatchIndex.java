@@ -0,0 +1,342 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Candidate pruning for the fuzzy pass of {@link MusicDuplicateIndex}.
+ *
+ * The fuzzy score is {@code 1 - distance / maxLength} over compact keys (spaces removed), so a threshold
+ * caps the edit distance a match may have. That cap gives two filters that never reject a real match:
+ * <ul>
+ *   <li>length: the distance is at least the length difference, so only a narrow band of key lengths
+ *       can reach the threshold. Entries are stored sorted by compact length, which makes the band a
+ *       contiguous slot range;</li>
+ *   <li>trigrams: {@code d} edits destroy at most {@code 3d} trigrams, so a match shares at least
+ *       {@code maxLength - 2 - 3d} trigram occurrences with the candidate. Trigrams are hashed into
+ *       buckets; a collision can only raise the shared count, so the bound stays safe.</li>
+ * </ul>
+ * Survivors are verified with {@link EditDistance}, bounded by the distance the threshold allows.
+ * Ties keep the entry that comes first in the index file, exactly like a linear scan.
+ *
+ * Compact keys are concatenated into one string in slot order, and each posting packs its slot and
+ * trigram count into a single int, so the index holds a handful of arrays regardless of library size.
+ */
+final class FuzzyMatchIndex {
+    static final FuzzyMatchIndex EMPTY = new FuzzyMatchIndex(List.of(), EntryColumns.EMPTY);
+
+    private static final int GRAM_LENGTH = 3;
+    private static final int GRAM_BUCKET_BITS = 18;
+    private static final int GRAM_BUCKET_MASK = (1 << GRAM_BUCKET_BITS) - 1;
+    // A posting is slot << COUNT_BITS | count; a saturated count stands for "at least that many" and is
+    // read as unbounded, which can only raise the shared count and so never rejects a real match
+    private static final int COUNT_BITS = 8;
+    private static final int SATURATED_COUNT = (1 << COUNT_BITS) - 1;
+    static final int MAX_ENTRIES = 1 << (Integer.SIZE - 1 - COUNT_BITS);
+
+    private final EntryColumns entries;
+    // Slots are ordered by (compact length, file order); slot s owns [compactStart[s], compactStart[s + 1])
+    private final String compactKeys;
+    private final int[] compactStart;
+    private final int[] entryIndexBySlot;
+    // lengthStart[len] = first slot whose compact key is at least len chars long
+    private final int[] lengthStart;
+    // Postings in CSR layout: bucket b owns [bucketStart[b], bucketStart[b + 1]) with ascending slots
+    private final int[] bucketStart;
+    private final int[] postings;
+
+    private FuzzyMatchIndex(List<MusicDuplicateIndex.Entry> entries, EntryColumns columns) {
+        if (entries.size() >= MAX_ENTRIES) {
+            throw new IllegalArgumentException("Fuzzy index holds at most " + MAX_ENTRIES + " entries, got " + entries.size());
+        }
+        this.entries = columns;
+        int size = entries.size();
+        String[] compactKeys = compactKeys(entries);
+        this.entryIndexBySlot = slotOrder(compactKeys);
+        this.compactStart = new int[size + 1];
+        this.compactKeys = concatenateBySlot(compactKeys, entryIndexBySlot, compactStart);
+        this.lengthStart = lengthStart(compactStart);
+
+        int[][] gramsBySlot = new int[size][];
+        this.bucketStart = new int[(1 << GRAM_BUCKET_BITS) + 1];
+        for (int s = 0; s < size; s++) {
+            gramsBySlot[s] = gramBuckets(this.compactKeys, compactStart[s], compactStart[s + 1]);
+            int[] grams = gramsBySlot[s];
+            for (int i = 0; i < grams.length; i++) {
+                if (i == 0 || grams[i] != grams[i - 1]) {
+                    bucketStart[grams[i] + 1]++;
+                }
+            }
+        }
+        for (int b = 0; b < GRAM_BUCKET_MASK + 1; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        this.postings = new int[bucketStart[bucketStart.length - 1]];
+        int[] fill = Arrays.copyOf(bucketStart, bucketStart.length - 1);
+        for (int s = 0; s < size; s++) {
+            int[] grams = gramsBySlot[s];
+            int i = 0;
+            while (i < grams.length) {
+                int run = runLength(grams, i);
+                postings[fill[grams[i]]++] = (s << COUNT_BITS) | Math.min(run, SATURATED_COUNT);
+                i += run;
+            }
+        }
+    }
+
+    private FuzzyMatchIndex(EntryColumns entries, Layout layout) {
+        this.entries = entries;
+        this.entryIndexBySlot = layout.entryIndexBySlot();
+        String[] compactKeys = new String[entries.size()];
+        for (int i = 0; i < compactKeys.length; i++) {
+            compactKeys[i] = MusicDuplicateIndex.compact(entries.key(i));
+        }
+        this.compactStart = new int[compactKeys.length + 1];
+        this.compactKeys = concatenateBySlot(compactKeys, entryIndexBySlot, compactStart);
+        this.lengthStart = layout.lengthStart();
+        this.bucketStart = layout.bucketStart();
+        this.postings = layout.postings();
+    }
+
+    static FuzzyMatchIndex build(List<MusicDuplicateIndex.Entry> entries) {
+        return build(entries, EntryColumns.of(entries));
+    }
+
+    /**
+     * Index over {@code columns}, which hold the same entries as {@code entries}; the list is only read here.
+     */
+    static FuzzyMatchIndex build(List<MusicDuplicateIndex.Entry> entries, EntryColumns columns) {
+        return entries.isEmpty() ? EMPTY : new FuzzyMatchIndex(entries, columns);
+    }
+
+    /**
+     * Index over entries with a layout computed earlier, e.g. read from a {@link MusicIndexSnapshotFile}.
+     */
+    static FuzzyMatchIndex fromLayout(EntryColumns entries, Layout layout) {
+        if (entries.size() == 0) {
+            return EMPTY;
+        }
+        if (layout.entryIndexBySlot().length != entries.size()) {
+            throw new IllegalArgumentException("Fuzzy slot order does not match the entry count " + entries.size());
+        }
+        return new FuzzyMatchIndex(entries, layout);
+    }
+
+    /**
+     * The index's arrays, shared rather than copied; callers must not modify them.
+     */
+    Layout layout() {
+        return new Layout(entryIndexBySlot, lengthStart, bucketStart, postings);
+    }
+
+    private static String[] compactKeys(List<MusicDuplicateIndex.Entry> entries) {
+        String[] compactKeys = new String[entries.size()];
+        for (int i = 0; i < compactKeys.length; i++) {
+            compactKeys[i] = MusicDuplicateIndex.compact(entries.get(i).key());
+        }
+        return compactKeys;
+    }
+
+    private static int[] slotOrder(String[] compactKeys) {
+        return IntStream.range(0, compactKeys.length)
+                .boxed()
+                .sorted(Comparator.comparingInt((Integer i) -> compactKeys[i].length()).thenComparingInt(i -> i))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private static String concatenateBySlot(String[] compactKeys, int[] entryIndexBySlot, int[] compactStart) {
+        StringBuilder concatenated = new StringBuilder();
+        for (int slot = 0; slot < entryIndexBySlot.length; slot++) {
+            concatenated.append(compactKeys[entryIndexBySlot[slot]]);
+            compactStart[slot + 1] = concatenated.length();
+        }
+        return concatenated.toString();
+    }
+
+    private static int[] lengthStart(int[] compactStart) {
+        int size = compactStart.length - 1;
+        int longest = size == 0 ? 0 : compactStart[size] - compactStart[size - 1];
+        int[] lengthStart = new int[longest + 2];
+        int slot = 0;
+        for (int length = 0; length < lengthStart.length; length++) {
+            while (slot < size && compactStart[slot + 1] - compactStart[slot] < length) {
+                slot++;
+            }
+            lengthStart[length] = slot;
+        }
+        return lengthStart;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Best-scoring entry whose similarity to the compact candidate reaches the threshold, or null.
+     */
+    Match findBest(String compactCandidate, double threshold) {
+        return findBest(compactCandidate, threshold, entry -> true);
+    }
+
+    /**
+     * {@link #findBest(String, double)} among the entries {@code live} accepts, asked only about an entry
+     * that would become the best match.
+     */
+    Match findBest(String compactCandidate, double threshold, IntPredicate live) {
+        if (entries.size() == 0 || compactCandidate == null || compactCandidate.isEmpty()) {
+            return null;
+        }
+        int candidateLength = compactCandidate.length();
+        int longest = lengthStart.length - 2;
+        int shortestAllowed = candidateLength;
+        while (shortestAllowed > 0 && withinLengthBand(candidateLength, shortestAllowed - 1, threshold)) {
+            shortestAllowed--;
+        }
+        int longestAllowed = candidateLength;
+        while (longestAllowed < longest && withinLengthBand(candidateLength, longestAllowed + 1, threshold)) {
+            longestAllowed++;
+        }
+        if (shortestAllowed > longest) {
+            return null;
+        }
+        int from = lengthStart[shortestAllowed];
+        int to = lengthStart[Math.min(longestAllowed, longest) + 1];
+        if (from >= to) {
+            return null;
+        }
+
+        int[] shared = countSharedGrams(compactCandidate, from, to);
+        EditDistance.Pattern pattern = EditDistance.compile(compactCandidate);
+        int bestSlot = -1;
+        double bestScore = 0.0;
+        for (int slot = from; slot < to; slot++) {
+            int keyLength = compactStart[slot + 1] - compactStart[slot];
+            int maxLength = Math.max(candidateLength, keyLength);
+            int requiredGrams = maxLength - GRAM_LENGTH + 1 - GRAM_LENGTH * maxAllowedDistance(maxLength, threshold);
+            if (requiredGrams > 0 && shared[slot - from] < requiredGrams) {
+                continue;
+            }
+            double score = score(pattern, compactKeys, compactStart[slot], compactStart[slot + 1], threshold);
+            if ((score > bestScore || (score == bestScore && bestSlot >= 0 && entryIndexBySlot[slot] < entryIndexBySlot[bestSlot]))
+                    && live.test(entryIndexBySlot[slot])) {
+                bestScore = score;
+                bestSlot = slot;
+            }
+        }
+        if (bestSlot < 0 || bestScore < threshold) {
+            return null;
+        }
+        return new Match(entries.entry(entryIndexBySlot[bestSlot]), bestScore);
+    }
+
+    private int[] countSharedGrams(String compactCandidate, int from, int to) {
+        int[] shared = new int[to - from];
+        int[] grams = gramBuckets(compactCandidate, 0, compactCandidate.length());
+        int i = 0;
+        while (i < grams.length) {
+            int run = runLength(grams, i);
+            int bucket = grams[i];
+            int end = bucketStart[bucket + 1];
+            for (int p = firstPostingAtOrAfter(bucket, from); p < end && (postings[p] >>> COUNT_BITS) < to; p++) {
+                int count = postings[p] & SATURATED_COUNT;
+                shared[(postings[p] >>> COUNT_BITS) - from] += count == SATURATED_COUNT ? run : Math.min(run, count);
+            }
+            i += run;
+        }
+        return shared;
+    }
+
+    private int firstPostingAtOrAfter(int bucket, int slot) {
+        int low = bucketStart[bucket];
+        int high = bucketStart[bucket + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if ((postings[mid] >>> COUNT_BITS) < slot) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Similarity of one compact key to the compiled candidate, or 0 when it stays below the threshold.
+     */
+    static double score(EditDistance.Pattern pattern, String compactKey, double threshold) {
+        return score(pattern, compactKey, 0, compactKey.length(), threshold);
+    }
+
+    private static double score(EditDistance.Pattern pattern, String text, int from, int to, double threshold) {
+        int maxLength = Math.max(pattern.length(), to - from);
+        int allowedDistance = maxAllowedDistance(maxLength, threshold);
+        int distance = pattern.distance(text, from, to, allowedDistance);
+        return distance > allowedDistance ? 0.0 : similarity(distance, maxLength);
+    }
+
+    /**
+     * Same arithmetic as the original {@code 1 - distance / maxLength} score, so results stay bit-identical.
+     */
+    static double similarity(int distance, int maxLength) {
+        return maxLength == 0 ? 1.0 : 1.0 - (distance / (double) maxLength);
+    }
+
+    /**
+     * Largest edit distance that still scores at least the threshold for keys up to maxLength chars,
+     * evaluated with the same arithmetic as the similarity itself.
+     */
+    static int maxAllowedDistance(int maxLength, double threshold) {
+        if (maxLength == 0) {
+            return 0;
+        }
+        int distance = Math.min(maxLength, (int) Math.floor((1.0 - threshold) * maxLength) + 1);
+        while (distance > 0 && similarity(distance, maxLength) < threshold) {
+            distance--;
+        }
+        return distance;
+    }
+
+    private static boolean withinLengthBand(int candidateLength, int length, double threshold) {
+        return Math.abs(candidateLength - length) <= maxAllowedDistance(Math.max(candidateLength, length), threshold);
+    }
+
+    /**
+     * Sorted trigram bucket ids of {@code text[from, to)}, one per trigram occurrence.
+     */
+    private static int[] gramBuckets(String text, int from, int to) {
+        int count = to - from - GRAM_LENGTH + 1;
+        if (count <= 0) {
+            return new int[0];
+        }
+        int[] buckets = new int[count];
+        for (int i = 0; i < count; i++) {
+            int at = from + i;
+            long gram = ((long) text.charAt(at) << 32) | ((long) text.charAt(at + 1) << 16) | text.charAt(at + 2);
+            buckets[i] = (int) ((gram * 0x9E3779B97F4A7C15L) >>> (64 - GRAM_BUCKET_BITS));
+        }
+        Arrays.sort(buckets);
+        return buckets;
+    }
+
+    private static int runLength(int[] sorted, int start) {
+        int end = start + 1;
+        while (end < sorted.length && sorted[end] == sorted[start]) {
+            end++;
+        }
+        return end - start;
+    }
+
+    record Match(MusicDuplicateIndex.Entry entry, double score) {
+    }
+
+    /**
+     * Slot order, length-bucket table and packed trigram postings: everything derived from the keys
+     * except the compact keys themselves, which are cheap to recompute.
+     */
+    record Layout(int[] entryIndexBySlot, int[] lengthStart, int[] bucketStart, int[] postings) {
+    }
+}
@@ -0,0 +1,254 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Group commit for an append-only index TSV: one writer per file that keeps it open and turns the updates
+ * queued while it was busy into a single write.
+ *
+ * Updates are applied strictly in submission order. A background thread takes everything queued, hands it
+ * to the index's {@link Group} under the index lock, which decides what each update adds against the
+ * in-memory snapshot, writes those lines through {@link Output#append} and publishes them, and only then
+ * completes the updates' futures. Lines submitted while a group is being written simply form the next
+ * group. With forced writes the thread also waits up to a short window for more updates, since one
+ * {@code force} is what the whole group then shares.
+ *
+ * The channel stays open between groups. It is reopened when the path no longer names the file it has
+ * open, e.g. after {@link IndexFileCompaction} swapped the file, and after a failed write. Each write holds
+ * the {@link IndexFileLock}, so a compaction in another process cannot swap the file in the middle of it. {@link #close}
+ * writes whatever is still queued before closing, so nothing submitted before it is lost.
+ *
+ * A caller must not wait for a future while holding the index lock: the writer needs it. Both that lock and
+ * the queue's are ReentrantLocks, so the virtual writer thread is not pinned while it writes and forces.
+ */
+final class IndexFileAppender<U, R> implements AutoCloseable {
+    // How long a forced group waits for more updates
+    static final long FORCE_WINDOW_MILLIS = 2;
+    // Keeps a flood of updates from holding the index lock for too long at a time
+    private static final int MAX_GROUP = 512;
+
+    private final Path path;
+    private final Supplier<String> header;
+    private final boolean force;
+    private final Lock lock;
+    private final String threadName;
+    private final Group<U, R> group;
+    // Guards the queue and the flags below; signalled when updates arrive, on close and when draining stops
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private final Condition queueChanged = queueLock.newCondition();
+    private final ArrayDeque<Pending<U, R>> queue = new ArrayDeque<>();
+    private boolean draining;
+    private boolean closed;
+    // Only touched by the draining thread, or by close() once draining stopped
+    private FileChannel channel;
+    private IndexFileState channelState;
+
+    /**
+     * @param header lines written first when the file is missing or empty, each ending with a line separator;
+     *               asked for at each such write, since they may name a version that changed meanwhile
+     * @param force  whether each group is forced to disk before its futures complete
+     * @param lock   the index lock the group is applied under
+     */
+    IndexFileAppender(Path path, Supplier<String> header, boolean force, Lock lock, String threadName, Group<U, R> group) {
+        this.path = path;
+        this.header = header;
+        this.force = force;
+        this.lock = lock;
+        this.threadName = threadName;
+        this.group = group;
+    }
+
+    /**
+     * Queues an update; the future completes with its result once its group was written, or exceptionally
+     * when the write failed or the appender is closed.
+     */
+    CompletableFuture<R> submit(U update) {
+        Pending<U, R> pending = new Pending<>(update, new CompletableFuture<>());
+        queueLock.lock();
+        try {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("Index appender is closed: " + path));
+            }
+            queue.add(pending);
+            if (!draining) {
+                draining = true;
+                Thread.ofVirtual().name(threadName).start(this::drain);
+            } else if (queue.size() >= MAX_GROUP) {
+                queueChanged.signalAll();
+            }
+        } finally {
+            queueLock.unlock();
+        }
+        return pending.result();
+    }
+
+    /**
+     * Writes everything submitted so far, then closes the file. Later submissions fail.
+     */
+    @Override
+    public void close() {
+        queueLock.lock();
+        try {
+            closed = true;
+            queueChanged.signalAll();
+            boolean interrupted = false;
+            while (draining) {
+                try {
+                    queueChanged.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            closeChannel();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            List<Pending<U, R>> pending;
+            queueLock.lock();
+            try {
+                if (force) {
+                    lingerForMore();
+                }
+                if (queue.isEmpty()) {
+                    draining = false;
+                    queueChanged.signalAll();
+                    return;
+                }
+                pending = new ArrayList<>(Math.min(queue.size(), MAX_GROUP));
+                while (!queue.isEmpty() && pending.size() < MAX_GROUP) {
+                    pending.add(queue.poll());
+                }
+            } finally {
+                queueLock.unlock();
+            }
+            write(pending);
+        }
+    }
+
+    private void lingerForMore() {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(FORCE_WINDOW_MILLIS);
+        while (!closed && queue.size() < MAX_GROUP && remaining > 0) {
+            try {
+                remaining = queueChanged.awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void write(List<Pending<U, R>> pending) {
+        List<U> updates = new ArrayList<>(pending.size());
+        for (Pending<U, R> p : pending) {
+            updates.add(p.update());
+        }
+        List<R> results;
+        try {
+            lock.lock();
+            try {
+                results = group.apply(updates, this::append);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The next group starts from a freshly opened file
+            closeChannel();
+            for (Pending<U, R> p : pending) {
+                p.result().completeExceptionally(e);
+            }
+            return;
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            pending.get(i).result().complete(results.get(i));
+        }
+    }
+
+    private IndexFileCursor append(String lines, IndexFileCursor known) throws IOException {
+        return IndexFileLock.withLock(path, () -> appendLocked(lines, known));
+    }
+
+    private IndexFileCursor appendLocked(String lines, IndexFileCursor known) throws IOException {
+        IndexFileState before = IndexFileState.read(path);
+        if (channel != null && (before == null || !before.sameFile(channelState))) {
+            closeChannel();
+        }
+        if (channel == null) {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            channelState = IndexFileState.read(path);
+        }
+        String text = before == null || before.size() == 0 ? header.get() + lines : lines;
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (force) {
+            channel.force(false);
+        }
+        return IndexFileCursor.afterOwnAppend(path, known, before, bytes);
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing buffered on our side; the next group opens the file again
+            }
+            channel = null;
+            channelState = null;
+        }
+    }
+
+    /**
+     * What an index does with one group of updates. Runs on the writer thread under the index lock.
+     */
+    interface Group<U, R> {
+        /**
+         * Applies the updates in order, appends the lines they add through {@code output} in one call and
+         * publishes them.
+         *
+         * @return one result per update, in order
+         */
+        List<R> apply(List<U> updates, Output output) throws IOException;
+    }
+
+    interface Output {
+        /**
+         * Appends {@code lines} (each ending with a line separator), preceded by the header when the file
+         * is new or empty.
+         *
+         * @param known the cursor of the snapshot the lines go on top of, null if it saw no file
+         * @return the cursor after the write, see {@link IndexFileCursor#afterOwnAppend}
+         */
+        IndexFileCursor append(String lines, IndexFileCursor known) throws IOException;
+    }
+
+    private record Pending<U, R>(U update, CompletableFuture<R> result) {
+    }
+}
@@ -0,0 +1,122 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+/**
+ * Rewrites an append-only index TSV without its dead lines: keys that were updated later, entries that
+ * a removal line cancelled, and the removal lines themselves.
+ *
+ * An index decides when (see {@link #isDue}) and produces the live lines off the request path. They go to
+ * a temporary sibling with the index's permissions, forced to disk before anything else happens, so a
+ * crash leaves either the old file or the complete new one. The swap is a single atomic rename done by
+ * the index under the same lock as its appends and under the {@link IndexFileLock}, and only if the
+ * file is still exactly the state the live lines were taken from; otherwise the compaction is dropped
+ * and tried again after a later append. Readers never notice:
+ * lookups keep the in-memory snapshot they hold, and another process that has the old file open keeps
+ * reading the old file.
+ */
+final class IndexFileCompaction {
+    // Compact once at least this many lines are dead and they make up this share of the file
+    static final int MIN_DEAD_LINES = 256;
+    static final double MIN_DEAD_RATIO = 0.3;
+
+    private IndexFileCompaction() {
+    }
+
+    static boolean isDue(long lines, long deadLines) {
+        return deadLines >= MIN_DEAD_LINES && deadLines >= lines * MIN_DEAD_RATIO;
+    }
+
+    /**
+     * Writes the compacted file through {@code content} into a temporary sibling of the index and forces it to disk.
+     */
+    static Path prepare(Path indexPath, Content content) throws IOException {
+        Path parent = indexPath.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, indexPath.getFileName().toString(), ".compact.tmp");
+        try {
+            copyPermissions(indexPath, temp);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            content.writeTo(writer);
+            writer.flush();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * Moves the prepared file over the index if the index is still in {@code expected} state. Must be
+     * called under the lock that guards the index's appends; the check and the rename also hold the
+     * {@link IndexFileLock}, so an append from another process cannot fall between them.
+     *
+     * @return the cursor at the end of the compacted file, or null when the index changed and the prepared file was discarded
+     */
+    static IndexFileCursor install(Path prepared, Path indexPath, IndexFileState expected) throws IOException {
+        try {
+            boolean moved = IndexFileLock.withLock(indexPath, () -> {
+                if (!expected.equals(IndexFileState.read(indexPath))) {
+                    return false;
+                }
+                Files.move(prepared, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            });
+            if (!moved) {
+                return null;
+            }
+        } finally {
+            Files.deleteIfExists(prepared);
+        }
+        forceDirectory(indexPath.toAbsolutePath().getParent());
+        return IndexFileCursor.atEnd(indexPath);
+    }
+
+    /**
+     * Gives the temporary file the permissions of the index, which the rename then keeps; createTempFile
+     * alone would leave the index readable by its owner only.
+     */
+    private static void copyPermissions(Path indexPath, Path temp) throws IOException {
+        PosixFileAttributeView source = Files.getFileAttributeView(indexPath, PosixFileAttributeView.class);
+        if (source == null || !Files.exists(indexPath)) {
+            return;
+        }
+        Files.setPosixFilePermissions(temp, source.readAttributes().permissions());
+    }
+
+    /**
+     * Makes the rename itself durable where the platform allows syncing a directory.
+     */
+    private static void forceDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Not supported on Windows; the rename is still atomic there
+        }
+    }
+
+    /**
+     * The live lines of an index, header included.
+     */
+    interface Content {
+        void writeTo(BufferedWriter writer) throws IOException;
+    }
+}
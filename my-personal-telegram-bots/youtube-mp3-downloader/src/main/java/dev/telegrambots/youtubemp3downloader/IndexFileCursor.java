@@ -0,0 +1,201 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * How far an in-memory index has consumed its TSV file: the file state it saw, the byte offset just past
+ * the last complete line, and the bytes right before that offset.
+ *
+ * On a change the cursor tells a plain append (same file, larger, the consumed tail still in place) from a
+ * rewrite, so the index reads only the new lines in the common case and rebuilds only when it must.
+ * A trailing line without its newline is left for the next read, which covers a writer caught mid-line.
+ */
+record IndexFileCursor(IndexFileState state, long offset, byte[] tail) {
+    static final IndexFileCursor UNKNOWN = new IndexFileCursor(IndexFileState.UNKNOWN, -1, new byte[0]);
+
+    private static final int TAIL_BYTES = 64;
+
+    enum Change {
+        NONE, APPENDED, REWRITTEN
+    }
+
+    /**
+     * Classifies the file's current state relative to this cursor. Only reads the few tail bytes.
+     */
+    Change classify(Path path, IndexFileState current) throws IOException {
+        if (state.equals(current)) {
+            return Change.NONE;
+        }
+        if (offset < 0 || !state.sameFile(current) || current.size() < offset || !tailMatches(path, false)) {
+            return Change.REWRITTEN;
+        }
+        return current.size() == offset ? Change.NONE : Change.APPENDED;
+    }
+
+    /**
+     * Same consumed content, newer file state (e.g. the file was touched or only a partial line was added).
+     */
+    IndexFileCursor withState(IndexFileState current) {
+        return new IndexFileCursor(current, offset, tail);
+    }
+
+    /**
+     * Cursor after we appended {@code written} ourselves.
+     *
+     * @param known  the cursor of the snapshot we appended to, null if it saw no file
+     * @param before the file state read right before the write, null if there was no file
+     * @return the advanced cursor, or {@link #UNKNOWN} when the file was not exactly what {@code known}
+     *         describes plus our bytes, so the next check reloads it
+     */
+    static IndexFileCursor afterOwnAppend(Path path, IndexFileCursor known, IndexFileState before, byte[] written) throws IOException {
+        boolean inSync = known == null ? before == null : before != null && known.state.equals(before);
+        if (!inSync) {
+            return UNKNOWN;
+        }
+        IndexFileState after = IndexFileState.read(path);
+        long start = known == null ? 0 : known.offset;
+        byte[] previousTail = known == null ? new byte[0] : known.tail;
+        if (after == null || after.size() != start + written.length || (known != null && !known.state.sameFile(after))) {
+            return UNKNOWN;
+        }
+        byte[] combined = new byte[previousTail.length + written.length];
+        System.arraycopy(previousTail, 0, combined, 0, previousTail.length);
+        System.arraycopy(written, 0, combined, previousTail.length, written.length);
+        return new IndexFileCursor(after, after.size(), lastBytes(combined, combined.length));
+    }
+
+    /**
+     * Cursor at the end of a file we just wrote completely, ending with a newline.
+     */
+    static IndexFileCursor atEnd(Path path) throws IOException {
+        IndexFileState state = IndexFileState.read(path);
+        if (state == null) {
+            return UNKNOWN;
+        }
+        IndexFileCursor cursor = new IndexFileCursor(state, state.size(), new byte[(int) Math.min(TAIL_BYTES, state.size())]);
+        return cursor.tailMatches(path, true) ? cursor : UNKNOWN;
+    }
+
+    /**
+     * Cursor at a previously recorded offset, e.g. the TSV prefix covered by a binary snapshot, or null when
+     * the file no longer holds {@code tail} right before {@code offset}.
+     */
+    static IndexFileCursor resume(Path path, IndexFileState current, long offset, byte[] tail) throws IOException {
+        if (offset < 0 || offset > current.size() || tail.length > offset) {
+            return null;
+        }
+        IndexFileCursor cursor = new IndexFileCursor(current, offset, tail);
+        return cursor.tailMatches(path, false) ? cursor.withState(current) : null;
+    }
+
+    /**
+     * Reads the complete lines after this cursor and returns the advanced cursor.
+     */
+    IndexFileCursor readAppended(Path path, IndexFileState current, Consumer<String> lines) throws IOException {
+        return read(path, current, offset, tail, false, lines);
+    }
+
+    /**
+     * Reads every line of the file as of {@code current} and returns the cursor past them. Unlike an
+     * appended read this also takes a final line without newline, as a hand-edited file may end that way.
+     */
+    static IndexFileCursor readAll(Path path, IndexFileState current, Consumer<String> lines) throws IOException {
+        return read(path, current, 0, new byte[0], true, lines);
+    }
+
+    private static IndexFileCursor read(Path path, IndexFileState current, long start, byte[] previousTail,
+                                        boolean includeUnterminated, Consumer<String> lines) throws IOException {
+        long end = current.size();
+        long consumed = start;
+        byte[] lastLine = previousTail;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.position(start);
+            InputStream input = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            long position = start;
+            // Stop at the size we classified, so bytes appended meanwhile are left for the next read
+            while (position < end) {
+                int next = input.read();
+                if (next < 0) {
+                    break;
+                }
+                position++;
+                if (next != '\n') {
+                    line.write(next);
+                    continue;
+                }
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                lines.accept(new String(bytes, 0, length, StandardCharsets.UTF_8));
+                line.reset();
+                consumed = position;
+                lastLine = bytes;
+            }
+            if (includeUnterminated && line.size() > 0 && position == end) {
+                byte[] bytes = line.toByteArray();
+                lines.accept(new String(bytes, StandardCharsets.UTF_8));
+                return new IndexFileCursor(current, position, lastBytes(bytes, bytes.length));
+            }
+        }
+        byte[] tail = consumed == start ? previousTail : lastBytesWithNewline(lastLine);
+        return new IndexFileCursor(current, consumed, tail);
+    }
+
+    /**
+     * Compares the bytes right before the offset with the tail, or with {@code fill} set copies them into it.
+     */
+    private boolean tailMatches(Path path, boolean fill) throws IOException {
+        if (tail.length == 0) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(tail.length);
+            long position = offset - tail.length;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    return false;
+                }
+            }
+            if (fill) {
+                System.arraycopy(buffer.array(), 0, tail, 0, tail.length);
+                return true;
+            }
+            return Arrays.equals(buffer.array(), tail);
+        }
+    }
+
+    private static byte[] lastBytesWithNewline(byte[] line) {
+        byte[] withNewline = Arrays.copyOf(line, line.length + 1);
+        withNewline[line.length] = '\n';
+        return lastBytes(withNewline, withNewline.length);
+    }
+
+    private static byte[] lastBytes(byte[] bytes, int length) {
+        return Arrays.copyOfRange(bytes, Math.max(0, length - TAIL_BYTES), length);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof IndexFileCursor cursor
+                && offset == cursor.offset
+                && state.equals(cursor.state)
+                && Arrays.equals(tail, cursor.tail);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * state.hashCode() + Long.hashCode(offset);
+    }
+}
@@ -0,0 +1,55 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes appends to an index TSV with the rename that swaps in its compacted file, across processes:
+ * the bot and {@code MusicDuplicateIndexCli} may write the same index. Without it an append landing between
+ * the compaction's state check and its rename would go to the file the rename replaces, and be lost.
+ *
+ * The lock is an OS file lock on {@code <index>.lock} next to the index. Instances in one JVM first take a
+ * lock per path, since the OS lock belongs to the process and a second channel asking for it would fail.
+ */
+final class IndexFileLock {
+    static final String SUFFIX = ".lock";
+    private static final ConcurrentHashMap<Path, ReentrantLock> inProcess = new ConcurrentHashMap<>();
+
+    private IndexFileLock() {
+    }
+
+    /**
+     * Runs {@code action} while holding the lock of {@code indexPath}.
+     */
+    static <T> T withLock(Path indexPath, Action<T> action) throws IOException {
+        Path absolute = indexPath.toAbsolutePath().normalize();
+        ReentrantLock local = inProcess.computeIfAbsent(absolute, path -> new ReentrantLock());
+        local.lock();
+        try {
+            if (local.getHoldCount() > 1) {
+                return action.run();
+            }
+            Path parent = absolute.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (FileChannel channel = FileChannel.open(absolute.resolveSibling(absolute.getFileName() + SUFFIX),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                return action.run();
+            }
+        } finally {
+            local.unlock();
+        }
+    }
+
+    interface Action<T> {
+        T run() throws IOException;
+    }
+}
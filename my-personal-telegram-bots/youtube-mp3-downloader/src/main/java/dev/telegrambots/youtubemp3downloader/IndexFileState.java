@@ -0,0 +1,48 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Identity, size and modification time of an index file, as last consumed by an in-memory index.
+ * Comparing two states is how an index tells its own appends apart from changes made by someone else.
+ */
+record IndexFileState(Object fileKey, long creationMillis, long size, long modifiedMillis) {
+    /**
+     * A state that never equals a real file, used when our view of the file is no longer exact.
+     */
+    static final IndexFileState UNKNOWN = new IndexFileState(null, -1, -1, -1);
+
+    /**
+     * Current state of the file, or null when it does not exist.
+     */
+    static IndexFileState read(Path path) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new IndexFileState(
+                    attributes.fileKey(),
+                    attributes.creationTime().toMillis(),
+                    attributes.size(),
+                    attributes.lastModifiedTime().toMillis()
+            );
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * True when both states describe the same file object, i.e. it was not replaced in between.
+     */
+    boolean sameFile(IndexFileState other) {
+        if (other == null || this == UNKNOWN || other == UNKNOWN) {
+            return false;
+        }
+        if (fileKey != null || other.fileKey() != null) {
+            return fileKey != null && fileKey.equals(other.fileKey());
+        }
+        return creationMillis == other.creationMillis();
+    }
+}
@@ -0,0 +1,160 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns file-system events for index files into generation counters, so a lookup notices a changed
+ * index with a volatile read instead of a stat per call.
+ *
+ * One daemon thread serves every watched directory. Where the file system has no watch service, or the
+ * directory does not exist yet, a handle falls back to comparing the file state at most once per
+ * {@link #POLL_INTERVAL_MILLIS} and keeps retrying registration.
+ */
+final class IndexFileWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(IndexFileWatcher.class);
+    static final long POLL_INTERVAL_MILLIS = 2_000;
+    private static final IndexFileWatcher SHARED = new IndexFileWatcher();
+
+    private final Map<Path, List<Handle>> handlesByDirectory = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> directoriesByKey = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private boolean unsupported;
+
+    private IndexFileWatcher() {
+    }
+
+    static Handle watch(Path file) {
+        Handle handle = new Handle(SHARED, file.toAbsolutePath().normalize());
+        handle.watched = SHARED.register(handle);
+        return handle;
+    }
+
+    private synchronized boolean register(Handle handle) {
+        Path directory = handle.file.getParent();
+        if (unsupported || directory == null || !Files.isDirectory(directory)) {
+            return false;
+        }
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                Thread.ofPlatform().daemon().name("index-file-watcher").start(this::run);
+            }
+            if (!handlesByDirectory.containsKey(directory)) {
+                WatchKey key = directory.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                directoriesByKey.put(key, directory);
+            }
+            handlesByDirectory.computeIfAbsent(directory, ignored -> new CopyOnWriteArrayList<>()).add(handle);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("Index file watching unavailable, polling {} every {} ms: {}", directory, POLL_INTERVAL_MILLIS, e.getMessage());
+            unsupported = watchService == null;
+            return false;
+        }
+    }
+
+    private void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = directoriesByKey.get(key);
+            List<Handle> handles = directory == null ? List.of() : handlesByDirectory.getOrDefault(directory, List.of());
+            for (WatchEvent<?> event : key.pollEvents()) {
+                Object context = event.context();
+                for (Handle handle : handles) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || (context instanceof Path name && name.equals(handle.file.getFileName()))) {
+                        handle.generation.incrementAndGet();
+                    }
+                }
+            }
+            if (!key.reset()) {
+                // Directory is gone; fall back to polling until it is registered again
+                directoriesByKey.remove(key);
+                List<Handle> orphaned = directory == null ? null : handlesByDirectory.remove(directory);
+                if (orphaned != null) {
+                    for (Handle handle : orphaned) {
+                        handle.watched = false;
+                        handle.generation.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Change counter for one index file. The value itself means nothing; it only moves when the file may
+     * have changed.
+     */
+    static final class Handle {
+        private final IndexFileWatcher watcher;
+        private final Path file;
+        private final AtomicLong generation = new AtomicLong();
+        private volatile boolean watched;
+        private volatile long nextPollMillis;
+        private volatile IndexFileState lastPolled = IndexFileState.UNKNOWN;
+
+        private Handle(IndexFileWatcher watcher, Path file) {
+            this.watcher = watcher;
+            this.file = file;
+        }
+
+        long generation() {
+            if (!watched) {
+                poll();
+            }
+            return generation.get();
+        }
+
+        /**
+         * Retries watch registration, e.g. after the index directory was created.
+         */
+        void ensureWatched() {
+            if (!watched) {
+                watched = watcher.register(this);
+            }
+        }
+
+        private void poll() {
+            long now = System.currentTimeMillis();
+            if (now < nextPollMillis) {
+                return;
+            }
+            nextPollMillis = now + POLL_INTERVAL_MILLIS;
+            ensureWatched();
+            IndexFileState current;
+            try {
+                current = IndexFileState.read(file);
+            } catch (IOException e) {
+                current = IndexFileState.UNKNOWN;
+            }
+            if (!Objects.equals(current, lastPolled)) {
+                lastPolled = current;
+                generation.incrementAndGet();
+            }
+        }
+    }
+}
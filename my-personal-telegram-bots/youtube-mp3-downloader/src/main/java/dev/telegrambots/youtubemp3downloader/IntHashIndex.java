@@ -0,0 +1,58 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Open-addressing hash table from a 32-bit hash to entry ids, for exact lookups over {@link EntryColumns}
+ * without a map node, boxed id or key string per entry.
+ *
+ * The table stores only the full hash and the id, in two primitive arrays probed linearly; the caller
+ * confirms a candidate against the real data. Ids that share a hash are kept, and since nothing is ever
+ * removed, equal keys sit along the probe sequence in insertion order: inserting ids in file order makes
+ * {@link #find} return the first one, like {@code putIfAbsent} on a map. Filled once, then read-only.
+ */
+final class IntHashIndex {
+    private static final int EMPTY = -1;
+
+    private final int[] hashes;
+    private final int[] ids;
+    private final int mask;
+
+    IntHashIndex(int expectedSize) {
+        // Load factor at most 2/3 keeps probe runs short
+        int capacity = Integer.highestOneBit(Math.max(2, expectedSize + (expectedSize >> 1)) * 2 - 1);
+        this.hashes = new int[capacity];
+        this.ids = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(ids, EMPTY);
+    }
+
+    void add(int hash, int id) {
+        int slot = spread(hash) & mask;
+        while (ids[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        ids[slot] = id;
+    }
+
+    /**
+     * First id added under {@code hash} that {@code matches} accepts, or -1.
+     */
+    int find(int hash, IntPredicate matches) {
+        int slot = spread(hash) & mask;
+        for (int id = ids[slot]; id != EMPTY; id = ids[slot]) {
+            if (hashes[slot] == hash && matches.test(id)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    private static int spread(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+}
@@ -0,0 +1,197 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * The scratch directory of one job under the workzone's {@value #SCRATCH_DIR_NAME}, removed with
+ * everything in it when the job closes it.
+ *
+ * The directory holds a {@value #LEASE_FILE_NAME} file naming the process that owns it, by pid and start
+ * time. A job that never closed its directory, because the process was killed, thus leaves a lease whose
+ * owner is gone, and {@link ScratchJanitor} can tell that directory from one a running job still uses
+ * without guessing from its age.
+ *
+ * Jobs write only here and publish a finished file with {@link #commit}, so the workzone holds complete
+ * files only: a job that dies leaves its output here, where nothing reads it, and
+ * {@link #discardUncommitted} removes it at the next start. Index entries are appended after the commit,
+ * so they never point at a file that is not complete.
+ */
+final class JobScratch implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(JobScratch.class);
+    static final String SCRATCH_DIR_NAME = "temp_mp3";
+    static final String LEASE_FILE_NAME = ".lease";
+    // A job that holds its directory this long is assumed dead even if a process with its pid runs
+    static final long LEASE_MAX_AGE_MILLIS = 12L * 60 * 60 * 1000;
+    static final String PARTIAL_SUFFIX = ".partial";
+
+    private final Path directory;
+
+    private JobScratch(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Creates a fresh scratch directory for a job of the given kind, e.g. {@code download}.
+     */
+    static JobScratch create(Path workzone, String kind) throws IOException {
+        Path root = workzone.resolve(SCRATCH_DIR_NAME);
+        Files.createDirectories(root);
+        Path directory = Files.createDirectory(root.resolve(kind + "_" + System.currentTimeMillis() + "_"
+                + Integer.toHexString(ThreadLocalRandom.current().nextInt(0x10000, 0x100000))));
+        Files.writeString(directory.resolve(LEASE_FILE_NAME), ownerLease(), StandardCharsets.UTF_8);
+        return new JobScratch(directory);
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    /**
+     * A path for a file of this job; nothing is created.
+     */
+    Path file(String name) {
+        return directory.resolve(name);
+    }
+
+    @Override
+    public void close() {
+        try {
+            deleteTree(directory);
+        } catch (IOException e) {
+            // The janitor picks it up once this process is gone
+            logger.warn("Could not remove job scratch directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Moves a finished file into its place in the workzone in one rename, replacing a file of that name:
+     * readers see the old file or the complete new one. Where the scratch directory is on another file
+     * system, the file is first copied next to the target as a hidden {@value #PARTIAL_SUFFIX} file, which
+     * is then renamed.
+     */
+    static void commit(Path staged, Path target) throws IOException {
+        try {
+            Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Path partial = target.resolveSibling("." + target.getFileName() + PARTIAL_SUFFIX);
+            Files.copy(staged, partial, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    /**
+     * Startup recovery: deletes the scratch directories of jobs whose process is gone and the
+     * {@value #PARTIAL_SUFFIX} copies of commits that did not finish, before anything lists the workzone.
+     *
+     * @return the workzone, for chaining into what opens it next
+     */
+    static Path discardUncommitted(Path workzone) {
+        long now = System.currentTimeMillis();
+        int discarded = 0;
+        for (Path entry : list(workzone.resolve(SCRATCH_DIR_NAME))) {
+            if (Files.isDirectory(entry) && Files.exists(entry.resolve(LEASE_FILE_NAME)) && !isHeld(entry, now)) {
+                discarded += discard(entry);
+            }
+        }
+        for (Path entry : list(workzone)) {
+            String name = entry.getFileName().toString();
+            if (name.startsWith(".") && name.endsWith(PARTIAL_SUFFIX) && Files.isRegularFile(entry)) {
+                discarded += discard(entry);
+            }
+        }
+        if (discarded > 0) {
+            logger.info("Discarded {} uncommitted job outputs in {}", discarded, workzone);
+        }
+        return workzone;
+    }
+
+    private static int discard(Path entry) {
+        try {
+            deleteTree(entry);
+            return 1;
+        } catch (IOException e) {
+            logger.warn("Could not discard uncommitted {}: {}", entry, e.getMessage());
+            return 0;
+        }
+    }
+
+    private static List<Path> list(Path directory) {
+        List<Path> entries = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return entries;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(entries::add);
+        } catch (IOException e) {
+            logger.warn("Cannot list {}: {}", directory, e.getMessage());
+        }
+        return entries;
+    }
+
+    /**
+     * Whether a running job still owns the scratch directory: its lease names a live process that started
+     * when the lease says and the lease is younger than {@link #LEASE_MAX_AGE_MILLIS}. A directory without
+     * a readable lease is not held.
+     */
+    static boolean isHeld(Path directory, long nowMillis) {
+        Path lease = directory.resolve(LEASE_FILE_NAME);
+        try {
+            if (nowMillis - Files.getLastModifiedTime(lease).toMillis() > LEASE_MAX_AGE_MILLIS) {
+                return false;
+            }
+            String[] owner = Files.readString(lease, StandardCharsets.UTF_8).trim().split("\t");
+            if (owner.length != 2) {
+                return false;
+            }
+            long pid = Long.parseLong(owner[0]);
+            long startedMillis = Long.parseLong(owner[1]);
+            return ProcessHandle.of(pid)
+                    .filter(ProcessHandle::isAlive)
+                    // 0: the owner could not see its own start time, so only the pid can be checked
+                    .map(process -> startedMillis == 0 || process.info().startInstant()
+                            .map(started -> started.toEpochMilli() == startedMillis)
+                            .orElse(true))
+                    .orElse(false);
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String ownerLease() {
+        ProcessHandle self = ProcessHandle.current();
+        long started = self.info().startInstant().map(Instant::toEpochMilli).orElse(0L);
+        return self.pid() + "\t" + started;
+    }
+
+    /**
+     * Deletes a file or a directory with everything below it, deepest first.
+     */
+    static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = walk.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
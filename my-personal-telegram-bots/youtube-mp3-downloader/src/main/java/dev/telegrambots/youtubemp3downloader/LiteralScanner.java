@@ -0,0 +1,133 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Aho–Corasick automaton over a fixed set of literals: one pass over a text reports which of them occur
+ * in it, however many there are.
+ *
+ * The automaton is a dense transition table over the characters that appear in some literal; any other
+ * character leads back to the start state. Each state lists the literals that end there, including
+ * those reached through failure links, so a scan never follows a link.
+ */
+final class LiteralScanner {
+    private final String[] literals;
+    // Column of each character in the transition table; 0 for characters that occur in no literal
+    private final char[] columnOf;
+    private final int columns;
+    private final int[] next;
+    private final int[][] matches;
+
+    private LiteralScanner(String[] literals, char[] columnOf, int columns, int[] next, int[][] matches) {
+        this.literals = literals;
+        this.columnOf = columnOf;
+        this.columns = columns;
+        this.next = next;
+        this.matches = matches;
+    }
+
+    /**
+     * @param literals non-empty strings; a literal's position in the list is its id
+     */
+    static LiteralScanner of(List<String> literals) {
+        char[] columnOf = new char[Character.MAX_VALUE + 1];
+        int columns = 1;
+        for (String literal : literals) {
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("Literals must not be empty");
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                char c = literal.charAt(i);
+                if (columnOf[c] == 0) {
+                    columnOf[c] = (char) columns++;
+                }
+            }
+        }
+
+        // Trie first, with -1 for missing edges
+        List<int[]> edges = new ArrayList<>();
+        List<List<Integer>> ending = new ArrayList<>();
+        edges.add(newRow(columns));
+        ending.add(new ArrayList<>());
+        for (int id = 0; id < literals.size(); id++) {
+            String literal = literals.get(id);
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                int column = columnOf[literal.charAt(i)];
+                if (edges.get(state)[column] < 0) {
+                    edges.get(state)[column] = edges.size();
+                    edges.add(newRow(columns));
+                    ending.add(new ArrayList<>());
+                }
+                state = edges.get(state)[column];
+            }
+            ending.get(state).add(id);
+        }
+
+        // Breadth-first: fill missing edges from the failure state and inherit its matches
+        int states = edges.size();
+        int[] next = new int[states * columns];
+        int[] failure = new int[states];
+        int[][] matches = new int[states][];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int column = 0; column < columns; column++) {
+            int child = edges.get(0)[column];
+            next[column] = Math.max(child, 0);
+            if (child > 0) {
+                queue.add(child);
+            }
+        }
+        matches[0] = toArray(ending.get(0));
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            List<Integer> found = new ArrayList<>(ending.get(state));
+            for (int id : matches[failure[state]]) {
+                found.add(id);
+            }
+            matches[state] = toArray(found);
+            for (int column = 0; column < columns; column++) {
+                int child = edges.get(state)[column];
+                if (child < 0 || column == 0) {
+                    next[state * columns + column] = next[failure[state] * columns + column];
+                } else {
+                    failure[child] = next[failure[state] * columns + column];
+                    next[state * columns + column] = child;
+                    queue.add(child);
+                }
+            }
+        }
+        return new LiteralScanner(literals.toArray(String[]::new), columnOf, columns, next, matches);
+    }
+
+    int size() {
+        return literals.length;
+    }
+
+    /**
+     * Sets {@code found[id]} for every literal that occurs in {@code text}; other entries are cleared.
+     */
+    void scan(CharSequence text, boolean[] found) {
+        Arrays.fill(found, 0, literals.length, false);
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next[state * columns + columnOf[text.charAt(i)]];
+            for (int id : matches[state]) {
+                found[id] = true;
+            }
+        }
+    }
+
+    private static int[] newRow(int columns) {
+        int[] row = new int[columns];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        return ids.stream().mapToInt(Integer::intValue).distinct().toArray();
+    }
+}
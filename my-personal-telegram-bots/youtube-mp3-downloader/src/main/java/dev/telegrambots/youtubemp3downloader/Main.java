@@ -2,14 +2,23 @@ package dev.telegrambots.youtubemp3downloader;
 
 import org.telegram.telegrambots.meta.TelegramBotsApi;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.BotSession;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
 public class Main {
     public static void main(String[] args) {
         try {
             TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+            CommandHandler.startWorkzone(Utils.getYoutubeMp3WorkzoneDir().toPath());
             Bot bot = new Bot();
-            botsApi.registerBot(bot);
+            BotSession session = botsApi.registerBot(bot);
+            // Stops polling and drains the chat lanes first, so the index adds of updates still being handled are flushed
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (session.isRunning()) {
+                    session.stop();
+                }
+                CommandHandler.closeIndexes();
+            }, "bot-shutdown"));
             bot.registerBotCommands();
             System.out.println("Bot started!");
         } catch (TelegramApiException e) {
@@ -3,7 +3,6 @@ package dev.telegrambots.youtubemp3downloader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
@@ -11,14 +10,24 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class MusicDuplicateIndex {
@@ -26,14 +35,69 @@ public class MusicDuplicateIndex {
     private static final Set<String> AUDIO_EXTENSIONS = Set.of(".mp3", ".flac", ".m4a", ".ogg", ".opus", ".wav", ".aac");
     private static final double FUZZY_THRESHOLD = 0.92;
 
+    // Bump whenever normalizeForMatch changes its output for the same sanitizer rules; together with the rules
+    // it makes up normalizerVersion, and files written under another version get their keys re-normalized
+    private static final int NORMALIZER_CODE_VERSION = 1;
+    private static final String NORMALIZER_LINE_PREFIX = "# normalizer_version=";
+    private static final String HEADER_LINE = "match_key\tdisplay_name\tpath";
+    // Match key of a removal line; normalized keys never consist of punctuation alone
+    private static final String REMOVED_KEY = "-";
+    // Replaced as soon as FileNameSanitizer hands out other rules, so no key of the old rules is served from memo
+    private static volatile Normalizer normalizer = new Normalizer(FileNameSanitizer.rules());
+
+    // Appended entries are folded into the indexed base once this many have piled up
+    private static final int DELTA_MERGE_THRESHOLD = 256;
+    // Smaller indexes parse in milliseconds, so the bot only keeps a binary snapshot for larger ones
+    private static final int SNAPSHOT_MIN_ENTRIES = 1_000;
+    // Batch lookups with at least this many candidates run on the common fork-join pool
+    private static final int PARALLEL_BATCH_MIN = 16;
+
     private final Path indexPath;
-    private long lastModifiedMillis = -1;
-    private List<Entry> entries = List.of();
-    private Map<String, Entry> exactByKey = Map.of();
-    private Map<String, Entry> exactByTokenKey = Map.of();
+    private final Path snapshotPath;
+    private final IndexFileWatcher.Handle fileWatch;
+    // Each update decides what it adds against the snapshot as it stands when its group is written
+    private final IndexFileAppender<Function<DuplicateIndexSnapshot, List<Entry>>, Integer> appender;
+    // Both null unless content checks are on
+    private final AudioFingerprinter fingerprinter;
+    private final AudioFingerprintIndex fingerprints;
+    // Guards loads, appends and swaps; a ReentrantLock, unlike a monitor, does not pin the virtual threads that write the file
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile DuplicateIndexSnapshot snapshot = DuplicateIndexSnapshot.unloaded();
+    // What the keys of the snapshot were normalized with; written together with the snapshot under the lock
+    private volatile Normalizer keysNormalizer = normalizer();
+    private boolean mergeScheduled;
+    private boolean rebuildInProgress;
+    private boolean compactionScheduled;
 
     public MusicDuplicateIndex(String indexPath) {
+        this(indexPath, false);
+    }
+
+    /**
+     * @param forceAppends whether appended lines are forced to disk before an add reports success
+     */
+    public MusicDuplicateIndex(String indexPath, boolean forceAppends) {
+        this(indexPath, forceAppends, null);
+    }
+
+    /**
+     * @param fingerprinter decoder for content checks against {@code <tsv>.fingerprints} (see
+     *                      {@link AudioFingerprintIndex}), or null to match by name only
+     */
+    MusicDuplicateIndex(String indexPath, boolean forceAppends, AudioFingerprinter fingerprinter) {
         this.indexPath = indexPath == null || indexPath.isBlank() ? null : Path.of(indexPath);
+        this.snapshotPath = this.indexPath == null ? null : MusicIndexSnapshotFile.pathFor(this.indexPath);
+        this.fileWatch = this.indexPath == null ? null : IndexFileWatcher.watch(this.indexPath);
+        this.appender = this.indexPath == null ? null : new IndexFileAppender<>(
+                this.indexPath,
+                () -> normalizerLine(normalizerVersion()) + System.lineSeparator() + HEADER_LINE + System.lineSeparator(),
+                forceAppends,
+                lock,
+                "duplicate-index-append",
+                this::appendGroup
+        );
+        this.fingerprinter = this.indexPath == null ? null : fingerprinter;
+        this.fingerprints = this.fingerprinter == null ? null : new AudioFingerprintIndex(AudioFingerprintIndex.pathFor(this.indexPath));
     }
 
     public boolean isEnabled() {
@@ -44,8 +108,8 @@ public class MusicDuplicateIndex {
         if (!isEnabled() || candidateName == null || candidateName.isBlank()) {
             return Optional.empty();
         }
-        reloadIfNeeded();
-        if (entries.isEmpty()) {
+        DuplicateIndexSnapshot current = currentSnapshot();
+        if (current.isEmpty()) {
             return Optional.empty();
         }
 
@@ -53,249 +117,814 @@ public class MusicDuplicateIndex {
         if (key.isBlank()) {
             return Optional.empty();
         }
+        return current.find(key, FUZZY_THRESHOLD);
+    }
 
-        Entry exact = exactByKey.get(key);
-        if (exact != null) {
-            return Optional.of(new DuplicateMatch(exact.displayName(), exact.path(), 1.0, "exact"));
+    /**
+     * {@link #findDuplicate(String)}, and when no name matches, the indexed track that sounds like
+     * {@code fingerprint}. Only tracks that are still in the name index count.
+     */
+    Optional<DuplicateMatch> findDuplicate(String candidateName, AudioFingerprint fingerprint) {
+        Optional<DuplicateMatch> byName = findDuplicate(candidateName);
+        if (byName.isPresent() || fingerprints == null || fingerprint == null) {
+            return byName;
+        }
+        DuplicateIndexSnapshot current = currentSnapshot();
+        try {
+            return fingerprints.find(fingerprint, current::containsPath)
+                    .map(match -> new DuplicateMatch(stripExtension(Path.of(match.path()).getFileName().toString()),
+                            match.path(), match.similarity(), "fingerprint"));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Audio fingerprint lookup failed for {}: {}", candidateName, e.getMessage());
+            return Optional.empty();
         }
+    }
 
-        String tokenKey = tokenSortKey(key);
-        Entry tokenExact = exactByTokenKey.get(tokenKey);
-        if (tokenExact != null) {
-            return Optional.of(new DuplicateMatch(tokenExact.displayName(), tokenExact.path(), 1.0, "token-exact"));
+    /**
+     * Fingerprint of an audio file for {@link #findDuplicate(String, AudioFingerprint)}, or null when content
+     * checks are off or the file cannot be decoded.
+     */
+    AudioFingerprint fingerprint(Path audioFile) {
+        if (fingerprinter == null || audioFile == null) {
+            return null;
+        }
+        try {
+            return fingerprinter.fingerprint(audioFile);
+        } catch (IOException e) {
+            logger.warn("Could not fingerprint {}: {}", audioFile, e.getMessage());
+            return null;
         }
+    }
 
-        Entry partialTokenMatch = findPartialTokenMatch(key);
-        if (partialTokenMatch != null) {
-            return Optional.of(new DuplicateMatch(partialTokenMatch.displayName(), partialTokenMatch.path(), 1.0, "partial-token"));
+    /**
+     * {@link #findDuplicate} for many candidates at once, e.g. every chapter of a compilation, answered in
+     * input order. The index file is checked once and all candidates see the same snapshot; each distinct
+     * key is looked up once, and larger sets are normalized and looked up in parallel.
+     */
+    public List<Optional<DuplicateMatch>> findDuplicates(Collection<String> candidateNames) {
+        List<String> names = new ArrayList<>(candidateNames);
+        if (!isEnabled() || names.isEmpty()) {
+            return Collections.nCopies(names.size(), Optional.empty());
+        }
+        DuplicateIndexSnapshot current = currentSnapshot();
+        if (current.isEmpty()) {
+            return Collections.nCopies(names.size(), Optional.empty());
         }
 
-        Entry bestEntry = null;
-        double bestScore = 0.0;
-        for (Entry entry : entries) {
-            double score = normalizedLevenshteinSimilarity(compact(key), compact(entry.key()));
-            if (score > bestScore) {
-                bestScore = score;
-                bestEntry = entry;
+        boolean parallel = names.size() >= PARALLEL_BATCH_MIN;
+        IntStream indexes = IntStream.range(0, names.size());
+        String[] keys = (parallel ? indexes.parallel() : indexes)
+                .mapToObj(i -> names.get(i) == null || names.get(i).isBlank() ? "" : normalizeForMatch(names.get(i)))
+                .toArray(String[]::new);
+        Stream<String> distinctKeys = Arrays.stream(keys).filter(key -> !key.isBlank()).distinct();
+        Map<String, Optional<DuplicateMatch>> matches = (parallel ? distinctKeys.parallel() : distinctKeys)
+                .collect(Collectors.toMap(key -> key, key -> current.find(key, FUZZY_THRESHOLD)));
+        return Arrays.stream(keys)
+                .map(key -> key.isBlank() ? Optional.<DuplicateMatch>empty() : matches.get(key))
+                .toList();
+    }
+
+    public boolean addOrUpdateDownloadedFile(String displayName, Path filePath) {
+        return addDownloadedFile(displayName, filePath).join();
+    }
+
+    /**
+     * {@link #addOrUpdateDownloadedFile} without waiting for the write: adds submitted together share one
+     * append (see {@link IndexFileAppender}). The future completes once the entry is on file and visible to
+     * lookups, with false when it was already indexed or could not be written.
+     */
+    public CompletableFuture<Boolean> addDownloadedFile(String displayName, Path filePath) {
+        return addDownloadedFile(displayName, filePath, null);
+    }
+
+    /**
+     * {@link #addDownloadedFile(String, Path)} that also records the file's fingerprint for later content checks.
+     */
+    CompletableFuture<Boolean> addDownloadedFile(String displayName, Path filePath, AudioFingerprint fingerprint) {
+        if (fingerprints != null && fingerprint != null && filePath != null) {
+            try {
+                fingerprints.add(filePath, fingerprint);
+            } catch (IOException e) {
+                logger.warn("Failed to record audio fingerprint of {}: {}", filePath, e.getMessage());
             }
         }
+        if (!isEnabled() || displayName == null || displayName.isBlank() || filePath == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        String key = normalizeForMatch(displayName);
+        if (key.isBlank()) {
+            return CompletableFuture.completedFuture(false);
+        }
 
-        if (bestEntry != null && bestScore >= FUZZY_THRESHOLD) {
-            return Optional.of(new DuplicateMatch(bestEntry.displayName(), bestEntry.path(), bestScore, "fuzzy"));
+        Path absolutePath = filePath.toAbsolutePath();
+        Entry entry = new Entry(key, stripExtension(displayName), absolutePath.toString());
+        if (currentSnapshot().contains(entry)) {
+            return CompletableFuture.completedFuture(false);
         }
-        return Optional.empty();
+
+        return appender.submit(current -> current.contains(entry) ? List.of() : List.of(entry))
+                .handle((added, error) -> {
+                    if (error != null) {
+                        logger.error("Failed to append downloaded file to duplicate music index: {}", indexPath, error);
+                        return false;
+                    }
+                    if (added == 0) {
+                        return false;
+                    }
+                    logger.info("Added downloaded file to duplicate music index: {} -> {}", entry.displayName(), entry.path());
+                    return true;
+                });
     }
 
-    private Entry findPartialTokenMatch(String candidateKey) {
-        Set<String> candidateTokens = tokenSet(candidateKey);
-        if (candidateTokens.size() < 4) {
-            return null;
+    /**
+     * Brings the index in line with files seen in the library, e.g. by {@link MusicLibraryWatcher}: entries
+     * for {@code present} files whose path is not indexed yet are appended, and every indexed entry for a
+     * path in {@code gone} is removed through a removal line. All of it goes to the TSV in a single write.
+     *
+     * @return how many lines were appended
+     */
+    int applyLibraryChanges(Collection<Entry> present, Collection<String> gone) throws IOException {
+        if (!isEnabled() || (present.isEmpty() && gone.isEmpty())) {
+            return 0;
         }
-        Entry bestEntry = null;
-        double bestScore = 0.0;
-        for (Entry entry : entries) {
-            Set<String> entryTokens = tokenSet(entry.key());
-            if (entryTokens.size() < 4) {
-                continue;
-            }
-            int overlap = 0;
-            for (String token : candidateTokens) {
-                if (entryTokens.contains(token)) {
-                    overlap++;
+        return appendAndWait(current -> libraryChanges(current, present, gone));
+    }
+
+    /**
+     * Points the entries of renamed files at their new paths, e.g. after {@code /sanitize_mp3}: a removal
+     * line for each old path, then its entries again under the new path, all in a single write. Their
+     * fingerprints, if recorded, move along.
+     *
+     * @param renames absolute paths, old to new
+     * @return how many lines were appended
+     */
+    int renamePaths(Map<Path, Path> renames) throws IOException {
+        if (fingerprints != null && !renames.isEmpty()) {
+            try {
+                fingerprints.rename(renames);
+            } catch (IOException e) {
+                logger.warn("Failed to move audio fingerprints of renamed files: {}", e.getMessage());
+            }
+        }
+        if (!isEnabled() || renames.isEmpty()) {
+            return 0;
+        }
+        Map<String, String> byOldPath = new HashMap<>();
+        for (Map.Entry<Path, Path> rename : renames.entrySet()) {
+            byOldPath.put(rename.getKey().toString(), rename.getValue().toString());
+            byOldPath.put(rename.getKey().normalize().toString(), rename.getValue().normalize().toString());
+        }
+        return appendAndWait(current -> renamedEntries(current, byOldPath));
+    }
+
+    private static List<Entry> renamedEntries(DuplicateIndexSnapshot current, Map<String, String> renames) {
+        List<Entry> changes = new ArrayList<>();
+        List<Entry> moved = new ArrayList<>();
+        Set<String> removed = new HashSet<>();
+        for (Entry entry : current.entries()) {
+            String newPath = renames.get(entry.path());
+            if (newPath != null) {
+                if (removed.add(entry.path())) {
+                    changes.add(Entry.removal(entry.path()));
                 }
+                moved.add(new Entry(entry.key(), entry.displayName(), newPath));
             }
-            int smallerSize = Math.min(candidateTokens.size(), entryTokens.size());
-            double score = overlap / (double) smallerSize;
-            if (overlap >= 4 && score >= 0.8 && score > bestScore) {
-                bestScore = score;
-                bestEntry = entry;
+        }
+        // Removals first: a removal cancels every earlier line for its path
+        changes.addAll(moved);
+        return changes;
+    }
+
+    private int appendAndWait(Function<DuplicateIndexSnapshot, List<Entry>> update) throws IOException {
+        try {
+            return appender.submit(update).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
             }
+            throw e;
         }
-        return bestEntry;
     }
 
-    public synchronized boolean addOrUpdateDownloadedFile(String displayName, Path filePath) {
-        if (!isEnabled() || displayName == null || displayName.isBlank() || filePath == null) {
-            return false;
+    private static List<Entry> libraryChanges(DuplicateIndexSnapshot current, Collection<Entry> present, Collection<String> gone) {
+        List<Entry> changes = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Entry entry : present) {
+            if (seen.add(entry.path()) && !current.containsPath(entry.path())) {
+                changes.add(entry);
+            }
+        }
+        // A path reported both ways exists now, so it stays
+        for (String path : gone) {
+            if (seen.add(path) && current.containsPath(path)) {
+                changes.add(Entry.removal(path));
+            }
         }
+        return changes;
+    }
 
-        String key = normalizeForMatch(displayName);
-        if (key.isBlank()) {
-            return false;
+    /**
+     * Paths of the live entries that lie under one of the roots; a full pass over the index, for resyncs.
+     */
+    Set<String> indexedPathsUnder(Collection<Path> roots) {
+        lock.lock();
+        try {
+            if (!isEnabled()) {
+                return Set.of();
+            }
+            List<String> prefixes = roots.stream()
+                    .map(root -> root.toAbsolutePath().normalize().toString())
+                    .map(root -> root.endsWith(File.separator) ? root : root + File.separator)
+                    .toList();
+            Set<String> paths = new HashSet<>();
+            for (Entry entry : currentSnapshot().entries()) {
+                if (prefixes.stream().anyMatch(entry.path()::startsWith)) {
+                    paths.add(entry.path());
+                }
+            }
+            return paths;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        reloadIfNeeded();
-        Path absolutePath = filePath.toAbsolutePath();
-        Entry entry = new Entry(key, stripExtension(displayName), absolutePath.toString());
-        boolean samePathAlreadyIndexed = entries.stream()
-                .anyMatch(existing -> existing.key().equals(key) && existing.path().equals(entry.path()));
-        if (samePathAlreadyIndexed) {
-            return false;
+    /**
+     * Folds appended lines and removals into the indexed base in the background, which also rewrites the
+     * binary snapshot for a large enough index. A no-op when there is nothing to fold.
+     */
+    void persistSnapshot() {
+        lock.lock();
+        try {
+            if (!isEnabled()) {
+                return;
+            }
+            DuplicateIndexSnapshot current = currentSnapshot();
+            if ((current.deltaSize() > 0 || current.hasRemovals()) && !mergeScheduled) {
+                mergeScheduled = true;
+                Thread.ofVirtual().name("duplicate-index-merge").start(() -> mergeDelta(current));
+            }
+        } finally {
+            lock.unlock();
         }
+    }
 
+    /**
+     * Writes everything the watcher and downloads added so far and closes the index file, e.g. on shutdown.
+     * Adds submitted afterwards are not written.
+     */
+    public void close() {
+        if (appender != null) {
+            appender.close();
+        }
+    }
+
+    /**
+     * Applies one group of updates from the {@link IndexFileAppender} on top of the current snapshot and
+     * appends the lines they add in one write. Runs under the lock.
+     */
+    private List<Integer> appendGroup(List<Function<DuplicateIndexSnapshot, List<Entry>>> updates,
+                                      IndexFileAppender.Output output) throws IOException {
+        DuplicateIndexSnapshot current = currentSnapshot();
+        DuplicateIndexSnapshot updated = current;
+        StringBuilder lines = new StringBuilder();
+        List<Integer> added = new ArrayList<>(updates.size());
+        for (Function<DuplicateIndexSnapshot, List<Entry>> update : updates) {
+            // Later updates in the group see the earlier ones, exactly as if each had been written alone
+            List<Entry> changes = update.apply(updated);
+            if (!changes.isEmpty()) {
+                updated = updated.appendAll(changes, current.generation(), current.cursor());
+                for (Entry entry : changes) {
+                    lines.append(escapeTsv(entry.key())).append('\t')
+                            .append(escapeTsv(entry.displayName())).append('\t')
+                            .append(escapeTsv(entry.path())).append(System.lineSeparator());
+                }
+            }
+            added.add(changes.size());
+        }
+        if (lines.isEmpty()) {
+            return added;
+        }
+        IndexFileCursor after = output.append(lines.toString(), current.cursor());
+        fileWatch.ensureWatched();
+
+        // Keep the snapshot's generation: the watcher's event for this write only triggers a cheap state check.
+        // If the file had moved on without us, the cursor becomes unknown so that check re-reads it.
+        publish(updated.withCursor(current.generation(), after));
+        return added;
+    }
+
+    /**
+     * Lock-free fast path: a volatile read of the watch generation; the file is only examined after it moved.
+     */
+    private DuplicateIndexSnapshot currentSnapshot() {
+        DuplicateIndexSnapshot current = snapshot;
+        long generation = fileWatch.generation();
+        if (keysNormalizer != normalizer()) {
+            return renormalize(generation);
+        }
+        return generation == current.generation() ? current : reloadIfChanged(generation);
+    }
+
+    /**
+     * The sanitizer rules changed, so lookups no longer normalize names to the keys in memory: the file is
+     * loaded again with the new rules, which also rejects a binary snapshot written under the old ones.
+     */
+    private DuplicateIndexSnapshot renormalize(long generation) {
+        lock.lock();
         try {
-            Path parent = indexPath.toAbsolutePath().getParent();
-            if (parent != null) {
-                Files.createDirectories(parent);
-            }
-            boolean writeHeader = !Files.exists(indexPath) || Files.size(indexPath) == 0;
-            try (BufferedWriter writer = Files.newBufferedWriter(
-                    indexPath,
-                    StandardCharsets.UTF_8,
-                    java.nio.file.StandardOpenOption.CREATE,
-                    java.nio.file.StandardOpenOption.APPEND
-            )) {
-                if (writeHeader) {
-                    writer.write("match_key\tdisplay_name\tpath");
-                    writer.newLine();
+            Normalizer current = normalizer();
+            if (keysNormalizer != current) {
+                logger.info("Sanitizer rules changed, normalizing the keys of duplicate index {} again (normalizer version {})",
+                        indexPath, current.version());
+                keysNormalizer = current;
+                snapshot = DuplicateIndexSnapshot.unloaded();
+            }
+            return reloadIfChanged(generation);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private DuplicateIndexSnapshot reloadIfChanged(long generation) {
+        lock.lock();
+        try {
+            DuplicateIndexSnapshot current = snapshot;
+            if (current.generation() == generation) {
+                return current;
+            }
+            try {
+                IndexFileState state = IndexFileState.read(indexPath);
+                if (state == null) {
+                    if (current.generation() < 0 || current.cursor() != null) {
+                        logger.warn("Duplicate index file not found: {}", indexPath);
+                    }
+                    snapshot = DuplicateIndexSnapshot.of(List.of(), generation, null);
+                    return snapshot;
                 }
-                writer.write(escapeTsv(entry.key()));
-                writer.write('\t');
-                writer.write(escapeTsv(entry.displayName()));
-                writer.write('\t');
-                writer.write(escapeTsv(entry.path()));
-                writer.newLine();
-            }
-
-            List<Entry> updatedEntries = new ArrayList<>(entries);
-            updatedEntries.add(entry);
-            Map<String, Entry> updatedByKey = new HashMap<>(exactByKey);
-            Map<String, Entry> updatedByTokenKey = new HashMap<>(exactByTokenKey);
-            updatedByKey.putIfAbsent(entry.key(), entry);
-            updatedByTokenKey.putIfAbsent(tokenSortKey(entry.key()), entry);
-            entries = List.copyOf(updatedEntries);
-            exactByKey = Map.copyOf(updatedByKey);
-            exactByTokenKey = Map.copyOf(updatedByTokenKey);
-            lastModifiedMillis = Files.getLastModifiedTime(indexPath).toMillis();
-            logger.info("Added downloaded file to duplicate music index: {} -> {}", entry.displayName(), entry.path());
-            return true;
+                IndexFileCursor cursor = current.cursor() == null ? IndexFileCursor.UNKNOWN : current.cursor();
+                switch (cursor.classify(indexPath, state)) {
+                    case NONE -> snapshot = current.withCursor(generation, cursor.withState(state));
+                    case APPENDED -> {
+                        // Someone else appended: read just the new lines
+                        IndexLines appended = new IndexLines(keysNormalizer);
+                        IndexFileCursor advanced = cursor.readAppended(indexPath, state, appended);
+                        publish(current.appendAll(appended.changes(), generation, advanced));
+                    }
+                    case REWRITTEN -> {
+                        if (current.isEmpty()) {
+                            publish(load(generation, state, keysNormalizer));
+                        } else {
+                            // Truncated or replaced: keep answering from the old snapshot until the new one is built
+                            snapshot = current.withGeneration(generation);
+                            if (!rebuildInProgress) {
+                                rebuildInProgress = true;
+                                Thread.ofVirtual().name("duplicate-index-rebuild").start(this::rebuild);
+                            }
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Failed to load duplicate music index: {}", indexPath, e);
+                // Generation stays stale so the next lookup retries
+                snapshot = DuplicateIndexSnapshot.unloaded();
+            }
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rebuild() {
+        DuplicateIndexSnapshot rebuilt = null;
+        Normalizer keys = keysNormalizer;
+        try {
+            // Taken before reading, so changes made while we read move the generation and get checked again
+            long generation = fileWatch.generation();
+            IndexFileState state = IndexFileState.read(indexPath);
+            rebuilt = state == null ? DuplicateIndexSnapshot.of(List.of(), generation, null) : load(generation, state, keys);
         } catch (Exception e) {
-            logger.error("Failed to append downloaded file to duplicate music index: {}", indexPath, e);
-            return false;
+            logger.error("Failed to rebuild duplicate music index: {}", indexPath, e);
+        } finally {
+            lock.lock();
+            try {
+                // On failure keep the old entries but force the next lookup to look at the file again.
+                // A rebuild under rules that were replaced meanwhile is dropped: renormalize already loaded the file.
+                if (rebuilt != null && keys == keysNormalizer) {
+                    publish(rebuilt);
+                } else {
+                    snapshot = snapshot.withGeneration(-1);
+                }
+                rebuildInProgress = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private DuplicateIndexSnapshot load(long generation, IndexFileState state, Normalizer keys) throws IOException {
+        DuplicateIndexSnapshot restored = restoreFromSnapshotFile(generation, state, keys);
+        if (restored != null) {
+            return restored;
+        }
+        IndexLines lines = new IndexLines(keys);
+        IndexFileCursor cursor = IndexFileCursor.readAll(indexPath, state, lines);
+        if (!lines.keysTrusted()) {
+            logger.info("Duplicate index {} was not written by normalizer version {}, normalizing its keys again",
+                    indexPath, keys.version());
+        }
+        List<Entry> loaded = lines.entries();
+        logger.info("Loaded duplicate music index: {} entries from {}", loaded.size(), indexPath);
+        DuplicateIndexSnapshot fresh = DuplicateIndexSnapshot.of(loaded, generation, cursor).withDeadLines(lines.lineCount() - loaded.size());
+        saveSnapshotFile(fresh, cursor, keys);
+        return fresh;
+    }
+
+    /**
+     * Base from the binary snapshot plus whatever was appended to the TSV after it, or null when the
+     * snapshot is missing, unreadable or was written for a different TSV.
+     */
+    private DuplicateIndexSnapshot restoreFromSnapshotFile(long generation, IndexFileState state, Normalizer keys) {
+        try {
+            MusicIndexSnapshotFile.Contents contents = MusicIndexSnapshotFile.read(snapshotPath, keys.version());
+            if (contents == null) {
+                return null;
+            }
+            IndexFileCursor cursor = contents.resume(indexPath, state);
+            if (cursor == null) {
+                logger.info("Duplicate index snapshot {} does not match {}, reading the TSV", snapshotPath, indexPath);
+                return null;
+            }
+            IndexLines lines = new IndexLines(keys);
+            IndexFileCursor advanced = cursor.readAppended(indexPath, state, lines);
+            List<Entry> appended = lines.changes();
+            logger.info("Loaded duplicate music index snapshot: {} entries from {}, {} appended since",
+                    contents.entries().size(), snapshotPath, appended.size());
+            return DuplicateIndexSnapshot.restore(contents, generation, cursor).appendAll(appended, generation, advanced);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring duplicate index snapshot {}: {}", snapshotPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Rewrites the binary snapshot off the request path. Only bases whose TSV position is known are saved.
+     */
+    private void saveSnapshotFile(DuplicateIndexSnapshot source, IndexFileCursor coveredUpTo, Normalizer keys) {
+        if (coveredUpTo == null || coveredUpTo.offset() < 0 || source.size() - source.deltaSize() < SNAPSHOT_MIN_ENTRIES) {
+            return;
+        }
+        Thread.ofVirtual().name("duplicate-index-snapshot").start(() -> {
+            try {
+                source.saveBase(snapshotPath, indexPath, coveredUpTo, keys.version());
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to write duplicate index snapshot {}: {}", snapshotPath, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Installs a snapshot that grew by appends and folds its delta into the base once it is large enough.
+     * Once enough of the file is dead lines, the file is compacted instead (see {@link IndexFileCompaction}).
+     */
+    private void publish(DuplicateIndexSnapshot updated) {
+        lock.lock();
+        try {
+            snapshot = updated;
+            if (!scheduleCompactionIfDue() && updated.deltaSize() >= DELTA_MERGE_THRESHOLD && !mergeScheduled) {
+                mergeScheduled = true;
+                Thread.ofVirtual().name("duplicate-index-merge").start(() -> mergeDelta(updated));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean scheduleCompactionIfDue() {
+        lock.lock();
+        try {
+            DuplicateIndexSnapshot current = snapshot;
+            if (current.cursor() == null || compactionScheduled
+                    || !IndexFileCompaction.isDue((long) current.size() + current.deadLines(), current.deadLines())) {
+                return false;
+            }
+            compactionScheduled = true;
+            Normalizer keys = keysNormalizer;
+            Thread.ofVirtual().name("duplicate-index-compaction").start(() -> compact(current, keys));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the TSV with just the live entries of {@code source} and swaps in a snapshot built from
+     * them, unless the file moved on in the meantime.
+     */
+    private void compact(DuplicateIndexSnapshot source, Normalizer keys) {
+        try {
+            List<Entry> live = source.entries().stream().map(MusicDuplicateIndex::escaped).toList();
+            Path prepared = IndexFileCompaction.prepare(indexPath, writer -> writeLines(writer, live, keys.version()));
+            DuplicateIndexSnapshot compacted = DuplicateIndexSnapshot.of(live, -1, null);
+            lock.lock();
+            try {
+                DuplicateIndexSnapshot current = snapshot;
+                // Lines appended meanwhile are not in the prepared file, so it may only replace the file the source read
+                IndexFileCursor cursor = source.cursor().equals(current.cursor())
+                        ? IndexFileCompaction.install(prepared, indexPath, source.cursor().state())
+                        : null;
+                if (cursor == null) {
+                    Files.deleteIfExists(prepared);
+                    return;
+                }
+                logger.info("Compacted duplicate music index {}: {} dead lines dropped, {} entries kept",
+                        indexPath, current.deadLines(), live.size());
+                snapshot = compacted.withCursor(current.generation(), cursor);
+                saveSnapshotFile(snapshot, cursor, keys);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to compact duplicate music index {}: {}", indexPath, e.getMessage());
+        } finally {
+            lock.lock();
+            try {
+                compactionScheduled = false;
+                if (snapshot != source) {
+                    // Either appends raced the swap and it was dropped, or it worked and this is a no-op
+                    scheduleCompactionIfDue();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void mergeDelta(DuplicateIndexSnapshot source) {
+        try {
+            // Built without the lock, like a compaction, so adds and reloads do not wait for the indexing
+            DuplicateIndexSnapshot.MergedBase merged = DuplicateIndexSnapshot.prepareMerge(source);
+            lock.lock();
+            try {
+                // Null unless the snapshot is still of the source's lineage; the merge is then dropped
+                DuplicateIndexSnapshot rebased = snapshot.withMergedBase(merged);
+                if (rebased != null) {
+                    snapshot = rebased;
+                    saveSnapshotFile(rebased, source.cursor(), keysNormalizer);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to merge appended entries into duplicate music index: {}", indexPath, e);
+        } finally {
+            lock.lock();
+            try {
+                mergeScheduled = false;
+            } finally {
+                lock.unlock();
+            }
         }
     }
 
+    /**
+     * Scans the music directory into a TSV index plus its binary snapshot (see {@link MusicIndexSnapshotFile}).
+     */
     public static void writeIndex(Path musicRoot, Path outputPath) throws IOException {
-        List<Entry> scanned = scanMusicRoot(musicRoot);
+        writeIndex(List.of(musicRoot), outputPath, false);
+    }
+
+    /**
+     * Scans the music roots into a TSV index plus its binary snapshot, and records what was scanned in
+     * {@code <output>.scan} (see {@link MusicLibraryScanner}). With {@code incremental} set, directories
+     * that did not change since that record are not listed again.
+     */
+    static MusicLibraryScanner.Result writeIndex(List<Path> musicRoots, Path outputPath, boolean incremental) throws IOException {
+        Path cachePath = MusicLibraryScanner.cachePathFor(outputPath);
+        MusicLibraryScanner.Cache previous = null;
+        if (incremental) {
+            try {
+                previous = MusicLibraryScanner.Cache.read(cachePath);
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable library scan cache {}, scanning everything", cachePath, e);
+            }
+        }
+        MusicLibraryScanner.Result result = MusicLibraryScanner.scan(musicRoots, previous);
+        List<Entry> scanned = result.entries();
         Path parent = outputPath.toAbsolutePath().getParent();
         if (parent != null) {
             Files.createDirectories(parent);
         }
+        // The snapshot must hold exactly what reading the TSV back yields
+        List<Entry> written = scanned.stream().map(MusicDuplicateIndex::escaped).toList();
+        int normalizerVersion = result.cache().normalizerVersion();
         try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
-            writer.write("match_key\tdisplay_name\tpath");
+            writeLines(writer, written, normalizerVersion);
+        }
+        DuplicateIndexSnapshot.of(written, -1, null)
+                .saveBase(MusicIndexSnapshotFile.pathFor(outputPath), outputPath, IndexFileCursor.atEnd(outputPath), normalizerVersion);
+        result.cache().write(cachePath);
+        return result;
+    }
+
+    /**
+     * A complete index file: version and header lines, then one line per entry.
+     */
+    private static void writeLines(BufferedWriter writer, List<Entry> entries, int normalizerVersion) throws IOException {
+        writer.write(normalizerLine(normalizerVersion));
+        writer.newLine();
+        writer.write(HEADER_LINE);
+        writer.newLine();
+        for (Entry entry : entries) {
+            writer.write(entry.key());
+            writer.write('\t');
+            writer.write(entry.displayName());
+            writer.write('\t');
+            writer.write(entry.path());
             writer.newLine();
-            for (Entry entry : scanned) {
-                writer.write(escapeTsv(entry.key()));
-                writer.write('\t');
-                writer.write(escapeTsv(entry.displayName()));
-                writer.write('\t');
-                writer.write(escapeTsv(entry.path()));
-                writer.newLine();
-            }
         }
     }
 
+    private static Entry escaped(Entry entry) {
+        return new Entry(escapeTsv(entry.key()), escapeTsv(entry.displayName()), escapeTsv(entry.path()));
+    }
+
     public static List<Entry> scanMusicRoot(Path musicRoot) throws IOException {
-        if (musicRoot == null || !Files.isDirectory(musicRoot)) {
-            throw new IOException("Music directory not found: " + musicRoot);
-        }
-        List<Entry> result = new ArrayList<>();
-        Set<String> seen = new HashSet<>();
-        try (Stream<Path> paths = Files.walk(musicRoot)) {
-            paths.filter(Files::isRegularFile)
-                    .filter(MusicDuplicateIndex::isAudioFile)
-                    .sorted(Comparator.comparing(Path::toString))
-                    .forEach(path -> {
-                        String displayName = stripExtension(path.getFileName().toString());
-                        String key = normalizeForMatch(displayName);
-                        if (!key.isBlank() && seen.add(key + "\t" + path.toString())) {
-                            result.add(new Entry(key, displayName, path.toAbsolutePath().toString()));
-                        }
-                    });
-        }
-        return result;
+        return MusicLibraryScanner.scan(List.of(musicRoot), null).entries();
     }
 
     public static String normalizeForMatch(String value) {
-        if (value == null) {
-            return "";
+        return value == null ? "" : normalizer().normalize(value);
+    }
+
+    static String normalizeUncached(String value) {
+        return normalizer().normalizeUncached(value);
+    }
+
+    /**
+     * Version of what {@link #normalizeForMatch} produces: {@link #NORMALIZER_CODE_VERSION} combined with the
+     * fingerprint of the sanitizer rules in use. Index files, binary snapshots and scan caches record it, so
+     * keys written before the rule file was edited are normalized again instead of being trusted.
+     */
+    static int normalizerVersion() {
+        return normalizer().version();
+    }
+
+    private static String normalizerLine(int version) {
+        return NORMALIZER_LINE_PREFIX + version;
+    }
+
+    /**
+     * The normalizer for the sanitizer rules {@link FileNameSanitizer} currently uses.
+     */
+    static Normalizer normalizer() {
+        Normalizer current = normalizer;
+        SanitizerRules rules = FileNameSanitizer.rules();
+        if (current.rules() != rules) {
+            // Racing callers may each build one; they are equivalent
+            current = new Normalizer(rules);
+            normalizer = current;
         }
-        String sanitized = FileNameSanitizer.sanitize(stripExtension(value));
-        if (sanitized == null) {
-            return "";
+        return current;
+    }
+
+    /**
+     * {@link #normalizeForMatch} bound to one set of sanitizer rules, with its own memo.
+     */
+    static final class Normalizer {
+        private final SanitizerRules rules;
+        private final int version;
+        private final BoundedMemo memo;
+
+        private Normalizer(SanitizerRules rules) {
+            this.rules = rules;
+            this.version = 31 * NORMALIZER_CODE_VERSION + rules.fingerprint();
+            this.memo = new BoundedMemo(this::normalizeUncached, 1_024);
+        }
+
+        SanitizerRules rules() {
+            return rules;
+        }
+
+        int version() {
+            return version;
+        }
+
+        String normalize(String value) {
+            return memo.apply(value);
+        }
+
+        String normalizeUncached(String value) {
+            String sanitized = FileNameSanitizer.sanitize(stripExtension(value), rules);
+            if (sanitized == null) {
+                return "";
+            }
+            return sanitized
+                    .toLowerCase(Locale.ROOT)
+                    .replaceAll("[^\\p{L}\\p{N}]+", " ")
+                    .replaceAll("\\s+", " ")
+                    .trim();
         }
-        return sanitized
-                .toLowerCase(Locale.ROOT)
-                .replaceAll("[^\\p{L}\\p{N}]+", " ")
-                .replaceAll("\\s+", " ")
-                .trim();
     }
 
-    private void reloadIfNeeded() {
-        try {
-            if (!Files.exists(indexPath)) {
-                if (lastModifiedMillis != 0) {
-                    logger.warn("Duplicate index file not found: {}", indexPath);
-                }
-                lastModifiedMillis = 0;
-                entries = List.of();
-                exactByKey = Map.of();
-                exactByTokenKey = Map.of();
-                return;
+    /**
+     * Collects entries from index lines in file order. Keys of a file that starts with the version line of
+     * the given normalizer are taken as written; any other keys are normalized by it again, in parallel,
+     * when {@link #entries()} or {@link #changes()} is called.
+     */
+    private static final class IndexLines implements Consumer<String> {
+        private final Normalizer normalizer;
+        private final List<String[]> rows = new ArrayList<>();
+        private boolean keysTrusted;
+        private boolean firstLine = true;
+
+        IndexLines(Normalizer normalizer) {
+            this.normalizer = normalizer;
+        }
+
+        @Override
+        public void accept(String line) {
+            if (firstLine) {
+                firstLine = false;
+                keysTrusted = line.equals(normalizerLine(normalizer.version()));
             }
-            long currentModified = Files.getLastModifiedTime(indexPath).toMillis();
-            if (currentModified == lastModifiedMillis) {
+            if (line.isBlank() || line.startsWith("#") || line.startsWith("match_key\t")) {
                 return;
             }
-            List<Entry> loaded = loadIndex(indexPath);
-            Map<String, Entry> byKey = new HashMap<>();
-            Map<String, Entry> byTokenKey = new HashMap<>();
-            for (Entry entry : loaded) {
-                byKey.putIfAbsent(entry.key(), entry);
-                byTokenKey.putIfAbsent(tokenSortKey(entry.key()), entry);
-            }
-            entries = List.copyOf(loaded);
-            exactByKey = Map.copyOf(byKey);
-            exactByTokenKey = Map.copyOf(byTokenKey);
-            lastModifiedMillis = currentModified;
-            logger.info("Loaded duplicate music index: {} entries from {}", entries.size(), indexPath);
-        } catch (Exception e) {
-            logger.error("Failed to load duplicate music index: {}", indexPath, e);
-            entries = List.of();
-            exactByKey = Map.of();
-            exactByTokenKey = Map.of();
+            String[] parts = line.split("\t", 3);
+            if (parts.length >= 2) {
+                rows.add(parts);
+            }
         }
-    }
 
-    private static List<Entry> loadIndex(Path path) throws IOException {
-        List<Entry> loaded = new ArrayList<>();
-        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isBlank() || line.startsWith("#") || line.startsWith("match_key\t")) {
-                    continue;
-                }
-                String[] parts = line.split("\t", 3);
-                if (parts.length < 2) {
-                    continue;
+        boolean keysTrusted() {
+            return keysTrusted;
+        }
+
+        /**
+         * Entry and removal lines read, i.e. not counting headers, comments and blank lines.
+         */
+        int lineCount() {
+            return rows.size();
+        }
+
+        /**
+         * The indexed entries, with removal lines applied to the entries before them.
+         */
+        List<Entry> entries() {
+            List<Entry> changes = changes();
+            Map<String, Integer> lastRemoval = new HashMap<>();
+            for (int i = 0; i < changes.size(); i++) {
+                if (changes.get(i).isRemoval()) {
+                    lastRemoval.put(changes.get(i).path(), i);
                 }
-                String key = normalizeForMatch(parts[0]);
-                String displayName = parts[1].trim();
-                String filePath = parts.length == 3 ? parts[2].trim() : "";
-                if (!key.isBlank()) {
-                    loaded.add(new Entry(key, displayName.isBlank() ? parts[0].trim() : displayName, filePath));
+            }
+            if (lastRemoval.isEmpty()) {
+                return changes;
+            }
+            List<Entry> entries = new ArrayList<>(changes.size());
+            for (int i = 0; i < changes.size(); i++) {
+                Entry entry = changes.get(i);
+                if (!entry.isRemoval() && lastRemoval.getOrDefault(entry.path(), -1) < i) {
+                    entries.add(entry);
                 }
             }
+            return entries;
+        }
+
+        /**
+         * Every line in order, removal lines included as {@link Entry#removal} markers.
+         */
+        List<Entry> changes() {
+            Stream<String[]> stream = keysTrusted ? rows.stream() : rows.parallelStream();
+            return stream.map(this::toChange)
+                    .filter(Objects::nonNull)
+                    .toList();
+        }
+
+        private Entry toChange(String[] parts) {
+            if (parts[0].trim().equals(REMOVED_KEY)) {
+                return parts.length == 3 && !parts[2].isBlank() ? Entry.removal(parts[2].trim()) : null;
+            }
+            return toEntry(parts, keysTrusted ? parts[0].trim() : normalizer.normalizeUncached(parts[0]));
+        }
+
+        private static Entry toEntry(String[] parts, String key) {
+            if (key.isBlank()) {
+                return null;
+            }
+            String displayName = parts[1].trim();
+            String filePath = parts.length == 3 ? parts[2].trim() : "";
+            return new Entry(key, displayName.isBlank() ? parts[0].trim() : displayName, filePath);
         }
-        return loaded;
     }
 
-    private static boolean isAudioFile(Path path) {
+    static boolean isAudioFile(Path path) {
         String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
         return AUDIO_EXTENSIONS.stream().anyMatch(name::endsWith);
     }
 
-    private static String stripExtension(String value) {
+    static String stripExtension(String value) {
         if (value == null) {
             return "";
         }
@@ -310,7 +939,7 @@ public class MusicDuplicateIndex {
         return value;
     }
 
-    private static String tokenSortKey(String key) {
+    static String tokenSortKey(String key) {
         return Stream.of(key.split("\\s+"))
                 .filter(token -> !token.isBlank())
                 .sorted()
@@ -318,55 +947,25 @@ public class MusicDuplicateIndex {
                 .orElse("");
     }
 
-    private static Set<String> tokenSet(String key) {
-        Set<String> tokens = new HashSet<>();
-        for (String token : key.split("\\s+")) {
-            if (!token.isBlank()) {
-                tokens.add(token);
-            }
-        }
-        return tokens;
-    }
-
-    private static String compact(String key) {
+    static String compact(String key) {
         return key.replace(" ", "");
     }
 
-    private static double normalizedLevenshteinSimilarity(String left, String right) {
-        if (left.equals(right)) {
-            return 1.0;
-        }
-        int maxLength = Math.max(left.length(), right.length());
-        if (maxLength == 0) {
-            return 1.0;
-        }
-        return 1.0 - (levenshteinDistance(left, right) / (double) maxLength);
-    }
-
-    private static int levenshteinDistance(String left, String right) {
-        int[] previous = new int[right.length() + 1];
-        int[] current = new int[right.length() + 1];
-        for (int j = 0; j <= right.length(); j++) {
-            previous[j] = j;
-        }
-        for (int i = 1; i <= left.length(); i++) {
-            current[0] = i;
-            for (int j = 1; j <= right.length(); j++) {
-                int cost = left.charAt(i - 1) == right.charAt(j - 1) ? 0 : 1;
-                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
-            }
-            int[] tmp = previous;
-            previous = current;
-            current = tmp;
-        }
-        return previous[right.length()];
-    }
-
     private static String escapeTsv(String value) {
         return value == null ? "" : value.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ').trim();
     }
 
     public record Entry(String key, String displayName, String path) {
+        /**
+         * Index line that removes every earlier entry for {@code path}, written when the file left the library.
+         */
+        static Entry removal(String path) {
+            return new Entry(REMOVED_KEY, "", path);
+        }
+
+        boolean isRemoval() {
+            return REMOVED_KEY.equals(key);
+        }
     }
 
     public record DuplicateMatch(String displayName, String path, double score, String matchType) {
@@ -1,17 +1,46 @@
 package dev.telegrambots.youtubemp3downloader;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MusicDuplicateIndexCli {
     public static void main(String[] args) throws Exception {
-        if (args.length != 2) {
-            System.out.println("Usage: java -cp youtube-mp3-downloader.jar dev.telegrambots.youtubemp3downloader.MusicDuplicateIndexCli <music-dir> <output-tsv>");
+        boolean incremental = false;
+        boolean fingerprints = false;
+        String ffmpegPath = "ffmpeg";
+        List<Path> paths = new ArrayList<>();
+        for (String arg : args) {
+            if ("--incremental".equals(arg)) {
+                incremental = true;
+            } else if ("--fingerprints".equals(arg)) {
+                fingerprints = true;
+            } else if (arg.startsWith("--ffmpeg=")) {
+                ffmpegPath = arg.substring("--ffmpeg=".length());
+            } else {
+                paths.add(Path.of(arg));
+            }
+        }
+        if (paths.size() < 2) {
+            System.out.println("Usage: java -cp youtube-mp3-downloader.jar dev.telegrambots.youtubemp3downloader.MusicDuplicateIndexCli [--incremental] [--fingerprints [--ffmpeg=<path>]] <music-dir>... <output-tsv>");
+            System.out.println("  --incremental  reuse <output-tsv>.scan from the previous run and only list directories that changed since");
+            System.out.println("  --fingerprints also write <output-tsv>.fingerprints for matching by sound; unchanged files keep their previous fingerprint");
             System.exit(1);
         }
-        Path musicRoot = Path.of(args[0]);
-        Path outputPath = Path.of(args[1]);
-        MusicDuplicateIndex.writeIndex(musicRoot, outputPath);
-        int count = MusicDuplicateIndex.scanMusicRoot(musicRoot).size();
-        System.out.println("Wrote duplicate index: " + outputPath.toAbsolutePath() + " (" + count + " tracks)");
+        List<Path> musicRoots = paths.subList(0, paths.size() - 1);
+        Path outputPath = paths.get(paths.size() - 1);
+        long started = System.nanoTime();
+        MusicLibraryScanner.Result result = MusicDuplicateIndex.writeIndex(musicRoots, outputPath, incremental);
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        System.out.println("Wrote duplicate index: " + outputPath.toAbsolutePath() + " (" + result.entries().size() + " tracks, "
+                + result.directories() + " directories, " + result.reusedDirectories() + " unchanged, " + elapsedMillis + " ms)");
+        if (fingerprints) {
+            Path fingerprintPath = AudioFingerprintIndex.pathFor(outputPath);
+            started = System.nanoTime();
+            AudioFingerprintIndex.BuildResult built = AudioFingerprintIndex.build(result.entries(), fingerprintPath, new AudioFingerprinter(ffmpegPath));
+            elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+            System.out.println("Wrote audio fingerprints: " + fingerprintPath.toAbsolutePath() + " (" + built.tracks() + " tracks, "
+                    + built.reused() + " unchanged, " + built.failed() + " failed, " + elapsedMillis + " ms)");
+        }
     }
 }
@@ -0,0 +1,286 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary companion of the music duplicate index TSV, stored next to it as {@code <index>.snapshot}.
+ *
+ * Loading the TSV means splitting every line, tokenizing every key and building the lookup structures
+ * from scratch, plus a full sanitizer pass per key for files written by an older normalizer. The snapshot
+ * stores what that work produces, in the in-memory layout of the index: the {@link EntryColumns} arenas,
+ * token-sorted key hashes, the token dictionary with each entry's token ids, and the fuzzy index's slot
+ * order, length-bucket table and trigram postings. It is opened with {@link FileChannel#map} and checked
+ * against a CRC32C before anything is decoded; loading copies arrays and builds no per-entry objects.
+ *
+ * The TSV stays the interchange format and the source of truth. A snapshot records the TSV byte offset
+ * it covers with a CRC32C of those bytes, so lines appended after it was written are read from the TSV
+ * on top of it, and a TSV edited or rewritten in the meantime simply makes the snapshot unusable.
+ *
+ * Keys depend on the normalizer and the sanitizer rules it runs, so a snapshot written under another
+ * {@link MusicDuplicateIndex#normalizerVersion} is rejected like a corrupted one.
+ *
+ * Layout, big-endian: magic, format version, normalizer version, payload length, payload CRC32C, then the
+ * payload: covered TSV offset, checksum and tail, then the entry column arrays, token-sorted key hashes,
+ * dictionary offsets and arena, per-entry token id offsets and ids, and the fuzzy layout arrays. Every
+ * array is prefixed with its length and byte arrays are padded to 4 bytes.
+ */
+final class MusicIndexSnapshotFile {
+    static final String SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x4D445849; // "MDXI"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 8;
+
+    private MusicIndexSnapshotFile() {
+    }
+
+    static Path pathFor(Path indexPath) {
+        return Path.of(indexPath.toString() + SUFFIX);
+    }
+
+    /**
+     * Everything a {@link DuplicateIndexSnapshot} base needs, decoded from a snapshot file.
+     */
+    record Contents(
+            EntryColumns entries,
+            int[] tokenSortHashes,
+            String[] dictionary,
+            int[] tokenStart,
+            int[] tokenIds,
+            FuzzyMatchIndex.Layout fuzzyLayout,
+            long tsvOffset,
+            long tsvChecksum,
+            byte[] tsvTail
+    ) {
+        /**
+         * Cursor right after the covered TSV bytes, or null when the TSV no longer starts with them.
+         */
+        IndexFileCursor resume(Path tsvPath, IndexFileState state) throws IOException {
+            IndexFileCursor cursor = IndexFileCursor.resume(tsvPath, state, tsvOffset, tsvTail);
+            return cursor != null && prefixChecksum(tsvPath, tsvOffset) == tsvChecksum ? cursor : null;
+        }
+    }
+
+    /**
+     * Writes the snapshot of {@code entries}, which must be exactly the TSV content up to {@code coveredUpTo}.
+     * The file is written to a temporary sibling, forced to disk and moved into place atomically.
+     *
+     * @param normalizerVersion the {@link MusicDuplicateIndex#normalizerVersion} the keys were built with
+     * @throws IOException also when the TSV no longer matches the cursor, i.e. it was rewritten meanwhile
+     */
+    static void write(Path file, EntryColumns entries, TokenMatchIndex tokenIndex, FuzzyMatchIndex fuzzyIndex,
+                      Path tsvPath, IndexFileCursor coveredUpTo, int normalizerVersion) throws IOException {
+        IndexFileState tsvState = IndexFileState.read(tsvPath);
+        if (tsvState == null || IndexFileCursor.resume(tsvPath, tsvState, coveredUpTo.offset(), coveredUpTo.tail()) == null) {
+            throw new IOException("Index file changed before its snapshot was written: " + tsvPath);
+        }
+        long tsvChecksum = prefixChecksum(tsvPath, coveredUpTo.offset());
+        byte[] payload = payload(entries, tokenIndex, fuzzyIndex, coveredUpTo, tsvChecksum);
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(normalizerVersion).putLong(payload.length).putLong(crc.getValue()).flip();
+
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer body = ByteBuffer.wrap(payload);
+                while (header.hasRemaining() || body.hasRemaining()) {
+                    channel.write(new ByteBuffer[]{header, body});
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Maps and decodes a snapshot file whose keys come from the current normalizer; null when there is none.
+     *
+     * @throws IOException when the file is truncated, corrupted or written by another format or normalizer version
+     */
+    static Contents read(Path file) throws IOException {
+        return read(file, MusicDuplicateIndex.normalizerVersion());
+    }
+
+    /**
+     * {@link #read(Path)} for keys built by the given {@link MusicDuplicateIndex#normalizerVersion}.
+     */
+    static Contents read(Path file, int expectedNormalizerVersion) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Snapshot is truncated: " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (mapped.getInt() != MAGIC) {
+            throw new IOException("Not a duplicate index snapshot: " + file);
+        }
+        int version = mapped.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported duplicate index snapshot version " + version + ": " + file);
+        }
+        int normalizerVersion = mapped.getInt();
+        if (normalizerVersion != expectedNormalizerVersion) {
+            throw new IOException("Snapshot keys come from normalizer version " + normalizerVersion + ": " + file);
+        }
+        long payloadLength = mapped.getLong();
+        long checksum = mapped.getLong();
+        if (payloadLength != mapped.remaining()) {
+            throw new IOException("Snapshot length does not match its header: " + file);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(mapped.slice());
+        if (crc.getValue() != checksum) {
+            throw new IOException("Snapshot checksum mismatch: " + file);
+        }
+        return decode(mapped.slice());
+    }
+
+    private static byte[] payload(EntryColumns entries, TokenMatchIndex tokenIndex,
+                                  FuzzyMatchIndex fuzzyIndex, IndexFileCursor coveredUpTo, long tsvChecksum) throws IOException {
+        String[] dictionary = tokenIndex.dictionary();
+        ByteArrayOutputStream tokenArena = new ByteArrayOutputStream(dictionary.length * 8);
+        int[] tokenOffsets = new int[dictionary.length + 1];
+        for (int t = 0; t < dictionary.length; t++) {
+            tokenArena.write(dictionary[t].getBytes(StandardCharsets.UTF_8));
+            tokenOffsets[t + 1] = tokenArena.size();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entries.size() * 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(coveredUpTo.offset());
+        out.writeLong(tsvChecksum);
+        writeBytes(out, coveredUpTo.tail());
+
+        EntryColumns.Layout columns = entries.layout();
+        writeBytes(out, columns.keyBytes());
+        writeInts(out, columns.keyStart());
+        writeBytes(out, columns.nameBytes());
+        writeInts(out, columns.nameStart());
+        writeBytes(out, columns.directoryBytes());
+        writeInts(out, columns.directoryStart());
+        writeInts(out, columns.directoryOf());
+        writeBytes(out, columns.fileNameBytes());
+        writeInts(out, columns.fileNameStart());
+        writeInts(out, DuplicateIndexSnapshot.tokenSortHashes(entries));
+
+        writeBytes(out, tokenArena.toByteArray());
+        writeInts(out, tokenOffsets);
+        writeInts(out, tokenIndex.tokenStart());
+        writeInts(out, tokenIndex.tokenIds());
+
+        FuzzyMatchIndex.Layout layout = fuzzyIndex.layout();
+        writeInts(out, layout.entryIndexBySlot());
+        writeInts(out, layout.lengthStart());
+        writeInts(out, layout.bucketStart());
+        writeInts(out, layout.postings());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Contents decode(ByteBuffer payload) throws IOException {
+        try {
+            long tsvOffset = payload.getLong();
+            long tsvChecksum = payload.getLong();
+            byte[] tsvTail = readBytes(payload);
+
+            EntryColumns entries = EntryColumns.fromLayout(new EntryColumns.Layout(
+                    readBytes(payload), readInts(payload),
+                    readBytes(payload), readInts(payload),
+                    readBytes(payload), readInts(payload), readInts(payload),
+                    readBytes(payload), readInts(payload)
+            ));
+            int[] tokenSortHashes = readInts(payload);
+
+            byte[] tokenArena = readBytes(payload);
+            int[] tokenOffsets = readInts(payload);
+            String[] dictionary = new String[tokenOffsets.length - 1];
+            for (int t = 0; t < dictionary.length; t++) {
+                dictionary[t] = new String(tokenArena, tokenOffsets[t], tokenOffsets[t + 1] - tokenOffsets[t], StandardCharsets.UTF_8);
+            }
+            int[] tokenStart = readInts(payload);
+            int[] tokenIds = readInts(payload);
+
+            FuzzyMatchIndex.Layout fuzzyLayout = new FuzzyMatchIndex.Layout(
+                    readInts(payload),
+                    readInts(payload),
+                    readInts(payload),
+                    readInts(payload)
+            );
+            if (tokenSortHashes.length != entries.size()) {
+                throw new IllegalArgumentException("Token key hashes do not match the entry count " + entries.size());
+            }
+            return new Contents(entries, tokenSortHashes, dictionary, tokenStart, tokenIds, fuzzyLayout, tsvOffset, tsvChecksum, tsvTail);
+        } catch (RuntimeException e) {
+            // The checksum passed, so this is a writer bug rather than disk damage; still never fatal
+            throw new IOException("Malformed duplicate index snapshot", e);
+        }
+    }
+
+    /**
+     * CRC32C of the first {@code length} bytes of the file, read through a mapping.
+     */
+    static long prefixChecksum(Path path, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < length) {
+                return -1;
+            }
+            if (length > 0) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] values) throws IOException {
+        out.writeInt(values.length);
+        out.write(values);
+        while (out.size() % 4 != 0) {
+            out.write(0);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer payload) {
+        byte[] values = new byte[payload.getInt()];
+        payload.get(values);
+        payload.position((payload.position() + 3) & ~3);
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        buffer.asIntBuffer().put(values);
+        out.write(buffer.array());
+    }
+
+    private static int[] readInts(ByteBuffer payload) {
+        int[] values = new int[payload.getInt()];
+        IntBuffer ints = payload.slice().asIntBuffer();
+        ints.get(values);
+        payload.position(payload.position() + values.length * 4);
+        return values;
+    }
+}
@@ -0,0 +1,305 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks music library roots for {@link MusicDuplicateIndex#writeIndex}.
+ *
+ * Every directory is a fork-join task that lists its children, normalizes the audio file names it finds
+ * and forks its subdirectories, so listing and normalization both spread over the pool; on a network
+ * share the pool is mostly waiting for directory listings, hence more threads than cores.
+ *
+ * A scan returns a {@link Cache} of what it saw per directory: modification time, subdirectory names and
+ * audio file names with their keys. Given the previous cache, a directory whose modification time did
+ * not change is taken from it without being listed, because adding, removing or renaming a child is what
+ * moves a directory's time. Only directory attributes are read then. In a changed directory, files that
+ * were there before keep their cached keys, so only new names are normalized. A directory time within
+ * {@link #MTIME_SAFETY_MILLIS} of the previous scan is never trusted, as a change in the same clock tick
+ * would leave it unchanged.
+ */
+final class MusicLibraryScanner {
+    static final String CACHE_SUFFIX = ".scan";
+
+    private static final int CACHE_MAGIC = 0x4D445343; // "MDSC"
+    private static final int CACHE_VERSION = 1;
+    private static final long MTIME_SAFETY_MILLIS = 2_000;
+    private static final int PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private MusicLibraryScanner() {
+    }
+
+    static Path cachePathFor(Path indexPath) {
+        return Path.of(indexPath.toString() + CACHE_SUFFIX);
+    }
+
+    /**
+     * Scans the roots into entries sorted by path, each file once even when roots overlap.
+     *
+     * @param previous cache of an earlier scan to reuse unchanged directories from, or null for a full scan
+     */
+    static Result scan(List<Path> roots, Cache previous) throws IOException {
+        for (Path root : roots) {
+            if (root == null || !Files.isDirectory(root)) {
+                throw new IOException("Music directory not found: " + root);
+            }
+        }
+        long startedAtMillis = System.currentTimeMillis();
+        MusicDuplicateIndex.Normalizer normalizer = MusicDuplicateIndex.normalizer();
+        Walk walk = new Walk(previous != null && previous.normalizerVersion() == normalizer.version() ? previous : null, normalizer);
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            List<DirectoryTask> tasks = new ArrayList<>();
+            for (Path root : roots) {
+                tasks.add(new DirectoryTask(walk, root.toAbsolutePath().normalize()));
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+
+        List<MusicDuplicateIndex.Entry> entries = new ArrayList<>(walk.entries);
+        entries.sort(Comparator.comparing(MusicDuplicateIndex.Entry::path));
+        Set<String> seen = new HashSet<>();
+        entries.removeIf(entry -> !seen.add(entry.path()));
+        return new Result(entries, new Cache(normalizer.version(), startedAtMillis, Map.copyOf(walk.directories)), walk.directories.size(), walk.reused.get());
+    }
+
+    /**
+     * Lists one directory: its subdirectory names and audio files, reusing the keys of files that
+     * {@code before} already had. New names are normalized by {@code normalizer}.
+     */
+    static Directory list(Path directory, long modifiedMillis, Directory before, MusicDuplicateIndex.Normalizer normalizer) throws IOException {
+        Map<String, String> knownKeys = new HashMap<>();
+        if (before != null) {
+            for (AudioFile file : before.files()) {
+                knownKeys.put(file.name(), file.key());
+            }
+        }
+        List<String> subdirectories = new ArrayList<>();
+        List<AudioFile> files = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                String name = child.getFileName().toString();
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    // Removed while we were listing
+                    continue;
+                }
+                if (attributes.isDirectory()) {
+                    subdirectories.add(name);
+                } else if (MusicDuplicateIndex.isAudioFile(child) && (attributes.isRegularFile() || Files.isRegularFile(child))) {
+                    String key = knownKeys.get(name);
+                    if (key == null) {
+                        // One-off names: bypass the memo so they do not evict the hot ones
+                        key = normalizer.normalizeUncached(MusicDuplicateIndex.stripExtension(name));
+                    }
+                    if (!key.isBlank()) {
+                        files.add(new AudioFile(name, key));
+                    }
+                }
+            }
+        }
+        return new Directory(modifiedMillis, List.copyOf(subdirectories), List.copyOf(files));
+    }
+
+    /**
+     * Scan output: the entries, the cache for the next scan, and how many directories were taken from the previous cache.
+     */
+    record Result(List<MusicDuplicateIndex.Entry> entries, Cache cache, int directories, int reusedDirectories) {
+    }
+
+    /**
+     * What a scan saw, keyed by absolute directory path, with the {@link MusicDuplicateIndex#normalizerVersion}
+     * its keys were built with. Keys depend on the normalizer and the sanitizer rules, so a cache written
+     * under another version reads as no cache at all.
+     */
+    record Cache(int normalizerVersion, long scannedAtMillis, Map<String, Directory> directories) {
+        /**
+         * Reads a cache file; null when there is none or its keys come from another normalizer version.
+         *
+         * @throws IOException when the file is truncated or not a scan cache
+         */
+        static Cache read(Path file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION) {
+                    throw new IOException("Not a music library scan cache: " + file);
+                }
+                int normalizerVersion = in.readInt();
+                if (normalizerVersion != MusicDuplicateIndex.normalizerVersion()) {
+                    return null;
+                }
+                long scannedAtMillis = in.readLong();
+                int count = in.readInt();
+                Map<String, Directory> directories = HashMap.newHashMap(count);
+                for (int d = 0; d < count; d++) {
+                    String path = in.readUTF();
+                    long modifiedMillis = in.readLong();
+                    int subdirectoryCount = in.readInt();
+                    List<String> subdirectories = new ArrayList<>(subdirectoryCount);
+                    for (int i = 0; i < subdirectoryCount; i++) {
+                        subdirectories.add(in.readUTF());
+                    }
+                    int fileCount = in.readInt();
+                    List<AudioFile> files = new ArrayList<>(fileCount);
+                    for (int i = 0; i < fileCount; i++) {
+                        files.add(new AudioFile(in.readUTF(), in.readUTF()));
+                    }
+                    directories.put(path, new Directory(modifiedMillis, List.copyOf(subdirectories), List.copyOf(files)));
+                }
+                return new Cache(normalizerVersion, scannedAtMillis, Map.copyOf(directories));
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Writes the cache to a temporary sibling and moves it into place.
+         */
+        void write(Path file) throws IOException {
+            Path parent = file.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    out.writeInt(CACHE_MAGIC);
+                    out.writeInt(CACHE_VERSION);
+                    out.writeInt(normalizerVersion);
+                    out.writeLong(scannedAtMillis);
+                    out.writeInt(directories.size());
+                    for (Map.Entry<String, Directory> entry : directories.entrySet()) {
+                        Directory directory = entry.getValue();
+                        out.writeUTF(entry.getKey());
+                        out.writeLong(directory.modifiedMillis());
+                        out.writeInt(directory.subdirectories().size());
+                        for (String name : directory.subdirectories()) {
+                            out.writeUTF(name);
+                        }
+                        out.writeInt(directory.files().size());
+                        for (AudioFile audioFile : directory.files()) {
+                            out.writeUTF(audioFile.name());
+                            out.writeUTF(audioFile.key());
+                        }
+                    }
+                }
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    record Directory(long modifiedMillis, List<String> subdirectories, List<AudioFile> files) {
+    }
+
+    /**
+     * An audio file name with its non-blank match key.
+     */
+    record AudioFile(String name, String key) {
+        MusicDuplicateIndex.Entry entryIn(Path directory) {
+            return new MusicDuplicateIndex.Entry(key, MusicDuplicateIndex.stripExtension(name), directory.resolve(name).toString());
+        }
+    }
+
+    /**
+     * State shared by the tasks of one scan.
+     */
+    private static final class Walk {
+        private final Cache previous;
+        private final MusicDuplicateIndex.Normalizer normalizer;
+        private final Queue<MusicDuplicateIndex.Entry> entries = new ConcurrentLinkedQueue<>();
+        private final Map<String, Directory> directories = new ConcurrentHashMap<>();
+        private final AtomicInteger reused = new AtomicInteger();
+
+        private Walk(Cache previous, MusicDuplicateIndex.Normalizer normalizer) {
+            this.previous = previous;
+            this.normalizer = normalizer;
+        }
+
+        private Directory cached(String path, long modifiedMillis) {
+            if (previous == null) {
+                return null;
+            }
+            Directory directory = previous.directories().get(path);
+            return directory != null && directory.modifiedMillis() == modifiedMillis
+                    && modifiedMillis < previous.scannedAtMillis() - MTIME_SAFETY_MILLIS ? directory : null;
+        }
+
+        private Directory cachedFilesOf(String path) {
+            return previous == null ? null : previous.directories().get(path);
+        }
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+        private final Walk walk;
+        private final Path directory;
+
+        private DirectoryTask(Walk walk, Path directory) {
+            this.walk = walk;
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                String key = directory.toString();
+                if (walk.directories.containsKey(key)) {
+                    // Reached twice through overlapping roots
+                    return;
+                }
+                long modifiedMillis = Files.getLastModifiedTime(directory).toMillis();
+                Directory scanned = walk.cached(key, modifiedMillis);
+                if (scanned != null) {
+                    walk.reused.incrementAndGet();
+                } else {
+                    scanned = list(directory, modifiedMillis, walk.cachedFilesOf(key), walk.normalizer);
+                }
+                if (walk.directories.putIfAbsent(key, scanned) != null) {
+                    return;
+                }
+                for (AudioFile file : scanned.files()) {
+                    walk.entries.add(file.entryIn(directory));
+                }
+                List<DirectoryTask> subtasks = new ArrayList<>(scanned.subdirectories().size());
+                for (String name : scanned.subdirectories()) {
+                    subtasks.add(new DirectoryTask(walk, directory.resolve(name)));
+                }
+                invokeAll(subtasks);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
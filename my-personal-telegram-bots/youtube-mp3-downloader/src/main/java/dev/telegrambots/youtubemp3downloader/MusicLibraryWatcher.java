@@ -0,0 +1,362 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Keeps {@link MusicDuplicateIndex} in step with music library folders on the bot's own disk, so tracks
+ * that reach the library by other means are known without rerunning {@link MusicDuplicateIndexCli}.
+ *
+ * On start the roots are scanned with {@link MusicLibraryScanner} and every directory is registered with a
+ * {@link WatchService} for creations and deletions; a rename arrives as both. The index is then reconciled
+ * with the scan: files it lacks are appended and indexed paths under the roots that no longer exist are
+ * removed. The same resync runs after the watch service reports lost events.
+ *
+ * An event only marks its directory dirty. Once no event arrived for the debounce interval, or events kept
+ * coming for {@link #MAX_DELAY_MILLIS}, each dirty directory is listed again and compared with its previous
+ * listing, and all differences go to the index in one append. Copying an album thus costs one listing per
+ * directory and one index write however many events it raised. New subdirectories are registered and
+ * scanned; vanished ones drop their whole subtree.
+ *
+ * Changes are folded into the indexed base, which also rewrites the binary snapshot, one snapshot interval
+ * after the first change since the last fold. A quiet library costs a blocked thread and nothing else.
+ */
+final class MusicLibraryWatcher implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MusicLibraryWatcher.class);
+    static final long DEBOUNCE_MILLIS = 2_000;
+    private static final long MAX_DELAY_MILLIS = 30_000;
+    private static final long NOT_SCHEDULED = Long.MAX_VALUE;
+
+    private final List<Path> roots;
+    private final MusicDuplicateIndex index;
+    private final long debounceMillis;
+    private final long snapshotIntervalMillis;
+    private final WatchService watchService;
+    // Everything below is only touched by the watcher thread
+    private final Map<WatchKey, Path> directoriesByKey = new HashMap<>();
+    private final Map<Path, WatchKey> keysByDirectory = new HashMap<>();
+    // Last listing of every watched directory, i.e. what the index has been told about it
+    private final Map<Path, MusicLibraryScanner.Directory> listings = new HashMap<>();
+    private final Set<Path> dirty = new LinkedHashSet<>();
+    // Directories whose watch key died; their subtree is dropped before the dirty ones are listed
+    private final Set<Path> lost = new HashSet<>();
+    private boolean resyncNeeded = true;
+    private boolean registrationWarned;
+
+    MusicLibraryWatcher(List<Path> roots, MusicDuplicateIndex index, long debounceMillis, long snapshotIntervalMillis) throws IOException {
+        this.roots = roots.stream().map(root -> root.toAbsolutePath().normalize()).distinct().toList();
+        this.index = index;
+        this.debounceMillis = debounceMillis;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Starts watching the roots configured in {@code duplicate.library.roots}; null when none are
+     * configured, duplicate detection is off or the platform cannot watch directories.
+     */
+    static MusicLibraryWatcher startIfConfigured(BotConfig config, MusicDuplicateIndex index) {
+        List<Path> roots = parseRoots(config.duplicateLibraryRoots);
+        if (roots.isEmpty() || !index.isEnabled()) {
+            return null;
+        }
+        try {
+            MusicLibraryWatcher watcher = new MusicLibraryWatcher(roots, index, DEBOUNCE_MILLIS,
+                    TimeUnit.MINUTES.toMillis(config.duplicateLibrarySnapshotMinutes));
+            watcher.start();
+            return watcher;
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("Music library watching unavailable, the duplicate index only changes through the bot: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Roots separated by {@code ;}, blanks ignored.
+     */
+    static List<Path> parseRoots(String configured) {
+        if (configured == null || configured.isBlank()) {
+            return List.of();
+        }
+        return Stream.of(configured.split(";"))
+                .map(String::trim)
+                .filter(root -> !root.isEmpty())
+                .map(Path::of)
+                .toList();
+    }
+
+    void start() {
+        Thread.ofPlatform().daemon().name("music-library-watcher").start(this::run);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void run() {
+        long firstEventMillis = 0;
+        long flushAtMillis = 0;
+        long snapshotAtMillis = NOT_SCHEDULED;
+        try {
+            while (true) {
+                long now = nowMillis();
+                boolean pending = resyncNeeded || !dirty.isEmpty() || !lost.isEmpty();
+                if (pending && now >= flushAtMillis) {
+                    try {
+                        int changed = resyncNeeded ? resync() : flush();
+                        if (changed > 0) {
+                            logger.info("Applied {} music library changes to the duplicate index", changed);
+                            if (snapshotAtMillis == NOT_SCHEDULED) {
+                                snapshotAtMillis = now + snapshotIntervalMillis;
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        if (e instanceof ClosedWatchServiceException closed) {
+                            throw closed;
+                        }
+                        logger.warn("Failed to apply music library changes, rescanning later: {}", e.getMessage());
+                        resyncNeeded = true;
+                        flushAtMillis = now + MAX_DELAY_MILLIS;
+                    }
+                    continue;
+                }
+                if (now >= snapshotAtMillis) {
+                    index.persistSnapshot();
+                    snapshotAtMillis = NOT_SCHEDULED;
+                }
+
+                long wakeAtMillis = Math.min(pending ? flushAtMillis : NOT_SCHEDULED, snapshotAtMillis);
+                WatchKey key = wakeAtMillis == NOT_SCHEDULED
+                        ? watchService.take()
+                        : watchService.poll(Math.max(1, wakeAtMillis - now), TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                now = nowMillis();
+                if (!pending) {
+                    firstEventMillis = now;
+                }
+                collect(key);
+                flushAtMillis = Math.min(now + debounceMillis, firstEventMillis + MAX_DELAY_MILLIS);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed: stop quietly
+        }
+    }
+
+    private void collect(WatchKey key) {
+        Path directory = directoriesByKey.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                resyncNeeded = true;
+            } else if (directory != null) {
+                dirty.add(directory);
+            }
+        }
+        if (!key.reset() && directory != null) {
+            // Deleted, renamed or unmounted; if something else appears under that name, the parent lists it as new
+            directoriesByKey.remove(key);
+            keysByDirectory.remove(directory);
+            lost.add(directory);
+            if (directory.getParent() != null) {
+                dirty.add(directory.getParent());
+            }
+        }
+    }
+
+    /**
+     * Lists the dirty directories again and applies the differences to the index.
+     */
+    private int flush() throws IOException {
+        List<MusicDuplicateIndex.Entry> present = new ArrayList<>();
+        List<String> gone = new ArrayList<>();
+        for (Path directory : lost) {
+            forgetUnlessRoot(directory, gone);
+        }
+        lost.clear();
+        Deque<Path> work = new ArrayDeque<>(dirty);
+        dirty.clear();
+        while (!work.isEmpty()) {
+            Path directory = work.poll();
+            MusicLibraryScanner.Directory before = listings.get(directory);
+            if (before == null) {
+                // Not watched: a new directory is picked up by its parent's listing
+                continue;
+            }
+            if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+                forgetUnlessRoot(directory, gone);
+                continue;
+            }
+            long modifiedMillis = Files.getLastModifiedTime(directory).toMillis();
+            MusicLibraryScanner.Directory after = MusicLibraryScanner.list(directory, modifiedMillis, before, MusicDuplicateIndex.normalizer());
+            listings.put(directory, after);
+
+            Set<String> namesBefore = new HashSet<>();
+            before.files().forEach(file -> namesBefore.add(file.name()));
+            Set<String> namesAfter = new HashSet<>();
+            for (MusicLibraryScanner.AudioFile file : after.files()) {
+                namesAfter.add(file.name());
+                if (!namesBefore.contains(file.name())) {
+                    present.add(file.entryIn(directory));
+                }
+            }
+            for (MusicLibraryScanner.AudioFile file : before.files()) {
+                if (!namesAfter.contains(file.name())) {
+                    gone.add(directory.resolve(file.name()).toString());
+                }
+            }
+            for (String name : before.subdirectories()) {
+                if (!after.subdirectories().contains(name)) {
+                    forget(directory.resolve(name), gone);
+                }
+            }
+            for (String name : after.subdirectories()) {
+                Path subdirectory = directory.resolve(name);
+                if (!listings.containsKey(subdirectory)) {
+                    // Files may land in the new subtree between its scan and its registration, so list it once more
+                    work.addAll(addSubtree(subdirectory, present));
+                }
+            }
+        }
+        return index.applyLibraryChanges(present, gone);
+    }
+
+    /**
+     * Scans, registers and remembers a directory that appeared, collecting its files; returns its directories.
+     */
+    private List<Path> addSubtree(Path directory, List<MusicDuplicateIndex.Entry> present) throws IOException {
+        MusicLibraryScanner.Result scanned = MusicLibraryScanner.scan(List.of(directory), null);
+        List<Path> directories = new ArrayList<>();
+        scanned.cache().directories().forEach((path, listing) -> {
+            Path added = Path.of(path);
+            register(added);
+            listings.put(added, listing);
+            directories.add(added);
+        });
+        present.addAll(scanned.entries());
+        return directories;
+    }
+
+    private void forgetUnlessRoot(Path directory, List<String> gone) {
+        if (roots.contains(directory)) {
+            // Like a root missing at startup, a vanished root keeps its entries; the resync logs it
+            resyncNeeded = true;
+        } else {
+            forget(directory, gone);
+        }
+    }
+
+    /**
+     * Drops a directory and everything below it, collecting the paths of the files it held.
+     */
+    private void forget(Path directory, List<String> gone) {
+        MusicLibraryScanner.Directory listing = listings.remove(directory);
+        WatchKey key = keysByDirectory.remove(directory);
+        if (key != null) {
+            directoriesByKey.remove(key);
+            key.cancel();
+        }
+        if (listing == null) {
+            return;
+        }
+        for (MusicLibraryScanner.AudioFile file : listing.files()) {
+            gone.add(directory.resolve(file.name()).toString());
+        }
+        for (String name : listing.subdirectories()) {
+            forget(directory.resolve(name), gone);
+        }
+    }
+
+    /**
+     * Scans the roots from scratch, re-registers every directory and reconciles the index with the result.
+     * A root that is missing right now (e.g. an unmounted card) is left alone rather than emptied.
+     */
+    private int resync() throws IOException {
+        resyncNeeded = false;
+        dirty.clear();
+        lost.clear();
+        List<Path> available = new ArrayList<>();
+        for (Path root : roots) {
+            if (Files.isDirectory(root)) {
+                available.add(root);
+            } else {
+                logger.warn("Music library root not found, not watching it: {}", root);
+            }
+        }
+        if (available.isEmpty()) {
+            return 0;
+        }
+        long startedAt = nowMillis();
+        MusicLibraryScanner.Result first = MusicLibraryScanner.scan(available, null);
+        first.cache().directories().keySet().forEach(path -> register(Path.of(path)));
+        // Directories that changed while the first scan was registered are listed again
+        MusicLibraryScanner.Result settled = MusicLibraryScanner.scan(available, first.cache());
+
+        listings.clear();
+        settled.cache().directories().forEach((path, listing) -> listings.put(Path.of(path), listing));
+        for (Path directory : listings.keySet()) {
+            register(directory);
+        }
+        for (Path directory : new ArrayList<>(keysByDirectory.keySet())) {
+            if (!listings.containsKey(directory)) {
+                WatchKey key = keysByDirectory.remove(directory);
+                directoriesByKey.remove(key);
+                key.cancel();
+            }
+        }
+
+        Set<String> scannedPaths = new HashSet<>();
+        settled.entries().forEach(entry -> scannedPaths.add(entry.path()));
+        List<String> gone = index.indexedPathsUnder(available).stream()
+                .filter(path -> !scannedPaths.contains(path))
+                .toList();
+        int changed = index.applyLibraryChanges(settled.entries(), gone);
+        logger.info("Watching {} music library directories with {} tracks under {} ({} ms)",
+                listings.size(), settled.entries().size(), available, nowMillis() - startedAt);
+        return changed;
+    }
+
+    private void register(Path directory) {
+        if (keysByDirectory.containsKey(directory)) {
+            return;
+        }
+        try {
+            WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+            keysByDirectory.put(directory, key);
+            directoriesByKey.put(key, directory);
+        } catch (IOException e) {
+            // Typically the inotify watch limit; changes there are only seen by the next resync
+            if (!registrationWarned) {
+                registrationWarned = true;
+                logger.warn("Cannot watch music library directory {}: {}", directory, e.getMessage());
+            }
+        }
+    }
+
+    private static long nowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,519 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Strings that every match of a regular expression contains, read off its syntax. {@link SanitizerRuleFile}
+ * uses them to check the literals written next to a rule, and to find literals for a rule whose own ones
+ * do not hold.
+ *
+ * The result is a conjunction of alternatives: every match contains at least one string of each set.
+ * Parts of the expression that are not plain text (dots, wide character classes, back references) only
+ * break the text around them, and whatever the reader does not understand counts as matching anything,
+ * so the sets are never more than what a match really has to contain. A regex this class cannot read
+ * at all, e.g. one with inline flags, simply has no required strings.
+ *
+ * With {@link Pattern#CASE_INSENSITIVE} the strings are lower-cased, which is what a match looks like on
+ * the lower-cased names the rules see.
+ */
+final class RegexLiterals {
+    // Largest set of exact strings followed through concatenation and alternation
+    private static final int EXACT_MAX = 16;
+    // Characters a class may have and still be followed as alternatives
+    private static final int CLASS_MAX = 8;
+    // Repetitions spelled out for a lower bound like {2,}
+    private static final int REPEAT_MAX = 4;
+    private static final int CONJUNCTS_MAX = 16;
+    private static final int ALTERNATIVES_MAX = 64;
+    private static final Info UNKNOWN = new Info(null, Set.of(""), Set.of(""), List.of());
+    private static final Info EMPTY = Info.exact(Set.of(""));
+
+    private final List<Set<String>> required;
+
+    private RegexLiterals(List<Set<String>> required) {
+        this.required = required;
+    }
+
+    /**
+     * @param regex a pattern that compiles with {@code flags}
+     */
+    static RegexLiterals of(String regex, int flags) {
+        try {
+            Parser parser = new Parser(regex, flags);
+            Info info = parser.alternation();
+            if (!parser.atEnd()) {
+                return new RegexLiterals(List.of());
+            }
+            return new RegexLiterals(info.required());
+        } catch (UnsupportedOperationException | IndexOutOfBoundsException | NumberFormatException e) {
+            return new RegexLiterals(List.of());
+        }
+    }
+
+    /**
+     * Whether every match contains at least one of {@code literals}: true when each string of one of the
+     * required sets contains one of them.
+     */
+    boolean coveredBy(List<String> literals) {
+        for (Set<String> alternatives : required) {
+            if (alternatives.stream().allMatch(string -> literals.stream().anyMatch(string::contains))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Literals for the rule, one of which every match contains, or an empty list when none are known.
+     * With {@code avoidFoldedLetters} they leave out i, k and s, which other characters also match under
+     * {@link Pattern#UNICODE_CASE}.
+     */
+    List<String> literals(boolean avoidFoldedLetters) {
+        List<String> best = List.of();
+        int bestShortest = 0;
+        for (Set<String> alternatives : required) {
+            List<String> candidate = new ArrayList<>();
+            int shortest = Integer.MAX_VALUE;
+            for (String string : alternatives) {
+                String literal = avoidFoldedLetters ? longestRunWithoutFoldedLetters(string) : string;
+                if (literal.isEmpty()) {
+                    candidate = null;
+                    break;
+                }
+                candidate.add(literal);
+                shortest = Math.min(shortest, literal.length());
+            }
+            // Longer literals rule out more names
+            if (candidate != null && shortest > bestShortest) {
+                best = List.copyOf(new LinkedHashSet<>(candidate));
+                bestShortest = shortest;
+            }
+        }
+        return best;
+    }
+
+    private static String longestRunWithoutFoldedLetters(String string) {
+        String longest = "";
+        int start = 0;
+        for (int i = 0; i <= string.length(); i++) {
+            if (i == string.length() || "iks".indexOf(string.charAt(i)) >= 0) {
+                if (i - start > longest.length()) {
+                    longest = string.substring(start, i);
+                }
+                start = i + 1;
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * What is known about the strings a part of the regex matches: all of them when {@code exact} is not
+     * null; in any case one of {@code prefix} starts each of them and one of {@code suffix} ends it (just
+     * the empty string when nothing is known), and they contain a string of each set of {@code required}.
+     */
+    private record Info(Set<String> exact, Set<String> prefix, Set<String> suffix, List<Set<String>> required) {
+        static Info exact(Set<String> strings) {
+            Set<String> copy = Set.copyOf(strings);
+            return new Info(copy, copy, copy, copy.contains("") ? List.of() : List.of(copy));
+        }
+
+        /**
+         * This part followed by {@code next}, as exact strings, or null when that would be too many.
+         */
+        Info concatExact(Info next) {
+            if (exact == null || next.exact == null || exact.size() * next.exact.size() > EXACT_MAX) {
+                return null;
+            }
+            Set<String> strings = new LinkedHashSet<>();
+            for (String left : exact) {
+                for (String right : next.exact) {
+                    strings.add(left + right);
+                }
+            }
+            return exact(strings);
+        }
+
+        Info or(Info other) {
+            if (exact != null && other.exact != null && exact.size() + other.exact.size() <= EXACT_MAX) {
+                Set<String> strings = new LinkedHashSet<>(exact);
+                strings.addAll(other.exact);
+                return exact(strings);
+            }
+            // (a1 and a2) or (b1 and b2) is (a1 or b1) and (a1 or b2) and (a2 or b1) and (a2 or b2)
+            List<Set<String>> distributed = new ArrayList<>();
+            for (Set<String> left : required) {
+                for (Set<String> right : other.required) {
+                    Set<String> alternatives = union(left, right);
+                    if (alternatives.size() <= ALTERNATIVES_MAX && distributed.size() < CONJUNCTS_MAX) {
+                        distributed.add(alternatives);
+                    }
+                }
+            }
+            return new Info(null, ends(union(prefix, other.prefix)), ends(union(suffix, other.suffix)), List.copyOf(distributed));
+        }
+
+        Info repeat(int min, int max) {
+            if (min == 0) {
+                return max == 1 && exact != null ? or(EMPTY) : UNKNOWN;
+            }
+            if (exact == null) {
+                // One repetition is part of every match, which is all that is known
+                return new Info(null, prefix, suffix, required);
+            }
+            Info repeated = this;
+            for (int i = 1; i < Math.min(min, REPEAT_MAX) && repeated != null; i++) {
+                repeated = repeated.concatExact(this);
+            }
+            if (repeated == null) {
+                return new Info(null, exact, exact, required);
+            }
+            return min == max && min <= REPEAT_MAX ? repeated : new Info(null, repeated.exact, repeated.exact, repeated.required);
+        }
+
+        private static Set<String> union(Set<String> left, Set<String> right) {
+            Set<String> strings = new LinkedHashSet<>(left);
+            strings.addAll(right);
+            return Set.copyOf(strings);
+        }
+
+        private static Set<String> ends(Set<String> strings) {
+            return strings.size() <= EXACT_MAX ? strings : Set.of("");
+        }
+    }
+
+    /**
+     * Recursive descent over the pattern syntax of {@link Pattern}, for a pattern that is known to compile.
+     */
+    private static final class Parser {
+        private final String regex;
+        private final boolean caseInsensitive;
+        private final boolean unicodeCase;
+        private int position;
+
+        Parser(String regex, int flags) {
+            this.regex = regex;
+            this.caseInsensitive = (flags & Pattern.CASE_INSENSITIVE) != 0;
+            this.unicodeCase = (flags & Pattern.UNICODE_CASE) != 0;
+        }
+
+        boolean atEnd() {
+            return position == regex.length();
+        }
+
+        Info alternation() {
+            Info info = concatenation();
+            while (!atEnd() && regex.charAt(position) == '|') {
+                position++;
+                info = info.or(concatenation());
+            }
+            return info;
+        }
+
+        /**
+         * Parts in a row. The exact strings of consecutive parts are joined into one run, so that text
+         * spelled out character by character becomes one required string; a part that is not exact ends
+         * the run with its prefix and starts the next one with its suffix.
+         */
+        private Info concatenation() {
+            Set<Set<String>> required = new LinkedHashSet<>();
+            Set<String> prefix = null;
+            Info run = EMPTY;
+            while (!atEnd() && regex.charAt(position) != '|' && regex.charAt(position) != ')') {
+                Info next = quantified();
+                Info joined = run.concatExact(next);
+                if (joined != null) {
+                    run = joined;
+                    continue;
+                }
+                Info head = run.concatExact(Info.exact(next.prefix()));
+                if (head == null) {
+                    required.addAll(run.required());
+                    head = run;
+                }
+                required.addAll(head.required());
+                required.addAll(next.required());
+                if (prefix == null) {
+                    prefix = head.exact();
+                }
+                run = Info.exact(next.suffix());
+            }
+            if (prefix == null) {
+                return run;
+            }
+            required.addAll(run.required());
+            List<Set<String>> conjuncts = new ArrayList<>(required);
+            return new Info(null, prefix, run.exact(), List.copyOf(conjuncts.subList(0, Math.min(conjuncts.size(), CONJUNCTS_MAX))));
+        }
+
+        private Info quantified() {
+            Info atom = atom();
+            if (atEnd()) {
+                return atom;
+            }
+            Info repeated;
+            switch (regex.charAt(position)) {
+                case '*' -> repeated = atom.repeat(0, Integer.MAX_VALUE);
+                case '+' -> repeated = atom.repeat(1, Integer.MAX_VALUE);
+                case '?' -> repeated = atom.repeat(0, 1);
+                case '{' -> {
+                    return quantifierSuffix(bounds(atom));
+                }
+                default -> {
+                    return atom;
+                }
+            }
+            position++;
+            return quantifierSuffix(repeated);
+        }
+
+        private Info quantifierSuffix(Info repeated) {
+            // Lazy and possessive forms match the same strings
+            if (!atEnd() && (regex.charAt(position) == '?' || regex.charAt(position) == '+')) {
+                position++;
+            }
+            return repeated;
+        }
+
+        private Info bounds(Info atom) {
+            int close = regex.indexOf('}', position);
+            String[] range = regex.substring(position + 1, close).split(",", -1);
+            position = close + 1;
+            int min = Integer.parseInt(range[0].trim());
+            int max = range.length == 1 ? min : range[1].isBlank() ? Integer.MAX_VALUE : Integer.parseInt(range[1].trim());
+            return atom.repeat(min, max);
+        }
+
+        private Info atom() {
+            char c = regex.charAt(position);
+            switch (c) {
+                case '(' -> {
+                    return group();
+                }
+                case '[' -> {
+                    Set<String> chars = characterClass();
+                    return chars == null ? UNKNOWN : Info.exact(chars);
+                }
+                case '.' -> {
+                    position++;
+                    return UNKNOWN;
+                }
+                case '^', '$' -> {
+                    position++;
+                    return EMPTY;
+                }
+                case '\\' -> {
+                    return escape();
+                }
+                default -> {
+                    int codePoint = regex.codePointAt(position);
+                    position += Character.charCount(codePoint);
+                    return Info.exact(Set.of(fold(codePoint)));
+                }
+            }
+        }
+
+        private Info group() {
+            position++;
+            boolean consumes = true;
+            if (regex.startsWith("?", position)) {
+                if (regex.startsWith("?:", position) || regex.startsWith("?>", position)) {
+                    position += 2;
+                } else if (regex.startsWith("?=", position) || regex.startsWith("?!", position)) {
+                    position += 2;
+                    consumes = false;
+                } else if (regex.startsWith("?<=", position) || regex.startsWith("?<!", position)) {
+                    position += 3;
+                    consumes = false;
+                } else if (regex.startsWith("?<", position)) {
+                    position = regex.indexOf('>', position) + 1;
+                } else {
+                    // Inline flags change how the rest reads
+                    throw new UnsupportedOperationException("flags in " + regex);
+                }
+            }
+            Info inner = alternation();
+            if (atEnd() || regex.charAt(position) != ')') {
+                throw new UnsupportedOperationException("unbalanced " + regex);
+            }
+            position++;
+            // A look-around checks text next to the match without making it part of it
+            return consumes ? inner : EMPTY;
+        }
+
+        /**
+         * The characters of a class, or null when it is negated, too wide or uses anything but characters
+         * and ranges.
+         */
+        private Set<String> characterClass() {
+            position++;
+            boolean enumerable = true;
+            if (regex.charAt(position) == '^') {
+                enumerable = false;
+                position++;
+            }
+            Set<String> chars = new LinkedHashSet<>();
+            boolean first = true;
+            while (first || regex.charAt(position) != ']') {
+                first = false;
+                char c = regex.charAt(position);
+                if (c == '[') {
+                    characterClass();
+                    enumerable = false;
+                    continue;
+                }
+                if (c == '&' && regex.startsWith("&&", position)) {
+                    position += 2;
+                    enumerable = false;
+                    continue;
+                }
+                int from = classMember();
+                if (from < 0) {
+                    enumerable = false;
+                    continue;
+                }
+                int to = from;
+                if (regex.charAt(position) == '-' && regex.charAt(position + 1) != ']') {
+                    position++;
+                    to = classMember();
+                    if (to < 0 || to - from >= CLASS_MAX) {
+                        enumerable = false;
+                        continue;
+                    }
+                }
+                for (int codePoint = from; codePoint <= to; codePoint++) {
+                    chars.add(fold(codePoint));
+                }
+            }
+            position++;
+            return enumerable && chars.size() <= CLASS_MAX ? chars : null;
+        }
+
+        /**
+         * One character of a class, or -1 for a predefined class such as {@code \s} or {@code \p{L}}.
+         */
+        private int classMember() {
+            if (regex.charAt(position) != '\\') {
+                int codePoint = regex.codePointAt(position);
+                position += Character.charCount(codePoint);
+                return codePoint;
+            }
+            position++;
+            int escaped = escapedChar();
+            if (escaped < 0) {
+                skipPredefinedClass();
+            }
+            return escaped;
+        }
+
+        private Info escape() {
+            position++;
+            char c = regex.charAt(position);
+            if ("bBAGZz".indexOf(c) >= 0) {
+                position++;
+                return EMPTY;
+            }
+            if (c == 'Q') {
+                int end = regex.indexOf("\\E", position);
+                String quoted = end < 0 ? regex.substring(position + 1) : regex.substring(position + 1, end);
+                position = end < 0 ? regex.length() : end + 2;
+                StringBuilder text = new StringBuilder();
+                quoted.codePoints().forEach(codePoint -> text.append(fold(codePoint)));
+                return Info.exact(Set.of(text.toString()));
+            }
+            if (c == 'k') {
+                position = regex.indexOf('>', position) + 1;
+                return UNKNOWN;
+            }
+            if (c >= '1' && c <= '9') {
+                // Back reference: whatever the group matched
+                while (!atEnd() && Character.isDigit(regex.charAt(position))) {
+                    position++;
+                }
+                return UNKNOWN;
+            }
+            int escaped = escapedChar();
+            if (escaped < 0) {
+                skipPredefinedClass();
+                return UNKNOWN;
+            }
+            return Info.exact(Set.of(fold(escaped)));
+        }
+
+        /**
+         * The character an escape stands for, starting after the backslash, or -1 (without consuming)
+         * when the escape is a predefined class.
+         */
+        private int escapedChar() {
+            char c = regex.charAt(position);
+            int control = "tnrfae".indexOf(c);
+            if (control >= 0) {
+                position++;
+                return "\t\n\r\f\u0007\u001B".charAt(control);
+            }
+            switch (c) {
+                case 'c' -> {
+                    position += 2;
+                    return regex.charAt(position - 1) ^ 64;
+                }
+                case '0' -> {
+                    position++;
+                    int value = 0;
+                    for (int digits = 0; digits < 3 && !atEnd(); digits++) {
+                        int digit = regex.charAt(position) - '0';
+                        if (digit < 0 || digit > 7 || value * 8 + digit > 0377) {
+                            break;
+                        }
+                        value = value * 8 + digit;
+                        position++;
+                    }
+                    return value;
+                }
+                case 'x' -> {
+                    if (regex.charAt(position + 1) == '{') {
+                        int close = regex.indexOf('}', position);
+                        int codePoint = Integer.parseInt(regex.substring(position + 2, close), 16);
+                        position = close + 1;
+                        return codePoint;
+                    }
+                    position += 3;
+                    return Integer.parseInt(regex.substring(position - 2, position), 16);
+                }
+                case 'u' -> {
+                    position += 5;
+                    return Integer.parseInt(regex.substring(position - 4, position), 16);
+                }
+                default -> {
+                    if (Character.isLetterOrDigit(c)) {
+                        return -1;
+                    }
+                    // Escaped punctuation stands for itself
+                    position++;
+                    return c;
+                }
+            }
+        }
+
+        private void skipPredefinedClass() {
+            char c = regex.charAt(position++);
+            if ((c == 'p' || c == 'P') && regex.charAt(position) == '{') {
+                position = regex.indexOf('}', position) + 1;
+            } else if (c == 'p' || c == 'P') {
+                position++;
+            } else if ("dDsSwWhHvVRX".indexOf(c) < 0) {
+                throw new UnsupportedOperationException("escape \\" + c + " in " + regex);
+            }
+        }
+
+        private String fold(int codePoint) {
+            if (caseInsensitive && (unicodeCase || codePoint < 128)) {
+                return new String(Character.toChars(codePoint)).toLowerCase(Locale.ROOT);
+            }
+            return new String(Character.toChars(codePoint));
+        }
+    }
+}
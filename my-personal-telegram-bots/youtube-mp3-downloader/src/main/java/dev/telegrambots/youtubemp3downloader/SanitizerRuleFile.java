@@ -0,0 +1,319 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Loads {@link SanitizerRules} from an ordered rule file and keeps them current while the file is edited.
+ *
+ * The format is described at the top of the bundled {@value #BUNDLED_RESOURCE}, which also holds the
+ * default rules. A file is compiled completely before it replaces the rules in use. A file with any
+ * invalid rule is rejected as a whole, with one report line per problem, and the previous rules stay in
+ * use: running only the valid rules would change what the later ones see.
+ *
+ * Literals of a rule are only trusted once {@link RegexLiterals} confirms that every match of the pattern
+ * contains one of them; a literal a match can lack would make the rule miss those names without a trace.
+ * A rule whose literals fail the check still loads, with a warning, using the literals read off its
+ * pattern instead, or running on every name when there are none.
+ *
+ * Edits are noticed through {@link IndexFileWatcher}, so checking for one costs {@link #current()} a
+ * volatile read. The caller that notices an edit only starts a background reload, which reads and
+ * compiles the file off the request path; every caller keeps getting the rules in use until the new ones
+ * are published.
+ */
+final class SanitizerRuleFile {
+    private static final Logger logger = LoggerFactory.getLogger(SanitizerRuleFile.class);
+    static final String BUNDLED_RESOURCE = "/sanitizer-rules.tsv";
+    // Literals are lower-case, so this marker cannot be mistaken for one
+    private static final String NO_LITERALS = "ALWAYS";
+
+    private final Path path;
+    private final IndexFileWatcher.Handle fileWatch;
+    private final AtomicBoolean reloading = new AtomicBoolean();
+    private volatile Loaded loaded;
+
+    private record Loaded(SanitizerRules rules, long generation) {
+    }
+
+    private SanitizerRuleFile(Path path, SanitizerRules fallback) {
+        this.path = path;
+        this.fileWatch = IndexFileWatcher.watch(path);
+        this.loaded = new Loaded(fallback, fileWatch.generation());
+        reload(loaded.generation());
+    }
+
+    /**
+     * Starts following the rule file at {@code path}. A missing file is first created with the bundled
+     * rules, so there is something to edit; until the file holds valid rules, {@code fallback} is used.
+     */
+    static SanitizerRuleFile open(Path path, SanitizerRules fallback) {
+        Path file = path.toAbsolutePath().normalize();
+        if (!Files.exists(file)) {
+            try {
+                writeBundled(file);
+                logger.info("Wrote the bundled sanitizer rules to {}", file);
+            } catch (IOException e) {
+                logger.warn("Could not create sanitizer rule file {}: {}", file, e.getMessage());
+            }
+        }
+        return new SanitizerRuleFile(file, fallback);
+    }
+
+    /**
+     * The rules of the file as last loaded. If it changed since, a reload is started in the background and
+     * these rules are returned meanwhile.
+     */
+    SanitizerRules current() {
+        Loaded current = loaded;
+        long generation = fileWatch.generation();
+        if (generation != current.generation() && reloading.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("sanitizer-rules-reload").start(() -> {
+                try {
+                    reload(generation);
+                } finally {
+                    reloading.set(false);
+                }
+            });
+        }
+        return current.rules();
+    }
+
+    private void reload(long generation) {
+        SanitizerRules rules = loaded.rules();
+        try {
+            List<String> warnings = new ArrayList<>();
+            rules = parse(Files.readAllLines(path, StandardCharsets.UTF_8), warnings);
+            for (String warning : warnings) {
+                logger.warn("Sanitizer rule file {}, {}", path, warning);
+            }
+            logger.info("Loaded {} sanitizer rules from {}", rules.size(), path);
+        } catch (InvalidRulesException e) {
+            logger.warn("Rejected sanitizer rule file {}, keeping the {} rules in use:{}{}",
+                    path, rules.size(), System.lineSeparator(), e.getMessage());
+        } catch (IOException e) {
+            logger.warn("Could not read sanitizer rule file {}, keeping the {} rules in use: {}", path, rules.size(), e.toString());
+        }
+        loaded = new Loaded(rules, generation);
+    }
+
+    /**
+     * The rules shipped in {@value #BUNDLED_RESOURCE}.
+     */
+    static SanitizerRules bundled() {
+        try {
+            List<String> warnings = new ArrayList<>();
+            SanitizerRules rules = parse(bundledText().lines().toList(), warnings);
+            for (String warning : warnings) {
+                logger.warn("Bundled sanitizer rules, {}", warning);
+            }
+            return rules;
+        } catch (InvalidRulesException e) {
+            throw new IllegalStateException("Bundled sanitizer rules are invalid:" + System.lineSeparator() + e.getMessage(), e);
+        }
+    }
+
+    private static String bundledText() {
+        try (InputStream in = SanitizerRuleFile.class.getResourceAsStream(BUNDLED_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing resource " + BUNDLED_RESOURCE);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeBundled(Path file) throws IOException {
+        Path directory = file.getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, bundledText(), StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Compiles the lines of a rule file, logging rules whose literals had to be replaced.
+     *
+     * @throws InvalidRulesException listing every invalid line when there is at least one
+     */
+    static SanitizerRules parse(List<String> lines) throws InvalidRulesException {
+        List<String> warnings = new ArrayList<>();
+        SanitizerRules rules = parse(lines, warnings);
+        for (String warning : warnings) {
+            logger.warn("Sanitizer rules, {}", warning);
+        }
+        return rules;
+    }
+
+    /**
+     * Compiles the lines of a rule file.
+     *
+     * @param warnings receives one line per rule that loads, but not with the literals it was written with
+     * @throws InvalidRulesException listing every invalid line when there is at least one
+     */
+    static SanitizerRules parse(List<String> lines, List<String> warnings) throws InvalidRulesException {
+        List<SanitizerRules.Rule> rules = new ArrayList<>();
+        List<String> problems = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (i == 0 && line.startsWith("\uFEFF")) {
+                // Byte order mark, as some phone editors write it
+                line = line.substring(1);
+            }
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            List<String> lineProblems = new ArrayList<>();
+            List<String> lineWarnings = new ArrayList<>();
+            SanitizerRules.Rule rule = parseRule(line, lineProblems, lineWarnings);
+            if (lineProblems.isEmpty()) {
+                rules.add(rule);
+                for (String warning : lineWarnings) {
+                    warnings.add("line " + (i + 1) + ": " + warning);
+                }
+            } else {
+                for (String problem : lineProblems) {
+                    problems.add("line " + (i + 1) + ": " + problem);
+                }
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new InvalidRulesException(problems);
+        }
+        return SanitizerRules.compile(rules);
+    }
+
+    private static SanitizerRules.Rule parseRule(String line, List<String> problems, List<String> warnings) {
+        String[] columns = line.split("\t", -1);
+        if (columns.length < 4) {
+            problems.add("expected flags, pattern, replacement and literals separated by tabs, found "
+                    + columns.length + " column" + (columns.length == 1 ? "" : "s"));
+            return null;
+        }
+        int flags = parseFlags(columns[0], problems);
+        boolean unicodeCase = (flags & Pattern.UNICODE_CASE) != 0;
+        Pattern pattern = null;
+        try {
+            pattern = Pattern.compile(columns[1], flags);
+        } catch (PatternSyntaxException e) {
+            problems.add("pattern " + columns[1] + ": " + e.getDescription() + " near index " + e.getIndex());
+        }
+        String replacement = columns[2];
+        if (pattern != null) {
+            checkReplacement(columns[1], flags, replacement, problems);
+        }
+        List<String> literals = new ArrayList<>();
+        for (int c = 3; c < columns.length; c++) {
+            String literal = columns[c];
+            if (literal.equals(NO_LITERALS) && columns.length == 4) {
+                break;
+            }
+            if (literal.isEmpty()) {
+                problems.add("literal " + (c - 2) + " is empty");
+            } else if (literal.equals(NO_LITERALS)) {
+                problems.add(NO_LITERALS + " must be the only literal");
+            } else if (!literal.equals(literal.toLowerCase(Locale.ROOT))) {
+                problems.add("literal '" + literal + "' has upper-case letters, but names reach the rules lower-cased");
+            } else if (unicodeCase && literal.chars().anyMatch(ch -> ch == 'i' || ch == 'k' || ch == 's')) {
+                problems.add("literal '" + literal + "' contains i, k or s, which other characters also match"
+                        + " with flag u; pick a part of the match without them");
+            } else {
+                literals.add(literal);
+            }
+        }
+        if (!problems.isEmpty()) {
+            return null;
+        }
+        if (!literals.isEmpty()) {
+            literals = checkedLiterals(columns[1], flags, literals, warnings);
+        }
+        return new SanitizerRules.Rule(pattern, replacement, literals);
+    }
+
+    /**
+     * The literals if every match of the pattern contains one of them; otherwise the ones
+     * {@link RegexLiterals} reads off the pattern, or none, so the rule runs on every name.
+     */
+    private static List<String> checkedLiterals(String regex, int flags, List<String> literals, List<String> warnings) {
+        RegexLiterals required = RegexLiterals.of(regex, flags);
+        if (required.coveredBy(literals)) {
+            return literals;
+        }
+        List<String> derived = required.literals((flags & Pattern.UNICODE_CASE) != 0);
+        warnings.add("pattern " + regex + ": cannot tell that every match contains one of " + String.join(", ", literals)
+                + (derived.isEmpty() ? ", running it on every name" : ", using " + String.join(", ", derived) + " instead"));
+        return derived;
+    }
+
+    private static int parseFlags(String column, List<String> problems) {
+        if (column.equals("-")) {
+            return 0;
+        }
+        int flags = 0;
+        for (char flag : column.toCharArray()) {
+            switch (flag) {
+                case 'i' -> flags |= Pattern.CASE_INSENSITIVE;
+                case 'u' -> flags |= Pattern.UNICODE_CASE;
+                default -> problems.add("unknown flag '" + flag + "' in '" + column + "', expected -, i or iu");
+            }
+        }
+        if (column.isEmpty()) {
+            problems.add("flags are empty, use - for none");
+        }
+        return flags;
+    }
+
+    /**
+     * Applies the replacement once to an empty match of the pattern with the same groups, which is where
+     * a bad group reference or a dangling backslash shows up.
+     */
+    private static void checkReplacement(String regex, int flags, String replacement, List<String> problems) {
+        Matcher probe;
+        try {
+            probe = Pattern.compile("(?:" + regex + ")|", flags).matcher("");
+        } catch (PatternSyntaxException e) {
+            return;
+        }
+        if (!probe.find()) {
+            return;
+        }
+        try {
+            probe.appendReplacement(new StringBuilder(), replacement);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            problems.add("replacement '" + replacement + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * A rule file with invalid rules; the message has one line per problem.
+     */
+    static final class InvalidRulesException extends Exception {
+        private final List<String> problems;
+
+        InvalidRulesException(List<String> problems) {
+            super(String.join(System.lineSeparator(), problems));
+            this.problems = List.copyOf(problems);
+        }
+
+        List<String> problems() {
+            return problems;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * The ordered replacement rules of {@link FileNameSanitizer}, compiled so that a name only pays for the
+ * rules that can change it.
+ *
+ * Rules still run one after another, each on the output of the previous one, because many of them
+ * only match what an earlier one produced (dashes turned into spaces, brackets removed, ...); merging
+ * them into fewer regexes would change results. Instead, a rule may name literals, at least one of
+ * which every match of it contains. All literals sit in one {@link LiteralScanner}, so a single pass
+ * over the name tells which rules can match at all, and the others are skipped without running their
+ * regex. Most names only trigger a handful of the rules. The pass is repeated after a rule actually
+ * changed the name, since the change may create or remove literals.
+ *
+ * Literals are matched exactly. That is sound because names reach the rules lower-cased, and the rules
+ * only ever insert spaces and apostrophes. For a rule with {@link Pattern#UNICODE_CASE}, literals avoid
+ * the letters that other characters fold onto (i, k and s: dotless i, the Kelvin sign, the long s).
+ */
+final class SanitizerRules {
+    private final List<Rule> rules;
+    private final LiteralScanner scanner;
+    // Literal ids per rule; empty when the rule has to run on every name
+    private final int[][] literalIds;
+    private final int fingerprint;
+
+    private SanitizerRules(List<Rule> rules, LiteralScanner scanner, int[][] literalIds) {
+        this.rules = rules;
+        this.scanner = scanner;
+        this.literalIds = literalIds;
+        this.fingerprint = fingerprintOf(rules);
+    }
+
+    static SanitizerRules compile(List<Rule> rules) {
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        int[][] literalIds = new int[rules.size()][];
+        for (int r = 0; r < rules.size(); r++) {
+            List<String> literals = rules.get(r).literals();
+            literalIds[r] = new int[literals.size()];
+            for (int l = 0; l < literals.size(); l++) {
+                literalIds[r][l] = ids.computeIfAbsent(literals.get(l), literal -> ids.size());
+            }
+        }
+        return new SanitizerRules(List.copyOf(rules), LiteralScanner.of(new ArrayList<>(ids.keySet())), literalIds);
+    }
+
+    /**
+     * Applies the rules in order, skipping those whose literals are all absent.
+     */
+    String apply(String text) {
+        boolean[] present = new boolean[scanner.size()];
+        scanner.scan(text, present);
+        for (int r = 0; r < rules.size(); r++) {
+            if (!canMatch(literalIds[r], present)) {
+                continue;
+            }
+            Rule rule = rules.get(r);
+            Matcher matcher = rule.pattern().matcher(text);
+            if (!matcher.find()) {
+                continue;
+            }
+            String replaced = matcher.replaceAll(rule.replacement());
+            if (!replaced.equals(text)) {
+                text = replaced;
+                scanner.scan(text, present);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Applies every rule in order without the literal check; what {@link #apply} must always agree with.
+     */
+    String applyEveryRule(String text) {
+        for (Rule rule : rules) {
+            text = rule.pattern().matcher(text).replaceAll(rule.replacement());
+        }
+        return text;
+    }
+
+    int size() {
+        return rules.size();
+    }
+
+    /**
+     * Checksum of what the rules do: their patterns, flags and replacements in order. Two rule sets with
+     * the same fingerprint clean every name the same way; literals are left out, as they only decide
+     * which rules get skipped.
+     */
+    int fingerprint() {
+        return fingerprint;
+    }
+
+    private static int fingerprintOf(List<Rule> rules) {
+        CRC32 crc = new CRC32();
+        for (Rule rule : rules) {
+            String line = rule.pattern().flags() + "\t" + rule.pattern().pattern() + "\t" + rule.replacement() + "\n";
+            crc.update(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return (int) crc.getValue();
+    }
+
+    private static boolean canMatch(int[] literalIds, boolean[] present) {
+        if (literalIds.length == 0) {
+            return true;
+        }
+        for (int id : literalIds) {
+            if (present[id]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One replacement rule.
+     *
+     * @param literals strings of which every match contains at least one; empty when no such set is known
+     */
+    record Rule(Pattern pattern, String replacement, List<String> literals) {
+        Rule {
+            literals = List.copyOf(literals);
+        }
+
+        static Rule of(Pattern pattern, String replacement, String... literals) {
+            return new Rule(pattern, replacement, List.of(literals));
+        }
+    }
+}
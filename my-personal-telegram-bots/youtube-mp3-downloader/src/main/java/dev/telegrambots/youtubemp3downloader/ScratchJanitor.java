@@ -0,0 +1,186 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Deletes what jobs left behind when the process died before their cleanup ran, so scratch space stays
+ * bounded across {@code kill -9} restarts.
+ *
+ * A sweep runs at startup and then every {@link #INTERVAL_MILLIS}. In {@value JobScratch#SCRATCH_DIR_NAME}
+ * a {@link JobScratch} directory goes once its lease is no longer held. Anything else there, such as the
+ * {@code _cover.mp3}, {@code chapters_source_} and {@code cut_<ts>} leftovers of jobs from before the
+ * leases, goes once it is older than {@link #GRACE_MILLIS}, as do the {@code _clip_}, {@code _split_},
+ * {@code _covered_} and {@code _cover_} temporaries ffmpeg steps write next to their output in the
+ * workzone.
+ *
+ * Files are deleted at most {@link #DELETES_PER_SECOND} a second, so a large backlog after a crash does
+ * not compete with running downloads for the storage. Each sweep logs what it reclaimed, and the totals
+ * since start are in {@link #totals()}.
+ */
+final class ScratchJanitor {
+    private static final Logger logger = LoggerFactory.getLogger(ScratchJanitor.class);
+    static final long INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    static final long GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final int DELETES_PER_SECOND = 20;
+    private static final Pattern WORKZONE_TEMPORARY = Pattern.compile(
+            ".+_(?:(?:clip|split|covered)_\\d{10,}\\.mp3|cover_\\d{10,}\\.jpg)");
+
+    private final Path workzone;
+    private final int deletesPerSecond;
+    private final Object totalsLock = new Object();
+    private Report totals = new Report(0, 0);
+
+    /**
+     * What a sweep, or all sweeps since start, deleted.
+     */
+    record Report(int files, long bytes) {
+        Report plus(Report other) {
+            return new Report(files + other.files, bytes + other.bytes);
+        }
+    }
+
+    ScratchJanitor(Path workzone, int deletesPerSecond) {
+        this.workzone = workzone.toAbsolutePath().normalize();
+        this.deletesPerSecond = deletesPerSecond;
+    }
+
+    /**
+     * Whether {@code name} is one of the temporaries ffmpeg steps write next to their output in the workzone.
+     */
+    static boolean isWorkzoneTemporary(String name) {
+        return WORKZONE_TEMPORARY.matcher(name).matches();
+    }
+
+    /**
+     * Starts sweeping the workzone in the background, right away and then on the interval.
+     */
+    static ScratchJanitor start(Path workzone) {
+        ScratchJanitor janitor = new ScratchJanitor(workzone, DELETES_PER_SECOND);
+        Thread.ofPlatform().daemon().name("scratch-janitor").start(janitor::run);
+        return janitor;
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                sweep(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.warn("Scratch sweep of {} failed", workzone, e);
+            }
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    Report totals() {
+        synchronized (totalsLock) {
+            return totals;
+        }
+    }
+
+    /**
+     * Deletes every orphan found at {@code nowMillis}.
+     */
+    Report sweep(long nowMillis) {
+        List<Path> orphans = new ArrayList<>();
+        Path scratchRoot = workzone.resolve(JobScratch.SCRATCH_DIR_NAME);
+        for (Path entry : list(scratchRoot)) {
+            boolean jobDirectory = Files.isDirectory(entry) && Files.exists(entry.resolve(JobScratch.LEASE_FILE_NAME));
+            if (jobDirectory ? !JobScratch.isHeld(entry, nowMillis) : isOlderThanGrace(entry, nowMillis)) {
+                orphans.add(entry);
+            }
+        }
+        for (Path entry : list(workzone)) {
+            if (isWorkzoneTemporary(entry.getFileName().toString())
+                    && Files.isRegularFile(entry) && isOlderThanGrace(entry, nowMillis)) {
+                orphans.add(entry);
+            }
+        }
+        Report reclaimed = new Report(0, 0);
+        for (Path orphan : orphans) {
+            reclaimed = reclaimed.plus(delete(orphan));
+        }
+        if (reclaimed.files() > 0) {
+            logger.info("Scratch janitor reclaimed {} files, {} bytes from {} leftovers in {}",
+                    reclaimed.files(), reclaimed.bytes(), orphans.size(), workzone);
+        }
+        synchronized (totalsLock) {
+            totals = totals.plus(reclaimed);
+        }
+        return reclaimed;
+    }
+
+    private static List<Path> list(Path directory) {
+        List<Path> entries = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return entries;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(entries::add);
+        } catch (IOException e) {
+            logger.warn("Cannot list {}: {}", directory, e.getMessage());
+        }
+        return entries;
+    }
+
+    private static boolean isOlderThanGrace(Path entry, long nowMillis) {
+        try {
+            return nowMillis - Files.getLastModifiedTime(entry).toMillis() > GRACE_MILLIS;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Deletes a leftover file or directory tree, deepest first, at the configured rate.
+     */
+    private Report delete(Path orphan) {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(orphan)) {
+            paths = walk.sorted(Comparator.reverseOrder()).toList();
+        } catch (IOException e) {
+            logger.warn("Cannot walk scratch leftover {}: {}", orphan, e.getMessage());
+            return new Report(0, 0);
+        }
+        int files = 0;
+        long bytes = 0;
+        for (Path path : paths) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                Files.delete(path);
+                if (attributes.isRegularFile()) {
+                    files++;
+                    bytes += attributes.size();
+                    pace();
+                }
+            } catch (IOException e) {
+                logger.debug("Could not delete scratch leftover {}: {}", path, e.getMessage());
+            }
+        }
+        return new Report(files, bytes);
+    }
+
+    private void pace() {
+        try {
+            Thread.sleep(1000L / deletesPerSecond);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
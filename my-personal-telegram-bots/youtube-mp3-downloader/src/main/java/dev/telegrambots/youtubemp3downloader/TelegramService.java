@@ -1,10 +1,13 @@
 package dev.telegrambots.youtubemp3downloader;
 
 import org.telegram.telegrambots.meta.api.methods.ActionType;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class TelegramService {
     private static final Logger logger = LoggerFactory.getLogger(TelegramService.class);
@@ -58,6 +61,57 @@ public class TelegramService {
         }
     }
 
+    /**
+     * Hands the audio to the bot's upload queue. The future completes with {@code true} once Telegram
+     * accepted the file and with {@code false} if the upload failed; it never completes exceptionally.
+     */
+    public CompletableFuture<Boolean> sendAudioAsync(String chatId, File audioFile, String caption) {
+        return sendAudioAsync(chatId, audioFile, caption, fileId -> {
+        });
+    }
+
+    /**
+     * {@link #sendAudioAsync(String, File, String)} that also hands the file_id Telegram gave the upload to
+     * {@code onSent} before the future completes; the file_id is null if the reply carried none.
+     */
+    public CompletableFuture<Boolean> sendAudioAsync(String chatId, File audioFile, String caption, Consumer<String> onSent) {
+        try {
+            return bot.sendAudioFileAsync(chatId, audioFile, caption).handle((message, error) -> {
+                if (error != null) {
+                    logger.error("[{}] [Telegram] Failed to upload audio file: {}", now(), audioFile.getName(), error);
+                    return false;
+                }
+                onSent.accept(sentFileId(message));
+                return true;
+            });
+        } catch (Exception e) {
+            logger.error("[{}] [Telegram] Failed to queue audio file: {}", now(), audioFile.getName(), e);
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    private static String sentFileId(Message message) {
+        if (message == null) {
+            return null;
+        }
+        if (message.getAudio() != null) {
+            return message.getAudio().getFileId();
+        }
+        return message.getDocument() != null ? message.getDocument().getFileId() : null;
+    }
+
+    public CompletableFuture<Void> whenUploadsSettled(String chatId) {
+        try {
+            CompletableFuture<Void> settled = bot.whenAudioUploadsSettled(chatId);
+            if (settled != null) {
+                return settled;
+            }
+        } catch (Exception e) {
+            logger.error("[{}] [Telegram] Failed to check pending uploads for chat: {}", now(), chatId, e);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
     public void sendChatAction(Long chatId, ActionType action) {
         try {
             bot.sendChatAction(chatId, action);
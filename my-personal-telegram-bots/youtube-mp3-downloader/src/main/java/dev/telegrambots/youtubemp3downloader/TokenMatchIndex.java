@@ -0,0 +1,268 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Inverted token index for the partial-token pass of {@link MusicDuplicateIndex}.
+ *
+ * Tokens are interned into a dictionary once at load; every entry keeps its distinct token ids sorted,
+ * and each token id points at the ascending ids of the entries that contain it. Both relations are
+ * stored in CSR layout (one offset array plus one flat id array) and the dictionary is looked up through
+ * an {@link IntHashIndex}, so the index holds no per-entry or per-token objects beyond the token strings.
+ * A lookup merges the posting lists of the candidate's tokens: the number of lists an entry shows up
+ * in is its overlap, so only entries that share a token are touched and nothing is allocated per entry.
+ * Entries come out of the merge in file order, which keeps the first-best-wins rule of a linear scan.
+ */
+final class TokenMatchIndex {
+    static final TokenMatchIndex EMPTY = build(List.of());
+
+    static final int MIN_SHARED_TOKENS = 4;
+    private static final double MIN_OVERLAP_RATIO = 0.8;
+
+    private final EntryColumns entries;
+    private final String[] dictionary;
+    private final IntHashIndex dictionaryIndex;
+    // Entry i has the distinct token ids [tokenStart[i], tokenStart[i + 1]) of tokenIds, ascending
+    private final int[] tokenStart;
+    private final int[] tokenIds;
+    // Postings in CSR layout: token t owns [postingStart[t], postingStart[t + 1]) with ascending entry ids
+    private final int[] postingStart;
+    private final int[] postingEntries;
+
+    private TokenMatchIndex(EntryColumns entries, String[] dictionary, int[] tokenStart, int[] tokenIds) {
+        this.entries = entries;
+        this.dictionary = dictionary;
+        this.tokenStart = tokenStart;
+        this.tokenIds = tokenIds;
+        this.dictionaryIndex = new IntHashIndex(dictionary.length);
+        for (int t = 0; t < dictionary.length; t++) {
+            dictionaryIndex.add(dictionary[t].hashCode(), t);
+        }
+
+        int count = entries.size();
+        this.postingStart = new int[dictionary.length + 1];
+        for (int i = 0; i < count; i++) {
+            if (tokenCount(i) >= MIN_SHARED_TOKENS) {
+                for (int p = tokenStart[i]; p < tokenStart[i + 1]; p++) {
+                    postingStart[tokenIds[p] + 1]++;
+                }
+            }
+        }
+        for (int t = 0; t < dictionary.length; t++) {
+            postingStart[t + 1] += postingStart[t];
+        }
+        this.postingEntries = new int[postingStart[dictionary.length]];
+        int[] fill = Arrays.copyOf(postingStart, dictionary.length);
+        for (int i = 0; i < count; i++) {
+            if (tokenCount(i) >= MIN_SHARED_TOKENS) {
+                for (int p = tokenStart[i]; p < tokenStart[i + 1]; p++) {
+                    postingEntries[fill[tokenIds[p]]++] = i;
+                }
+            }
+        }
+    }
+
+    static TokenMatchIndex build(List<MusicDuplicateIndex.Entry> entries) {
+        return build(entries, EntryColumns.of(entries));
+    }
+
+    /**
+     * Index over {@code columns}, which hold the same entries as {@code entries}; the list is only read here.
+     */
+    static TokenMatchIndex build(List<MusicDuplicateIndex.Entry> entries, EntryColumns columns) {
+        Map<String, Integer> ids = new HashMap<>();
+        int[] tokenStart = new int[entries.size() + 1];
+        int[] tokenIds = new int[Math.max(16, entries.size() * 4)];
+        for (int i = 0; i < entries.size(); i++) {
+            String[] tokens = tokens(entries.get(i).key());
+            int[] entryIds = new int[tokens.length];
+            for (int t = 0; t < tokens.length; t++) {
+                entryIds[t] = ids.computeIfAbsent(tokens[t], token -> ids.size());
+            }
+            entryIds = distinctSorted(entryIds);
+            if (tokenStart[i] + entryIds.length > tokenIds.length) {
+                tokenIds = Arrays.copyOf(tokenIds, Math.max(tokenIds.length * 2, tokenStart[i] + entryIds.length));
+            }
+            System.arraycopy(entryIds, 0, tokenIds, tokenStart[i], entryIds.length);
+            tokenStart[i + 1] = tokenStart[i] + entryIds.length;
+        }
+        String[] dictionary = new String[ids.size()];
+        ids.forEach((token, id) -> dictionary[id] = token);
+        return new TokenMatchIndex(columns, dictionary, tokenStart, Arrays.copyOf(tokenIds, tokenStart[entries.size()]));
+    }
+
+    /**
+     * Index over entries whose tokens were interned earlier, e.g. read from a {@link MusicIndexSnapshotFile}.
+     * Entry i's distinct token ids are {@code tokenIds[tokenStart[i], tokenStart[i + 1])} in ascending order.
+     */
+    static TokenMatchIndex fromTokenIds(EntryColumns entries, String[] dictionary, int[] tokenStart, int[] tokenIds) {
+        if (tokenStart.length != entries.size() + 1) {
+            throw new IllegalArgumentException("Token offsets do not match the entry count " + entries.size());
+        }
+        return new TokenMatchIndex(entries, dictionary, tokenStart, tokenIds);
+    }
+
+    /**
+     * Token strings by id, shared rather than copied like the CSR arrays below; callers must not modify them.
+     */
+    String[] dictionary() {
+        return dictionary;
+    }
+
+    int[] tokenStart() {
+        return tokenStart;
+    }
+
+    int[] tokenIds() {
+        return tokenIds;
+    }
+
+    private int tokenCount(int entry) {
+        return tokenStart[entry + 1] - tokenStart[entry];
+    }
+
+    /**
+     * Entry sharing at least four tokens and 80% of the smaller token set with the candidate, or null.
+     */
+    Match findBest(String candidateKey) {
+        return findBest(candidateKey, entry -> true);
+    }
+
+    /**
+     * {@link #findBest(String)} among the entries {@code live} accepts; it is only asked about an entry
+     * that would become the best match, so a cheap filter stays cheap.
+     */
+    Match findBest(String candidateKey, IntPredicate live) {
+        String[] candidateTokens = distinct(tokens(candidateKey));
+        if (candidateTokens.length < MIN_SHARED_TOKENS || entries.size() == 0) {
+            return null;
+        }
+        int[] cursors = new int[candidateTokens.length];
+        int[] ends = new int[candidateTokens.length];
+        int lists = 0;
+        for (String token : candidateTokens) {
+            int id = dictionaryIndex.find(token.hashCode(), t -> dictionary[t].equals(token));
+            if (id >= 0 && postingStart[id] < postingStart[id + 1]) {
+                cursors[lists] = postingStart[id];
+                ends[lists] = postingStart[id + 1];
+                lists++;
+            }
+        }
+        if (lists < MIN_SHARED_TOKENS) {
+            return null;
+        }
+
+        int bestEntry = -1;
+        double bestScore = 0.0;
+        while (true) {
+            int current = Integer.MAX_VALUE;
+            for (int l = 0; l < lists; l++) {
+                if (cursors[l] < ends[l]) {
+                    current = Math.min(current, postingEntries[cursors[l]]);
+                }
+            }
+            if (current == Integer.MAX_VALUE) {
+                break;
+            }
+            int overlap = 0;
+            for (int l = 0; l < lists; l++) {
+                if (cursors[l] < ends[l] && postingEntries[cursors[l]] == current) {
+                    overlap++;
+                    cursors[l]++;
+                }
+            }
+            if (overlap < MIN_SHARED_TOKENS) {
+                continue;
+            }
+            double score = score(overlap, candidateTokens.length, tokenCount(current));
+            if (score > bestScore && live.test(current)) {
+                bestScore = score;
+                bestEntry = current;
+            }
+        }
+        return bestEntry < 0 ? null : new Match(entries.entry(bestEntry), bestScore);
+    }
+
+    /**
+     * Same score for a single entry, given both distinct token sets sorted; 0 when it does not qualify.
+     */
+    static double score(String[] sortedCandidateTokens, String[] sortedEntryTokens) {
+        if (sortedCandidateTokens.length < MIN_SHARED_TOKENS || sortedEntryTokens.length < MIN_SHARED_TOKENS) {
+            return 0.0;
+        }
+        int overlap = 0;
+        int c = 0;
+        int e = 0;
+        while (c < sortedCandidateTokens.length && e < sortedEntryTokens.length) {
+            int order = sortedCandidateTokens[c].compareTo(sortedEntryTokens[e]);
+            if (order == 0) {
+                overlap++;
+                c++;
+                e++;
+            } else if (order < 0) {
+                c++;
+            } else {
+                e++;
+            }
+        }
+        return score(overlap, sortedCandidateTokens.length, sortedEntryTokens.length);
+    }
+
+    private static double score(int overlap, int candidateTokens, int entryTokens) {
+        if (overlap < MIN_SHARED_TOKENS) {
+            return 0.0;
+        }
+        double score = overlap / (double) Math.min(candidateTokens, entryTokens);
+        return score >= MIN_OVERLAP_RATIO ? score : 0.0;
+    }
+
+    /**
+     * Distinct tokens of a normalized key in sorted order.
+     */
+    static String[] sortedDistinctTokens(String key) {
+        return Arrays.stream(tokens(key)).distinct().sorted().toArray(String[]::new);
+    }
+
+    /**
+     * Tokens of a normalized key, which holds single spaces between letter/digit runs.
+     */
+    static String[] tokens(String key) {
+        if (key == null || key.isEmpty()) {
+            return new String[0];
+        }
+        int count = 0;
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != ' ' && (i == 0 || key.charAt(i - 1) == ' ')) {
+                count++;
+            }
+        }
+        String[] tokens = new String[count];
+        int index = 0;
+        int start = -1;
+        for (int i = 0; i <= key.length(); i++) {
+            boolean space = i == key.length() || key.charAt(i) == ' ';
+            if (space && start >= 0) {
+                tokens[index++] = key.substring(start, i);
+                start = -1;
+            } else if (!space && start < 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    private static String[] distinct(String[] tokens) {
+        return Arrays.stream(tokens).distinct().toArray(String[]::new);
+    }
+
+    private static int[] distinctSorted(int[] ids) {
+        return Arrays.stream(ids).sorted().distinct().toArray();
+    }
+
+    record Match(MusicDuplicateIndex.Entry entry, double score) {
+    }
+}
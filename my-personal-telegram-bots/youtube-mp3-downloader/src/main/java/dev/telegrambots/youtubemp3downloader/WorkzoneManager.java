@@ -0,0 +1,394 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the workzone under a byte budget by deleting the tracks that were sent the longest time ago.
+ *
+ * Only finished tracks count: audio files directly in the workzone, other than hidden files such as the
+ * ledger and {@link JobScratch} partial copies, and the temporaries ffmpeg steps write next to their output
+ * (see {@link ScratchJanitor}). Sizes are read from one directory listing at startup and then updated
+ * from the downloads, renames and evictions the bot reports, so checking the budget never lists the
+ * directory again. Tracks are kept in least recently sent order; a track that is being uploaded is
+ * never evicted, since it may be the only copy the chat has not received yet. Eviction stops at
+ * {@link #LOW_WATERMARK} of the budget, so the next few downloads do not each evict a track.
+ *
+ * The Telegram file_id of each upload is recorded with its send time in {@value #LEDGER_FILE_NAME}, an
+ * append-only file in the workzone that is rewritten at startup. Evicting a track only deletes the file:
+ * its duplicate index entries stay, because the track is still in the chat under that file_id.
+ */
+final class WorkzoneManager {
+    private static final Logger logger = LoggerFactory.getLogger(WorkzoneManager.class);
+    static final String LEDGER_FILE_NAME = ".workzone-ledger.tsv";
+    static final double LOW_WATERMARK = 0.9;
+
+    private final Path directory;
+    private final Path ledger;
+    private final long budgetBytes;
+    // By file name, least recently sent first; a send moves the track to the end
+    private final LinkedHashMap<String, Track> tracks = new LinkedHashMap<>();
+    private long usedBytes;
+    private int evictedFiles;
+    private long evictedBytes;
+
+    private static final class Track {
+        final String name;
+        long size;
+        long lastSentMillis;
+        String fileId;
+        int uploading;
+
+        Track(String name, long size, long lastSentMillis, String fileId) {
+            this.name = name;
+            this.size = size;
+            this.lastSentMillis = lastSentMillis;
+            this.fileId = fileId;
+        }
+    }
+
+    /**
+     * What {@code /workzone} shows.
+     *
+     * @param budgetBytes 0 when there is no budget
+     */
+    record Stats(String directory, long usedBytes, long budgetBytes, int files, int withFileId, int uploading,
+                 int evictedFiles, long evictedBytes) {
+    }
+
+    private WorkzoneManager(Path directory, long budgetBytes) {
+        this.directory = directory;
+        this.ledger = directory.resolve(LEDGER_FILE_NAME);
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Lists the workzone once, takes the send times and file_ids from the ledger and evicts if the
+     * workzone is already over {@code budgetBytes} (0 for no budget).
+     */
+    static WorkzoneManager open(Path directory, long budgetBytes) {
+        WorkzoneManager manager = new WorkzoneManager(directory.toAbsolutePath().normalize(), Math.max(0, budgetBytes));
+        synchronized (manager) {
+            manager.load();
+            manager.evictIfOverBudget();
+        }
+        return manager;
+    }
+
+    private void load() {
+        tracks.clear();
+        usedBytes = 0;
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Map<String, Track> sent = readLedger();
+        List<Track> found = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!isTrack(name)) {
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                Track known = sent.get(name);
+                // Files from before the ledger count as sent when they were last written
+                found.add(new Track(name, attributes.size(),
+                        known != null ? known.lastSentMillis : attributes.lastModifiedTime().toMillis(),
+                        known != null ? known.fileId : null));
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot list workzone {}: {}", directory, e.getMessage());
+        }
+        found.sort(Comparator.comparingLong((Track track) -> track.lastSentMillis).thenComparing(track -> track.name));
+        for (Track track : found) {
+            tracks.put(track.name, track);
+            usedBytes += track.size;
+        }
+        rewriteLedger();
+    }
+
+    /**
+     * Counts a file that was just written to the workzone and holds it until {@link #uploadSettled} is
+     * called for it, then evicts if the workzone went over budget.
+     */
+    synchronized void added(Path file) {
+        String name = nameIn(file);
+        if (name == null) {
+            return;
+        }
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            logger.warn("Cannot size new workzone file {}: {}", file, e.getMessage());
+            return;
+        }
+        Track track = tracks.remove(name);
+        if (track == null) {
+            track = new Track(name, size, System.currentTimeMillis(), null);
+        } else {
+            // Downloaded again under the same name
+            usedBytes -= track.size;
+            track.size = size;
+            track.lastSentMillis = System.currentTimeMillis();
+            track.fileId = null;
+        }
+        track.uploading++;
+        tracks.put(name, track);
+        usedBytes += size;
+        evictIfOverBudget();
+    }
+
+    /**
+     * Records that Telegram accepted the upload of {@code file} under {@code fileId} (may be null when the
+     * reply had none) and makes it the most recently sent track.
+     */
+    synchronized void sent(Path file, String fileId) {
+        String name = nameIn(file);
+        Track track = name == null ? null : tracks.remove(name);
+        if (track == null) {
+            return;
+        }
+        track.lastSentMillis = System.currentTimeMillis();
+        if (fileId != null && !fileId.isBlank()) {
+            track.fileId = fileId;
+        }
+        tracks.put(name, track);
+        appendLedger(List.of(ledgerLine(track)));
+    }
+
+    /**
+     * Releases the hold {@link #added} put on {@code file}, whether its upload succeeded or not.
+     */
+    synchronized void uploadSettled(Path file) {
+        String name = nameIn(file);
+        Track track = name == null ? null : tracks.get(name);
+        if (track != null && track.uploading > 0) {
+            track.uploading--;
+            if (track.uploading == 0) {
+                evictIfOverBudget();
+            }
+        }
+    }
+
+    /**
+     * Follows files renamed within the workzone, e.g. by {@code /sanitize_mp3}.
+     */
+    synchronized void renamed(Map<Path, Path> renames) {
+        List<String> lines = new ArrayList<>();
+        Map<String, Track> moved = new HashMap<>();
+        for (Map.Entry<Path, Path> rename : renames.entrySet()) {
+            String from = nameIn(rename.getKey());
+            String to = nameIn(rename.getValue());
+            Track track = from == null ? null : tracks.remove(from);
+            if (track == null) {
+                continue;
+            }
+            lines.add(removalLine(from));
+            if (to == null) {
+                // Moved out of the workzone or to a name that is no longer a track
+                usedBytes -= track.size;
+                continue;
+            }
+            moved.put(to, new Track(to, track.size, track.lastSentMillis, track.fileId));
+        }
+        for (Track track : moved.values()) {
+            Track replaced = tracks.remove(track.name);
+            if (replaced != null) {
+                usedBytes -= replaced.size;
+            }
+            tracks.put(track.name, track);
+            lines.add(ledgerLine(track));
+        }
+        // Keep least recently sent first
+        List<Track> ordered = new ArrayList<>(tracks.values());
+        ordered.sort(Comparator.comparingLong(track -> track.lastSentMillis));
+        tracks.clear();
+        ordered.forEach(track -> tracks.put(track.name, track));
+        appendLedger(lines);
+    }
+
+    /**
+     * Lists the workzone again, after files were deleted behind the manager's back, e.g. by
+     * {@code /delete_mp3}.
+     */
+    synchronized void rescan() {
+        Map<String, Integer> uploading = new HashMap<>();
+        tracks.values().stream().filter(track -> track.uploading > 0)
+                .forEach(track -> uploading.put(track.name, track.uploading));
+        load();
+        uploading.forEach((name, count) -> {
+            Track track = tracks.get(name);
+            if (track != null) {
+                track.uploading = count;
+            }
+        });
+    }
+
+    synchronized Stats stats() {
+        int withFileId = 0;
+        int uploading = 0;
+        for (Track track : tracks.values()) {
+            if (track.fileId != null) {
+                withFileId++;
+            }
+            if (track.uploading > 0) {
+                uploading++;
+            }
+        }
+        return new Stats(directory.toString(), usedBytes, budgetBytes, tracks.size(), withFileId, uploading,
+                evictedFiles, evictedBytes);
+    }
+
+    private void evictIfOverBudget() {
+        if (budgetBytes <= 0 || usedBytes <= budgetBytes) {
+            return;
+        }
+        long target = (long) (budgetBytes * LOW_WATERMARK);
+        List<String> lines = new ArrayList<>();
+        Iterator<Track> oldestFirst = tracks.values().iterator();
+        while (usedBytes > target && oldestFirst.hasNext()) {
+            Track track = oldestFirst.next();
+            if (track.uploading > 0) {
+                continue;
+            }
+            Path file = directory.resolve(track.name);
+            try {
+                Files.delete(file);
+                evictedFiles++;
+                evictedBytes += track.size;
+                logger.info("Evicted {} ({} bytes, last sent {}) from the workzone", track.name, track.size,
+                        java.time.Instant.ofEpochMilli(track.lastSentMillis));
+            } catch (NoSuchFileException e) {
+                logger.debug("Workzone file {} was already gone", track.name);
+            } catch (IOException e) {
+                logger.warn("Cannot evict workzone file {}: {}", file, e.getMessage());
+                continue;
+            }
+            oldestFirst.remove();
+            usedBytes -= track.size;
+            lines.add(removalLine(track.name));
+        }
+        if (usedBytes > budgetBytes) {
+            logger.warn("Workzone {} stays over its budget: {} of {} bytes, the rest is being uploaded",
+                    directory, usedBytes, budgetBytes);
+        }
+        appendLedger(lines);
+    }
+
+    /**
+     * The name of {@code file} if it is a track directly in the workzone, otherwise null.
+     */
+    private String nameIn(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        if (!directory.equals(absolute.getParent())) {
+            return null;
+        }
+        String name = absolute.getFileName().toString();
+        return isTrack(name) ? name : null;
+    }
+
+    // Temp files such as the ledger's own end in .tmp or .partial, so the audio check already rules them out
+    static boolean isTrack(String name) {
+        return !name.startsWith(".")
+                && MusicDuplicateIndex.isAudioFile(Path.of(name))
+                && !ScratchJanitor.isWorkzoneTemporary(name);
+    }
+
+    // Ledger lines: name, last send in epoch millis, file_id; or name and "-" once the file is gone
+
+    private Map<String, Track> readLedger() {
+        Map<String, Track> sent = new HashMap<>();
+        if (!Files.exists(ledger)) {
+            return sent;
+        }
+        try {
+            for (String line : Files.readAllLines(ledger, StandardCharsets.UTF_8)) {
+                String[] columns = line.split("\t", -1);
+                if (columns.length == 2 && columns[1].equals("-")) {
+                    sent.remove(columns[0]);
+                } else if (columns.length == 3) {
+                    try {
+                        sent.put(columns[0], new Track(columns[0], 0, Long.parseLong(columns[1]),
+                                columns[2].isEmpty() ? null : columns[2]));
+                    } catch (NumberFormatException e) {
+                        logger.debug("Skipping malformed workzone ledger line: {}", line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot read workzone ledger {}: {}", ledger, e.getMessage());
+        }
+        return sent;
+    }
+
+    private void rewriteLedger() {
+        Path temp = ledger.resolveSibling(LEDGER_FILE_NAME + ".tmp");
+        try {
+            Files.write(temp, tracks.values().stream().map(WorkzoneManager::ledgerLine).filter(WorkzoneManager::fitsLedger).toList(),
+                    StandardCharsets.UTF_8);
+            Files.move(temp, ledger, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Cannot rewrite workzone ledger {}: {}", ledger, e.getMessage());
+        }
+    }
+
+    private void appendLedger(Collection<String> lines) {
+        List<String> fitting = lines.stream().filter(WorkzoneManager::fitsLedger).toList();
+        if (fitting.isEmpty() || !Files.isDirectory(directory)) {
+            return;
+        }
+        try {
+            Files.write(ledger, fitting, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.warn("Cannot append to workzone ledger {}: {}", ledger, e.getMessage());
+        }
+    }
+
+    private static String ledgerLine(Track track) {
+        return track.name + "\t" + track.lastSentMillis + "\t" + (track.fileId == null ? "" : track.fileId);
+    }
+
+    private static String removalLine(String name) {
+        return name + "\t-";
+    }
+
+    /**
+     * A name with a tab or line break would not read back; such a file is treated like one from before
+     * the ledger after a restart.
+     */
+    private static boolean fitsLedger(String line) {
+        int tabs = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (ch == '\n' || ch == '\r') {
+                return false;
+            }
+            if (ch == '\t') {
+                tabs++;
+            }
+        }
+        return tabs == (line.endsWith("\t-") ? 1 : 2);
+    }
+}
@@ -146,14 +146,38 @@ public class YtDlpService {
         return downloadAudioWithThumbnail(url, outputPath, true);
     }
 
+    /**
+     * Downloads with the intermediates in a {@link JobScratch} directory of their own next to
+     * {@code outputPath}, removed afterwards, so the scratch janitor leaves them alone while the download
+     * runs and concurrent callers never share a name.
+     */
     public boolean downloadAudioWithThumbnail(String url, String outputPath, boolean enforceMaxFileSize) throws IOException, InterruptedException {
         if (url == null || url.trim().isEmpty() || outputPath == null || outputPath.trim().isEmpty()) {
             return false;
         }
+        JobScratch scratch;
+        try {
+            scratch = JobScratch.create(new File(outputPath).getAbsoluteFile().getParentFile().toPath(), "download");
+        } catch (IOException e) {
+            logger.warn("[{}] Cannot create a scratch directory next to {}: {}", now(), outputPath, e.getMessage());
+            return false;
+        }
+        try (scratch) {
+            return downloadAudioWithThumbnail(url, outputPath, enforceMaxFileSize, scratch.directory().toFile());
+        }
+    }
+
+    /**
+     * Downloads with the intermediate audio, thumbnail and covered files in {@code tempDir}, typically the
+     * job's {@link JobScratch} directory.
+     */
+    public boolean downloadAudioWithThumbnail(String url, String outputPath, boolean enforceMaxFileSize, File tempDir) throws IOException, InterruptedException {
+        if (url == null || url.trim().isEmpty() || outputPath == null || outputPath.trim().isEmpty()) {
+            return false;
+        }
         
         // Create temporary directory for temp files
         File audioFile = new File(outputPath);
-        File tempDir = new File(audioFile.getParent(), "temp_mp3");
         if (!tempDir.exists()) tempDir.mkdirs();
         String baseName = audioFile.getName().replace(".mp3", "");
         String tempFileName = baseName + "_" + System.currentTimeMillis() + ".mp3";
@@ -222,7 +246,8 @@ public class YtDlpService {
         }
 
         File finalFile = new File(audioFile.getParentFile(), baseName + ".mp3");
-        java.nio.file.Files.copy(sourceMp3.toPath(), finalFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        // A rename, not a copy: the audio is written once, and the target is either absent or complete
+        JobScratch.commit(sourceMp3.toPath(), finalFile.toPath());
         logger.info("[{}] File saved to: {}", now(), finalFile.getAbsolutePath());
 
         // Delete tempFile and all temp jpg after completion
@@ -285,7 +310,8 @@ public class YtDlpService {
 
         preserveEmbeddedCoverArt(sourceFile, tempOutput, "[ffmpeg-split]");
 
-        Files.move(tempOutput.toPath(), outputFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tempOutput.toPath(), outputFile.toPath(), java.nio.file.StandardCopyOption.ATOMIC_MOVE,
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING);
         logger.info("[{}] [ffmpeg-split] Split file saved to: {} | Range: {}",
                 now(), outputFile.getAbsolutePath(), range.formatLabel());
         return true;
@@ -312,6 +338,7 @@ public class YtDlpService {
         java.nio.file.Files.move(
                 trimmedFile.toPath(),
                 audioFile.toPath(),
+                java.nio.file.StandardCopyOption.ATOMIC_MOVE,
                 java.nio.file.StandardCopyOption.REPLACE_EXISTING
         );
         logger.info("[{}] [ffmpeg-trim] Trimmed file saved to: {} | Range: {}",
@@ -420,7 +447,8 @@ public class YtDlpService {
         }
         int exitCode = process.waitFor();
         if (exitCode == 0 && coveredOutput.exists() && coveredOutput.length() > 0) {
-            Files.move(coveredOutput.toPath(), audioFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            Files.move(coveredOutput.toPath(), audioFile.toPath(), java.nio.file.StandardCopyOption.ATOMIC_MOVE,
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
             logger.info("[{}] {} Preserved cover art for {}", now(), logPrefix, audioFile.getAbsolutePath());
             return true;
         } else {
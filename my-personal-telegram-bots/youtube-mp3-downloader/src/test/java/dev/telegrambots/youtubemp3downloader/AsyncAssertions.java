@@ -0,0 +1,40 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Waits for work the index and watcher tests leave to background threads: reloads, compactions,
+ * snapshot writes and debounced rescans.
+ */
+final class AsyncAssertions {
+    static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+    private static final long POLL_MILLIS = 20;
+
+    /**
+     * A condition that may read files on the way.
+     */
+    @FunctionalInterface
+    interface Condition {
+        boolean holds() throws Exception;
+    }
+
+    private AsyncAssertions() {
+    }
+
+    static void await(Condition condition) throws Exception {
+        await(condition, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Polls until the condition holds and fails the test if it still does not after {@code timeoutMillis}.
+     */
+    static void await(Condition condition, long timeoutMillis) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.holds()) {
+            if (System.currentTimeMillis() >= deadline) {
+                fail("Condition not met within " + timeoutMillis + " ms");
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioFingerprintIndexTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldFindTheTrackThatSoundsAlikeAmongManyAndAfterReload() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv.fingerprints");
+        AudioFingerprintIndex index = new AudioFingerprintIndex(indexPath);
+        Random random = new Random(7);
+        float[] target = randomProfile(random);
+        for (int i = 0; i < 3_000; i++) {
+            index.add(track("track-" + i + ".mp3"), AudioFingerprint.of(200_000, randomProfile(random)));
+        }
+        Path targetFile = track("target.mp3");
+        index.add(targetFile, AudioFingerprint.of(200_000, target));
+
+        AudioFingerprint reupload = AudioFingerprint.of(206_000, withNoise(target, random, 0.15f));
+        AudioFingerprintIndex.Match match = index.find(reupload, path -> true).orElseThrow();
+        assertEquals(targetFile.toString(), match.path());
+        assertTrue(match.similarity() >= AudioFingerprintIndex.MATCH_SIMILARITY);
+
+        // Too different in length, or ruled out by the caller
+        assertTrue(index.find(AudioFingerprint.of(300_000, target), path -> true).isEmpty());
+        assertTrue(index.find(reupload, path -> !path.equals(targetFile.toString())).isEmpty());
+        assertTrue(index.find(AudioFingerprint.of(200_000, randomProfile(random)), path -> true).isEmpty());
+
+        AudioFingerprintIndex reloaded = new AudioFingerprintIndex(indexPath);
+        assertEquals(3_001, reloaded.size());
+        assertEquals(targetFile.toString(), reloaded.find(reupload, path -> true).orElseThrow().path());
+    }
+
+    @Test
+    void laterRecordsShouldReplaceEarlierOnesForAPathAndATornTailShouldBeIgnored() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv.fingerprints");
+        AudioFingerprintIndex index = new AudioFingerprintIndex(indexPath);
+        Random random = new Random(11);
+        float[] first = randomProfile(random);
+        float[] second = randomProfile(random);
+        Path file = track("song.mp3");
+        index.add(file, AudioFingerprint.of(180_000, first));
+        index.add(file, AudioFingerprint.of(180_000, second));
+        Files.write(indexPath, new byte[]{0, 42, 1}, StandardOpenOption.APPEND);
+
+        AudioFingerprintIndex reloaded = new AudioFingerprintIndex(indexPath);
+        assertEquals(1, reloaded.size());
+        assertTrue(reloaded.find(AudioFingerprint.of(180_000, first), path -> true).isEmpty());
+        assertTrue(reloaded.find(AudioFingerprint.of(180_000, second), path -> true).isPresent());
+    }
+
+    @Test
+    void appendsAfterATornTailShouldStayReadable() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv.fingerprints");
+        Random random = new Random(13);
+        float[] first = randomProfile(random);
+        float[] second = randomProfile(random);
+        new AudioFingerprintIndex(indexPath).add(track("one.mp3"), AudioFingerprint.of(180_000, first));
+        long complete = Files.size(indexPath);
+        Files.write(indexPath, new byte[]{0, 42, 1}, StandardOpenOption.APPEND);
+
+        AudioFingerprintIndex index = new AudioFingerprintIndex(indexPath);
+        index.add(track("two.mp3"), AudioFingerprint.of(180_000, second));
+
+        // Header once, then two records of the same size
+        assertEquals(2 * complete - 8, Files.size(indexPath));
+        AudioFingerprintIndex reloaded = new AudioFingerprintIndex(indexPath);
+        assertEquals(2, reloaded.size());
+        assertTrue(reloaded.find(AudioFingerprint.of(180_000, first), path -> true).isPresent());
+        assertTrue(reloaded.find(AudioFingerprint.of(180_000, second), path -> true).isPresent());
+    }
+
+    @Test
+    void duplicateIndexShouldFallBackToSoundWhenNoNameMatches() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString(), false, new AudioFingerprinter("ffmpeg"));
+        AudioFingerprint song = AudioFingerprinter.fromPcm(AudioFingerprinterTest.pcm(new int[]{0, 4, 7, 12, 7, 4, 2, 5, 9, 5, 2, 11, 7, 2, 0, 0}, 1.0, 0, 0));
+        Path libraryFile = track("Original Artist - Real Title.mp3");
+        assertTrue(index.addDownloadedFile("Original Artist - Real Title.mp3", libraryFile, song).join());
+
+        AudioFingerprint reupload = AudioFingerprinter.fromPcm(AudioFingerprinterTest.pcm(new int[]{0, 4, 7, 12, 7, 4, 2, 5, 9, 5, 2, 11, 7, 2, 0, 0}, 0.5, 0.01, 1));
+        MusicDuplicateIndex.DuplicateMatch match = index.findDuplicate("Some Channel - Totally Different Name", reupload).orElseThrow();
+        assertEquals("fingerprint", match.matchType());
+        assertEquals("Original Artist - Real Title", match.displayName());
+        assertEquals("exact", index.findDuplicate("Original Artist - Real Title", reupload).orElseThrow().matchType());
+        assertTrue(new MusicDuplicateIndex(indexPath.toString()).findDuplicate("Some Channel - Totally Different Name", reupload).isEmpty());
+
+        // Once the track left the name index, its fingerprint no longer counts
+        index.applyLibraryChanges(List.of(), List.of(libraryFile.toString()));
+        assertTrue(index.findDuplicate("Some Channel - Totally Different Name", reupload).isEmpty());
+    }
+
+    private Path track(String name) throws Exception {
+        Path file = tempDir.resolve(name);
+        Files.writeString(file, "fake");
+        return file;
+    }
+
+    private static float[] randomProfile(Random random) {
+        float[] values = new float[AudioFingerprint.DIMENSIONS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) random.nextGaussian();
+        }
+        return normalized(values);
+    }
+
+    private static float[] withNoise(float[] profile, Random random, float noise) {
+        float[] values = profile.clone();
+        for (int i = 0; i < values.length; i++) {
+            values[i] += noise * (float) random.nextGaussian() / (float) Math.sqrt(AudioFingerprint.PITCH_CLASSES);
+        }
+        return normalized(values);
+    }
+
+    /**
+     * Centres each segment and scales it to unit length, as the fingerprinter does.
+     */
+    private static float[] normalized(float[] values) {
+        for (int segment = 0; segment < AudioFingerprint.SEGMENTS; segment++) {
+            int offset = segment * AudioFingerprint.PITCH_CLASSES;
+            float mean = 0;
+            for (int i = 0; i < AudioFingerprint.PITCH_CLASSES; i++) {
+                mean += values[offset + i] / AudioFingerprint.PITCH_CLASSES;
+            }
+            double norm = 0;
+            for (int i = 0; i < AudioFingerprint.PITCH_CLASSES; i++) {
+                values[offset + i] -= mean;
+                norm += values[offset + i] * values[offset + i];
+            }
+            for (int i = 0; i < AudioFingerprint.PITCH_CLASSES; i++) {
+                values[offset + i] /= (float) Math.sqrt(norm);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,59 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioFingerprinterTest {
+    private static final int[] MELODY = {0, 4, 7, 12, 7, 4, 2, 5, 9, 5, 2, 11, 7, 2, 0, 0};
+    private static final int[] OTHER_MELODY = {3, 3, 10, 8, 6, 1, 1, 10, 3, 6, 8, 1, 3, 10, 6, 8};
+
+    @Test
+    void sameRecordingShouldMatchWhateverTheVolumeNoiseAndLeadingSilence() throws Exception {
+        AudioFingerprint original = AudioFingerprinter.fromPcm(pcm(MELODY, 1.0, 0, 0));
+        AudioFingerprint reupload = AudioFingerprinter.fromPcm(pcm(MELODY, 0.4, 0.02, 1.5));
+        AudioFingerprint other = AudioFingerprinter.fromPcm(pcm(OTHER_MELODY, 1.0, 0, 0));
+
+        assertTrue(original.similarity(reupload) >= AudioFingerprintIndex.MATCH_SIMILARITY, "similarity " + original.similarity(reupload));
+        assertTrue(original.hashDistance(reupload) < 24, "distance " + original.hashDistance(reupload));
+        assertTrue(original.similarity(other) < 0.5, "similarity " + original.similarity(other));
+        assertTrue(original.hashDistance(other) > 40, "distance " + original.hashDistance(other));
+        assertEquals(original, AudioFingerprinter.fromPcm(pcm(MELODY, 1.0, 0, 0)));
+    }
+
+    @Test
+    void silentOrTooShortAudioShouldHaveNoFingerprint() throws Exception {
+        assertNull(AudioFingerprinter.fromPcm(new ByteArrayInputStream(new byte[AudioFingerprinter.SAMPLE_RATE * 2 * 30])));
+        assertNull(AudioFingerprinter.fromPcm(pcm(new int[]{0, 7}, 1.0, 0, 0)));
+        assertNull(AudioFingerprinter.fromPcm(new ByteArrayInputStream(new byte[0])));
+    }
+
+    /**
+     * Two seconds per note of a piano-ish tone around middle C, as 16-bit little-endian PCM.
+     */
+    static ByteArrayInputStream pcm(int[] melody, double gain, double noise, double leadingSilenceSeconds) {
+        int rate = AudioFingerprinter.SAMPLE_RATE;
+        int silence = (int) (leadingSilenceSeconds * rate);
+        int noteSamples = 2 * rate;
+        byte[] bytes = new byte[(silence + melody.length * noteSamples) * 2];
+        Random random = new Random(melody.length + (long) (noise * 1000));
+        for (int i = 0; i < bytes.length / 2; i++) {
+            double value = noise * random.nextGaussian();
+            if (i >= silence) {
+                int note = melody[(i - silence) / noteSamples];
+                double frequency = 261.63 * Math.pow(2, note / 12.0);
+                double t = (double) (i - silence) / rate;
+                value += gain * (0.5 * Math.sin(2 * Math.PI * frequency * t)
+                        + 0.2 * Math.sin(4 * Math.PI * frequency * t)
+                        + 0.1 * Math.sin(6 * Math.PI * frequency * t));
+            }
+            short sample = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value * 32767)));
+            bytes[2 * i] = (byte) sample;
+            bytes[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+}
@@ -0,0 +1,90 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AudioUploadQueueTest {
+
+    @Test
+    void submitReturnsBeforeUploadCompletes() throws Exception {
+        AudioUploadQueue queue = new AudioUploadQueue(2);
+        CompletableFuture<String> upload = new CompletableFuture<>();
+
+        CompletableFuture<String> result = queue.submit("1", () -> upload);
+
+        assertFalse(result.isDone());
+        assertEquals(1, queue.pendingUploads());
+        upload.complete("sent");
+        assertEquals(0, queue.pendingUploads());
+    }
+
+    @Test
+    void fullQueueBlocksUntilAnUploadFinishes() throws Exception {
+        AudioUploadQueue queue = new AudioUploadQueue(1);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        queue.submit("1", () -> first);
+
+        AtomicBoolean secondStarted = new AtomicBoolean(false);
+        CountDownLatch secondSubmitted = new CountDownLatch(1);
+        Thread worker = new Thread(() -> {
+            try {
+                queue.submit("1", () -> {
+                    secondStarted.set(true);
+                    return CompletableFuture.completedFuture("sent");
+                });
+                secondSubmitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        worker.start();
+
+        assertFalse(secondSubmitted.await(200, TimeUnit.MILLISECONDS));
+        assertFalse(secondStarted.get());
+
+        first.completeExceptionally(new RuntimeException("upload failed"));
+        assertTrue(secondSubmitted.await(5, TimeUnit.SECONDS));
+        assertTrue(secondStarted.get());
+        worker.join();
+    }
+
+    @Test
+    void whenSettledWaitsForAllUploadsOfTheChat() throws Exception {
+        AudioUploadQueue queue = new AudioUploadQueue(4);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        CompletableFuture<String> otherChat = new CompletableFuture<>();
+        queue.submit("1", () -> first);
+        queue.submit("1", () -> second);
+        queue.submit("2", () -> otherChat);
+
+        CompletableFuture<Void> settled = queue.whenSettled("1");
+        first.complete("sent");
+        assertFalse(settled.isDone());
+        second.completeExceptionally(new RuntimeException("upload failed"));
+
+        assertTrue(settled.isDone());
+        assertFalse(settled.isCompletedExceptionally());
+        assertFalse(queue.whenSettled("2").isDone());
+        assertTrue(queue.whenSettled("3").isDone());
+    }
+
+    @Test
+    void failingSupplierReleasesItsSlot() {
+        AudioUploadQueue queue = new AudioUploadQueue(1);
+
+        assertThrows(IllegalStateException.class, () -> queue.submit("1", () -> {
+            throw new IllegalStateException("cannot start");
+        }));
+        assertEquals(0, queue.pendingUploads());
+    }
+}
@@ -22,7 +22,7 @@ class BotCommandCatalogTest {
                 .map(BotCommand::getCommand)
                 .collect(Collectors.toSet());
 
-        assertEquals(Set.of("start", "cut", "sanitize_mp3", "delete_mp3"), commandNames);
+        assertEquals(Set.of("start", "cut", "sanitize_mp3", "delete_mp3", "workzone"), commandNames);
         assertEquals(commandNames.size(), commands.size());
         for (BotCommand command : commands) {
             assertTrue(command.getCommand().matches("[a-z0-9_]{1,32}"));
@@ -0,0 +1,46 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedMemoTest {
+
+    @Test
+    void shouldComputeEachInputOnceWhileItStaysCached() {
+        AtomicInteger calls = new AtomicInteger();
+        BoundedMemo memo = new BoundedMemo(value -> {
+            calls.incrementAndGet();
+            return value.toUpperCase();
+        }, 16);
+
+        assertEquals("ABC", memo.apply("abc"));
+        assertEquals("ABC", memo.apply("abc"));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void shouldStayBoundedAndKeepRecentlyUsedInputsAcrossRotations() {
+        AtomicInteger calls = new AtomicInteger();
+        BoundedMemo memo = new BoundedMemo(value -> {
+            calls.incrementAndGet();
+            return value + "!";
+        }, 4);
+
+        memo.apply("hot");
+        for (int i = 0; i < 3; i++) {
+            memo.apply("cold" + i);
+        }
+        // The young generation rotated; "hot" is found in the old one and promoted
+        memo.apply("hot");
+        assertEquals(4, calls.get());
+
+        for (int i = 0; i < 20; i++) {
+            memo.apply("filler" + i);
+        }
+        memo.apply("cold0");
+        assertEquals(25, calls.get());
+    }
+}
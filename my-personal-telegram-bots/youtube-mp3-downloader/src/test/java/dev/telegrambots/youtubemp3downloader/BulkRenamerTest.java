@@ -0,0 +1,186 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkRenamerTest {
+
+    // Drops a leading "dirty " and upper-cases the rest, so the tests can tell which names change
+    private static final UnaryOperator<String> SANITIZER = name -> name.replaceFirst("^dirty ", "").toUpperCase();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void planShouldSkipTargetsThatCollide() {
+        List<String> names = List.of("dirty a.mp3", "a.mp3", "dirty b.mp3", "B.mp3", "dirty c.mp3", "c.txt");
+        List<String> candidates = List.of("a.mp3", "dirty a.mp3", "dirty b.mp3", "dirty c.mp3");
+
+        List<BulkRenamer.Planned> plan = BulkRenamer.plan(names, candidates, SANITIZER);
+
+        assertEquals(List.of(
+                new BulkRenamer.Planned("a.mp3", "A.mp3", "2 files get this name"),
+                new BulkRenamer.Planned("dirty a.mp3", "A.mp3", "2 files get this name"),
+                new BulkRenamer.Planned("dirty b.mp3", "B.mp3", "name already taken"),
+                new BulkRenamer.Planned("dirty c.mp3", "C.mp3", null)), plan);
+    }
+
+    @Test
+    void planShouldAllowRenamesThatOnlyChangeCase() {
+        List<BulkRenamer.Planned> plan = BulkRenamer.plan(List.of("song.mp3"), List.of("song.mp3"), SANITIZER);
+
+        assertEquals(List.of(new BulkRenamer.Planned("song.mp3", "SONG.mp3", null)), plan);
+    }
+
+    @Test
+    void planShouldSkipNamesThatSanitizeToNothing() {
+        List<BulkRenamer.Planned> plan = BulkRenamer.plan(List.of("dirty .mp3"), List.of("dirty .mp3"), SANITIZER);
+
+        assertEquals("nothing left of the name", plan.get(0).problem());
+    }
+
+    @Test
+    void renameShouldMoveFilesAndReportThemOnce() throws Exception {
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            files.add("dirty track " + i + ".mp3");
+        }
+        files.add("dirty clash.mp3");
+        files.add("CLASH.mp3");
+        files.add("dirty notes.txt");
+        for (String file : files) {
+            Files.writeString(tempDir.resolve(file), file);
+        }
+        List<Map<Path, Path>> reported = new ArrayList<>();
+
+        FileNameSanitizer.SanitizeDirectoryResult result = BulkRenamer.rename(tempDir, ".mp3", false, SANITIZER,
+                new BulkRenamer.Listener() {
+                    @Override
+                    public synchronized void renamed(Map<Path, Path> renames) {
+                        reported.add(renames);
+                    }
+                });
+
+        assertEquals(202, result.total());
+        assertEquals(201, result.affected());
+        assertEquals(200, result.changed());
+        assertEquals(1, result.skipped());
+        assertEquals(0, result.failed());
+        assertEquals(1, result.unchanged());
+        assertEquals(1, reported.size());
+        assertEquals(200, reported.get(0).size());
+        Path from = tempDir.resolve("dirty track 7.mp3").toAbsolutePath();
+        Path to = tempDir.resolve("TRACK 7.mp3").toAbsolutePath();
+        assertEquals(to, reported.get(0).get(from));
+        assertEquals("dirty track 7.mp3", Files.readString(to));
+        assertFalse(Files.exists(from));
+        assertEquals("dirty clash.mp3", Files.readString(tempDir.resolve("dirty clash.mp3")));
+        assertTrue(Files.exists(tempDir.resolve("dirty notes.txt")));
+        assertTrue(result.details().contains("Skipped: dirty clash.mp3 -> CLASH.mp3 (name already taken)"));
+        assertEquals("Renamed: dirty track 0.mp3 -> TRACK 0.mp3", result.details().get(1));
+    }
+
+    @Test
+    void renameShouldNotReplaceATargetThatAppearedAfterThePlan() throws Exception {
+        Files.writeString(tempDir.resolve("dirty song.mp3"), "old");
+        Path target = tempDir.resolve("SONG.mp3");
+        // The target shows up while the plan is made, like a download finishing right then
+        UnaryOperator<String> racing = name -> {
+            try {
+                Files.writeString(target, "download");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return SANITIZER.apply(name);
+        };
+
+        FileNameSanitizer.SanitizeDirectoryResult result = BulkRenamer.rename(tempDir, ".mp3", false, racing, BulkRenamer.Listener.NONE);
+
+        assertEquals(1, result.failed());
+        assertEquals(0, result.changed());
+        assertEquals("download", Files.readString(target));
+        assertEquals("old", Files.readString(tempDir.resolve("dirty song.mp3")));
+    }
+
+    @Test
+    void moveExclusivelyShouldRenameOntoAFreeNameOnly() throws Exception {
+        Path from = Files.writeString(tempDir.resolve("a.mp3"), "a");
+        Path taken = Files.writeString(tempDir.resolve("b.mp3"), "b");
+
+        assertThrows(IOException.class, () -> BulkRenamer.moveExclusively(from, taken));
+        assertEquals("b", Files.readString(taken));
+
+        Path free = tempDir.resolve("c.mp3");
+        BulkRenamer.moveExclusively(from, free);
+        assertEquals("a", Files.readString(free));
+        assertFalse(Files.exists(from));
+    }
+
+    @Test
+    void interruptedRenameShouldReportEveryFileThatMovedAndKeepTheInterrupt() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            Files.writeString(tempDir.resolve("dirty track " + i + ".mp3"), "track");
+        }
+        AtomicReference<Map<Path, Path>> reported = new AtomicReference<>(Map.of());
+
+        Thread.currentThread().interrupt();
+        FileNameSanitizer.SanitizeDirectoryResult result = BulkRenamer.rename(tempDir, ".mp3", false, SANITIZER,
+                new BulkRenamer.Listener() {
+                    @Override
+                    public void renamed(Map<Path, Path> renames) {
+                        reported.set(renames);
+                    }
+                });
+
+        assertTrue(Thread.interrupted());
+        long moved;
+        try (Stream<Path> files = Files.list(tempDir)) {
+            moved = files.filter(file -> file.getFileName().toString().startsWith("TRACK ")).count();
+        }
+        assertEquals(moved, result.changed());
+        assertEquals(moved, reported.get().size());
+        assertEquals(200, result.changed() + result.skipped() + result.failed());
+        assertEquals(0, result.failed());
+    }
+
+    @Test
+    void dryRunShouldLeaveFilesAlone() throws Exception {
+        Files.writeString(tempDir.resolve("dirty song.mp3"), "song");
+        AtomicReference<Map<Path, Path>> reported = new AtomicReference<>();
+
+        FileNameSanitizer.SanitizeDirectoryResult result = BulkRenamer.rename(tempDir, ".mp3", true, SANITIZER,
+                new BulkRenamer.Listener() {
+                    @Override
+                    public void renamed(Map<Path, Path> renames) {
+                        reported.set(renames);
+                    }
+                });
+
+        assertTrue(result.dryRun());
+        assertEquals(1, result.affected());
+        assertEquals(0, result.changed());
+        assertEquals(List.of("Would rename: dirty song.mp3 -> SONG.mp3"), result.details());
+        assertTrue(Files.exists(tempDir.resolve("dirty song.mp3")));
+        assertNull(reported.get());
+    }
+
+    @Test
+    void missingDirectoryShouldBeReported() {
+        FileNameSanitizer.SanitizeDirectoryResult result = BulkRenamer.rename(tempDir.resolve("missing"), ".mp3",
+                false, SANITIZER, BulkRenamer.Listener.NONE);
+
+        assertTrue(result.directoryMissing());
+    }
+}
@@ -0,0 +1,131 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatUpdateDispatcherTest {
+
+    @Test
+    void keepsArrivalOrderWithinChat() throws Exception {
+        List<String> handled = new CopyOnWriteArrayList<>();
+        try (ChatUpdateDispatcher dispatcher = new ChatUpdateDispatcher(update -> {
+            sleepQuietly(update.getMessage().getText().equals("first") ? 100 : 0);
+            handled.add(update.getMessage().getText());
+        })) {
+            dispatcher.dispatch(messageUpdate(1L, "first"));
+            dispatcher.dispatch(messageUpdate(1L, "second"));
+            dispatcher.dispatch(messageUpdate(1L, "third")).get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(List.of("first", "second", "third"), handled);
+    }
+
+    @Test
+    void slowChatDoesNotDelayOtherChats() throws Exception {
+        CountDownLatch releaseSlowChat = new CountDownLatch(1);
+        CountDownLatch fastChatHandled = new CountDownLatch(1);
+        try (ChatUpdateDispatcher dispatcher = new ChatUpdateDispatcher(update -> {
+            if (update.getMessage().getChatId() == 1L) {
+                awaitQuietly(releaseSlowChat);
+            } else {
+                fastChatHandled.countDown();
+            }
+        })) {
+            CompletableFuture<Void> slow = dispatcher.dispatch(messageUpdate(1L, "slow"));
+            dispatcher.dispatch(messageUpdate(2L, "fast"));
+
+            assertTrue(fastChatHandled.await(5, TimeUnit.SECONDS));
+            assertFalse(slow.isDone());
+            releaseSlowChat.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void failingUpdateDoesNotStallLane() throws Exception {
+        List<String> handled = new CopyOnWriteArrayList<>();
+        try (ChatUpdateDispatcher dispatcher = new ChatUpdateDispatcher(update -> {
+            if (update.getMessage().getText().equals("boom")) {
+                throw new IllegalStateException("handler failed");
+            }
+            handled.add(update.getMessage().getText());
+        })) {
+            dispatcher.dispatch(messageUpdate(1L, "boom"));
+            dispatcher.dispatch(messageUpdate(1L, "after")).get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(List.of("after"), handled);
+    }
+
+    @Test
+    void closeHandlesUpdatesAlreadyQueued() {
+        List<String> handled = new CopyOnWriteArrayList<>();
+        ChatUpdateDispatcher dispatcher = new ChatUpdateDispatcher(update -> {
+            sleepQuietly(50);
+            handled.add(update.getMessage().getText());
+        });
+        dispatcher.dispatch(messageUpdate(1L, "first"));
+        dispatcher.dispatch(messageUpdate(1L, "second"));
+        dispatcher.dispatch(messageUpdate(2L, "other"));
+
+        dispatcher.close();
+
+        assertEquals(3, handled.size());
+    }
+
+    @Test
+    void resolvesChatIdForMessagesAndCallbacks() {
+        CallbackQuery callbackQuery = new CallbackQuery();
+        User user = new User();
+        user.setId(77L);
+        callbackQuery.setFrom(user);
+        Update callbackUpdate = new Update();
+        callbackUpdate.setCallbackQuery(callbackQuery);
+
+        assertEquals(5L, ChatUpdateDispatcher.chatIdOf(messageUpdate(5L, "hi")));
+        assertEquals(77L, ChatUpdateDispatcher.chatIdOf(callbackUpdate));
+        assertNull(ChatUpdateDispatcher.chatIdOf(new Update()));
+    }
+
+    private static Update messageUpdate(long chatId, String text) {
+        Chat chat = new Chat();
+        chat.setId(chatId);
+        Message message = new Message();
+        message.setChat(chat);
+        message.setText(text);
+        Update update = new Update();
+        update.setMessage(message);
+        return update;
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
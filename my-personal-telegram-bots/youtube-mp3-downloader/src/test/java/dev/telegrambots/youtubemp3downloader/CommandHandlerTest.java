@@ -240,6 +240,21 @@ class CommandHandlerTest {
         assertTrue(summary.contains("Dirty Name.mp3 -> Clean Name.mp3"));
     }
 
+    @Test
+    @DisplayName("Should build workzone summary")
+    void testBuildWorkzoneSummary() {
+        assertTrue(CommandHandler.isWorkzoneCommand("/workzone"));
+        WorkzoneManager.Stats stats = new WorkzoneManager.Stats(
+                "/tmp/music", 512L * 1024 * 1024, 1024L * 1024 * 1024, 40, 38, 1, 3, 30L * 1024 * 1024);
+
+        String summary = CommandHandler.buildWorkzoneSummary(stats, new ScratchJanitor.Report(4, 2L * 1024 * 1024));
+
+        assertTrue(summary.contains("Used: 512.0 MB of 1024.0 MB (50%)"));
+        assertTrue(summary.contains("Files: 40"));
+        assertTrue(summary.contains("Evicted since start: 3 (30.0 MB)"));
+        assertTrue(summary.contains("Scratch leftovers reclaimed since start: 4 files (2.0 MB)"));
+    }
+
     @Test
     @DisplayName("Should parse cut command range")
     void testParseCutCommandRange() {
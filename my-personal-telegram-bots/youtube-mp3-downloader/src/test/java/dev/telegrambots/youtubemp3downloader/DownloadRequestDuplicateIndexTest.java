@@ -5,8 +5,15 @@ import org.junit.jupiter.api.io.TempDir;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.Set;
 
+import static dev.telegrambots.youtubemp3downloader.AsyncAssertions.await;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class DownloadRequestDuplicateIndexTest {
     @TempDir
@@ -51,4 +58,112 @@ class DownloadRequestDuplicateIndexTest {
         )).isEmpty());
     }
 
+    @Test
+    void shouldPickUpRequestsWrittenByAnotherInstance() throws Exception {
+        Path musicIndexPath = tempDir.resolve("music-index.tsv");
+        DownloadRequestDuplicateIndex reader = new DownloadRequestDuplicateIndex(musicIndexPath.toString());
+        DownloadRequestDuplicateIndex writer = new DownloadRequestDuplicateIndex(musicIndexPath.toString());
+        DownloadRequest request = new DownloadRequest("https://youtu.be/Sq_DbuY0kqU", null);
+        assertTrue(reader.findDuplicate(request).isEmpty());
+
+        assertTrue(writer.addOrUpdate(request, "song.mp3", tempDir.resolve("song.mp3")));
+
+        await(() -> reader.findDuplicate(request).isPresent(), IndexFileWatcher.POLL_INTERVAL_MILLIS * 3);
+        assertEquals("song.mp3", reader.findDuplicate(request).orElseThrow().displayName());
+    }
+
+    @Test
+    void shouldCompactSupersededLinesInTheBackground() throws Exception {
+        Path musicIndexPath = tempDir.resolve("music-index.tsv");
+        Path requestIndexPath = tempDir.resolve("music-index.tsv.requests.tsv");
+        DownloadRequestDuplicateIndex index = new DownloadRequestDuplicateIndex(musicIndexPath.toString());
+        for (int round = 0; round < 40; round++) {
+            for (int video = 0; video < 10; video++) {
+                DownloadRequest request = new DownloadRequest("https://youtu.be/videoid000" + video, null);
+                assertTrue(index.addOrUpdate(request, "take " + round + ".mp3", tempDir.resolve("v" + video + ".mp3")));
+            }
+        }
+
+        // A compaction may run mid-burst, leaving fewer dead lines behind than it takes to start another
+        int compactedLines = 1 + 10 + IndexFileCompaction.MIN_DEAD_LINES;
+        await(() -> Files.readAllLines(requestIndexPath).size() <= compactedLines);
+        int lines = Files.readAllLines(requestIndexPath).size();
+        DownloadRequest request = new DownloadRequest("https://youtu.be/videoid0003", null);
+        assertEquals("take 39.mp3", index.findDuplicate(request).orElseThrow().displayName());
+        assertEquals("take 39.mp3", new DownloadRequestDuplicateIndex(musicIndexPath.toString()).findDuplicate(request).orElseThrow().displayName());
+
+        // Appends continue on the compacted file
+        assertTrue(index.addOrUpdate(request, "take 40.mp3", tempDir.resolve("v3.mp3")));
+        assertEquals(lines + 1, Files.readAllLines(requestIndexPath).size());
+        assertEquals("take 40.mp3", new DownloadRequestDuplicateIndex(musicIndexPath.toString()).findDuplicate(request).orElseThrow().displayName());
+    }
+
+    @Test
+    void compactionShouldEscapeTitlesLikeAppends() throws Exception {
+        Path musicIndexPath = tempDir.resolve("music-index.tsv");
+        Path requestIndexPath = tempDir.resolve("music-index.tsv.requests.tsv");
+        DownloadRequestDuplicateIndex index = new DownloadRequestDuplicateIndex(musicIndexPath.toString());
+        for (int round = 0; round < 40; round++) {
+            for (int video = 0; video < 10; video++) {
+                DownloadRequest request = new DownloadRequest("https://youtu.be/videoid000" + video, null);
+                assertTrue(index.addOrUpdate(request, "take\t" + round + "\n.mp3", tempDir.resolve("v" + video + ".mp3")));
+            }
+        }
+
+        int compactedLines = 1 + 10 + IndexFileCompaction.MIN_DEAD_LINES;
+        await(() -> Files.readAllLines(requestIndexPath).size() <= compactedLines);
+        DownloadRequestDuplicateIndex reloaded = new DownloadRequestDuplicateIndex(musicIndexPath.toString());
+        for (int video = 0; video < 10; video++) {
+            DownloadRequest request = new DownloadRequest("https://youtu.be/videoid000" + video, null);
+            assertEquals("take 39 .mp3", reloaded.findDuplicate(request).orElseThrow().displayName());
+        }
+    }
+
+    @Test
+    void compactionShouldKeepThePermissionsOfTheIndex() throws Exception {
+        Path musicIndexPath = tempDir.resolve("music-index.tsv");
+        Path requestIndexPath = tempDir.resolve("music-index.tsv.requests.tsv");
+        DownloadRequestDuplicateIndex index = new DownloadRequestDuplicateIndex(musicIndexPath.toString());
+        assertTrue(index.addOrUpdate(new DownloadRequest("https://youtu.be/videoid0000", null), "first.mp3", tempDir.resolve("v0.mp3")));
+        assumeTrue(Files.getFileAttributeView(requestIndexPath, PosixFileAttributeView.class) != null);
+        Set<PosixFilePermission> shared = PosixFilePermissions.fromString("rw-rw-r--");
+        Files.setPosixFilePermissions(requestIndexPath, shared);
+
+        for (int round = 0; round < 40; round++) {
+            for (int video = 0; video < 10; video++) {
+                DownloadRequest request = new DownloadRequest("https://youtu.be/videoid000" + video, null);
+                assertTrue(index.addOrUpdate(request, "take " + round + ".mp3", tempDir.resolve("v" + video + ".mp3")));
+            }
+        }
+
+        int compactedLines = 1 + 10 + IndexFileCompaction.MIN_DEAD_LINES;
+        await(() -> Files.readAllLines(requestIndexPath).size() <= compactedLines);
+        assertEquals(shared, Files.getPosixFilePermissions(requestIndexPath));
+    }
+
+    @Test
+    void renamedFilesShouldBeFollowedInOneWrite() throws Exception {
+        Path musicIndexPath = tempDir.resolve("music-index.tsv");
+        DownloadRequestDuplicateIndex index = new DownloadRequestDuplicateIndex(musicIndexPath.toString());
+        DownloadRequest first = new DownloadRequest("https://youtu.be/Sq_DbuY0kqU", null);
+        DownloadRequest second = new DownloadRequest("https://youtu.be/dQw4w9WgXcQ", null);
+        DownloadRequest untouched = new DownloadRequest("https://youtu.be/oHg5SJYRHA0", null);
+        assertTrue(index.addOrUpdate(first, "one.mp3", tempDir.resolve("dirty one.mp3")));
+        assertTrue(index.addOrUpdate(second, "two.mp3", tempDir.resolve("dirty two.mp3")));
+        assertTrue(index.addOrUpdate(untouched, "three.mp3", tempDir.resolve("three.mp3")));
+        Path requestIndexPath = tempDir.resolve("music-index.tsv.requests.tsv");
+        int lines = Files.readAllLines(requestIndexPath).size();
+
+        int moved = index.renamePaths(Map.of(
+                tempDir.resolve("dirty one.mp3").toAbsolutePath(), tempDir.resolve("One.mp3").toAbsolutePath(),
+                tempDir.resolve("dirty two.mp3").toAbsolutePath(), tempDir.resolve("Two.mp3").toAbsolutePath(),
+                tempDir.resolve("gone.mp3").toAbsolutePath(), tempDir.resolve("Gone.mp3").toAbsolutePath()));
+
+        assertEquals(2, moved);
+        assertEquals(lines + 2, Files.readAllLines(requestIndexPath).size());
+        DownloadRequestDuplicateIndex reloaded = new DownloadRequestDuplicateIndex(musicIndexPath.toString());
+        assertEquals(tempDir.resolve("One.mp3").toAbsolutePath().toString(), reloaded.findDuplicate(first).orElseThrow().path());
+        assertEquals(tempDir.resolve("Two.mp3").toAbsolutePath().toString(), reloaded.findDuplicate(second).orElseThrow().path());
+        assertEquals(tempDir.resolve("three.mp3").toAbsolutePath().toString(), reloaded.findDuplicate(untouched).orElseThrow().path());
+    }
 }
@@ -0,0 +1,189 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Synthetic music library and reference matcher shared by the duplicate index tests and benchmarks.
+ */
+final class DuplicateIndexFixtures {
+    private static final String[] SYLLABLES = {
+            "ka", "ro", "mi", "ne", "lu", "sa", "to", "ve", "da", "ri", "mo", "ze", "pa", "li", "nu",
+            "bo", "gra", "sto", "fle", "tri", "ash", "ell", "orn", "ux", "ya", "qu", "zel", "hin", "dor", "wy"
+    };
+
+    private DuplicateIndexFixtures() {
+    }
+
+    /**
+     * Deterministic "Artist - Title" entries; roughly one artist per ten tracks, like a real library.
+     */
+    static List<MusicDuplicateIndex.Entry> library(int size, long seed) {
+        Random random = new Random(seed);
+        List<String> artists = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, size / 10); i++) {
+            artists.add(words(random, 1 + random.nextInt(2)));
+        }
+        List<MusicDuplicateIndex.Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String displayName = artists.get(random.nextInt(artists.size())) + " - " + words(random, 1 + random.nextInt(4));
+            String key = MusicDuplicateIndex.normalizeForMatch(displayName);
+            entries.add(new MusicDuplicateIndex.Entry(key, displayName, "/music/" + i + ".mp3"));
+        }
+        return entries;
+    }
+
+    /**
+     * Queries that are one or two edits away from library entries, mixed with names that match nothing.
+     */
+    static List<String> queries(List<MusicDuplicateIndex.Entry> library, int count, long seed) {
+        Random random = new Random(seed);
+        List<String> queries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (i % 3 == 2) {
+                queries.add(words(random, 3 + random.nextInt(3)));
+                continue;
+            }
+            StringBuilder name = new StringBuilder(library.get(random.nextInt(library.size())).key());
+            int edits = 1 + random.nextInt(2);
+            for (int e = 0; e < edits && name.length() > 1; e++) {
+                int position = random.nextInt(name.length());
+                switch (random.nextInt(3)) {
+                    case 0 -> name.setCharAt(position, (char) ('a' + random.nextInt(26)));
+                    case 1 -> name.deleteCharAt(position);
+                    default -> name.insert(position, (char) ('a' + random.nextInt(26)));
+                }
+            }
+            queries.add(name.toString());
+        }
+        return queries;
+    }
+
+    /**
+     * The fuzzy pass as a plain linear scan: the behaviour the index must reproduce.
+     */
+    static FuzzyMatchIndex.Match linearBest(List<MusicDuplicateIndex.Entry> entries, String compactCandidate, double threshold) {
+        MusicDuplicateIndex.Entry bestEntry = null;
+        double bestScore = 0.0;
+        for (MusicDuplicateIndex.Entry entry : entries) {
+            double score = normalizedLevenshteinSimilarity(compactCandidate, MusicDuplicateIndex.compact(entry.key()));
+            if (score > bestScore) {
+                bestScore = score;
+                bestEntry = entry;
+            }
+        }
+        return bestEntry != null && bestScore >= threshold ? new FuzzyMatchIndex.Match(bestEntry, bestScore) : null;
+    }
+
+    /**
+     * Queries that share most tokens with a library entry: shuffled, with a token dropped or one added.
+     */
+    static List<String> tokenQueries(List<MusicDuplicateIndex.Entry> library, int count, long seed) {
+        Random random = new Random(seed);
+        List<String> queries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<String> tokens = new ArrayList<>(List.of(library.get(random.nextInt(library.size())).key().split(" ")));
+            switch (random.nextInt(3)) {
+                case 0 -> tokens.remove(random.nextInt(tokens.size()));
+                case 1 -> tokens.add(words(random, 1).toLowerCase());
+                default -> tokens.addAll(List.of(library.get(random.nextInt(library.size())).key().split(" ")));
+            }
+            Collections.shuffle(tokens, random);
+            queries.add(String.join(" ", tokens));
+        }
+        return queries;
+    }
+
+    /**
+     * The partial-token pass as a linear scan over token sets.
+     */
+    static MusicDuplicateIndex.Entry linearPartialTokenMatch(List<MusicDuplicateIndex.Entry> entries, String candidateKey) {
+        Set<String> candidateTokens = tokenSet(candidateKey);
+        if (candidateTokens.size() < 4) {
+            return null;
+        }
+        MusicDuplicateIndex.Entry bestEntry = null;
+        double bestScore = 0.0;
+        for (MusicDuplicateIndex.Entry entry : entries) {
+            Set<String> entryTokens = tokenSet(entry.key());
+            if (entryTokens.size() < 4) {
+                continue;
+            }
+            int overlap = 0;
+            for (String token : candidateTokens) {
+                if (entryTokens.contains(token)) {
+                    overlap++;
+                }
+            }
+            int smallerSize = Math.min(candidateTokens.size(), entryTokens.size());
+            double score = overlap / (double) smallerSize;
+            if (overlap >= 4 && score >= 0.8 && score > bestScore) {
+                bestScore = score;
+                bestEntry = entry;
+            }
+        }
+        return bestEntry;
+    }
+
+    private static Set<String> tokenSet(String key) {
+        Set<String> tokens = new HashSet<>();
+        for (String token : key.split("\\s+")) {
+            if (!token.isBlank()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    static double normalizedLevenshteinSimilarity(String left, String right) {
+        if (left.equals(right)) {
+            return 1.0;
+        }
+        int maxLength = Math.max(left.length(), right.length());
+        if (maxLength == 0) {
+            return 1.0;
+        }
+        return 1.0 - (levenshteinDistance(left, right) / (double) maxLength);
+    }
+
+    /**
+     * Textbook two-row DP, kept as the reference for the bounded kernels.
+     */
+    static int levenshteinDistance(String left, String right) {
+        int[] previous = new int[right.length() + 1];
+        int[] current = new int[right.length() + 1];
+        for (int j = 0; j <= right.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= left.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= right.length(); j++) {
+                int cost = left.charAt(i - 1) == right.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] tmp = previous;
+            previous = current;
+            current = tmp;
+        }
+        return previous[right.length()];
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int w = 0; w < count; w++) {
+            if (w > 0) {
+                words.append(' ');
+            }
+            int syllables = 2 + random.nextInt(3);
+            for (int s = 0; s < syllables; s++) {
+                words.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+        }
+        words.setCharAt(0, Character.toUpperCase(words.charAt(0)));
+        return words.toString();
+    }
+}
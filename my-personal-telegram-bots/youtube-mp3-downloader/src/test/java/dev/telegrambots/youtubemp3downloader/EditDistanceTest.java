@@ -0,0 +1,83 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EditDistanceTest {
+    private static final String ALPHABET = "abcdeéж1";
+
+    private static String randomString(Random random, int length) {
+        StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return value.toString();
+    }
+
+    private static String mutate(Random random, String value, int edits) {
+        StringBuilder mutated = new StringBuilder(value);
+        for (int e = 0; e < edits; e++) {
+            int position = mutated.isEmpty() ? 0 : random.nextInt(mutated.length());
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    if (!mutated.isEmpty()) {
+                        mutated.setCharAt(position, ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                    }
+                }
+                case 1 -> {
+                    if (!mutated.isEmpty()) {
+                        mutated.deleteCharAt(position);
+                    }
+                }
+                default -> mutated.insert(position, ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+        }
+        return mutated.toString();
+    }
+
+    private static void assertBoundedDistance(String left, String right, int maxDistance) {
+        int expected = DuplicateIndexFixtures.levenshteinDistance(left, right);
+        int actual = EditDistance.compile(left).distance(right, maxDistance);
+        if (expected <= maxDistance) {
+            assertEquals(expected, actual, left + " / " + right + " k=" + maxDistance);
+        } else {
+            assertEquals(maxDistance + 1, actual, left + " / " + right + " k=" + maxDistance);
+        }
+    }
+
+    @Test
+    void bitParallelKernelMatchesTheReferenceDp() {
+        Random random = new Random(1);
+        for (int round = 0; round < 5_000; round++) {
+            String left = randomString(random, random.nextInt(65));
+            String right = random.nextBoolean() ? mutate(random, left, random.nextInt(6)) : randomString(random, random.nextInt(70));
+            assertBoundedDistance(left, right, random.nextInt(8));
+            assertBoundedDistance(left, right, 200);
+        }
+    }
+
+    @Test
+    void bandedFallbackMatchesTheReferenceDpForLongPatterns() {
+        Random random = new Random(2);
+        for (int round = 0; round < 1_000; round++) {
+            String left = randomString(random, 65 + random.nextInt(80));
+            String right = random.nextBoolean() ? mutate(random, left, random.nextInt(12)) : randomString(random, 60 + random.nextInt(80));
+            assertBoundedDistance(left, right, random.nextInt(14));
+        }
+    }
+
+    @Test
+    void shouldHandleBoundaryLengths() {
+        String sixtyFour = "a".repeat(63) + "b";
+        assertEquals(0, EditDistance.compile(sixtyFour).distance(sixtyFour, 0));
+        assertEquals(1, EditDistance.compile(sixtyFour).distance("a".repeat(64), 3));
+        assertEquals(3, EditDistance.compile("").distance("abc", 3));
+        assertEquals(4, EditDistance.compile("").distance("abcd", 3));
+        assertEquals(1, EditDistance.compile("kitten").distance("sitten", 1));
+        assertEquals(2, EditDistance.compile("kitten").distance("sittin", 1));
+        assertEquals(3, EditDistance.compile("kitten").distance("sitting", 5));
+    }
+}
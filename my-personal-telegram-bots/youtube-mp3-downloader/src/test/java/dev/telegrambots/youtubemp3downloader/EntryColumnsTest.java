@@ -0,0 +1,63 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntryColumnsTest {
+
+    @Test
+    void shouldDecodeEveryEntryAsItWasAdded() {
+        List<MusicDuplicateIndex.Entry> entries = List.of(
+                new MusicDuplicateIndex.Entry("artist song", "Artist - Song", "/music/Artist/Artist - Song.mp3"),
+                new MusicDuplicateIndex.Entry("artist other", "Artist - Other", "/music/Artist/Artist - Other.mp3"),
+                new MusicDuplicateIndex.Entry("группа песня", "Группа - Песня", "C:\\Музыка\\Группа - Песня.mp3"),
+                new MusicDuplicateIndex.Entry("bare", "Bare", "bare.mp3"),
+                new MusicDuplicateIndex.Entry("", "", "/music/")
+        );
+
+        EntryColumns columns = EntryColumns.of(entries);
+
+        assertEquals(entries.size(), columns.size());
+        assertEquals(entries, columns.toList());
+        assertEquals(entries, EntryColumns.fromLayout(columns.layout()).toList());
+        // "/music/Artist/", "C:\Музыка\", "" and "/music/"
+        assertEquals(5, columns.layout().directoryStart().length);
+    }
+
+    @Test
+    void shouldCompareAndHashRawBytesLikeTheDecodedStrings() {
+        EntryColumns columns = EntryColumns.of(List.of(
+                new MusicDuplicateIndex.Entry("song", "Song", "/music/a/song.mp3"),
+                new MusicDuplicateIndex.Entry("песня", "Песня", "/music/b/песня.mp3")
+        ));
+
+        byte[] key = "песня".getBytes(StandardCharsets.UTF_8);
+        byte[] path = "/music/b/песня.mp3".getBytes(StandardCharsets.UTF_8);
+        assertTrue(columns.keyEquals(1, key));
+        assertFalse(columns.keyEquals(0, key));
+        assertTrue(columns.pathEquals(1, path));
+        assertFalse(columns.pathEquals(0, path));
+        assertFalse(columns.pathEquals(1, "/music/b/".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(EntryColumns.hash(key, 0), columns.keyHash(1));
+        assertEquals(EntryColumns.hash(path, 0), columns.pathHash(1));
+    }
+
+    @Test
+    void intHashIndexShouldReturnTheFirstMatchingIdAmongCollisions() {
+        IntHashIndex index = new IntHashIndex(8);
+        index.add(7, 0);
+        index.add(7, 1);
+        index.add(7, 2);
+        index.add(42, 3);
+
+        assertEquals(0, index.find(7, id -> true));
+        assertEquals(1, index.find(7, id -> id > 0));
+        assertEquals(3, index.find(42, id -> true));
+        assertEquals(-1, index.find(7, id -> id == 3));
+        assertEquals(-1, index.find(8, id -> true));
+    }
+}
@@ -0,0 +1,106 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.text.Normalizer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File name sanitizing: every rule run with {@code replaceAll} in turn against the compiled rules.
+ *
+ * Run after {@code mvn test-compile}:
+ * java -cp target/test-classes:target/classes:<test classpath> dev.telegrambots.youtubemp3downloader.FileNameSanitizerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileNameSanitizerBenchmark {
+    private static final String[] ARTISTS = {
+            "Drab Majesty", "Molchat Doma", "Lebanon Hanover", "Boy Harsher", "Twin Tribes", "Кино", "She Past Away",
+            "Ultra Sunn", "Actors", "Nuovo Testamento", "Хадн Дадн", "Selofan"
+    };
+    private static final String[] TITLES = {
+            "Not Just A Name", "Судно", "Gallowdance", "Pain", "Fantasmas", "Группа крови", "Ruh", "Sunny Day",
+            "Love U Feel", "Heat", "Луна", "Half Of Me"
+    };
+    private static final String[] SUFFIXES = {
+            "", "", ".mp3", " (Official Video)", " (Official Music Video)", " [HD]", " (Lyrics)", " (z2.fm)",
+            " // Darkwave, Post-Punk", " - Topic", " (Премьера песни, 2025)", " (Original Mix)"
+    };
+
+    private String[] names;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(45);
+        names = new String[1024];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = ARTISTS[random.nextInt(ARTISTS.length)] + " - " + TITLES[random.nextInt(TITLES.length)]
+                    + SUFFIXES[random.nextInt(SUFFIXES.length)];
+        }
+    }
+
+    private String nextName() {
+        next = (next + 1) % names.length;
+        return names[next];
+    }
+
+    @Benchmark
+    public void ruleByRule(Blackhole blackhole) {
+        blackhole.consume(ruleByRule(nextName()));
+    }
+
+    @Benchmark
+    public void compiled(Blackhole blackhole) {
+        blackhole.consume(FileNameSanitizer.sanitize(nextName()));
+    }
+
+    /**
+     * {@link FileNameSanitizer#sanitize} as it was before the rules were compiled.
+     */
+    private static String ruleByRule(String fileName) {
+        String result = Normalizer.normalize(fileName, Normalizer.Form.NFKC).trim().toLowerCase().replace('ё', 'е');
+        result = FileNameSanitizer.rules().applyEveryRule(result);
+        result = result.replaceAll("mp3$", "");
+        result = result.replaceAll("\\.mp3$", "");
+        result = result.replaceAll("\\s+", " ").trim();
+        result = result.replaceAll("\\s*'\\s*", "'");
+        result = result.replaceAll("\\s*\\.+\\s*$", "");
+        if (result.isEmpty())
+            return result;
+        StringBuilder sb = new StringBuilder();
+        for (String word : result.split(" ")) {
+            if (!word.isEmpty()) {
+                sb.append(Character.toUpperCase(word.charAt(0)));
+                if (word.length() > 1)
+                    sb.append(word.substring(1).toLowerCase());
+                sb.append(" ");
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(FileNameSanitizerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -4,9 +4,12 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.MockedStatic;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -112,4 +115,21 @@ class FileNameSanitizerCliTest {
             mockedSanitizer.verify(() -> FileNameSanitizer.sanitizeAllInDirectory("/test/dir", ".mp3", false));
         }
     }
+
+    @Test
+    @DisplayName("Should report the problems of a rule file")
+    void testCheckRules(@TempDir Path tempDir) throws Exception {
+        Path valid = tempDir.resolve("valid.tsv");
+        Files.writeString(valid, "-\tfoo\tbar\tfoo\n");
+        Path invalid = tempDir.resolve("invalid.tsv");
+        Files.writeString(invalid, "# rules\n-\t(foo\tbar\tfoo\n");
+
+        FileNameSanitizerCli.main(new String[]{"--check-rules", valid.toString()});
+        FileNameSanitizerCli.main(new String[]{"--check-rules", invalid.toString()});
+
+        String output = outputStreamCaptor.toString();
+        assertTrue(output.contains("valid.tsv: 1 rules OK"));
+        assertTrue(output.contains("invalid.tsv: rejected, 1 problem(s)"));
+        assertTrue(output.contains("line 2: pattern (foo"));
+    }
 }
@@ -0,0 +1,122 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The compiled rule engine must give exactly what running every rule with {@code replaceAll} gave.
+ */
+class FileNameSanitizerEngineTest {
+
+    // Pieces the generated names are made of: rule literals, near misses, and characters that fold or
+    // count as whitespace in surprising ways
+    private static final String[] PIECES = {
+            "Artist", "Title", " - ", " -- ", "--", "-", "—", "–", " ", "  ", "\t", "_", "__", "'", " ' ", "’",
+            "(", ")", "[", "]", "[Live]", "(Official Video)", "(official audio)", "(Official Music Video)",
+            "(Lyric Video)", "(z2.fm)", "(320 kbps)", "lyrics", "Lyric", "clip officiel", "Clip", "song premiere",
+            "Topic", "2025", "2026", "Премьера", "песни", "ёлка", "Music", "video", "OFFICIAL",
+            "dark techno ebm industrial type", "cover darkwave post punk", "Cinematic Darkwave Noir Post Punk",
+            "Сinematic darkwave noir post punk", "darkwave", "darkwave postpunk", "minimal synth darkwave",
+            "dark dream pop", "industrial electronic", "deep", "Obscure Version", "Original Mix",
+            "Jeff in Leather Remix", "untitled burial - ", "aim to head release ", "amor fati ", "lenaobscura - ",
+            "nedostupnostь ", "rhino - ", "surveillance state records - ", "&#39", "#039;", "39;", "39", "&", ";",
+            "#", "\"", ",", "/", " / ", " // Darkwave, Coldwave", " / Post-Punk / Phonk", "%20", "%2F", "%zz",
+            "*", "?", "??", "\\", "|", "!", "!!", ".", "..", "...", " . ", "mp3", ".mp3", ".MP3", "\u0000", "\n",
+            "\r\n", "\u000B", "\u0085", " ", " ", "ı", "İ", "ſ", "K", "ß", "Ǆ", "ﬁ", "Ｏｆｆｉｃｉａｌ",
+            "🎵", "x"
+    };
+
+    @Test
+    void shouldMatchEveryRuleAppliedInTurnOnKnownNames() {
+        List<String> names = List.of(
+                "Artist - Song (Official Video)",
+                "ARTIST - SONG [HD] (Lyrics).mp3",
+                "Singer_Name__Track_Title_(z2.fm)",
+                "Артист - Песня (Премьера песни, 2025)",
+                "Band - Song // Darkwave, Coldwave",
+                "Band - Song / Post-Punk Phonk / Phonk-Wave",
+                "Rock%20Band%20-%20Epic%20Song.mp3",
+                "Someone - Cinematic Darkwave Noir Post Punk...",
+                "Lenaobscura - Deep",
+                "It&#39;s Me - Don't Stop (Original Mix)",
+                "   ",
+                "");
+        for (String name : names) {
+            assertEquals(reference(name), FileNameSanitizer.sanitize(name), name);
+        }
+    }
+
+    @Test
+    void shouldMatchEveryRuleAppliedInTurnOnGeneratedNames() {
+        Random random = new Random(45);
+        for (int n = 0; n < 20_000; n++) {
+            StringBuilder name = new StringBuilder();
+            int pieces = 1 + random.nextInt(8);
+            for (int p = 0; p < pieces; p++) {
+                name.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            String input = name.toString();
+            assertEquals(reference(input), FileNameSanitizer.sanitize(input), input);
+        }
+    }
+
+    @Test
+    void scannerShouldReportOverlappingAndNestedLiterals() {
+        LiteralScanner scanner = LiteralScanner.of(List.of("darkwave", "wave", "dark", "ark", "--", "-"));
+        boolean[] found = new boolean[scanner.size()];
+
+        scanner.scan("a darkwave song", found);
+        assertArrayEquals(new boolean[]{true, true, true, true, false, false}, found);
+
+        scanner.scan("dar-k--wav", found);
+        assertArrayEquals(new boolean[]{false, false, false, false, true, true}, found);
+
+        scanner.scan("", found);
+        assertArrayEquals(new boolean[6], found);
+    }
+
+    @Test
+    void rulesWithoutLiteralsShouldAlwaysRun() {
+        List<SanitizerRules.Rule> rules = new ArrayList<>();
+        rules.add(SanitizerRules.Rule.of(Pattern.compile("a"), "b", "a"));
+        rules.add(SanitizerRules.Rule.of(Pattern.compile("b+"), "c"));
+        rules.add(SanitizerRules.Rule.of(Pattern.compile("c"), "d", "c"));
+        SanitizerRules compiled = SanitizerRules.compile(rules);
+
+        assertEquals("d", compiled.apply("ab"));
+        assertEquals("xdx", compiled.apply("xbbx"));
+        assertEquals("xyz", compiled.apply("xyz"));
+    }
+
+    /**
+     * What {@link FileNameSanitizer#sanitize} did before the rules were compiled.
+     */
+    private static String reference(String fileName) {
+        String result = Normalizer.normalize(fileName, Normalizer.Form.NFKC).trim().toLowerCase().replace('ё', 'е');
+        result = FileNameSanitizer.rules().applyEveryRule(result);
+        result = result.replaceAll("mp3$", "");
+        result = result.replaceAll("\\.mp3$", "");
+        result = result.replaceAll("\\s+", " ").trim();
+        result = result.replaceAll("\\s*'\\s*", "'");
+        result = result.replaceAll("\\s*\\.+\\s*$", "");
+        if (result.isEmpty())
+            return result;
+        StringBuilder sb = new StringBuilder();
+        for (String word : result.split(" ")) {
+            if (!word.isEmpty()) {
+                sb.append(Character.toUpperCase(word.charAt(0)));
+                if (word.length() > 1)
+                    sb.append(word.substring(1).toLowerCase());
+                sb.append(" ");
+            }
+        }
+        return sb.toString().trim();
+    }
+}
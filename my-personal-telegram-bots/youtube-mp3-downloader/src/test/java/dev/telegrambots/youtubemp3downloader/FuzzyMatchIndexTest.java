@@ -0,0 +1,78 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FuzzyMatchIndexTest {
+    private static final double THRESHOLD = 0.92;
+
+    private static MusicDuplicateIndex.Entry entry(String displayName, String path) {
+        return new MusicDuplicateIndex.Entry(MusicDuplicateIndex.normalizeForMatch(displayName), displayName, path);
+    }
+
+    @Test
+    void shouldMatchTheLinearScanOnSyntheticLibrary() {
+        List<MusicDuplicateIndex.Entry> library = DuplicateIndexFixtures.library(2_000, 42);
+        FuzzyMatchIndex index = FuzzyMatchIndex.build(library);
+        int matches = 0;
+
+        for (String query : DuplicateIndexFixtures.queries(library, 600, 7)) {
+            String compact = MusicDuplicateIndex.compact(MusicDuplicateIndex.normalizeForMatch(query));
+            FuzzyMatchIndex.Match expected = DuplicateIndexFixtures.linearBest(library, compact, THRESHOLD);
+            FuzzyMatchIndex.Match actual = index.findBest(compact, THRESHOLD);
+
+            assertEquals(expected, actual, "query: " + query);
+            if (actual != null) {
+                matches++;
+            }
+        }
+        assertTrue(matches > 100, "fixture should exercise the fuzzy path, matches=" + matches);
+    }
+
+    @Test
+    void shouldKeepFirstEntryInFileOrderOnTies() {
+        List<MusicDuplicateIndex.Entry> library = List.of(
+                entry("Artist - Longer Song Name Here", "/music/a.mp3"),
+                entry("Artist - Song Name Herex", "/music/b.mp3"),
+                entry("Artist - Song Name Herey", "/music/c.mp3"),
+                entry("Artist - Song Name Here", "/music/d.mp3")
+        );
+        FuzzyMatchIndex index = FuzzyMatchIndex.build(library);
+
+        FuzzyMatchIndex.Match match = index.findBest("artistsongnameherez", THRESHOLD);
+
+        assertNotNull(match);
+        assertEquals("/music/b.mp3", match.entry().path());
+        assertEquals(DuplicateIndexFixtures.linearBest(library, "artistsongnameherez", THRESHOLD), match);
+    }
+
+    @Test
+    void shortKeysOnlyMatchExactly() {
+        FuzzyMatchIndex index = FuzzyMatchIndex.build(List.of(entry("ab", "/music/ab.mp3"), entry("abc", "/music/abc.mp3")));
+
+        assertEquals("/music/ab.mp3", index.findBest("ab", THRESHOLD).entry().path());
+        assertNull(index.findBest("abd", THRESHOLD));
+        assertNull(index.findBest("x", THRESHOLD));
+    }
+
+    @Test
+    void maxAllowedDistanceAgreesWithTheScoreFormula() {
+        for (int length = 0; length <= 200; length++) {
+            int allowed = FuzzyMatchIndex.maxAllowedDistance(length, THRESHOLD);
+            if (length > 0) {
+                assertTrue(1.0 - (allowed / (double) length) >= THRESHOLD, "length " + length);
+            }
+            if (allowed < length) {
+                assertTrue(1.0 - ((allowed + 1) / (double) length) < THRESHOLD, "length " + length);
+            }
+        }
+    }
+
+    @Test
+    void emptyIndexShouldNotMatch() {
+        assertNull(FuzzyMatchIndex.EMPTY.findBest("anything", THRESHOLD));
+    }
+}
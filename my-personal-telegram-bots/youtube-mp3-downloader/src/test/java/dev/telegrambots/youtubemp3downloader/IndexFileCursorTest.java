@@ -0,0 +1,85 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexFileCursorTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldReadOnlyCompleteAppendedLines() throws Exception {
+        Path file = tempDir.resolve("index.tsv");
+        Files.writeString(file, "one\r\ntwo\n");
+        List<String> lines = new ArrayList<>();
+        IndexFileCursor cursor = IndexFileCursor.readAll(file, IndexFileState.read(file), lines::add);
+        assertEquals(List.of("one", "two"), lines);
+        assertEquals(IndexFileCursor.Change.NONE, cursor.classify(file, IndexFileState.read(file)));
+
+        Files.writeString(file, "three\nfo", StandardOpenOption.APPEND);
+        IndexFileState state = IndexFileState.read(file);
+        assertEquals(IndexFileCursor.Change.APPENDED, cursor.classify(file, state));
+        lines.clear();
+        cursor = cursor.readAppended(file, state, lines::add);
+        assertEquals(List.of("three"), lines);
+        assertEquals("one\r\ntwo\nthree\n".length(), cursor.offset());
+
+        Files.writeString(file, "ur\n", StandardOpenOption.APPEND);
+        state = IndexFileState.read(file);
+        lines.clear();
+        cursor.readAppended(file, state, lines::add);
+        assertEquals(List.of("four"), lines);
+    }
+
+    @Test
+    void shouldTreatTruncationAndChangedContentAsRewrite() throws Exception {
+        Path file = tempDir.resolve("index.tsv");
+        Files.writeString(file, "one\ntwo\n");
+        IndexFileCursor cursor = IndexFileCursor.readAll(file, IndexFileState.read(file), line -> { });
+
+        Files.writeString(file, "one\n", StandardOpenOption.TRUNCATE_EXISTING);
+        assertEquals(IndexFileCursor.Change.REWRITTEN, cursor.classify(file, IndexFileState.read(file)));
+
+        // Same length prefix, different bytes before the consumed offset
+        Files.writeString(file, "one\ntwX\nthree\n", StandardOpenOption.TRUNCATE_EXISTING);
+        assertEquals(IndexFileCursor.Change.REWRITTEN, cursor.classify(file, IndexFileState.read(file)));
+        assertEquals(IndexFileCursor.Change.REWRITTEN, IndexFileCursor.UNKNOWN.classify(file, IndexFileState.read(file)));
+    }
+
+    @Test
+    void shouldKeepAnUnterminatedLastLineOnFullRead() throws Exception {
+        Path file = tempDir.resolve("index.tsv");
+        Files.writeString(file, "one\ntwo");
+        List<String> lines = new ArrayList<>();
+        IndexFileCursor cursor = IndexFileCursor.readAll(file, IndexFileState.read(file), lines::add);
+
+        assertEquals(List.of("one", "two"), lines);
+        assertEquals(7, cursor.offset());
+    }
+
+    @Test
+    void shouldFollowOwnAppends() throws Exception {
+        Path file = tempDir.resolve("index.tsv");
+        byte[] first = "header\nrow\n".getBytes();
+        Files.write(file, first);
+        IndexFileCursor cursor = IndexFileCursor.afterOwnAppend(file, null, null, first);
+        assertEquals(first.length, cursor.offset());
+
+        IndexFileState before = IndexFileState.read(file);
+        byte[] second = "next\n".getBytes();
+        Files.write(file, second, StandardOpenOption.APPEND);
+        cursor = IndexFileCursor.afterOwnAppend(file, cursor, before, second);
+        assertEquals(IndexFileCursor.Change.NONE, cursor.classify(file, IndexFileState.read(file)));
+
+        IndexFileCursor stale = IndexFileCursor.afterOwnAppend(file, IndexFileCursor.UNKNOWN, IndexFileState.read(file), second);
+        assertEquals(IndexFileCursor.UNKNOWN, stale);
+    }
+}
@@ -0,0 +1,134 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.PropertyResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the bot against a stand-in HTTP server that mimics a self-hosted telegram-bot-api instance.
+ */
+class LocalBotApiServerTest {
+    private static final String TOKEN = "123456:LOCAL_TEST_TOKEN";
+    private static final String AUDIO_PAYLOAD = "ID3-AUDIO-PAYLOAD-MARKER";
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private final List<String> requestPaths = new CopyOnWriteArrayList<>();
+    private final Map<String, String> requestBodies = new ConcurrentHashMap<>();
+    private volatile String serverFilePath = "";
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void localModeSendsFileUriInsteadOfUploadingBytes() throws Exception {
+        Bot bot = new Bot(config(true));
+        File audio = writeAudio("track.mp3");
+
+        bot.sendAudioFile("42", audio, "caption");
+
+        String body = requestBodies.get("sendaudio");
+        assertTrue(body.contains(audio.getAbsoluteFile().toPath().toUri().toString()), body);
+        assertFalse(body.contains(AUDIO_PAYLOAD), "local mode must not upload file bytes");
+    }
+
+    @Test
+    void publicModeUploadsFileBytes() throws Exception {
+        Bot bot = new Bot(config(false));
+        File audio = writeAudio("track.mp3");
+
+        bot.sendAudioFile("42", audio);
+
+        String body = requestBodies.get("sendaudio");
+        assertTrue(body.contains(AUDIO_PAYLOAD), "public mode uploads the file as multipart");
+    }
+
+    @Test
+    void localModeReadsDownloadedFileFromServerDirectory() throws Exception {
+        Path serverFile = tempDir.resolve("server-dir").resolve(TOKEN).resolve("music").resolve("file_0.mp3");
+        Files.createDirectories(serverFile.getParent());
+        Files.writeString(serverFile, AUDIO_PAYLOAD);
+        serverFilePath = serverFile.toAbsolutePath().toString();
+        Bot bot = new Bot(config(true));
+        File output = tempDir.resolve("cut_source.mp3").toFile();
+
+        bot.downloadTelegramFile("file-id", output);
+
+        assertEquals(AUDIO_PAYLOAD, Files.readString(output.toPath()));
+        assertEquals(List.of("/bot" + TOKEN + "/getFile"), requestPaths);
+    }
+
+    private BotConfig config(boolean localMode) throws IOException {
+        String properties = "bot.token=" + TOKEN + "\n"
+                + "bot.username=test_bot\n"
+                + "bot.api.base.url=http://127.0.0.1:" + server.getAddress().getPort() + "\n"
+                + "bot.api.local=" + localMode + "\n";
+        return new BotConfig(new PropertyResourceBundle(new StringReader(properties)));
+    }
+
+    private File writeAudio(String name) throws IOException {
+        Path audio = tempDir.resolve(name);
+        Files.writeString(audio, AUDIO_PAYLOAD);
+        return audio.toFile();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = path.substring(path.lastIndexOf('/') + 1).toLowerCase();
+        requestPaths.add(path);
+        requestBodies.put(method, new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.ISO_8859_1));
+
+        JSONObject result;
+        if ("getfile".equals(method)) {
+            result = new JSONObject()
+                    .put("file_id", "file-id")
+                    .put("file_unique_id", "unique-id")
+                    .put("file_size", AUDIO_PAYLOAD.length())
+                    .put("file_path", serverFilePath);
+        } else {
+            result = new JSONObject()
+                    .put("message_id", 1)
+                    .put("date", 0)
+                    .put("chat", new JSONObject().put("id", 42).put("type", "private"));
+        }
+        byte[] response = new JSONObject().put("ok", true).put("result", result).toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(response);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duplicate lookup passes on a synthetic library: the linear scans against their indexes.
+ *
+ * Run after {@code mvn test-compile}:
+ * java -cp target/test-classes:target/classes:<test classpath> dev.telegrambots.youtubemp3downloader.MusicDuplicateIndexBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MusicDuplicateIndexBenchmark {
+    private static final double THRESHOLD = 0.92;
+
+    @Param({"60000"})
+    public int librarySize;
+
+    private List<MusicDuplicateIndex.Entry> library;
+    private FuzzyMatchIndex index;
+    private TokenMatchIndex tokenIndex;
+    private String[] queries;
+    private String[] tokenQueries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        library = DuplicateIndexFixtures.library(librarySize, 42);
+        index = FuzzyMatchIndex.build(library);
+        queries = DuplicateIndexFixtures.queries(library, 256, 7).stream()
+                .map(query -> MusicDuplicateIndex.compact(MusicDuplicateIndex.normalizeForMatch(query)))
+                .toArray(String[]::new);
+        tokenIndex = TokenMatchIndex.build(library);
+        tokenQueries = DuplicateIndexFixtures.tokenQueries(library, 256, 5).stream()
+                .map(MusicDuplicateIndex::normalizeForMatch)
+                .toArray(String[]::new);
+    }
+
+    private String nextQuery() {
+        next = (next + 1) % queries.length;
+        return queries[next];
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole blackhole) {
+        blackhole.consume(DuplicateIndexFixtures.linearBest(library, nextQuery(), THRESHOLD));
+    }
+
+    @Benchmark
+    public void prunedIndex(Blackhole blackhole) {
+        blackhole.consume(index.findBest(nextQuery(), THRESHOLD));
+    }
+
+    @Benchmark
+    public void linearPartialToken(Blackhole blackhole) {
+        next = (next + 1) % tokenQueries.length;
+        blackhole.consume(DuplicateIndexFixtures.linearPartialTokenMatch(library, tokenQueries[next]));
+    }
+
+    @Benchmark
+    public void partialTokenIndex(Blackhole blackhole) {
+        next = (next + 1) % tokenQueries.length;
+        blackhole.consume(tokenIndex.findBest(tokenQueries[next]));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(MusicDuplicateIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -3,9 +3,20 @@ package dev.telegrambots.youtubemp3downloader;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
+import static dev.telegrambots.youtubemp3downloader.AsyncAssertions.await;
 import static org.junit.jupiter.api.Assertions.*;
 
 class MusicDuplicateIndexTest {
@@ -80,6 +91,32 @@ class MusicDuplicateIndexTest {
         assertTrue(index.findDuplicate("Artist Song").isEmpty());
     }
 
+    @Test
+    void batchLookupShouldAnswerLikeSingleLookupsInInputOrder() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        Files.writeString(indexPath, """
+                match_key\tdisplay_name\tpath
+                artist song\tArtist - Song\t/music/Artist - Song.mp3
+                the ghost aura nihilism\tThe Ghost Aura - Nihilism\t/music/The Ghost Aura - Nihilism.mp3
+                """);
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+
+        List<String> small = Arrays.asList("Song Artist", null, "Unrelated Track", " ", "The Ghost Aura - Nihilizm");
+        List<String> large = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            large.add(i % 5 == 0 ? "Artist Song" : i % 5 == 1 ? "Chapter " + i : small.get(i % small.size()));
+        }
+
+        for (List<String> candidates : List.of(small, large)) {
+            List<Optional<MusicDuplicateIndex.DuplicateMatch>> expected = candidates.stream()
+                    .map(index::findDuplicate)
+                    .toList();
+            assertEquals(expected, index.findDuplicates(candidates));
+        }
+        assertEquals("token-exact", index.findDuplicates(small).get(0).orElseThrow().matchType());
+        assertTrue(new MusicDuplicateIndex("").findDuplicates(small).stream().allMatch(Optional::isEmpty));
+    }
+
     @Test
     void shouldAppendDownloadedFileToIndexOnce() throws Exception {
         Path indexPath = tempDir.resolve("music-index.tsv");
@@ -97,4 +134,304 @@ class MusicDuplicateIndexTest {
         assertEquals(1, indexedRows);
     }
 
+    @Test
+    void shouldPickUpExternalChangesToTheIndexFile() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        Files.writeString(indexPath, "match_key\tdisplay_name\tpath\nartist song\tArtist - Song\t/music/a.mp3\n");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+        assertTrue(index.findDuplicate("Artist Song").isPresent());
+
+        Files.writeString(indexPath, "match_key\tdisplay_name\tpath\nother track\tOther - Track\t/music/b.mp3\n");
+
+        await(() -> index.findDuplicate("Other Track").isPresent(), IndexFileWatcher.POLL_INTERVAL_MILLIS * 3);
+        assertTrue(index.findDuplicate("Artist Song").isEmpty());
+    }
+
+    @Test
+    void shouldTrustKeysWrittenByTheCurrentNormalizer() throws Exception {
+        Path musicRoot = tempDir.resolve("music");
+        Files.createDirectories(musicRoot);
+        Files.writeString(musicRoot.resolve("Artist - Song.mp3"), "fake");
+        Path generated = tempDir.resolve("generated.tsv");
+        MusicDuplicateIndex.writeIndex(musicRoot, generated);
+        assertEquals("# normalizer_version=" + MusicDuplicateIndex.normalizerVersion(), Files.readAllLines(generated).get(0));
+
+        // A trusted key is used verbatim, even where the normalizer would produce something else
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        Files.writeString(indexPath, "# normalizer_version=" + MusicDuplicateIndex.normalizerVersion() + "\n"
+                + "match_key\tdisplay_name\tpath\n"
+                + "stored key\tArtist - Song\t/music/a.mp3\n");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+
+        assertEquals("exact", index.findDuplicate("Stored Key").orElseThrow().matchType());
+    }
+
+    @Test
+    void editingTheSanitizerRulesShouldNormalizeKeysAgain() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+        assertTrue(index.addOrUpdateDownloadedFile("Artist - Song Remastered", tempDir.resolve("a.mp3")));
+        assertEquals("artist song remastered", MusicDuplicateIndex.normalizeForMatch("Artist - Song Remastered"));
+        int bundledVersion = MusicDuplicateIndex.normalizerVersion();
+        String bundled = bundledRuleText();
+        Path ruleFile = tempDir.resolve("sanitizer-rules.tsv");
+        Files.writeString(ruleFile, bundled + "i\tremastered\t\tremastered\n");
+        try {
+            FileNameSanitizer.useRuleFile(ruleFile);
+
+            // The memo must not answer with the key of the old rules
+            assertEquals("artist song", MusicDuplicateIndex.normalizeForMatch("Artist - Song Remastered"));
+            assertNotEquals(bundledVersion, MusicDuplicateIndex.normalizerVersion());
+            assertEquals("exact", index.findDuplicate("Artist - Song").orElseThrow().matchType());
+            assertEquals("exact", new MusicDuplicateIndex(indexPath.toString()).findDuplicate("Artist - Song").orElseThrow().matchType());
+        } finally {
+            Files.writeString(ruleFile, bundled);
+            await(() -> MusicDuplicateIndex.normalizerVersion() == bundledVersion);
+        }
+        assertEquals("artist song remastered", MusicDuplicateIndex.normalizeForMatch("Artist - Song Remastered"));
+        assertTrue(index.findDuplicate("Artist - Song Remastered").isPresent());
+    }
+
+    @Test
+    void shouldNormalizeKeysOfFilesWithoutTheCurrentVersion() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        Files.writeString(indexPath, "# normalizer_version=0\n"
+                + "match_key\tdisplay_name\tpath\n"
+                + "The Ghost Aura - Nihilism (Official Video)\tThe Ghost Aura - Nihilism\t/music/a.mp3\n");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+
+        assertEquals("exact", index.findDuplicate("the ghost aura nihilism").orElseThrow().matchType());
+    }
+
+    @Test
+    void shouldReadLinesAppendedByAnotherWriter() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        Files.writeString(indexPath, "match_key\tdisplay_name\tpath\nartist song\tArtist - Song\t/music/a.mp3\n");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+        assertTrue(index.findDuplicate("Artist Song").isPresent());
+
+        // A complete line plus one the other writer has not finished yet
+        Files.writeString(indexPath, "other track\tOther - Track\t/music/b.mp3\nthird tr", StandardOpenOption.APPEND);
+        awaitMatch(index, "Other Track");
+        assertTrue(index.findDuplicate("Artist Song").isPresent());
+        assertTrue(index.findDuplicate("Third Track").isEmpty());
+
+        Files.writeString(indexPath, "ack\tThird - Track\t/music/c.mp3\n", StandardOpenOption.APPEND);
+        awaitMatch(index, "Third Track");
+        assertEquals("/music/c.mp3", index.findDuplicate("Third Track").orElseThrow().path());
+        assertTrue(index.findDuplicate("Artist Song").isPresent());
+    }
+
+    @Test
+    void shouldRebuildAfterTheIndexFileWasTruncated() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        Files.writeString(indexPath, "match_key\tdisplay_name\tpath\n"
+                + "artist song\tArtist - Song\t/music/a.mp3\n"
+                + "other track\tOther - Track\t/music/b.mp3\n");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+        assertTrue(index.findDuplicate("Other Track").isPresent());
+
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+            channel.truncate("match_key\tdisplay_name\tpath\n".length());
+        }
+        Files.writeString(indexPath, "new entry\tNew - Entry\t/music/c.mp3\n", StandardOpenOption.APPEND);
+
+        awaitMatch(index, "New Entry");
+        assertTrue(index.findDuplicate("Artist Song").isEmpty());
+        assertTrue(index.findDuplicate("Other Track").isEmpty());
+    }
+
+    @Test
+    void appendedEntriesStayVisibleAcrossDeltaMerges() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+        int count = 300;
+
+        for (int i = 0; i < count; i++) {
+            assertTrue(index.addOrUpdateDownloadedFile("Artist " + i + " - Track Number " + i + ".mp3", tempDir.resolve(i + ".mp3")));
+        }
+
+        for (int i = 0; i < count; i += 7) {
+            MusicDuplicateIndex.DuplicateMatch match = index.findDuplicate("Artist " + i + " Track Number " + i).orElseThrow();
+            assertEquals("exact", match.matchType());
+            assertEquals(tempDir.resolve(i + ".mp3").toAbsolutePath().toString(), match.path());
+        }
+        assertFalse(index.addOrUpdateDownloadedFile("Artist 5 - Track Number 5.mp3", tempDir.resolve("5.mp3")));
+        assertEquals(count + 2, Files.readAllLines(indexPath).size());
+
+        MusicDuplicateIndex reloaded = new MusicDuplicateIndex(indexPath.toString());
+        assertEquals("fuzzy", reloaded.findDuplicate("Artist 12 Track Numbr 12").orElseThrow().matchType());
+        assertEquals("fuzzy", index.findDuplicate("Artist 12 Track Numbr 12").orElseThrow().matchType());
+    }
+
+    @Test
+    void removalLinesShouldHideEarlierEntriesForTheirPath() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+        MusicDuplicateIndex.Entry first = libraryEntry("Alpha Artist - First Song", "/music/a.mp3");
+        MusicDuplicateIndex.Entry second = libraryEntry("Bravo Band - Second Tune", "/music/b.mp3");
+
+        assertEquals(2, index.applyLibraryChanges(List.of(first, second), List.of()));
+        assertEquals(1, index.applyLibraryChanges(List.of(), List.of("/music/a.mp3", "/music/missing.mp3")));
+
+        assertTrue(index.findDuplicate("Alpha Artist First Song").isEmpty());
+        assertTrue(index.findDuplicate("Bravo Band Second Tune").isPresent());
+        assertEquals(Set.of("/music/b.mp3"), index.indexedPathsUnder(List.of(Path.of("/music"))));
+        MusicDuplicateIndex reloaded = new MusicDuplicateIndex(indexPath.toString());
+        assertTrue(reloaded.findDuplicate("Alpha Artist First Song").isEmpty());
+        assertTrue(reloaded.findDuplicate("Bravo Band Second Tune").isPresent());
+
+        // The file came back
+        assertEquals(1, index.applyLibraryChanges(List.of(first), List.of()));
+        assertEquals("/music/a.mp3", index.findDuplicate("Alpha Artist First Song").orElseThrow().path());
+        assertEquals("/music/a.mp3", new MusicDuplicateIndex(indexPath.toString()).findDuplicate("Alpha Artist First Song").orElseThrow().path());
+    }
+
+    @Test
+    void renamedFilesShouldKeepTheirEntries() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+        MusicDuplicateIndex.Entry first = libraryEntry("Alpha Artist - First Song", "/music/dirty a.mp3");
+        MusicDuplicateIndex.Entry second = libraryEntry("Bravo Band - Second Tune", "/music/b.mp3");
+        assertEquals(2, index.applyLibraryChanges(List.of(first, second), List.of()));
+
+        assertEquals(2, index.renamePaths(Map.of(Path.of("/music/dirty a.mp3"), Path.of("/music/A.mp3"),
+                Path.of("/music/gone.mp3"), Path.of("/music/Gone.mp3"))));
+
+        assertEquals("/music/A.mp3", index.findDuplicate("Alpha Artist First Song").orElseThrow().path());
+        assertEquals(Set.of("/music/A.mp3", "/music/b.mp3"), index.indexedPathsUnder(List.of(Path.of("/music"))));
+        MusicDuplicateIndex reloaded = new MusicDuplicateIndex(indexPath.toString());
+        assertEquals("/music/A.mp3", reloaded.findDuplicate("Alpha Artist First Song").orElseThrow().path());
+        assertEquals(Set.of("/music/A.mp3", "/music/b.mp3"), reloaded.indexedPathsUnder(List.of(Path.of("/music"))));
+    }
+
+    @Test
+    void mergesShouldDropRemovedEntriesButKeepHidingLaterOnes() {
+        MusicDuplicateIndex.Entry first = libraryEntry("Alpha Artist - First Song", "/music/a.mp3");
+        MusicDuplicateIndex.Entry second = libraryEntry("Bravo Band - Second Tune", "/music/b.mp3");
+        DuplicateIndexSnapshot removed = DuplicateIndexSnapshot.of(List.of(first, second), 0, null)
+                .appendAll(List.of(MusicDuplicateIndex.Entry.removal(first.path())), 0, null);
+
+        DuplicateIndexSnapshot merged = removed.withMergedBase(DuplicateIndexSnapshot.prepareMerge(removed));
+        assertFalse(merged.hasRemovals());
+        assertEquals(1, merged.size());
+        assertTrue(merged.find(first.key(), 0.92).isEmpty());
+
+        // Re-added and removed again after the merge source was taken: still hidden once the merge lands
+        DuplicateIndexSnapshot later = removed.appendAll(List.of(first, MusicDuplicateIndex.Entry.removal(first.path())), 0, null);
+        DuplicateIndexSnapshot rebased = later.withMergedBase(DuplicateIndexSnapshot.prepareMerge(removed));
+        assertTrue(rebased.hasRemovals());
+        assertTrue(rebased.find(first.key(), 0.92).isEmpty());
+        assertTrue(rebased.find(second.key(), 0.92).isPresent());
+        assertTrue(rebased.appendAll(List.of(first), 0, null).find(first.key(), 0.92).isPresent());
+    }
+
+    @Test
+    void shouldCompactRemovedEntriesOutOfTheFile() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+        List<MusicDuplicateIndex.Entry> entries = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            entries.add(libraryEntry("Artist " + i + " - Track Number " + i, "/music/" + i + ".mp3"));
+            if (i % 3 != 0) {
+                removed.add("/music/" + i + ".mp3");
+            }
+        }
+        index.applyLibraryChanges(entries, List.of());
+        index.applyLibraryChanges(List.of(), removed);
+
+        await(() -> Files.readAllLines(indexPath).size() <= 102);
+        List<String> lines = Files.readAllLines(indexPath);
+        assertEquals(102, lines.size());
+        assertTrue(lines.stream().noneMatch(line -> line.startsWith("-\t")));
+        for (MusicDuplicateIndex reader : List.of(index, new MusicDuplicateIndex(indexPath.toString()))) {
+            assertEquals("exact", reader.findDuplicate("Artist 9 Track Number 9").orElseThrow().matchType());
+            assertTrue(reader.findDuplicate("Artist 10 Track Number 10").isEmpty());
+        }
+    }
+
+    @Test
+    void concurrentAddsShouldEachBeWrittenOnceAndInOrder() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString(), true);
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            int writer = w;
+            writers.add(Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < 50; i++) {
+                    Path file = tempDir.resolve("w" + writer + "/Writer " + writer + " - Song " + i + ".mp3");
+                    assertTrue(index.addOrUpdateDownloadedFile(file.getFileName().toString(), file));
+                    assertFalse(index.addOrUpdateDownloadedFile(file.getFileName().toString(), file));
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        List<String> lines = Files.readAllLines(indexPath);
+        assertEquals(202, lines.size());
+        assertTrue(lines.get(1).startsWith("match_key\t"));
+        for (int w = 0; w < 4; w++) {
+            String prefix = "Writer " + w + " - Song ";
+            List<String> names = lines.stream().skip(2).map(line -> line.split("\t")[1]).filter(name -> name.startsWith(prefix)).toList();
+            assertEquals(50, names.size());
+            for (int i = 0; i < 50; i++) {
+                assertEquals(prefix + i, names.get(i));
+            }
+        }
+        assertTrue(new MusicDuplicateIndex(indexPath.toString()).findDuplicate("Writer 3 Song 49").isPresent());
+    }
+
+    @Test
+    void closeShouldWriteAddsThatAreStillQueued() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+        List<java.util.concurrent.CompletableFuture<Boolean>> adds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            adds.add(index.addDownloadedFile("Queued Artist - Track " + i + ".mp3", tempDir.resolve("queued-" + i + ".mp3")));
+        }
+
+        index.close();
+
+        assertTrue(adds.stream().allMatch(add -> add.isDone() && add.join()));
+        assertEquals(102, Files.readAllLines(indexPath).size());
+        assertFalse(index.addOrUpdateDownloadedFile("Late Artist - Track", tempDir.resolve("late.mp3")));
+    }
+
+    @Test
+    void appendsShouldFollowTheFileAfterACompaction() throws Exception {
+        Path indexPath = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+        List<MusicDuplicateIndex.Entry> entries = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            entries.add(libraryEntry("Artist " + i + " - Track Number " + i, "/music/" + i + ".mp3"));
+            removed.add("/music/" + i + ".mp3");
+        }
+        index.applyLibraryChanges(entries, List.of());
+        index.applyLibraryChanges(List.of(), removed);
+        await(() -> Files.readAllLines(indexPath).size() <= 2);
+
+        assertTrue(index.addOrUpdateDownloadedFile("After Compaction - Song", tempDir.resolve("after.mp3")));
+
+        List<String> lines = Files.readAllLines(indexPath);
+        assertEquals(3, lines.size());
+        assertTrue(new MusicDuplicateIndex(indexPath.toString()).findDuplicate("After Compaction Song").isPresent());
+    }
+
+    private static MusicDuplicateIndex.Entry libraryEntry(String name, String path) {
+        return new MusicDuplicateIndex.Entry(MusicDuplicateIndex.normalizeForMatch(name), name, path);
+    }
+
+    private static void awaitMatch(MusicDuplicateIndex index, String candidate) throws Exception {
+        await(() -> index.findDuplicate(candidate).isPresent(), IndexFileWatcher.POLL_INTERVAL_MILLIS * 3);
+    }
+
+    private static String bundledRuleText() throws Exception {
+        try (InputStream in = MusicDuplicateIndexTest.class.getResourceAsStream(SanitizerRuleFile.BUNDLED_RESOURCE)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
 }
@@ -0,0 +1,50 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Heap retained by a loaded music index of a synthetic library laid out like a phone's music folder
+ * (one directory per artist). Retained size is measured as the used-heap difference after full GCs,
+ * so run it alone with a fixed heap, e.g.:
+ * java -Xms1g -Xmx1g -cp target/test-classes:target/classes:<test classpath> dev.telegrambots.youtubemp3downloader.MusicIndexHeapBenchmark 100000
+ */
+public class MusicIndexHeapBenchmark {
+    private static final String LIBRARY_ROOT = "/storage/emulated/0/Music/";
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        long before = usedAfterGc(memory);
+        DuplicateIndexSnapshot snapshot = DuplicateIndexSnapshot.of(library(size), 0, null);
+        long after = usedAfterGc(memory);
+
+        System.out.printf("%d entries: %.1f MB retained, %d bytes per entry%n",
+                snapshot.size(), (after - before) / (1024.0 * 1024.0), (after - before) / Math.max(1, snapshot.size()));
+    }
+
+    // Fresh strings per entry, like a TSV load, so nothing is shared with the fixture
+    private static List<MusicDuplicateIndex.Entry> library(int size) {
+        List<MusicDuplicateIndex.Entry> library = new ArrayList<>(size);
+        for (MusicDuplicateIndex.Entry entry : DuplicateIndexFixtures.library(size, 42)) {
+            String artist = entry.displayName().substring(0, entry.displayName().indexOf(" - "));
+            library.add(new MusicDuplicateIndex.Entry(
+                    new String(entry.key()),
+                    new String(entry.displayName()),
+                    LIBRARY_ROOT + artist + "/" + entry.displayName() + ".mp3"
+            ));
+        }
+        return library;
+    }
+
+    private static long usedAfterGc(MemoryMXBean memory) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
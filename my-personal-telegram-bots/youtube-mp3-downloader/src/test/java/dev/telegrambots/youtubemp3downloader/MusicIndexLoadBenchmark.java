@@ -0,0 +1,108 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cold start of the music index: a TSV from an older normalizer (every key normalized again), a TSV with
+ * trusted keys, and the binary snapshot.
+ *
+ * Run after {@code mvn test-compile}:
+ * java -cp target/test-classes:target/classes:<test classpath> dev.telegrambots.youtubemp3downloader.MusicIndexLoadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MusicIndexLoadBenchmark {
+    @Param({"100000"})
+    public int librarySize;
+
+    private Path directory;
+    private Path tsv;
+    private Path snapshotFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("music-index-load");
+        tsv = directory.resolve("music-index.tsv");
+        snapshotFile = MusicIndexSnapshotFile.pathFor(tsv);
+        StringBuilder text = new StringBuilder("match_key\tdisplay_name\tpath\n");
+        for (MusicDuplicateIndex.Entry entry : DuplicateIndexFixtures.library(librarySize, 42)) {
+            text.append(entry.key()).append('\t').append(entry.displayName()).append('\t').append(entry.path()).append('\n');
+        }
+        Files.writeString(tsv, text, StandardCharsets.UTF_8);
+        IndexFileCursor cursor = IndexFileCursor.atEnd(tsv);
+        DuplicateIndexSnapshot.of(parseTsv(false), 0, cursor).saveBase(snapshotFile, tsv, cursor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public DuplicateIndexSnapshot fromLegacyTsv() throws IOException {
+        return DuplicateIndexSnapshot.of(parseTsv(true), 0, null);
+    }
+
+    @Benchmark
+    public DuplicateIndexSnapshot fromTsv() throws IOException {
+        return DuplicateIndexSnapshot.of(parseTsv(false), 0, null);
+    }
+
+    @Benchmark
+    public DuplicateIndexSnapshot fromSnapshot() throws IOException {
+        MusicIndexSnapshotFile.Contents contents = MusicIndexSnapshotFile.read(snapshotFile);
+        IndexFileCursor cursor = contents.resume(tsv, IndexFileState.read(tsv));
+        return DuplicateIndexSnapshot.restore(contents, 0, cursor);
+    }
+
+    // Same work as the index's TSV load, sequential like a trusted file even when normalizing
+    private List<MusicDuplicateIndex.Entry> parseTsv(boolean normalize) throws IOException {
+        List<MusicDuplicateIndex.Entry> entries = new ArrayList<>(librarySize);
+        IndexFileCursor.readAll(tsv, IndexFileState.read(tsv), line -> {
+            String[] parts = line.split("\t", 3);
+            if (!line.startsWith("match_key\t") && parts.length == 3) {
+                String key = normalize ? MusicDuplicateIndex.normalizeForMatch(parts[0]) : parts[0];
+                entries.add(new MusicDuplicateIndex.Entry(key, parts[1], parts[2]));
+            }
+        });
+        return entries;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(MusicIndexLoadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,123 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static dev.telegrambots.youtubemp3downloader.AsyncAssertions.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MusicIndexSnapshotFileTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void restoredSnapshotShouldAnswerLikeAFreshlyBuiltOne() throws Exception {
+        List<MusicDuplicateIndex.Entry> library = DuplicateIndexFixtures.library(1_500, 3);
+        Path tsv = writeTsv(library);
+        Path file = MusicIndexSnapshotFile.pathFor(tsv);
+        DuplicateIndexSnapshot built = DuplicateIndexSnapshot.of(library, 0, null);
+        built.saveBase(file, tsv, IndexFileCursor.atEnd(tsv));
+
+        MusicIndexSnapshotFile.Contents contents = MusicIndexSnapshotFile.read(file);
+        assertEquals(library, contents.entries().toList());
+        assertNotNull(contents.resume(tsv, IndexFileState.read(tsv)));
+        DuplicateIndexSnapshot restored = DuplicateIndexSnapshot.restore(contents, 0, null);
+
+        List<String> queries = DuplicateIndexFixtures.queries(library, 300, 9);
+        queries.addAll(DuplicateIndexFixtures.tokenQueries(library, 300, 10));
+        for (String query : queries) {
+            String key = MusicDuplicateIndex.normalizeForMatch(query);
+            assertEquals(built.find(key, 0.92), restored.find(key, 0.92), "query: " + query);
+        }
+    }
+
+    @Test
+    void shouldRejectCorruptedOrMissingSnapshots() throws Exception {
+        List<MusicDuplicateIndex.Entry> library = DuplicateIndexFixtures.library(50, 4);
+        Path tsv = writeTsv(library);
+        Path file = MusicIndexSnapshotFile.pathFor(tsv);
+        assertNull(MusicIndexSnapshotFile.read(file));
+
+        DuplicateIndexSnapshot.of(library, 0, null).saveBase(file, tsv, IndexFileCursor.atEnd(tsv));
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x40;
+        Files.write(file, bytes);
+
+        IOException error = assertThrows(IOException.class, () -> MusicIndexSnapshotFile.read(file));
+        assertTrue(error.getMessage().contains("checksum"), error.getMessage());
+    }
+
+    @Test
+    void shouldNotCoverATsvEditedInPlace() throws Exception {
+        List<MusicDuplicateIndex.Entry> library = DuplicateIndexFixtures.library(50, 5);
+        Path tsv = writeTsv(library);
+        Path file = MusicIndexSnapshotFile.pathFor(tsv);
+        DuplicateIndexSnapshot.of(library, 0, null).saveBase(file, tsv, IndexFileCursor.atEnd(tsv));
+
+        // Same length, last line untouched: only the prefix checksum can tell
+        byte[] bytes = Files.readAllBytes(tsv);
+        bytes[40] = (byte) (bytes[40] == 'x' ? 'y' : 'x');
+        Files.write(tsv, bytes, StandardOpenOption.TRUNCATE_EXISTING);
+
+        assertNull(MusicIndexSnapshotFile.read(file).resume(tsv, IndexFileState.read(tsv)));
+    }
+
+    @Test
+    void indexShouldLoadFromSnapshotAndReadLinesAppendedAfterIt() throws Exception {
+        Path musicRoot = tempDir.resolve("music");
+        Files.createDirectories(musicRoot);
+        Files.writeString(musicRoot.resolve("Artist - First Song.mp3"), "fake");
+        Path tsv = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex.writeIndex(musicRoot, tsv);
+        assertTrue(Files.exists(MusicIndexSnapshotFile.pathFor(tsv)));
+
+        Files.writeString(tsv, "other track\tOther - Track\t/music/b.mp3\n", StandardOpenOption.APPEND);
+        MusicDuplicateIndex index = new MusicDuplicateIndex(tsv.toString());
+
+        assertTrue(index.findDuplicate("Artist First Song").isPresent());
+        assertEquals("/music/b.mp3", index.findDuplicate("Other Track").orElseThrow().path());
+    }
+
+    @Test
+    void indexShouldFallBackToTheTsvWhenTheSnapshotIsBroken() throws Exception {
+        Path musicRoot = tempDir.resolve("music");
+        Files.createDirectories(musicRoot);
+        Files.writeString(musicRoot.resolve("Artist - First Song.mp3"), "fake");
+        Path tsv = tempDir.resolve("music-index.tsv");
+        MusicDuplicateIndex.writeIndex(musicRoot, tsv);
+        Files.writeString(MusicIndexSnapshotFile.pathFor(tsv), "garbage that is long enough for a header");
+
+        assertTrue(new MusicDuplicateIndex(tsv.toString()).findDuplicate("Artist First Song").isPresent());
+    }
+
+    @Test
+    void indexShouldWriteASnapshotAfterLoadingALargeTsv() throws Exception {
+        List<MusicDuplicateIndex.Entry> library = DuplicateIndexFixtures.library(1_200, 6);
+        Path tsv = writeTsv(library);
+        Path file = MusicIndexSnapshotFile.pathFor(tsv);
+        MusicDuplicateIndex index = new MusicDuplicateIndex(tsv.toString());
+        assertTrue(index.findDuplicate(library.get(7).displayName()).isPresent());
+
+        await(() -> Files.exists(file));
+        MusicIndexSnapshotFile.Contents contents = MusicIndexSnapshotFile.read(file);
+        assertEquals(library, contents.entries().toList());
+        assertNotNull(contents.resume(tsv, IndexFileState.read(tsv)));
+    }
+
+    private Path writeTsv(List<MusicDuplicateIndex.Entry> entries) throws IOException {
+        StringBuilder text = new StringBuilder("match_key\tdisplay_name\tpath\n");
+        for (MusicDuplicateIndex.Entry entry : entries) {
+            text.append(entry.key()).append('\t').append(entry.displayName()).append('\t').append(entry.path()).append('\n');
+        }
+        Path tsv = tempDir.resolve("index.tsv");
+        Files.writeString(tsv, text, StandardCharsets.UTF_8);
+        return tsv;
+    }
+}
@@ -0,0 +1,113 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MusicLibraryScannerTest {
+    private static final FileTime LONG_AGO = FileTime.fromMillis(1_600_000_000_000L);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldScanSeveralRootsIntoSortedEntries() throws Exception {
+        Path rock = tempDir.resolve("rock");
+        Path jazz = tempDir.resolve("jazz");
+        write(rock.resolve("Band/Album/Band - Song (Official Video).mp3"));
+        write(rock.resolve("Band/Band - Other.flac"));
+        write(rock.resolve("Band/cover.jpg"));
+        write(jazz.resolve("Trio - Tune.m4a"));
+
+        MusicLibraryScanner.Result result = MusicLibraryScanner.scan(List.of(rock, jazz, rock.resolve("Band")), null);
+
+        assertEquals(List.of(
+                jazz.resolve("Trio - Tune.m4a").toString(),
+                rock.resolve("Band/Album/Band - Song (Official Video).mp3").toString(),
+                rock.resolve("Band/Band - Other.flac").toString()
+        ), result.entries().stream().map(MusicDuplicateIndex.Entry::path).toList());
+        MusicDuplicateIndex.Entry song = result.entries().get(1);
+        assertEquals("Band - Song (Official Video)", song.displayName());
+        assertEquals(MusicDuplicateIndex.normalizeForMatch("Band - Song (Official Video)"), song.key());
+        // rock/Band is reached through two roots but listed once
+        assertEquals(4, result.directories());
+    }
+
+    @Test
+    void incrementalScanShouldOnlyListDirectoriesWhoseTimeChanged() throws Exception {
+        Path root = tempDir.resolve("music");
+        write(root.resolve("A/Artist A - One.mp3"));
+        write(root.resolve("B/Artist B - Two.mp3"));
+        ageDirectories(root);
+        Path cacheFile = tempDir.resolve("index.tsv" + MusicLibraryScanner.CACHE_SUFFIX);
+        MusicLibraryScanner.scan(List.of(root), null).cache().write(cacheFile);
+        MusicLibraryScanner.Cache cache = MusicLibraryScanner.Cache.read(cacheFile);
+
+        // A file added without moving the directory time stays invisible, which shows the listing was reused
+        write(root.resolve("A/Artist A - Hidden.mp3"));
+        Files.setLastModifiedTime(root.resolve("A"), LONG_AGO);
+        write(root.resolve("B/Artist B - Three.mp3"));
+
+        MusicLibraryScanner.Result result = MusicLibraryScanner.scan(List.of(root), cache);
+
+        assertEquals(List.of("Artist A - One", "Artist B - Three", "Artist B - Two"),
+                result.entries().stream().map(MusicDuplicateIndex.Entry::displayName).toList());
+        assertEquals(3, result.directories());
+        assertEquals(2, result.reusedDirectories());
+        assertEquals(List.of("Artist A - Hidden", "Artist A - One", "Artist B - Three", "Artist B - Two"),
+                MusicLibraryScanner.scan(List.of(root), null).entries().stream().map(MusicDuplicateIndex.Entry::displayName).toList());
+    }
+
+    @Test
+    void incrementalIndexShouldMatchAFullRebuild() throws Exception {
+        Path root = tempDir.resolve("music");
+        for (int i = 0; i < 30; i++) {
+            write(root.resolve("Artist " + (i % 4) + "/Artist " + (i % 4) + " - Track " + i + ".mp3"));
+        }
+        ageDirectories(root);
+        Path full = tempDir.resolve("full.tsv");
+        Path incremental = tempDir.resolve("incremental.tsv");
+        MusicDuplicateIndex.writeIndex(List.of(root), incremental, true);
+        Files.delete(root.resolve("Artist 1/Artist 1 - Track 1.mp3"));
+        write(root.resolve("Artist 2/Artist 2 - Track 99.mp3"));
+
+        MusicLibraryScanner.Result result = MusicDuplicateIndex.writeIndex(List.of(root), incremental, true);
+        MusicDuplicateIndex.writeIndex(root, full);
+
+        assertEquals(3, result.reusedDirectories());
+        assertEquals(Files.readAllLines(full), Files.readAllLines(incremental));
+    }
+
+    @Test
+    void cacheShouldRoundTrip() throws Exception {
+        Path root = tempDir.resolve("music");
+        write(root.resolve("Sub/Artist - Song.opus"));
+        MusicLibraryScanner.Cache cache = MusicLibraryScanner.scan(List.of(root), null).cache();
+        Path cacheFile = tempDir.resolve("cache.scan");
+
+        cache.write(cacheFile);
+
+        assertEquals(cache, MusicLibraryScanner.Cache.read(cacheFile));
+        assertNull(MusicLibraryScanner.Cache.read(tempDir.resolve("missing.scan")));
+    }
+
+    private static void write(Path file) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "fake");
+    }
+
+    private static void ageDirectories(Path root) throws Exception {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.filter(Files::isDirectory).toList()) {
+                Files.setLastModifiedTime(path, LONG_AGO);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static dev.telegrambots.youtubemp3downloader.AsyncAssertions.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MusicLibraryWatcherTest {
+    private static final long DEBOUNCE_MILLIS = 50;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void startShouldReconcileTheIndexWithTheLibrary() throws Exception {
+        Path root = tempDir.resolve("music");
+        write(root.resolve("Alpha Artist/Alpha Artist - First Song.mp3"));
+        MusicDuplicateIndex index = new MusicDuplicateIndex(tempDir.resolve("index.tsv").toString());
+        index.addOrUpdateDownloadedFile("Gone Group - Old Hit", root.resolve("Gone Group/Gone Group - Old Hit.mp3"));
+        index.addOrUpdateDownloadedFile("Elsewhere Ensemble - Far Away", tempDir.resolve("elsewhere/Far Away.mp3"));
+
+        try (MusicLibraryWatcher watcher = start(root, index)) {
+            await(() -> index.findDuplicate("Alpha Artist First Song").isPresent());
+            await(() -> index.findDuplicate("Gone Group Old Hit").isEmpty());
+            // Entries outside the watched roots are not the watcher's business
+            assertTrue(index.findDuplicate("Elsewhere Ensemble Far Away").isPresent());
+        }
+    }
+
+    @Test
+    void shouldFollowAddsRenamesAndDeletes() throws Exception {
+        Path root = tempDir.resolve("music");
+        Files.createDirectories(root);
+        Path indexPath = tempDir.resolve("index.tsv");
+        MusicDuplicateIndex index = new MusicDuplicateIndex(indexPath.toString());
+
+        try (MusicLibraryWatcher watcher = start(root, index)) {
+            Path album = root.resolve("Bravo Band/Debut");
+            for (int i = 1; i <= 12; i++) {
+                write(album.resolve("Bravo Band - Track Number " + i + ".flac"));
+            }
+            write(album.resolve("cover.jpg"));
+            await(() -> index.findDuplicate("Bravo Band Track Number 12").isPresent());
+            assertEquals(album.resolve("Bravo Band - Track Number 1.flac").toString(),
+                    index.findDuplicate("Bravo Band Track Number 1").orElseThrow().path());
+
+            Path song = root.resolve("Charlie Choir - Morning Hymn.mp3");
+            write(song);
+            await(() -> index.findDuplicate("Charlie Choir Morning Hymn").isPresent());
+            Files.move(song, root.resolve("Delta Duo - Evening Prayer.mp3"));
+            await(() -> index.findDuplicate("Delta Duo Evening Prayer").isPresent());
+            await(() -> index.findDuplicate("Charlie Choir Morning Hymn").isEmpty());
+
+            Files.move(root.resolve("Bravo Band"), tempDir.resolve("Bravo Band"));
+            await(() -> index.findDuplicate("Bravo Band Track Number 12").isEmpty());
+            assertTrue(index.findDuplicate("Delta Duo Evening Prayer").isPresent());
+        }
+
+        MusicDuplicateIndex reloaded = new MusicDuplicateIndex(indexPath.toString());
+        assertTrue(reloaded.findDuplicate("Delta Duo Evening Prayer").isPresent());
+        assertTrue(reloaded.findDuplicate("Charlie Choir Morning Hymn").isEmpty());
+        assertTrue(reloaded.findDuplicate("Bravo Band Track Number 7").isEmpty());
+    }
+
+    @Test
+    void shouldParseConfiguredRoots() {
+        assertEquals(List.of(Path.of("/music/a"), Path.of("/music/b c")), MusicLibraryWatcher.parseRoots(" /music/a ; ;/music/b c"));
+        assertEquals(List.of(), MusicLibraryWatcher.parseRoots(""));
+        assertEquals(List.of(), MusicLibraryWatcher.parseRoots(null));
+    }
+
+    private static MusicLibraryWatcher start(Path root, MusicDuplicateIndex index) throws Exception {
+        MusicLibraryWatcher watcher = new MusicLibraryWatcher(List.of(root), index, DEBOUNCE_MILLIS, 60_000);
+        watcher.start();
+        return watcher;
+    }
+
+    private static void write(Path file) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "fake");
+    }
+}
@@ -0,0 +1,67 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RegexLiteralsTest {
+
+    @Test
+    void textAroundUnknownPartsShouldBeRequired() {
+        RegexLiterals literals = RegexLiterals.of("^\\s*untitled\\s+burial\\s*-\\s*", 0);
+
+        assertTrue(literals.coveredBy(List.of("burial")));
+        assertTrue(literals.coveredBy(List.of("titled")));
+        assertFalse(literals.coveredBy(List.of("burial -")));
+        assertFalse(literals.coveredBy(List.of("untitled burial")));
+    }
+
+    @Test
+    void everyAlternativeShouldNeedALiteral() {
+        RegexLiterals literals = RegexLiterals.of("\\((official|lyric) (video|audio)\\)", 0);
+
+        assertTrue(literals.coveredBy(List.of("(official", "(lyric")));
+        assertTrue(literals.coveredBy(List.of("o)")));
+        assertFalse(literals.coveredBy(List.of("(official")));
+        assertFalse(RegexLiterals.of("foo|bar", 0).coveredBy(List.of("foo")));
+        assertFalse(RegexLiterals.of("foo|.*", 0).coveredBy(List.of("foo")));
+    }
+
+    @Test
+    void quantifiersClassesAndLookaroundsShouldBeFollowed() {
+        assertTrue(RegexLiterals.of("-{2,}", 0).coveredBy(List.of("--")));
+        assertFalse(RegexLiterals.of("-{2,}", 0).coveredBy(List.of("---")));
+        assertTrue(RegexLiterals.of("bar+z", 0).coveredBy(List.of("rz")));
+        assertTrue(RegexLiterals.of("lyrics?", 0).coveredBy(List.of("lyric")));
+        assertFalse(RegexLiterals.of("lyrics?", 0).coveredBy(List.of("lyrics")));
+        assertTrue(RegexLiterals.of("[\\u2013\\u2014]", 0).coveredBy(List.of("–", "—")));
+        assertFalse(RegexLiterals.of("[^a]b", 0).coveredBy(List.of("ab")));
+        assertTrue(RegexLiterals.of("\\bdeep\\b(?=\\s*(?:\\.mp3|mp3)?$)", 0).coveredBy(List.of("deep")));
+        assertFalse(RegexLiterals.of("deep(?=mp3)", 0).coveredBy(List.of("mp3")));
+        assertTrue(RegexLiterals.of("\\Qa.b\\E", 0).coveredBy(List.of("a.b")));
+    }
+
+    @Test
+    void caseInsensitivePatternsShouldRequireLowerCaseText() {
+        assertTrue(RegexLiterals.of("\\(Official Music Video\\)", Pattern.CASE_INSENSITIVE).coveredBy(List.of("music")));
+        assertFalse(RegexLiterals.of("\\(Official Music Video\\)", 0).coveredBy(List.of("music")));
+    }
+
+    @Test
+    void unreadablePatternsShouldRequireNothing() {
+        RegexLiterals literals = RegexLiterals.of("(?i)foo", 0);
+
+        assertFalse(literals.coveredBy(List.of("foo")));
+        assertEquals(List.of(), literals.literals(false));
+    }
+
+    @Test
+    void derivedLiteralsShouldPreferLongTextAndAvoidFoldedLetters() {
+        assertEquals(List.of("darkwave"), RegexLiterals.of("\\bdark\\s+darkwave\\b", 0).literals(false));
+        assertEquals(List.of("nemat"), RegexLiterals.of("cinematic", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE).literals(true));
+        assertEquals(List.of(), RegexLiterals.of("kiss", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE).literals(true));
+    }
+}
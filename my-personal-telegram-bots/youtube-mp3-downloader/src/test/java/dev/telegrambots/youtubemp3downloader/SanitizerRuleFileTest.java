@@ -0,0 +1,142 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dev.telegrambots.youtubemp3downloader.AsyncAssertions.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SanitizerRuleFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void bundledRulesShouldCompile() {
+        SanitizerRules rules = SanitizerRuleFile.bundled();
+
+        assertTrue(rules.size() > 60);
+        assertEquals("artist   song ", rules.apply("artist - song (official video)"));
+    }
+
+    @Test
+    void parseShouldFollowTheFileOrderAndIgnoreComments() throws Exception {
+        SanitizerRules rules = SanitizerRuleFile.parse(List.of(
+                "\uFEFF# comment",
+                "",
+                "i\tfoo\tbar\tfoo",
+                "-\tbar+\t[$0]\tbar",
+                "-\t\\d\t#\tALWAYS"));
+
+        assertEquals(3, rules.size());
+        assertEquals("[bar] #", rules.apply("foo 1"));
+    }
+
+    @Test
+    void parseShouldReportEveryInvalidLine() {
+        SanitizerRuleFile.InvalidRulesException e = assertThrows(SanitizerRuleFile.InvalidRulesException.class,
+                () -> SanitizerRuleFile.parse(List.of(
+                        "# fine",
+                        "i\tok\t\tok",
+                        "i\t(unclosed\t\t(unclosed",
+                        "x\tfoo\t\tfoo",
+                        "-\tfoo\t$2\tfoo",
+                        "-\tfoo\t\tFoo",
+                        "iu\tnedostupnost\t\tnost",
+                        "-\tfoo\t\tfoo\tALWAYS",
+                        "-\tfoo\tbar")));
+
+        List<String> problems = e.problems();
+        assertEquals(7, problems.size(), String.join("\n", problems));
+        assertTrue(problems.get(0).startsWith("line 3: pattern (unclosed"), problems.get(0));
+        assertTrue(problems.get(1).startsWith("line 4: unknown flag 'x'"), problems.get(1));
+        assertTrue(problems.get(2).startsWith("line 5: replacement '$2'"), problems.get(2));
+        assertTrue(problems.get(3).startsWith("line 6: literal 'Foo' has upper-case letters"), problems.get(3));
+        assertTrue(problems.get(4).startsWith("line 7: literal 'nost' contains i, k or s"), problems.get(4));
+        assertTrue(problems.get(5).startsWith("line 8: ALWAYS must be the only literal"), problems.get(5));
+        assertTrue(problems.get(6).startsWith("line 9: expected flags, pattern, replacement and literals"), problems.get(6));
+        assertTrue(e.getMessage().contains("line 5"));
+    }
+
+    @Test
+    void bundledLiteralsShouldAllPassTheCheck() throws Exception {
+        List<String> warnings = new ArrayList<>();
+        try (InputStream in = SanitizerRuleFile.class.getResourceAsStream(SanitizerRuleFile.BUNDLED_RESOURCE)) {
+            SanitizerRuleFile.parse(new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().toList(), warnings);
+        }
+
+        assertEquals(List.of(), warnings);
+    }
+
+    @Test
+    void literalsThatAMatchCanLackShouldBeReportedAndReplaced() throws Exception {
+        List<String> warnings = new ArrayList<>();
+        SanitizerRules rules = SanitizerRuleFile.parse(List.of(
+                "-\tfoo|bar\tX\tfoo",
+                "-\t\\d+\tN\t1",
+                "-\tbaz\tQ\tbaz"), warnings);
+
+        assertEquals(2, warnings.size());
+        assertTrue(warnings.get(0).startsWith("line 1: "), warnings.get(0));
+        assertTrue(warnings.get(0).endsWith("using foo, bar instead") || warnings.get(0).endsWith("using bar, foo instead"), warnings.get(0));
+        assertTrue(warnings.get(1).endsWith("running it on every name"), warnings.get(1));
+        // The rules still see the names their literals would have skipped
+        assertEquals("X N Q", rules.apply("bar 7 baz"));
+        assertEquals(rules.applyEveryRule("bar 7 baz"), rules.apply("bar 7 baz"));
+    }
+
+    @Test
+    void openShouldCreateAMissingFileWithTheBundledRules() throws Exception {
+        Path file = tempDir.resolve("rules").resolve("sanitizer-rules.tsv");
+
+        SanitizerRuleFile ruleFile = SanitizerRuleFile.open(file, SanitizerRuleFile.bundled());
+
+        assertTrue(Files.exists(file));
+        assertEquals(SanitizerRuleFile.bundled().size(), SanitizerRuleFile.parse(Files.readAllLines(file)).size());
+        assertEquals(SanitizerRuleFile.bundled().size(), ruleFile.current().size());
+    }
+
+    @Test
+    void fingerprintShouldFollowWhatTheRulesDoButNotTheirLiterals() throws Exception {
+        int fingerprint = SanitizerRuleFile.parse(List.of("i\tfoo\tbar\tfoo", "-\tbar+\t[$0]\tbar")).fingerprint();
+
+        assertEquals(fingerprint, SanitizerRuleFile.parse(List.of("# comment", "i\tfoo\tbar\tfo", "-\tbar+\t[$0]\tALWAYS")).fingerprint());
+        assertNotEquals(fingerprint, SanitizerRuleFile.parse(List.of("-\tfoo\tbar\tfoo", "-\tbar+\t[$0]\tbar")).fingerprint());
+        assertNotEquals(fingerprint, SanitizerRuleFile.parse(List.of("i\tfoo\tbaz\tfoo", "-\tbar+\t[$0]\tbar")).fingerprint());
+        assertNotEquals(fingerprint, SanitizerRuleFile.parse(List.of("-\tbar+\t[$0]\tbar", "i\tfoo\tbar\tfoo")).fingerprint());
+        assertEquals(SanitizerRuleFile.bundled().fingerprint(), SanitizerRuleFile.bundled().fingerprint());
+    }
+
+    @Test
+    void editsShouldBeLoadedAndInvalidEditsRejected() throws Exception {
+        Path file = tempDir.resolve("sanitizer-rules.tsv");
+        write(file, "-\tfoo\tbar\tfoo");
+        SanitizerRuleFile ruleFile = SanitizerRuleFile.open(file, SanitizerRuleFile.bundled());
+        assertEquals("bar", ruleFile.current().apply("foo"));
+
+        write(file, "-\tfoo\tbaz\tfoo\n-\tbaz\tqux\tbaz");
+        await(() -> ruleFile.current().apply("foo").equals("qux"), IndexFileWatcher.POLL_INTERVAL_MILLIS * 3);
+
+        write(file, "-\tfoo\tbar\tfoo\n-\t(broken\t\tbroken");
+        SanitizerRules before = ruleFile.current();
+        // Let the watcher see the edit; the rules in use must not change
+        Thread.sleep(IndexFileWatcher.POLL_INTERVAL_MILLIS + 500);
+        assertEquals(2, ruleFile.current().size());
+        assertEquals("qux", ruleFile.current().apply("foo"));
+        assertSame(before, ruleFile.current());
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,113 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScratchJanitorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void jobScratchShouldBeHeldUntilClosed() throws Exception {
+        JobScratch scratch = JobScratch.create(tempDir, "download");
+        Files.write(scratch.file("song_1700000000000.mp3"), new byte[10]);
+
+        assertTrue(scratch.directory().startsWith(tempDir.resolve(JobScratch.SCRATCH_DIR_NAME)));
+        assertTrue(JobScratch.isHeld(scratch.directory(), System.currentTimeMillis()));
+        assertFalse(JobScratch.isHeld(scratch.directory(), System.currentTimeMillis() + JobScratch.LEASE_MAX_AGE_MILLIS + 1));
+
+        scratch.close();
+        assertFalse(Files.exists(scratch.directory()));
+    }
+
+    @Test
+    void sweepShouldKeepHeldJobsAndRecentFiles() throws Exception {
+        JobScratch running = JobScratch.create(tempDir, "download");
+        Files.write(running.file("part.mp3"), new byte[10]);
+        Path fresh = write(tempDir.resolve(JobScratch.SCRATCH_DIR_NAME).resolve("song_cover.mp3"), 10, System.currentTimeMillis());
+        Path track = write(tempDir.resolve("Song_clip_1700000000000.mp3.keep.mp3"), 10, 0);
+
+        ScratchJanitor.Report report = new ScratchJanitor(tempDir, 1000).sweep(System.currentTimeMillis());
+
+        assertEquals(0, report.files());
+        assertTrue(Files.exists(running.file("part.mp3")));
+        assertTrue(Files.exists(fresh));
+        assertTrue(Files.exists(track));
+    }
+
+    @Test
+    void sweepShouldRemoveOrphansAndReportTheirBytes() throws Exception {
+        Path scratchRoot = tempDir.resolve(JobScratch.SCRATCH_DIR_NAME);
+        // Owned by a process that is gone
+        Path deadJob = Files.createDirectories(scratchRoot.resolve("download_1700000000000_1abcd"));
+        Files.writeString(deadJob.resolve(JobScratch.LEASE_FILE_NAME), Long.MAX_VALUE + "\t1");
+        write(deadJob.resolve("song.mp3"), 100, System.currentTimeMillis());
+        // From before the leases
+        write(scratchRoot.resolve("Song_1700000000000_cover.mp3"), 200, 0);
+        write(scratchRoot.resolve("chapters_source_1700000000000.mp3"), 300, 0);
+        Path cutDir = Files.createDirectories(scratchRoot.resolve("cut_1700000000000"));
+        write(cutDir.resolve("Song_upload.ogg"), 400, 0);
+        Files.setLastModifiedTime(cutDir, FileTime.fromMillis(0));
+        write(tempDir.resolve("Song_split_1700000000000.mp3"), 500, 0);
+        Path track = write(tempDir.resolve("Song.mp3"), 600, 0);
+        ScratchJanitor janitor = new ScratchJanitor(tempDir, 1000);
+
+        long leaseBytes = Files.size(deadJob.resolve(JobScratch.LEASE_FILE_NAME));
+        ScratchJanitor.Report report = janitor.sweep(System.currentTimeMillis());
+
+        assertEquals(new ScratchJanitor.Report(6, 1500 + leaseBytes), report);
+        assertFalse(Files.exists(deadJob));
+        assertFalse(Files.exists(cutDir));
+        assertTrue(Files.exists(track));
+        assertTrue(Files.exists(scratchRoot));
+        assertEquals(report, janitor.totals());
+        assertEquals(new ScratchJanitor.Report(0, 0), janitor.sweep(System.currentTimeMillis()));
+    }
+
+    @Test
+    void commitShouldReplaceTheTargetWithTheStagedFile() throws Exception {
+        JobScratch scratch = JobScratch.create(tempDir, "download");
+        Path staged = scratch.file("Song.mp3");
+        Files.writeString(staged, "new");
+        Path target = tempDir.resolve("Song.mp3");
+        Files.writeString(target, "old");
+
+        JobScratch.commit(staged, target);
+
+        assertEquals("new", Files.readString(target));
+        assertFalse(Files.exists(staged));
+        scratch.close();
+    }
+
+    @Test
+    void discardUncommittedShouldKeepRunningJobsAndCommittedFiles() throws Exception {
+        JobScratch running = JobScratch.create(tempDir, "download");
+        Files.write(running.file("Song.mp3"), new byte[10]);
+        Path deadJob = Files.createDirectories(tempDir.resolve(JobScratch.SCRATCH_DIR_NAME).resolve("cut_1700000000000_1abcd"));
+        Files.writeString(deadJob.resolve(JobScratch.LEASE_FILE_NAME), Long.MAX_VALUE + "\t1");
+        Files.write(deadJob.resolve("Half.mp3"), new byte[10]);
+        Path partial = write(tempDir.resolve(".Half.mp3" + JobScratch.PARTIAL_SUFFIX), 10, System.currentTimeMillis());
+        Path track = write(tempDir.resolve("Song.mp3"), 10, System.currentTimeMillis());
+
+        assertEquals(tempDir, JobScratch.discardUncommitted(tempDir));
+
+        assertFalse(Files.exists(deadJob));
+        assertFalse(Files.exists(partial));
+        assertTrue(Files.exists(running.file("Song.mp3")));
+        assertTrue(Files.exists(track));
+        running.close();
+    }
+
+    private static Path write(Path file, int size, long modifiedMillis) throws Exception {
+        Files.write(file, new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modifiedMillis));
+        return file;
+    }
+}
@@ -6,7 +6,9 @@ import org.junit.jupiter.api.DisplayName;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.telegram.telegrambots.meta.api.methods.ActionType;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -150,4 +152,49 @@ class TelegramServiceTest {
         // Act & Assert - should not throw exception
         assertDoesNotThrow(() -> telegramService.sendChatAction(chatId, action));
     }
+
+    @Test
+    @DisplayName("Should report a completed async upload as sent")
+    void testSendAudioAsync() {
+        String chatId = "123456789";
+        File mockFile = new File("test.mp3");
+        when(mockBot.sendAudioFileAsync(chatId, mockFile, "caption"))
+                .thenReturn(CompletableFuture.completedFuture(new Message()));
+
+        CompletableFuture<Boolean> sent = telegramService.sendAudioAsync(chatId, mockFile, "caption");
+
+        assertTrue(sent.join());
+    }
+
+    @Test
+    @DisplayName("Should report a failed async upload without completing exceptionally")
+    void testSendAudioAsyncFailure() {
+        String chatId = "123456789";
+        File mockFile = new File("test.mp3");
+        when(mockBot.sendAudioFileAsync(chatId, mockFile, null))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("upload failed")));
+
+        CompletableFuture<Boolean> sent = telegramService.sendAudioAsync(chatId, mockFile, null);
+
+        assertFalse(sent.join());
+    }
+
+    @Test
+    @DisplayName("Should hand the file_id of a completed async upload to the caller")
+    void testSendAudioAsyncFileId() {
+        String chatId = "123456789";
+        File mockFile = new File("test.mp3");
+        org.telegram.telegrambots.meta.api.objects.Audio audio = new org.telegram.telegrambots.meta.api.objects.Audio();
+        audio.setFileId("audio-file-id");
+        Message message = new Message();
+        message.setAudio(audio);
+        when(mockBot.sendAudioFileAsync(chatId, mockFile, "caption"))
+                .thenReturn(CompletableFuture.completedFuture(message));
+        java.util.List<String> fileIds = new java.util.ArrayList<>();
+
+        CompletableFuture<Boolean> sent = telegramService.sendAudioAsync(chatId, mockFile, "caption", fileIds::add);
+
+        assertTrue(sent.join());
+        assertEquals(java.util.List.of("audio-file-id"), fileIds);
+    }
 }
@@ -0,0 +1,63 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenMatchIndexTest {
+
+    private static MusicDuplicateIndex.Entry entry(String displayName, String path) {
+        return new MusicDuplicateIndex.Entry(MusicDuplicateIndex.normalizeForMatch(displayName), displayName, path);
+    }
+
+    @Test
+    void shouldMatchTheLinearScanOnSyntheticLibrary() {
+        List<MusicDuplicateIndex.Entry> library = DuplicateIndexFixtures.library(3_000, 11);
+        TokenMatchIndex index = TokenMatchIndex.build(library);
+        int matches = 0;
+
+        for (String query : DuplicateIndexFixtures.tokenQueries(library, 1_000, 5)) {
+            String key = MusicDuplicateIndex.normalizeForMatch(query);
+            MusicDuplicateIndex.Entry expected = DuplicateIndexFixtures.linearPartialTokenMatch(library, key);
+            TokenMatchIndex.Match match = index.findBest(key);
+            MusicDuplicateIndex.Entry actual = match == null ? null : match.entry();
+
+            assertEquals(expected, actual, "query: " + query);
+            if (actual != null) {
+                matches++;
+            }
+        }
+        assertTrue(matches > 100, "fixture should exercise the partial-token path, matches=" + matches);
+    }
+
+    @Test
+    void shouldPreferHigherOverlapThenFileOrder() {
+        List<MusicDuplicateIndex.Entry> library = List.of(
+                entry("one two three four five six seven", "/music/a.mp3"),
+                entry("one two three four nine", "/music/b.mp3"),
+                entry("one two three four ten", "/music/c.mp3"),
+                entry("one two three four", "/music/d.mp3")
+        );
+        TokenMatchIndex index = TokenMatchIndex.build(library);
+
+        assertEquals("/music/d.mp3", index.findBest("four three two one eleven").entry().path());
+        assertEquals("/music/b.mp3", index.findBest("one two three four nine ten").entry().path());
+    }
+
+    @Test
+    void shouldIgnoreShortTokenSets() {
+        TokenMatchIndex index = TokenMatchIndex.build(List.of(entry("one two three", "/music/a.mp3")));
+
+        assertNull(index.findBest("one two three"));
+        assertNull(index.findBest("one two three four"));
+        assertNull(TokenMatchIndex.EMPTY.findBest("one two three four"));
+    }
+
+    @Test
+    void shouldSplitNormalizedKeysIntoTokens() {
+        assertArrayEquals(new String[]{"a", "bc", "d"}, TokenMatchIndex.tokens("a bc d"));
+        assertArrayEquals(new String[0], TokenMatchIndex.tokens(""));
+    }
+}
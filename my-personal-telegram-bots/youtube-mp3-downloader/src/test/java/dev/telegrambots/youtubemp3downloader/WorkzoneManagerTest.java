@@ -0,0 +1,156 @@
+package dev.telegrambots.youtubemp3downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkzoneManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void openShouldCountExistingFilesOnly() throws Exception {
+        write("a.mp3", 100, 1_000);
+        write("b.mp3", 50, 2_000);
+        Files.createDirectories(tempDir.resolve("temp_mp3"));
+        Files.write(tempDir.resolve("temp_mp3").resolve("leftover.mp3"), new byte[500]);
+
+        WorkzoneManager.Stats stats = WorkzoneManager.open(tempDir, 0).stats();
+
+        assertEquals(150, stats.usedBytes());
+        assertEquals(2, stats.files());
+        assertEquals(0, stats.budgetBytes());
+    }
+
+    @Test
+    void downloadsOverBudgetShouldEvictTheLeastRecentlySentTracks() throws Exception {
+        write("old.mp3", 400, 1_000);
+        write("older.mp3", 400, 500);
+        WorkzoneManager manager = WorkzoneManager.open(tempDir, 1_000);
+
+        Path fresh = write("fresh.mp3", 400, System.currentTimeMillis());
+        manager.added(fresh);
+
+        // 1200 bytes is over budget; evicting the oldest track leaves 800, under 90% of it
+        assertFalse(Files.exists(tempDir.resolve("older.mp3")));
+        assertTrue(Files.exists(tempDir.resolve("old.mp3")));
+        assertTrue(Files.exists(fresh));
+        WorkzoneManager.Stats stats = manager.stats();
+        assertEquals(800, stats.usedBytes());
+        assertEquals(1, stats.evictedFiles());
+        assertEquals(400, stats.evictedBytes());
+        assertEquals(1, stats.uploading());
+    }
+
+    @Test
+    void tracksBeingUploadedShouldNotBeEvicted() throws Exception {
+        WorkzoneManager manager = WorkzoneManager.open(tempDir, 1_000);
+        Path first = write("first.mp3", 600, System.currentTimeMillis());
+        manager.added(first);
+        Path second = write("second.mp3", 600, System.currentTimeMillis());
+        manager.added(second);
+
+        assertTrue(Files.exists(first));
+        assertTrue(Files.exists(second));
+        assertEquals(1_200, manager.stats().usedBytes());
+
+        manager.sent(first, "file-1");
+        manager.uploadSettled(first);
+
+        assertFalse(Files.exists(first));
+        assertTrue(Files.exists(second));
+        assertEquals(600, manager.stats().usedBytes());
+    }
+
+    @Test
+    void sendingShouldMakeATrackRecentAgain() throws Exception {
+        write("a.mp3", 400, 1_000);
+        write("b.mp3", 400, 2_000);
+        WorkzoneManager manager = WorkzoneManager.open(tempDir, 1_000);
+        manager.added(tempDir.resolve("a.mp3"));
+        manager.sent(tempDir.resolve("a.mp3"), "file-a");
+        manager.uploadSettled(tempDir.resolve("a.mp3"));
+
+        Path fresh = write("c.mp3", 400, System.currentTimeMillis());
+        manager.added(fresh);
+
+        assertTrue(Files.exists(tempDir.resolve("a.mp3")));
+        assertFalse(Files.exists(tempDir.resolve("b.mp3")));
+    }
+
+    @Test
+    void sendTimesAndFileIdsShouldSurviveARestartAndRenames() throws Exception {
+        // Written before the send below, so the two never tie on the millisecond
+        write("a.mp3", 400, System.currentTimeMillis() - 1_000);
+        write("b.mp3", 400, 1_000);
+        WorkzoneManager manager = WorkzoneManager.open(tempDir, 0);
+        manager.added(tempDir.resolve("b.mp3"));
+        manager.sent(tempDir.resolve("b.mp3"), "file-b");
+        manager.uploadSettled(tempDir.resolve("b.mp3"));
+        Files.move(tempDir.resolve("b.mp3"), tempDir.resolve("B.mp3"));
+        manager.renamed(Map.of(tempDir.resolve("b.mp3"), tempDir.resolve("B.mp3")));
+        assertEquals(1, manager.stats().withFileId());
+
+        WorkzoneManager reopened = WorkzoneManager.open(tempDir, 1_000);
+        assertEquals(1, reopened.stats().withFileId());
+        reopened.added(write("c.mp3", 400, System.currentTimeMillis()));
+
+        // a.mp3 was never sent through the bot, so its write time counts and it goes first
+        assertFalse(Files.exists(tempDir.resolve("a.mp3")));
+        assertTrue(Files.exists(tempDir.resolve("B.mp3")));
+        assertEquals(800, reopened.stats().usedBytes());
+    }
+
+    @Test
+    void rescanShouldForgetDeletedFiles() throws Exception {
+        write("a.mp3", 100, 1_000);
+        write("b.mp3", 100, 1_000);
+        WorkzoneManager manager = WorkzoneManager.open(tempDir, 0);
+
+        Files.delete(tempDir.resolve("a.mp3"));
+        manager.rescan();
+
+        assertEquals(100, manager.stats().usedBytes());
+        assertEquals(1, manager.stats().files());
+    }
+
+    @Test
+    void onlyFinishedTracksShouldBeCountedOrEvicted() throws Exception {
+        write("song.mp3", 100, 1_000);
+        write(".song.mp3" + JobScratch.PARTIAL_SUFFIX, 1_000, 1_000);
+        write(".hidden.mp3", 1_000, 1_000);
+        write("song_clip_1700000000000.mp3", 1_000, 1_000);
+        write("song_cover_1700000000000.jpg", 1_000, 1_000);
+        write("notes.txt", 1_000, 1_000);
+        write(WorkzoneManager.LEDGER_FILE_NAME + ".tmp", 1_000, 1_000);
+        WorkzoneManager manager = WorkzoneManager.open(tempDir, 500);
+
+        Path clip = write("fresh_split_1700000000000.mp3", 1_000, System.currentTimeMillis());
+        manager.added(clip);
+
+        assertEquals(100, manager.stats().usedBytes());
+        assertEquals(1, manager.stats().files());
+        assertTrue(Files.exists(tempDir.resolve("song.mp3")));
+        assertTrue(Files.exists(tempDir.resolve(".song.mp3" + JobScratch.PARTIAL_SUFFIX)));
+        assertTrue(Files.exists(clip));
+
+        // Renamed to a name that is not a track, the file leaves the budget
+        manager.renamed(Map.of(tempDir.resolve("song.mp3"), tempDir.resolve("song.txt")));
+        assertEquals(0, manager.stats().usedBytes());
+        assertEquals(0, manager.stats().files());
+    }
+
+    private Path write(String name, int size, long modifiedMillis) throws Exception {
+        Path file = tempDir.resolve(name);
+        Files.write(file, new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modifiedMillis));
+        return file;
+    }
+}